@@ -6,10 +6,50 @@ import gov.usdot.cv.common.dialog.Receipt;
 import gov.usdot.cv.common.dialog.ReceiptSender;
 import gov.usdot.cv.common.util.InstanceMetadataUtil;
 import gov.usdot.cv.common.util.PropertyLocator;
+import gov.usdot.cv.mongodb.datasink.db.BatchSizeController;
+import gov.usdot.cv.mongodb.datasink.db.BoundedExecutor;
+import gov.usdot.cv.mongodb.datasink.db.BulkWriter;
+import gov.usdot.cv.mongodb.datasink.db.CircuitBreaker;
 import gov.usdot.cv.mongodb.datasink.db.CollectionIndexMonitor;
+import gov.usdot.cv.mongodb.datasink.db.DaoRegistry;
+import gov.usdot.cv.mongodb.datasink.db.Endpoint;
+import gov.usdot.cv.mongodb.datasink.db.EndpointRouter;
+import gov.usdot.cv.mongodb.datasink.db.ErrorClassifier;
+import gov.usdot.cv.mongodb.datasink.db.IndexBootstrapper;
+import gov.usdot.cv.mongodb.datasink.db.IndexSpec;
+import gov.usdot.cv.mongodb.datasink.db.ReadinessMonitor;
+import gov.usdot.cv.mongodb.datasink.db.TimePartitioning;
+import gov.usdot.cv.mongodb.datasink.db.UpsertCoalescer;
+import gov.usdot.cv.mongodb.datasink.db.WriteConcernPolicy;
+import gov.usdot.cv.mongodb.datasink.db.WriteFailedException;
+import gov.usdot.cv.mongodb.datasink.db.WriteListener;
+import gov.usdot.cv.mongodb.datasink.db.WritePipeline;
+import gov.usdot.cv.mongodb.datasink.db.WriteRequest;
+import gov.usdot.cv.mongodb.datasink.db.WriteRetrier;
+import gov.usdot.cv.mongodb.datasink.journal.JournalReplayer;
+import gov.usdot.cv.mongodb.datasink.journal.SpillJournal;
+import gov.usdot.cv.mongodb.datasink.metrics.SinkMetrics;
+import gov.usdot.cv.mongodb.datasink.model.CoarseClock;
 import gov.usdot.cv.mongodb.datasink.model.DataModel;
+import gov.usdot.cv.mongodb.datasink.model.GeoHashCovering;
+import gov.usdot.cv.mongodb.datasink.model.InvalidGeometryException;
+import gov.usdot.cv.mongodb.datasink.model.TimeToLiveRule;
+import gov.usdot.cv.mongodb.datasink.receipt.JmsReceiptPublisher;
+import gov.usdot.cv.mongodb.datasink.receipt.ReceiptDispatcher;
+import gov.usdot.cv.mongodb.datasink.receipt.ReceiptPublisher;
+import gov.usdot.cv.mongodb.datasink.receipt.ReceiptSenderPublisher;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
@@ -25,39 +65,121 @@ import com.deleidos.rtws.core.framework.Description;
 import com.deleidos.rtws.core.framework.SystemConfigured;
 import com.deleidos.rtws.core.framework.UserConfigured;
 import com.deleidos.rtws.core.framework.processor.AbstractDataSink;
-import com.mongodb.BasicDBObject;
-import com.mongodb.Mongo;
 import com.mongodb.MongoOptions;
-import com.mongodb.ServerAddress;
-import com.mongodb.WriteResult;
+import com.mongodb.WriteConcern;
 
 @Description("Stores traveler information data into a Mongo database.")
-public class MongoDbDataSink extends AbstractDataSink {
+public class MongoDbDataSink extends AbstractDataSink implements WriteListener {
 	
 	private static final Object LOCK = new Object();
 	private static final String TTL_UNITS = "^(minute|day|week|month|year)$";
+	private static final String OVERFLOW_POLICIES = "^(block|shed)$";
+	private static final String STARTUP_MODES = "^(buffer|fail)$";
+	private static final String EXECUTION_MODES = "^(platform|virtual)$";
+	private static final String PARTITION_INTERVALS = "^(none|hour|day)$";
 	private static final String ENCODED_MSG = "encodedMsg";
+	private static final String RECEIPT_ID = "receiptId";
 	
 	private final Logger logger = Logger.getLogger(getClass());
 	
 	private String 		databaseName;
 	private String 		mongoServerHost;
 	private int    		mongoServerPort;
+	private String		routingRules;
 	private boolean 	autoConnectRetry = true;
 	private int 		connectTimeoutMs = 0;
+	private int			connectionPoolSize = 100;
+	private int			connectionPoolMaxWaitMs = 120000;
+	private String		executionMode = "platform";
 	private boolean		ignoreMessageTTL = false;
 	private String 		ttlUnit;
 	private int 		ttlValue;
+	private TimeToLiveRule	defaultTimeToLive;
 	private String 		topicName;
 	private String 		ttlFieldName = "expireAt";
 	private String		indexDefinitionList;
+	private String		partitionInterval = "none";
+	private int			partitionPrecreate = 2;
+	private String		partitionCatalogCollection = "collectionPartitions";
+	private String		geometryFieldName = "region";
+	private String		coveringPrecisions = "none";
+	private int			coveringMaxCells = 64;
 	private String [] 	collections;
+	private boolean		bulkWriteEnabled = false;
+	private int			bulkWriteBatchSize = 500;
+	private int			bulkWriteMaxAgeMs = 250;
+	private boolean		adaptiveBatchingEnabled = false;
+	private int			adaptiveBatchLatencyTargetMs = 50;
+	private int			adaptiveBatchMinSize = 10;
+	private int			adaptiveBatchMaxSize = 5000;
+	private int			adaptiveBatchMinFlushMs = 10;
+	private int			adaptiveBatchMaxFlushMs = 1000;
+	private boolean		pipelineEnabled = false;
+	private int			pipelineQueueCapacity = 10000;
+	private int			pipelineWriterThreads = 4;
+	private boolean		pipelinePartitioned = false;
+	private String		pipelineOverflowPolicy = "block";
+	private boolean		asyncReceiptsEnabled = false;
+	private boolean		transactedReceipts = false;
+	private int			receiptBatchSize = 100;
+	private int			receiptMaxPending = 100000;
+	private int			writeRetries = 3;
+	private int			retryBaseDelayMs = 10;
+	private int			retryMaxDelayMs = 1000;
+	private int			circuitBreakerFailureThreshold = 10;
+	private int			circuitBreakerProbeIntervalMs = 1000;
+	private boolean		journalEnabled = false;
+	private String		journalDirectory = "/var/tmp/mongodb-datasink-journal";
+	private int			journalSegmentSizeMb = 16;
+	private int			journalMaxSizeMb = 1024;
+	private int			startupConnectBudgetMs = 10000;
+	private String		startupMode = "buffer";
+	private int			startupBufferCapacity = 10000;
+	private boolean		metricsEnabled = false;
+	private boolean		indexBootstrapEnabled = true;
+	private boolean		upsertCoalescingEnabled = false;
+	private int			upsertCoalescingWindowMs = 100;
+	private boolean		keyedWritesEnabled = false;
+	private boolean		binaryMessagesEnabled = false;
+	private int			messageCompressionThreshold = 0;
+	private String		defaultWriteConcern;
+	private String		writeConcernPolicies;
+	private boolean		adaptiveWriteConcernEnabled = false;
+	private String		adaptiveWriteConcernModels = "vehSitDataMessage";
+	private int			adaptiveWriteConcernBacklog = 5000;
 	
 	private static CollectionIndexMonitor monitor;
 	private static Thread monitor_t;
 	
 	private InsertSitDataDao 	dao;
 	private ReceiptSender 		sender;
+	private ReceiptPublisher	syncReceiptPublisher;
+	private BulkWriter			bulkWriter;
+	private Thread				bulkWriter_t;
+	private WritePipeline		pipeline;
+	private ReceiptPublisher	receiptPublisher;
+	private ReceiptDispatcher	receiptDispatcher;
+	private Thread				receiptDispatcher_t;
+	private final ReentrantLock	senderLock = new ReentrantLock();
+	private BoundedExecutor		writeExecutor;
+	private BoundedExecutor		receiptExecutor;
+	private CircuitBreaker		circuitBreaker;
+	private WriteRetrier		writeRetrier;
+	private SpillJournal		journal;
+	private JournalReplayer		journalReplayer;
+	private Thread				journalReplayer_t;
+	private ReadinessMonitor	readiness;
+	private volatile List<WriteRequest>	startupBuffer;
+	private long				startupDropped;
+	private final Object		startupLock = new Object();
+	private SinkMetrics			metrics;
+	private EndpointRouter		router;
+	private WriteConcernPolicy	writeConcernPolicy;
+	private Map<Endpoint, IndexBootstrapper>	indexBootstrappers;
+	private TimePartitioning	partitioning;
+	private GeoHashCovering		covering;
+	private UpsertCoalescer		coalescer;
+	private Thread				coalescer_t;
 	
 	@Override
 	@SystemConfigured(value = "MongoDB Data Sink")
@@ -82,7 +204,8 @@ public class MongoDbDataSink extends AbstractDataSink {
 	
 	@UserConfigured(
 		value= "mongodb.%s", 
-		description="The MongoDB server hostname.", 
+		description="The MongoDB server hostname, or a comma separated list of host[:port][/database] endpoints, " +
+				"usually mongos routers, that writes are spread over.", 
 		flexValidator={"StringValidator minLength=2 maxLength=1024"})
 	public void setMongoServerHost(String mongoServerHost) {
 		this.mongoServerHost = mongoServerHost;
@@ -106,6 +229,15 @@ public class MongoDbDataSink extends AbstractDataSink {
 	public int getMongoServerPort() {
 		return this.mongoServerPort;
 	}
+	
+	@UserConfigured(
+		value = "",
+		description = "Optional routing rules separated by semicolons, each <match>=<endpoint>|<endpoint>. A match is a model " +
+				"name or a bounding box geo:minLon,minLat,maxLon,maxLat; records no rule matches go to mongoServerHost.",
+		flexValidator = {"StringValidator minLength=0 maxLength=4096"})
+	public void setRoutingRules(String routingRules) {
+		this.routingRules = routingRules;
+	}
 
 	@UserConfigured(
 		value = "true",
@@ -123,6 +255,30 @@ public class MongoDbDataSink extends AbstractDataSink {
 		this.connectTimeoutMs = connectTimeoutMs;
 	}
 	
+	@UserConfigured(
+		value = "100",
+		description = "The maximum number of connections in the MongoDB connection pool shared by all sink instances in the JVM.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=10000"})
+	public void setConnectionPoolSize(int connectionPoolSize) {
+		this.connectionPoolSize = connectionPoolSize;
+	}
+	
+	@UserConfigured(
+		value = "120000",
+		description = "Time (in milliseconds) a write waits for a pooled MongoDB connection.",
+		flexValidator = {"NumberValidator minValue=0 maxValue=600000"})
+	public void setConnectionPoolMaxWaitMs(int connectionPoolMaxWaitMs) {
+		this.connectionPoolMaxWaitMs = connectionPoolMaxWaitMs;
+	}
+	
+	@UserConfigured(
+		value = "platform",
+		description = "How bulk writes and receipt sends run: platform for on the writing thread, virtual for each on a virtual thread of its own, bounded by the connection pool size.",
+		flexValidator = {"RegExpValidator expression=" + EXECUTION_MODES})
+	public void setExecutionMode(String executionMode) {
+		this.executionMode = executionMode;
+	}
+	
 	@UserConfigured(
 		value= "false",
 		flexValidator = { "RegExpValidator expression=^(true|false)$" },
@@ -164,6 +320,57 @@ public class MongoDbDataSink extends AbstractDataSink {
 		this.indexDefinitionList = indexDefinitionList;
 	}
 	
+	@UserConfigured(
+		value = "none",
+		description = "Stores the documents of each collection in one collection per hour or day of their time to live field, " +
+				"dropped whole once that interval passed instead of expired by a TTL index. none to store them in the collection itself.",
+		flexValidator = {"RegExpValidator expression=" + PARTITION_INTERVALS})
+	public void setPartitionInterval(String partitionInterval) {
+		this.partitionInterval = partitionInterval;
+	}
+	
+	@UserConfigured(
+		value = "2",
+		description = "The number of time partitions created with their indexes ahead of the newest one written to.",
+		flexValidator = {"NumberValidator minValue=0 maxValue=168"})
+	public void setPartitionPrecreate(int partitionPrecreate) {
+		this.partitionPrecreate = partitionPrecreate;
+	}
+	
+	@UserConfigured(
+		value = "collectionPartitions",
+		description = "The collection listing the live time partitions of each collection for readers.",
+		flexValidator = {"StringValidator minLength=2 maxLength=1024"})
+	public void setPartitionCatalogCollection(String partitionCatalogCollection) {
+		this.partitionCatalogCollection = partitionCatalogCollection;
+	}
+	
+	@UserConfigured(
+		value = "region",
+		description = "The GeoJSON field checked and repaired before writes, so a geometry the 2dsphere index would reject " +
+				"is not retried. Its bounding box is stored in the field suffixed with BBox. Blank to store it as received.",
+		flexValidator = {"StringValidator minLength=0 maxLength=1024"})
+	public void setGeometryFieldName(String geometryFieldName) {
+		this.geometryFieldName = geometryFieldName;
+	}
+	
+	@UserConfigured(
+		value = "none",
+		description = "Comma separated geohash lengths, e.g. 4,5, of the cells covering the geometry stored in the field " +
+				"suffixed with Cells, for point lookups on a multikey index declared as region:cells. none to store no cells.",
+		flexValidator = {"RegExpValidator expression=^(none|\\d{1,2}(\\s*,\\s*\\d{1,2})*)$"})
+	public void setCoveringPrecisions(String coveringPrecisions) {
+		this.coveringPrecisions = coveringPrecisions;
+	}
+	
+	@UserConfigured(
+		value = "64",
+		description = "The number of cells above which a covering precision is left out for a geometry.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=4096"})
+	public void setCoveringMaxCells(int coveringMaxCells) {
+		this.coveringMaxCells = coveringMaxCells;
+	}
+	
 	@UserConfigured(
 		value = "cv.receipts",
 		description = "The external jms topic to place receipt.",
@@ -182,25 +389,410 @@ public class MongoDbDataSink extends AbstractDataSink {
 		}
 	}
 
+	@UserConfigured(
+		value = "false",
+		description = "Flag indicating if records are buffered per collection and written as unordered bulk operations.",
+		flexValidator = {"RegExpValidator expression=true|false"})
+	public void setBulkWriteEnabled(boolean bulkWriteEnabled) {
+		this.bulkWriteEnabled = bulkWriteEnabled;
+	}
+	
+	@UserConfigured(
+		value = "500",
+		description = "The number of buffered records in a collection that triggers a bulk write.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=100000"})
+	public void setBulkWriteBatchSize(int bulkWriteBatchSize) {
+		this.bulkWriteBatchSize = bulkWriteBatchSize;
+	}
+	
+	@UserConfigured(
+		value = "250",
+		description = "Time (in milliseconds) a record may wait in a bulk write buffer before it is written.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=" + Integer.MAX_VALUE})
+	public void setBulkWriteMaxAgeMs(int bulkWriteMaxAgeMs) {
+		this.bulkWriteMaxAgeMs = bulkWriteMaxAgeMs;
+	}
+	
+	@UserConfigured(
+		value = "false",
+		description = "Flag indicating if the bulk batch size and flush interval of each collection are tuned from the " +
+				"observed write latency, starting from the configured bulk batch size and max age.",
+		flexValidator = {"RegExpValidator expression=true|false"})
+	public void setAdaptiveBatchingEnabled(boolean adaptiveBatchingEnabled) {
+		this.adaptiveBatchingEnabled = adaptiveBatchingEnabled;
+	}
+	
+	@UserConfigured(
+		value = "50",
+		description = "Bulk write latency in milliseconds above which adaptive batching halves the batch size and flush interval.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=60000"})
+	public void setAdaptiveBatchLatencyTargetMs(int adaptiveBatchLatencyTargetMs) {
+		this.adaptiveBatchLatencyTargetMs = adaptiveBatchLatencyTargetMs;
+	}
+	
+	@UserConfigured(
+		value = "10",
+		description = "Smallest bulk batch size adaptive batching goes down to.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=100000"})
+	public void setAdaptiveBatchMinSize(int adaptiveBatchMinSize) {
+		this.adaptiveBatchMinSize = adaptiveBatchMinSize;
+	}
+	
+	@UserConfigured(
+		value = "5000",
+		description = "Largest bulk batch size adaptive batching goes up to.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=100000"})
+	public void setAdaptiveBatchMaxSize(int adaptiveBatchMaxSize) {
+		this.adaptiveBatchMaxSize = adaptiveBatchMaxSize;
+	}
+	
+	@UserConfigured(
+		value = "10",
+		description = "Shortest bulk flush interval in milliseconds adaptive batching goes down to.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=60000"})
+	public void setAdaptiveBatchMinFlushMs(int adaptiveBatchMinFlushMs) {
+		this.adaptiveBatchMinFlushMs = adaptiveBatchMinFlushMs;
+	}
+	
+	@UserConfigured(
+		value = "1000",
+		description = "Longest bulk flush interval in milliseconds adaptive batching goes up to.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=60000"})
+	public void setAdaptiveBatchMaxFlushMs(int adaptiveBatchMaxFlushMs) {
+		this.adaptiveBatchMaxFlushMs = adaptiveBatchMaxFlushMs;
+	}
+
+	@UserConfigured(
+		value = "false",
+		description = "Flag indicating if records are queued and written to MongoDB by a pool of writer threads.",
+		flexValidator = {"RegExpValidator expression=true|false"})
+	public void setPipelineEnabled(boolean pipelineEnabled) {
+		this.pipelineEnabled = pipelineEnabled;
+	}
+	
+	@UserConfigured(
+		value = "10000",
+		description = "The maximum number of converted records waiting in the write pipeline queue.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=" + Integer.MAX_VALUE})
+	public void setPipelineQueueCapacity(int pipelineQueueCapacity) {
+		this.pipelineQueueCapacity = pipelineQueueCapacity;
+	}
+	
+	@UserConfigured(
+		value = "4",
+		description = "The number of writer threads draining the write pipeline queue.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=256"})
+	public void setPipelineWriterThreads(int pipelineWriterThreads) {
+		this.pipelineWriterThreads = pipelineWriterThreads;
+	}
+	
+	@UserConfigured(
+		value = "false",
+		description = "Flag indicating if each write pipeline writer thread drains a lane of its own, picked by record key, to keep writes of a record in order.",
+		flexValidator = {"RegExpValidator expression=true|false"})
+	public void setPipelinePartitioned(boolean pipelinePartitioned) {
+		this.pipelinePartitioned = pipelinePartitioned;
+	}
+	
+	@UserConfigured(
+		value = "block",
+		description = "What to do when the write pipeline queue is full: block the ingest thread or shed the record.",
+		flexValidator = {"RegExpValidator expression=" + OVERFLOW_POLICIES})
+	public void setPipelineOverflowPolicy(String pipelineOverflowPolicy) {
+		this.pipelineOverflowPolicy = pipelineOverflowPolicy;
+	}
+
+	@UserConfigured(
+		value = "false",
+		description = "Flag indicating if receipts are sent in batches from a dedicated thread.",
+		flexValidator = {"RegExpValidator expression=true|false"})
+	public void setAsyncReceiptsEnabled(boolean asyncReceiptsEnabled) {
+		this.asyncReceiptsEnabled = asyncReceiptsEnabled;
+	}
+	
+	@UserConfigured(
+		value = "false",
+		description = "Flag indicating if each batch of asynchronous receipts is published in a single JMS transaction.",
+		flexValidator = {"RegExpValidator expression=true|false"})
+	public void setTransactedReceipts(boolean transactedReceipts) {
+		this.transactedReceipts = transactedReceipts;
+	}
+	
+	@UserConfigured(
+		value = "100",
+		description = "The maximum number of receipts published in one asynchronous batch.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=10000"})
+	public void setReceiptBatchSize(int receiptBatchSize) {
+		this.receiptBatchSize = receiptBatchSize;
+	}
+	
+	@UserConfigured(
+		value = "100000",
+		description = "The maximum number of receipts held in memory while the jms server is unavailable.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=" + Integer.MAX_VALUE})
+	public void setReceiptMaxPending(int receiptMaxPending) {
+		this.receiptMaxPending = receiptMaxPending;
+	}
+	
+	@UserConfigured(
+		value = "3",
+		description = "The number of times a failed write is retried when the error is not permanent.",
+		flexValidator = {"NumberValidator minValue=0 maxValue=100"})
+	public void setWriteRetries(int writeRetries) {
+		this.writeRetries = writeRetries;
+	}
+	
+	@UserConfigured(
+		value = "10",
+		description = "The initial delay in milliseconds before retrying a failed write, doubled on every retry.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=60000"})
+	public void setRetryBaseDelayMs(int retryBaseDelayMs) {
+		this.retryBaseDelayMs = retryBaseDelayMs;
+	}
+	
+	@UserConfigured(
+		value = "1000",
+		description = "The maximum delay in milliseconds between write retries.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=600000"})
+	public void setRetryMaxDelayMs(int retryMaxDelayMs) {
+		this.retryMaxDelayMs = retryMaxDelayMs;
+	}
+	
+	@UserConfigured(
+		value = "10",
+		description = "The number of consecutive write failures that open the circuit breaker.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=10000"})
+	public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+		this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+	}
+	
+	@UserConfigured(
+		value = "1000",
+		description = "The interval in milliseconds between MongoDB health probes while the circuit breaker is open.",
+		flexValidator = {"NumberValidator minValue=10 maxValue=600000"})
+	public void setCircuitBreakerProbeIntervalMs(int circuitBreakerProbeIntervalMs) {
+		this.circuitBreakerProbeIntervalMs = circuitBreakerProbeIntervalMs;
+	}
+	
+	@UserConfigured(
+		value = "false",
+		description = "Flag indicating if records that cannot be stored while MongoDB is unavailable are journaled to disk and replayed later.",
+		flexValidator = {"RegExpValidator expression=true|false"})
+	public void setJournalEnabled(boolean journalEnabled) {
+		this.journalEnabled = journalEnabled;
+	}
+	
+	@UserConfigured(
+		value = "/var/tmp/mongodb-datasink-journal",
+		description = "The local directory holding the spill journal segments.")
+	public void setJournalDirectory(String journalDirectory) {
+		this.journalDirectory = journalDirectory;
+	}
+	
+	@UserConfigured(
+		value = "16",
+		description = "The size in megabytes of one spill journal segment file.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=1024"})
+	public void setJournalSegmentSizeMb(int journalSegmentSizeMb) {
+		this.journalSegmentSizeMb = journalSegmentSizeMb;
+	}
+	
+	@UserConfigured(
+		value = "1024",
+		description = "The maximum disk space in megabytes used by the spill journal before records are dropped.",
+		flexValidator = {"NumberValidator minValue=2 maxValue=1048576"})
+	public void setJournalMaxSizeMb(int journalMaxSizeMb) {
+		this.journalMaxSizeMb = journalMaxSizeMb;
+	}
+	
+	@UserConfigured(
+		value = "10000",
+		description = "The time in milliseconds initialization waits for MongoDB before the sink starts in the not ready state.",
+		flexValidator = {"NumberValidator minValue=0 maxValue=600000"})
+	public void setStartupConnectBudgetMs(int startupConnectBudgetMs) {
+		this.startupConnectBudgetMs = startupConnectBudgetMs;
+	}
+	
+	@UserConfigured(
+		value = "buffer",
+		description = "What happens to records received before MongoDB is reachable, buffer or fail.",
+		flexValidator = {"RegExpValidator expression=" + STARTUP_MODES})
+	public void setStartupMode(String startupMode) {
+		this.startupMode = startupMode;
+	}
+	
+	@UserConfigured(
+		value = "10000",
+		description = "The maximum number of records buffered before MongoDB is reachable.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=" + Integer.MAX_VALUE})
+	public void setStartupBufferCapacity(int startupBufferCapacity) {
+		this.startupBufferCapacity = startupBufferCapacity;
+	}
+	
+	@UserConfigured(
+		value = "false",
+		description = "Flag indicating if record counters and latency histograms are published over JMX.",
+		flexValidator = {"RegExpValidator expression=true|false"})
+	public void setMetricsEnabled(boolean metricsEnabled) {
+		this.metricsEnabled = metricsEnabled;
+	}
+	
+	@UserConfigured(
+		value = "true",
+		description = "Flag indicating if indexes are created on a collection before its first write is acknowledged.",
+		flexValidator = {"RegExpValidator expression=true|false"})
+	public void setIndexBootstrapEnabled(boolean indexBootstrapEnabled) {
+		this.indexBootstrapEnabled = indexBootstrapEnabled;
+	}
+	
+	@UserConfigured(
+		value = "false",
+		description = "Flag indicating if upserts of the same record id within a window are written once, with the latest document.",
+		flexValidator = {"RegExpValidator expression=true|false"})
+	public void setUpsertCoalescingEnabled(boolean upsertCoalescingEnabled) {
+		this.upsertCoalescingEnabled = upsertCoalescingEnabled;
+	}
+	
+	@UserConfigured(
+		value = "100",
+		description = "How long in milliseconds upserts of the same record id are held and coalesced.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=60000"})
+	public void setUpsertCoalescingWindowMs(int upsertCoalescingWindowMs) {
+		this.upsertCoalescingWindowMs = upsertCoalescingWindowMs;
+	}
+	
+	@UserConfigured(
+		value = "false",
+		description = "Flag indicating if documents are keyed by an _id derived from the record id, or from the encoded " +
+				"message when there is none, and written as a replace of that _id so retried writes are idempotent.",
+		flexValidator = {"RegExpValidator expression=true|false"})
+	public void setKeyedWritesEnabled(boolean keyedWritesEnabled) {
+		this.keyedWritesEnabled = keyedWritesEnabled;
+	}
+	
+	@UserConfigured(
+		value = "false",
+		description = "Flag indicating if the base64 encodedMsg is stored as binary, a third smaller. " +
+				"Readers get the message of either kind of document through EncodedMessage.",
+		flexValidator = {"RegExpValidator expression=true|false"})
+	public void setBinaryMessagesEnabled(boolean binaryMessagesEnabled) {
+		this.binaryMessagesEnabled = binaryMessagesEnabled;
+	}
+	
+	@UserConfigured(
+		value = "0",
+		description = "The size in bytes from which a binary encodedMsg is deflate compressed, marked by encodedMsgCodec. 0 for never.",
+		flexValidator = {"NumberValidator minValue=0 maxValue=" + Integer.MAX_VALUE})
+	public void setMessageCompressionThreshold(int messageCompressionThreshold) {
+		this.messageCompressionThreshold = messageCompressionThreshold;
+	}
+	
+	@UserConfigured(
+		value = "",
+		description = "Write concern of collections without a policy: unacknowledged, acknowledged (w:1), journaled or " +
+				"majority. Empty uses the MongoDB client's own.",
+		flexValidator = {"RegExpValidator expression=^(|unacknowledged|acknowledged|journaled|majority|w:0|w:1)$"})
+	public void setDefaultWriteConcern(String defaultWriteConcern) {
+		this.defaultWriteConcern = defaultWriteConcern;
+	}
+	
+	@UserConfigured(
+		value = "",
+		description = "Write concern per collection as comma separated <modelName>=<writeConcern> pairs, for example " +
+				"vehSitDataMessage=unacknowledged, travelerInformation=majority. Records with a receipt id are always acknowledged.",
+		flexValidator = {"StringValidator minLength=0 maxLength=1024"})
+	public void setWriteConcernPolicies(String writeConcernPolicies) {
+		this.writeConcernPolicies = writeConcernPolicies;
+	}
+	
+	@UserConfigured(
+		value = "false",
+		description = "Flag indicating if low priority models are written unacknowledged while the write backlog is above a threshold.",
+		flexValidator = {"RegExpValidator expression=true|false"})
+	public void setAdaptiveWriteConcernEnabled(boolean adaptiveWriteConcernEnabled) {
+		this.adaptiveWriteConcernEnabled = adaptiveWriteConcernEnabled;
+	}
+	
+	@UserConfigured(
+		value = "vehSitDataMessage",
+		description = "Comma separated low priority models whose write concern is relaxed under backlog.",
+		flexValidator = {"StringValidator minLength=0 maxLength=1024"})
+	public void setAdaptiveWriteConcernModels(String adaptiveWriteConcernModels) {
+		this.adaptiveWriteConcernModels = adaptiveWriteConcernModels;
+	}
+	
+	@UserConfigured(
+		value = "5000",
+		description = "Number of queued and buffered writes at which the write concern of low priority models is relaxed. " +
+				"It is restored once the backlog drained to half of it.",
+		flexValidator = {"NumberValidator minValue=1 maxValue=10000000"})
+	public void setAdaptiveWriteConcernBacklog(int adaptiveWriteConcernBacklog) {
+		this.adaptiveWriteConcernBacklog = adaptiveWriteConcernBacklog;
+	}
+	
+	/**
+	 * Connecting until MongoDB answered its first ping, ready afterwards.
+	 */
+	public ReadinessMonitor.State getReadinessState() {
+		return (this.readiness == null) ? ReadinessMonitor.State.Connecting : this.readiness.getState();
+	}
+
 	public void initialize() throws InitializationException {
 		try {
+			this.defaultTimeToLive = TimeToLiveRule.resolve(this.ttlValue, this.ttlUnit);
+			this.partitioning = buildPartitioning();
+			this.covering = GeoHashCovering.parse(this.coveringPrecisions, this.coveringMaxCells);
+			if (this.metricsEnabled) {
+				this.metrics = SinkMetrics.getInstance();
+			}
+			
 			logger.info("Constructing MongoDB data access object ...");
 			MongoOptionsBuilder optionsBuilder = new MongoOptionsBuilder();
 			optionsBuilder.setAutoConnectRetry(this.autoConnectRetry).setConnectTimeoutMs(this.connectTimeoutMs);
 			MongoOptions options = optionsBuilder.build();
+			options.connectionsPerHost = this.connectionPoolSize;
+			options.maxWaitTime = this.connectionPoolMaxWaitMs;
 			
 			String domain = PropertyLocator.getString("RTWS_DOMAIN", null);
 			this.mongoServerHost = (domain == null) ? "localhost" : String.format(mongoServerHost, domain);
 			
-			logger.info("Testing MongoDB connection ...");
-			testConnectivity(options);
-			
 			logger.info(String.format("Setting MongoDB host to '%s' and port to '%s'.", this.mongoServerHost, this.mongoServerPort));
-			this.dao = InsertSitDataDao.newInstance(
-				this.mongoServerHost, 
-				this.mongoServerPort, 
-				options,
-				this.databaseName);
+			this.router = new EndpointRouter(this.mongoServerHost, this.routingRules, this.mongoServerPort, this.databaseName);
+			if (this.indexBootstrapEnabled) {
+				this.indexBootstrappers = new HashMap<Endpoint, IndexBootstrapper>();
+			}
+			for (Endpoint endpoint : this.router.getEndpoints()) {
+				endpoint.setDao(DaoRegistry.acquire(
+					endpoint.getHost(), 
+					endpoint.getPort(), 
+					options,
+					endpoint.getDatabaseName()));
+				if (this.indexBootstrappers != null) {
+					this.indexBootstrappers.put(endpoint, 
+						new IndexBootstrapper(endpoint.getDao(), getExpirationFieldName(), IndexSpec.parseList(this.indexDefinitionList)));
+				}
+			}
+			if (this.router.isRouted()) {
+				logger.info(String.format("Routing writes over MongoDB endpoints %s.", this.router.getEndpoints()));
+			}
+			this.dao = this.router.getPrimary().getDao();
+			this.writeConcernPolicy = buildWriteConcernPolicy();
+			
+			final InsertSitDataDao probeDao = this.dao;
+			this.circuitBreaker = new CircuitBreaker(
+				this.circuitBreakerFailureThreshold, 
+				this.circuitBreakerProbeIntervalMs,
+				new CircuitBreaker.Probe() {
+					public void probe() throws Exception {
+						probeDao.getCollectionNames();
+					}
+				});
+			this.writeRetrier = new WriteRetrier(this.circuitBreaker, this.writeRetries, this.retryBaseDelayMs, this.retryMaxDelayMs);
+			this.writeRetrier.setMetrics(this.metrics);
+			startExecutors(DaoRegistry.getConnectionPermits(this.dao));
+			
+			logger.info("Testing MongoDB connection ...");
+			startReadinessMonitor(probeDao);
 			
 			logger.info("Constructing receipt sender ...");
 			String brokerUrl = PropertyLocator.getString("messaging.external.connection.url");
@@ -222,6 +814,101 @@ public class MongoDbDataSink extends AbstractDataSink {
 			senderBuilder.setBrokerUrl(brokerUrl).setUsername(username)
 				.setPassword(password).setTopicName(this.topicName);
 			this.sender = senderBuilder.build();
+			this.syncReceiptPublisher = new ReceiptSenderPublisher(this.sender);
+			
+			if (this.asyncReceiptsEnabled) {
+				logger.info(String.format("Starting %s receipt dispatcher with batch size %s ...", 
+					this.transactedReceipts ? "transacted" : "asynchronous", this.receiptBatchSize));
+				this.receiptPublisher = this.transactedReceipts ?
+					new JmsReceiptPublisher(brokerUrl, username, password, this.topicName) :
+					new ReceiptSenderPublisher(this.sender);
+				this.receiptDispatcher = new ReceiptDispatcher(this.receiptPublisher, this.receiptBatchSize, this.receiptMaxPending);
+				if (this.metrics != null) {
+					final SinkMetrics receiptMetrics = this.metrics;
+					this.receiptDispatcher.setListener(new ReceiptDispatcher.Listener() {
+						public void onSent(String collectionName, long latencyNanos) {
+							receiptMetrics.recordReceipt(collectionName, latencyNanos);
+						}
+					});
+				}
+				this.receiptDispatcher_t = new Thread(this.receiptDispatcher);
+				this.receiptDispatcher_t.setDaemon(true);
+				this.receiptDispatcher_t.start();
+			}
+			
+			if (this.journalEnabled) {
+				logger.info(String.format("Opening spill journal in '%s' ...", this.journalDirectory));
+				this.journal = new SpillJournal(
+					this.journalDirectory, 
+					this.journalSegmentSizeMb * 1024 * 1024, 
+					this.journalMaxSizeMb * 1024L * 1024L,
+					this.ttlFieldName);
+				this.journal.open();
+				BulkWriter replayWriter = new BulkWriter(this.router, this.writeRetrier, this.bulkWriteBatchSize, this.bulkWriteMaxAgeMs, this);
+				replayWriter.setWriteConcernPolicy(this.writeConcernPolicy);
+				this.journalReplayer = new JournalReplayer(
+					this.journal, 
+					replayWriter,
+					this.circuitBreaker,
+					this.bulkWriteBatchSize);
+				this.journalReplayer_t = new Thread(this.journalReplayer);
+				this.journalReplayer_t.setDaemon(true);
+				this.journalReplayer_t.start();
+			}
+			
+			if (this.bulkWriteEnabled) {
+				logger.info(String.format("Starting bulk writer with batch size %s and max age %s ms ...", 
+					this.bulkWriteBatchSize, this.bulkWriteMaxAgeMs));
+				this.bulkWriter = new BulkWriter(this.router, this.writeRetrier, this.bulkWriteBatchSize, this.bulkWriteMaxAgeMs, this);
+				this.bulkWriter.setWriteConcernPolicy(this.writeConcernPolicy);
+				this.bulkWriter.setExecutor(this.writeExecutor);
+				if (this.pipelineEnabled && this.pipelinePartitioned) {
+					this.bulkWriter.setPartitions(this.pipelineWriterThreads);
+				}
+				if (this.adaptiveBatchingEnabled) {
+					logger.info(String.format("Adapting bulk batch sizes between %s and %s to a latency target of %s ms ...", 
+						this.adaptiveBatchMinSize, this.adaptiveBatchMaxSize, this.adaptiveBatchLatencyTargetMs));
+					BatchSizeController controller = new BatchSizeController(
+						this.adaptiveBatchLatencyTargetMs, 
+						this.adaptiveBatchMinSize, 
+						this.adaptiveBatchMaxSize, 
+						this.adaptiveBatchMinFlushMs, 
+						this.adaptiveBatchMaxFlushMs, 
+						this.bulkWriteBatchSize, 
+						this.bulkWriteMaxAgeMs);
+					controller.setMetrics(this.metrics);
+					this.bulkWriter.setBatchSizeController(controller);
+				}
+				this.bulkWriter_t = new Thread(this.bulkWriter);
+				this.bulkWriter_t.setDaemon(true);
+				this.bulkWriter_t.start();
+			}
+			
+			if (this.upsertCoalescingEnabled) {
+				this.coalescer = new UpsertCoalescer(this.upsertCoalescingWindowMs, new WritePipeline.Handler() {
+					public void handle(WriteRequest request) throws Exception {
+						storeRequest(request);
+					}
+				});
+				this.coalescer_t = new Thread(this.coalescer, "mongodb-upsert-coalescer");
+				this.coalescer_t.setDaemon(true);
+				this.coalescer_t.start();
+			}
+			
+			if (this.pipelineEnabled) {
+				this.pipeline = new WritePipeline(
+					this.pipelineQueueCapacity, 
+					this.pipelineWriterThreads, 
+					this.pipelinePartitioned,
+					WritePipeline.OverflowPolicy.fromString(this.pipelineOverflowPolicy),
+					new WritePipeline.Handler() {
+						public void handle(WriteRequest request) throws Exception {
+							writeRequest(request);
+						}
+					});
+				this.pipeline.setMetrics(this.metrics);
+				this.pipeline.start();
+			}
 
 			synchronized (LOCK) {
 				// The first mongoDB datasink node and the first thread creates
@@ -231,8 +918,17 @@ public class MongoDbDataSink extends AbstractDataSink {
 					monitor = new CollectionIndexMonitor();
 					monitor.setMongoDbDao(this.dao);
 					monitor.setCollections(this.collections);
-					monitor.setTimeToLiveFieldName(this.ttlFieldName);
+					monitor.setTimeToLiveFieldName(getExpirationFieldName());
 					monitor.setIndexDefinitionList(this.indexDefinitionList);
+					if (this.partitioning != null) {
+						monitor.setPartitioning(this.partitioning, this.partitionPrecreate, this.partitionCatalogCollection);
+						Set<InsertSitDataDao> partitionDaos = new LinkedHashSet<InsertSitDataDao>();
+						for (Endpoint endpoint : this.router.getEndpoints()) {
+							partitionDaos.add(endpoint.getDao());
+						}
+						monitor.setPartitionDaos(partitionDaos);
+					}
+					monitor.setMetrics(this.metrics);
 					monitor_t = new Thread(monitor);
 					monitor_t.start();
 					
@@ -247,7 +943,83 @@ public class MongoDbDataSink extends AbstractDataSink {
 		}
 	}
 
+	// Bulk writes take the permits of the pooled connections they need, which are shared by
+	// all sinks using the client. Receipt sends, made once a write returned, get permits of
+	// their own so a write waiting to send its receipt never holds up another one.
+	private void startExecutors(Semaphore writePermits) {
+		if (! "virtual".equalsIgnoreCase(this.executionMode)) {
+			return;
+		}
+		logger.info(String.format("Running bulk writes and receipt sends on virtual threads, at most %s at a time ...", 
+			writePermits.availablePermits()));
+		this.writeExecutor = new BoundedExecutor("mongodb-bulk-write", writePermits, true);
+		this.receiptExecutor = new BoundedExecutor("mongodb-receipt-send", new Semaphore(this.connectionPoolSize), true);
+	}
+
 	public void dispose() {
+		if (this.readiness != null) {
+			this.readiness.terminate();
+			synchronized (this.startupLock) {
+				if (this.startupBuffer != null && ! this.startupBuffer.isEmpty()) {
+					logger.error(String.format("MongoDB never became ready, %s buffered records discarded.", this.startupBuffer.size()));
+				}
+			}
+		}
+		
+		if (this.pipeline != null) {
+			this.pipeline.shutdown(5000);
+			this.pipeline = null;
+		}
+		
+		if (this.coalescer != null) {
+			this.coalescer.terminate();
+			try { this.coalescer_t.join(5000); } catch (InterruptedException e) {}
+			this.coalescer.emitAll();
+			this.coalescer = null;
+			this.coalescer_t = null;
+		}
+		
+		if (this.bulkWriter != null) {
+			this.bulkWriter.terminate();
+			try { this.bulkWriter_t.join(5000); } catch (InterruptedException e) {}
+			this.bulkWriter.flushAll();
+			this.bulkWriter = null;
+			this.bulkWriter_t = null;
+		}
+		
+		if (this.writeExecutor != null) {
+			this.writeExecutor.shutdown(5000);
+			this.writeExecutor = null;
+		}
+		
+		if (this.journal != null) {
+			this.journalReplayer.terminate();
+			try { this.journalReplayer_t.join(5000); } catch (InterruptedException e) {}
+			this.journal.close();
+			this.journal = null;
+			this.journalReplayer = null;
+			this.journalReplayer_t = null;
+		}
+		
+		if (this.receiptDispatcher != null) {
+			this.receiptDispatcher.terminate();
+			try { this.receiptDispatcher_t.join(5000); } catch (InterruptedException e) {}
+			this.receiptPublisher.close();
+			this.receiptDispatcher = null;
+			this.receiptDispatcher_t = null;
+			this.receiptPublisher = null;
+		}
+		
+		if (this.receiptExecutor != null) {
+			this.receiptExecutor.shutdown(5000);
+			this.receiptExecutor = null;
+		}
+		
+		if (this.circuitBreaker != null) {
+			this.circuitBreaker.terminate();
+			this.circuitBreaker = null;
+		}
+		
 		if (this.sender != null) {
 			this.sender.close();
 			this.sender = null;
@@ -261,13 +1033,55 @@ public class MongoDbDataSink extends AbstractDataSink {
 				monitor_t = null;
 			}
 		}
+		
+		if (this.router != null) {
+			logger.info("MongoDB endpoint statistics. " + this.router.getStatistics());
+			// Other sink instances may still be using the shared clients.
+			for (Endpoint endpoint : this.router.getEndpoints()) {
+				DaoRegistry.release(endpoint.getDao());
+			}
+			this.router = null;
+			this.dao = null;
+		}
+	}
+	
+	/**
+	 * Connection pool statistics of the MongoDB client this sink shares with others in the JVM.
+	 */
+	public DaoRegistry.PoolStatistics getPoolStatistics() {
+		return (this.dao == null) ? null : DaoRegistry.getPoolStatistics(this.dao);
+	}
+	
+	/**
+	 * Health and throughput of each MongoDB endpoint this sink writes to.
+	 */
+	public List<Endpoint.Statistics> getEndpointStatistics() {
+		return (this.router == null) ? Collections.<Endpoint.Statistics>emptyList() : this.router.getStatistics();
 	}
 
 	@Override
 	protected void processInternal(JSONObject record, FlushCounter counter) {
 		try {
-			if (storeRecord(record)) {
-				sendReceipt(record);
+			long start = System.nanoTime();
+			WriteRequest request = buildWriteRequest(record);
+			if (request == null) {
+				return;
+			}
+			if (this.metrics != null) {
+				this.metrics.recordConversion(System.nanoTime() - start);
+				this.metrics.recordIn(request.getCollectionName());
+			}
+			if (holdUntilReady(request)) {
+				return;
+			}
+			
+			if (this.pipeline != null) {
+				if (! this.pipeline.submit(request)) {
+					logger.warn("Write pipeline is full, record shed. Receipt id: " + request.getReceiptId());
+					recordDropped(request.getCollectionName(), 1);
+				}
+			} else {
+				writeRequest(request);
 			}
 		} catch (Exception ex) {
 			logger.error("Failed to process advisory situation data record.", ex);
@@ -275,73 +1089,358 @@ public class MongoDbDataSink extends AbstractDataSink {
 	}
 	
 	public void flush() {
-		logger.debug(String.format("The method flush() is not used by this class '%s'.", this.getClass().getName()));
+		if (this.pipeline != null && ! this.pipeline.awaitDrained(5000)) {
+			logger.warn("Timed out waiting for the write pipeline to drain. " + this.pipeline.getStatistics());
+		}
+		if (this.coalescer != null) {
+			this.coalescer.emitAll();
+		}
+		if (this.bulkWriter != null) {
+			this.bulkWriter.flushAll();
+		} else {
+			logger.debug(String.format("The method flush() is not used by this class '%s'.", this.getClass().getName()));
+		}
+		if (this.receiptExecutor != null && ! this.receiptExecutor.awaitIdle(5000)) {
+			logger.warn("Timed out waiting for receipt sends in flight. " + this.receiptExecutor.getStatistics());
+		}
 	}
 	
-	private void testConnectivity(MongoOptions options) {
-		while (true) try {
-			Mongo client = new Mongo(new ServerAddress(this.mongoServerHost, this.mongoServerPort));
-			client.getDatabaseNames();
-			return;
-		} catch (Exception ex) {
-			logger.error(String.format("Failed to connect to MongoDB at '%s:%s'", 
-				this.mongoServerHost, this.mongoServerPort), ex);
+	public void onAcknowledged(List<WriteRequest> requests) {
+		for (WriteRequest request : requests) {
+			acknowledge(request);
 		}
 	}
 	
-	private boolean storeRecord(JSONObject record) throws Exception {
-		int retries = 3;
-		while (retries >= 0) {
-			try {
-				DataModel model = new DataModel(
-					record,
-					this.ttlFieldName, 
-					this.ignoreMessageTTL,
-					this.ttlValue, 
-					this.ttlUnit);
-				
-				BasicDBObject query = model.getQuery();
-				BasicDBObject doc = model.getDoc();
-				
-				if (!doc.containsField(ENCODED_MSG)) {
-					logger.error("Missing " + ENCODED_MSG + " in record " + record);
-					return false;
+	public void onFailed(List<WriteRequest> requests, Exception ex) {
+		int records = 0;
+		for (WriteRequest request : requests) {
+			records += request.getRecordCount();
+		}
+		if (isJournaled(ex)) {
+			int journaled = 0;
+			for (WriteRequest request : requests) {
+				journaled += appendToJournal(request);
+			}
+			logger.warn(String.format("Journaled %s of %s records that could not be stored into MongoDB.", journaled, records));
+			recordDropped(requests.get(0).getCollectionName(), records - journaled);
+		} else {
+			logger.error(String.format("Failed to store %s records into MongoDB, receipts will not be sent.", records));
+			recordDropped(requests.get(0).getCollectionName(), records);
+		}
+	}
+	
+	// Sends the receipts of a stored request and of the records it superseded.
+	private void acknowledge(WriteRequest request) {
+		if (this.metrics != null) {
+			this.metrics.recordStored(request.getCollectionName(), request.isUpsert());
+			if (! request.getSuperseded().isEmpty()) {
+				this.metrics.recordCoalesced(request.getCollectionName(), request.getSuperseded().size());
+			}
+		}
+		for (WriteRequest superseded : request.getSuperseded()) {
+			if (superseded.getReceiptId() != null) {
+				sendReceipt(superseded);
+			}
+		}
+		if (request.getReceiptId() != null) {
+			sendReceipt(request);
+		} else {
+			logger.debug("Receipt not sent because 'receiptId' doesn't exist. Document: " + request.getDoc());
+		}
+	}
+	
+	// A coalesced upsert is journaled as the records it stands for, oldest first, so each
+	// gets its receipt when replayed. Returns the number of records journaled.
+	private int appendToJournal(WriteRequest request) {
+		int journaled = 0;
+		for (WriteRequest superseded : request.getSuperseded()) {
+			if (this.journal.append(superseded)) {
+				journaled++;
+			}
+		}
+		if (this.journal.append(request)) {
+			journaled++;
+		}
+		return journaled;
+	}
+	
+	private void recordDropped(String collectionName, int count) {
+		if (this.metrics != null && count > 0) {
+			this.metrics.recordDropped(collectionName, count);
+		}
+	}
+	
+	// Only whole writes that failed because MongoDB was unavailable are worth replaying,
+	// documents the server rejected would be rejected again.
+	private boolean isJournaled(Exception ex) {
+		return this.journal != null && ex instanceof WriteFailedException &&
+			((WriteFailedException) ex).getErrorType() != ErrorClassifier.Type.Permanent;
+	}
+	
+	private void startReadinessMonitor(final InsertSitDataDao probeDao) {
+		this.startupBuffer = new ArrayList<WriteRequest>();
+		this.readiness = new ReadinessMonitor(
+			new CircuitBreaker.Probe() {
+				public void probe() throws Exception {
+					probeDao.getCollectionNames();
+				}
+			},
+			new ReadinessMonitor.Listener() {
+				public void onReady() {
+					releaseStartupBuffer();
 				}
-				
-				WriteResult result = null;
-				if (model.getQuery() != null) {
-					result = this.dao.upsert(model.getModelName(), query, doc);
-				} else {
-					result = this.dao.insert(model.getModelName(), doc);
+			});
+		Thread readiness_t = new Thread(this.readiness, "mongodb-readiness");
+		readiness_t.setDaemon(true);
+		readiness_t.start();
+		
+		if (! this.readiness.awaitReady(this.startupConnectBudgetMs)) {
+			logger.warn(String.format("MongoDB at '%s:%s' is not reachable within %s ms, starting in %s mode until it is.",
+				this.mongoServerHost, this.mongoServerPort, this.startupConnectBudgetMs, this.startupMode));
+		}
+	}
+	
+	private void releaseStartupBuffer() {
+		synchronized (this.startupLock) {
+			List<WriteRequest> buffered = this.startupBuffer;
+			if (! buffered.isEmpty() || this.startupDropped > 0) {
+				logger.info(String.format("Writing %s records buffered before MongoDB was ready, %s were dropped.", 
+					buffered.size(), this.startupDropped));
+			}
+			// Written under the lock, and the buffer only let go of afterwards, so records
+			// arriving meanwhile wait for the lock and stay behind the buffered ones.
+			try {
+				for (WriteRequest request : buffered) {
+					writeRequest(request);
 				}
-				
-				return true;
-				
-			} catch (Exception ex) {
-				logger.error(String.format("Failed to store record into MongoDB. Message: %s", ex.getMessage()), ex);
 			} finally {
-				retries--;
+				this.startupBuffer = null;
 			}
-			
-			try { Thread.sleep(10); } catch (Exception ignore) {}
+		}
+	}
+	
+	// Holds or drops a record until MongoDB answered its first ping.
+	// Returns false once the sink is ready and the record should be written.
+	private boolean holdUntilReady(WriteRequest request) {
+		if (this.readiness == null || this.readiness.isReady() && this.startupBuffer == null) {
+			return false;
 		}
 		
-		logger.error("Failed to store record into MongoDB, retries exhausted. Record: " + record.toString());
+		synchronized (this.startupLock) {
+			if (this.startupBuffer == null) {
+				return false;
+			}
+			if ("buffer".equalsIgnoreCase(this.startupMode) && this.startupBuffer.size() < this.startupBufferCapacity) {
+				this.startupBuffer.add(request);
+			} else {
+				recordDropped(request.getCollectionName(), 1);
+				if (this.startupDropped++ % 1000 == 0) {
+					logger.warn(String.format("MongoDB is not ready, %s records dropped so far.", this.startupDropped));
+				}
+			}
+			return true;
+		}
+	}
+	
+	private void writeRequest(WriteRequest request) {
+		if (this.coalescer != null && this.coalescer.offer(request)) {
+			return;
+		}
+		storeRequest(request);
+	}
+	
+	private void storeRequest(WriteRequest request) {
+		// While MongoDB is unavailable, and until the backlog of the outage is replayed, new
+		// records queue up behind it, so an older journaled upsert never overwrites a newer one.
+		if (this.journal != null) {
+			int journaled = 0;
+			synchronized (this.journal) {
+				if (this.journal.isDraining() || 
+						(this.circuitBreaker.getState() != CircuitBreaker.State.Closed && this.journal.hasBacklog())) {
+					journaled = appendToJournal(request);
+				}
+			}
+			if (journaled > 0) {
+				recordDropped(request.getCollectionName(), request.getRecordCount() - journaled);
+				return;
+			}
+		}
+		
+		// Routed once, so the write goes to the endpoint whose indexes were bootstrapped.
+		Endpoint endpoint = this.router.select(request);
 		
-		return false;
+		// The first write to a collection builds its indexes, unless MongoDB is known to be down.
+		// Each endpoint has its own bootstrapper as routed endpoints may be separate clusters.
+		// Until the indexes are built the write fails as if MongoDB were unavailable, so it is
+		// journaled rather than acknowledged into a collection without them.
+		if (this.indexBootstrappers != null) {
+			IndexBootstrapper bootstrapper = this.indexBootstrappers.get(endpoint);
+			if (! bootstrapper.isBootstrapped(request.getStorageName())) {
+				if (this.partitioning != null) {
+					bootstrapper.evictExpired(this.partitioning, System.currentTimeMillis());
+				}
+				if (this.circuitBreaker.getState() == CircuitBreaker.State.Open ||
+						! bootstrapper.ensureIndexes(request.getStorageName())) {
+					onFailed(Collections.singletonList(request), new WriteFailedException(
+						String.format("Indexes of collection '%s' are not bootstrapped.", request.getStorageName()),
+						ErrorClassifier.Type.Transient, null));
+					return;
+				}
+			}
+		}
+		
+		if (this.bulkWriter != null) {
+			this.bulkWriter.add(request, endpoint);
+		} else if (storeRecord(request, endpoint)) {
+			acknowledge(request);
+		}
 	}
 	
-	private void sendReceipt(JSONObject record) {
+	private boolean storeRecord(final WriteRequest request, final Endpoint endpoint) {
+		final WriteConcern writeConcern = this.writeConcernPolicy.getWriteConcern(request);
 		try {
-			if (record.has("receiptId")) {
-				Receipt.Builder builder = new Receipt.Builder();
-				builder.setReceiptId(record.getString("receiptId"));
-				this.sender.send(builder.build().toString());
+			this.writeRetrier.execute(request.getCollectionName(), new Callable<Object>() {
+				public Object call() {
+					if (request.isUpsert()) {
+						router.upsert(endpoint, request.getStorageName(), request.getQuery(), request.getDoc(), writeConcern);
+					} else {
+						router.insert(endpoint, request.getStorageName(), request.getDoc(), writeConcern);
+					}
+					return null;
+				}
+			});
+			return true;
+		} catch (WriteFailedException ex) {
+			int journaled = isJournaled(ex) ? appendToJournal(request) : 0;
+			if (journaled > 0) {
+				logger.debug(String.format("Journaled record for collection '%s'. %s", request.getCollectionName(), ex.getMessage()));
 			} else {
-				logger.debug("Receipt not sent because 'receiptId' doesn't exist. Record: " + record.toString());
+				logger.error(String.format("Failed to store record into collection '%s'. %s Receipt id: %s",
+					request.getCollectionName(), ex.getMessage(), request.getReceiptId()));
 			}
+			recordDropped(request.getCollectionName(), request.getRecordCount() - journaled);
+			return false;
+		}
+	}
+	
+	private TimePartitioning buildPartitioning() {
+		TimePartitioning.Interval interval = TimePartitioning.Interval.fromString(this.partitionInterval);
+		if (interval == null) {
+			return null;
+		}
+		logger.info(String.format("Partitioning collections by %s of field '%s' ...", 
+			interval.name().toLowerCase(), this.ttlFieldName));
+		return new TimePartitioning(interval, this.ttlFieldName);
+	}
+	
+	// Time partitions are dropped whole, so their documents need no expiration index.
+	private String getExpirationFieldName() {
+		return (this.partitioning == null) ? this.ttlFieldName : null;
+	}
+	
+	private WriteConcernPolicy buildWriteConcernPolicy() {
+		WriteConcernPolicy policy = new WriteConcernPolicy(this.defaultWriteConcern, this.writeConcernPolicies);
+		if (this.adaptiveWriteConcernEnabled) {
+			policy.setAdaptive(this.adaptiveWriteConcernModels, new WriteConcernPolicy.Backlog() {
+				public long getBacklog() {
+					return getWriteBacklog();
+				}
+			}, this.adaptiveWriteConcernBacklog);
+		}
+		return policy;
+	}
+	
+	// Records accepted but not handed to MongoDB yet.
+	private long getWriteBacklog() {
+		long backlog = 0;
+		if (this.pipeline != null) {
+			backlog += this.pipeline.getQueueDepth();
+		}
+		if (this.coalescer != null) {
+			backlog += this.coalescer.getPendingCount();
+		}
+		if (this.bulkWriter != null) {
+			backlog += this.bulkWriter.getPendingCount();
+		}
+		return backlog;
+	}
+	
+	private WriteRequest buildWriteRequest(JSONObject record) throws Exception {
+		if (!record.has(ENCODED_MSG)) {
+			logger.error("Missing " + ENCODED_MSG + " in record " + record);
+			return null;
+		}
+		
+		DataModel model = new DataModel(
+			record,
+			this.ttlFieldName, 
+			this.ignoreMessageTTL,
+			this.defaultTimeToLive, 
+			CoarseClock.currentTimeMillis());
+		if (this.keyedWritesEnabled) {
+			model.useDocumentKey();
+		}
+		if (this.binaryMessagesEnabled) {
+			model.useBinaryMessage(this.messageCompressionThreshold);
+		}
+		
+		String receiptId = record.has(RECEIPT_ID) ? record.getString(RECEIPT_ID) : null;
+		if (StringUtils.isNotBlank(this.geometryFieldName)) try {
+			model.repairGeometry(this.geometryFieldName);
+			if (this.covering != null) {
+				model.addCovering(this.geometryFieldName, this.covering);
+			}
+		} catch (InvalidGeometryException ex) {
+			logger.warn(String.format("Rejected record for collection '%s' with a %s error. Invalid %s: %s Receipt id: %s",
+				model.getModelName(), ErrorClassifier.classify(ex), this.geometryFieldName, ex.getMessage(), receiptId));
+			recordDropped(model.getModelName(), 1);
+			return null;
+		}
+		if (this.partitioning != null) {
+			String storageName = this.partitioning.getPartition(model.getModelName(), model.getDoc().get(this.ttlFieldName));
+			return new WriteRequest(model.getModelName(), storageName, model.getQuery(), model.getDoc(), receiptId);
+		}
+		return new WriteRequest(model.getModelName(), model.getQuery(), model.getDoc(), receiptId);
+	}
+	
+	private void sendReceipt(final WriteRequest request) {
+		final long start = System.nanoTime();
+		if (this.receiptDispatcher != null) {
+			this.receiptDispatcher.submit(request.getReceiptId(), request.getCollectionName());
+		} else if (this.receiptExecutor != null) {
+			try {
+				this.receiptExecutor.execute(new Runnable() {
+					public void run() {
+						publishReceipt(request, start);
+					}
+				});
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				publishReceipt(request, start);
+			}
+		} else {
+			publishReceipt(request, start);
+		}
+	}
+	
+	// The sender's session is not safe for concurrent use. Not a monitor, so a virtual
+	// thread waiting on the jms server does not pin its carrier thread.
+	private void publishReceipt(WriteRequest request, long start) {
+		this.senderLock.lock();
+		try {
+			this.syncReceiptPublisher.publish(Collections.singletonList(request.getReceiptId()));
 		} catch (Exception ex) {
 			logger.error("Failed to send receipt to external jms server.", ex);
+			return;
+		} finally {
+			this.senderLock.unlock();
+		}
+		recordReceipt(request, start);
+	}
+	
+	private void recordReceipt(WriteRequest request, long start) {
+		if (this.metrics != null) {
+			this.metrics.recordReceipt(request.getCollectionName(), System.nanoTime() - start);
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,184 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import gov.usdot.cv.common.util.PropertyLocator;
+import gov.usdot.cv.mongodb.datasink.metrics.BatchSizingSnapshot;
+import gov.usdot.cv.mongodb.datasink.metrics.SinkMetrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Tunes the bulk batch size and flush interval of each collection from the latency of
+ * its bulk writes, additive increase and multiplicative decrease. A write within the
+ * latency target grows the batch size by a step if the batch was full. If it was not, the
+ * flush interval grows by a step only when documents arrive fast enough for the longer
+ * wait to add at least one to each batch; under light traffic it goes back down a step
+ * instead, as waiting longer would only delay the few documents there are. A slower
+ * write, or a failed one, cuts both by the decrease factor; at most once per cooldown so
+ * the batches that were already in flight do not cut them again. Both stay within their bounds.
+ */
+public class BatchSizeController {
+	private final Logger logger = Logger.getLogger(getClass());
+
+	private final long 		latencyTargetNanos;
+	private final int 		minBatchSize;
+	private final int 		maxBatchSize;
+	private final long 		minFlushIntervalMs;
+	private final long 		maxFlushIntervalMs;
+	private final int 		initialBatchSize;
+	private final long 		initialFlushIntervalMs;
+	private final int 		batchSizeStep;
+	private final long 		flushIntervalStep;
+	private final double 	decreaseFactor;
+	private final ConcurrentMap<String, State> states = new ConcurrentHashMap<String, State>();
+	private SinkMetrics 	metrics;
+
+	public BatchSizeController(long latencyTargetMs, int minBatchSize, int maxBatchSize, long minFlushIntervalMs,
+			long maxFlushIntervalMs, int initialBatchSize, long initialFlushIntervalMs) {
+		this.latencyTargetNanos = Math.max(1, latencyTargetMs) * 1000000L;
+		this.minBatchSize = Math.max(1, minBatchSize);
+		this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+		this.minFlushIntervalMs = Math.max(1, minFlushIntervalMs);
+		this.maxFlushIntervalMs = Math.max(this.minFlushIntervalMs, maxFlushIntervalMs);
+		this.initialBatchSize = clamp(initialBatchSize, this.minBatchSize, this.maxBatchSize);
+		this.initialFlushIntervalMs = clamp(initialFlushIntervalMs, this.minFlushIntervalMs, this.maxFlushIntervalMs);
+		this.batchSizeStep = Math.max(1, PropertyLocator.getInt("mongodb.batch.size.step", 25));
+		this.flushIntervalStep = Math.max(1, PropertyLocator.getInt("mongodb.batch.flush.interval.step", 5));
+		this.decreaseFactor = Math.min(0.95, Math.max(0.05, PropertyLocator.getInt("mongodb.batch.decrease.percent", 50) / 100.0));
+	}
+
+	public void setMetrics(SinkMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public int getBatchSize(String collectionName) {
+		return state(collectionName).batchSize;
+	}
+
+	public long getFlushIntervalMs(String collectionName) {
+		return state(collectionName).flushIntervalMs;
+	}
+
+	public long getMinFlushIntervalMs() {
+		return this.minFlushIntervalMs;
+	}
+
+	/**
+	 * Takes the latency of a bulk write of a number of documents into a collection.
+	 */
+	public void recordWrite(String collectionName, int documents, long nanos) {
+		State state = state(collectionName);
+		BatchSizingSnapshot snapshot;
+		synchronized (state) {
+			state.latencyNanos = (state.latencyNanos == 0) ? nanos : (long) (0.8 * state.latencyNanos + 0.2 * nanos);
+			long now = System.nanoTime();
+			if (state.writtenAt != 0) {
+				double rate = documents / Math.max(1.0, (now - state.writtenAt) / 1000000.0);
+				state.documentsPerMs = (state.documentsPerMs == 0) ? rate : 0.8 * state.documentsPerMs + 0.2 * rate;
+			}
+			state.writtenAt = now;
+			if (nanos > this.latencyTargetNanos) {
+				decrease(collectionName, state, String.format("write of %s documents took %.1f ms", documents, nanos / 1000000.0));
+			} else if (documents >= state.batchSize) {
+				if (state.batchSize < this.maxBatchSize) {
+					state.batchSize = Math.min(this.maxBatchSize, state.batchSize + this.batchSizeStep);
+					state.increases++;
+				}
+			} else if (state.documentsPerMs * this.flushIntervalStep < 1) {
+				state.flushIntervalMs = Math.max(this.minFlushIntervalMs, state.flushIntervalMs - this.flushIntervalStep);
+			} else if (state.flushIntervalMs < this.maxFlushIntervalMs) {
+				state.flushIntervalMs = Math.min(this.maxFlushIntervalMs, state.flushIntervalMs + this.flushIntervalStep);
+				state.increases++;
+			}
+			snapshot = state.snapshot();
+		}
+		publish(collectionName, snapshot);
+	}
+
+	/**
+	 * Takes a bulk write into a collection that failed for a reason other than its documents.
+	 */
+	public void recordFailure(String collectionName) {
+		State state = state(collectionName);
+		BatchSizingSnapshot snapshot;
+		synchronized (state) {
+			decrease(collectionName, state, "write failed");
+			snapshot = state.snapshot();
+		}
+		publish(collectionName, snapshot);
+	}
+
+	public BatchSizingSnapshot getSnapshot(String collectionName) {
+		State state = state(collectionName);
+		synchronized (state) {
+			return state.snapshot();
+		}
+	}
+
+	private void decrease(String collectionName, State state, String reason) {
+		long now = System.currentTimeMillis();
+		long cooldown = Math.max(this.latencyTargetNanos / 1000000L, state.flushIntervalMs);
+		if (now - state.decreasedAt < cooldown) {
+			return;
+		}
+		state.decreasedAt = now;
+		int batchSize = Math.max(this.minBatchSize, (int) (state.batchSize * this.decreaseFactor));
+		long flushIntervalMs = Math.max(this.minFlushIntervalMs, (long) (state.flushIntervalMs * this.decreaseFactor));
+		if (batchSize != state.batchSize || flushIntervalMs != state.flushIntervalMs) {
+			logger.debug(String.format("Reducing bulk batch size of collection '%s' from %s to %s and flush interval from %s to %s ms, %s.",
+				collectionName, state.batchSize, batchSize, state.flushIntervalMs, flushIntervalMs, reason));
+			state.batchSize = batchSize;
+			state.flushIntervalMs = flushIntervalMs;
+			state.decreases++;
+		}
+	}
+
+	private void publish(String collectionName, BatchSizingSnapshot snapshot) {
+		if (this.metrics != null) {
+			this.metrics.recordBatchSizing(collectionName, snapshot);
+		}
+	}
+
+	private State state(String collectionName) {
+		State state = this.states.get(collectionName);
+		if (state == null) {
+			State created = new State(this.initialBatchSize, this.initialFlushIntervalMs);
+			state = this.states.putIfAbsent(collectionName, created);
+			if (state == null) {
+				state = created;
+			}
+		}
+		return state;
+	}
+
+	private static int clamp(int value, int min, int max) {
+		return Math.min(max, Math.max(min, value));
+	}
+
+	private static long clamp(long value, long min, long max) {
+		return Math.min(max, Math.max(min, value));
+	}
+
+	private static class State {
+		private volatile int 	batchSize;
+		private volatile long 	flushIntervalMs;
+		private long 			latencyNanos;
+		private long 			writtenAt;
+		private double 			documentsPerMs;
+		private long 			decreasedAt;
+		private long 			increases;
+		private long 			decreases;
+
+		State(int batchSize, long flushIntervalMs) {
+			this.batchSize = batchSize;
+			this.flushIntervalMs = flushIntervalMs;
+		}
+
+		BatchSizingSnapshot snapshot() {
+			return new BatchSizingSnapshot(this.batchSize, this.flushIntervalMs, this.latencyNanos / 1000000.0,
+				this.increases, this.decreases);
+		}
+	}
+}
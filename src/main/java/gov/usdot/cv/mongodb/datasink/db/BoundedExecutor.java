@@ -0,0 +1,184 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs blocking tasks, bulk writes or receipt sends, off the calling thread with their
+ * concurrency bounded by a semaphore rather than by a thread pool. The caller waits for a
+ * permit, so a saturated executor pushes back on the write path instead of queueing.
+ * <p>
+ * In virtual mode every task gets a virtual thread of its own. Virtual threads are created
+ * through reflection so the sink still builds and runs on JVMs without them; there, and in
+ * platform mode, tasks run on a cached pool of daemon threads that the permits keep small.
+ */
+public class BoundedExecutor {
+	private final Logger logger = Logger.getLogger(getClass());
+
+	private final String 			name;
+	private final Semaphore 		permits;
+	private final int 				maxPermits;
+	private final boolean 			virtual;
+	private final ThreadFactory 	virtualThreads;
+	private final ExecutorService 	platformThreads;
+	private volatile boolean 		terminated = false;
+
+	private final AtomicInteger inFlight 		= new AtomicInteger();
+	private final AtomicInteger maxInFlight 	= new AtomicInteger();
+	private final AtomicLong 	executed 		= new AtomicLong();
+	private final AtomicLong 	failed 			= new AtomicLong();
+	private final AtomicLong 	permitWaitNanos = new AtomicLong();
+
+	/**
+	 * @param permits the semaphore bounding the tasks in flight, possibly shared with other executors
+	 * @param virtual true to run each task on a virtual thread where the JVM has them
+	 */
+	public BoundedExecutor(String name, Semaphore permits, boolean virtual) {
+		this.name = name;
+		this.permits = permits;
+		this.maxPermits = permits.availablePermits();
+		this.virtualThreads = virtual ? newVirtualThreadFactory(name) : null;
+		this.virtual = this.virtualThreads != null;
+		if (virtual && ! this.virtual) {
+			logger.warn(String.format("Virtual threads are not available on Java %s, '%s' tasks run on platform threads.",
+				System.getProperty("java.version"), name));
+		}
+		this.platformThreads = this.virtual ? null : Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, BoundedExecutor.this.name + "-" + this.count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * True if this JVM can create virtual threads.
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return newVirtualThreadFactory("probe") != null;
+	}
+
+	public boolean isVirtual() {
+		return this.virtual;
+	}
+
+	/**
+	 * Waits for a permit and starts the task. Once shut down, tasks run on the calling thread.
+	 */
+	public void execute(final Runnable task) throws InterruptedException {
+		if (this.terminated) {
+			task.run();
+			return;
+		}
+
+		long start = System.nanoTime();
+		this.permits.acquire();
+		this.permitWaitNanos.addAndGet(System.nanoTime() - start);
+		int current = this.inFlight.incrementAndGet();
+		int max = this.maxInFlight.get();
+		while (current > max && ! this.maxInFlight.compareAndSet(max, current)) {
+			max = this.maxInFlight.get();
+		}
+
+		Runnable bounded = new Runnable() {
+			public void run() {
+				try {
+					task.run();
+				} catch (RuntimeException ex) {
+					failed.incrementAndGet();
+					logger.error(String.format("Task of '%s' failed.", name), ex);
+				} finally {
+					executed.incrementAndGet();
+					inFlight.decrementAndGet();
+					permits.release();
+				}
+			}
+		};
+		try {
+			if (this.virtual) {
+				this.virtualThreads.newThread(bounded).start();
+			} else {
+				this.platformThreads.execute(bounded);
+			}
+		} catch (RejectedExecutionException ex) {
+			bounded.run();
+		}
+	}
+
+	/**
+	 * Waits until no task started by this executor is still running.
+	 */
+	public boolean awaitIdle(long timeoutMs) {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		while (this.inFlight.get() > 0) {
+			if (System.currentTimeMillis() >= deadline) {
+				return false;
+			}
+			try { Thread.sleep(1); } catch (InterruptedException ex) { return false; }
+		}
+		return true;
+	}
+
+	public void shutdown(long timeoutMs) {
+		if (! awaitIdle(timeoutMs)) {
+			logger.warn(String.format("Executor '%s' shut down with %s tasks still running.", this.name, this.inFlight.get()));
+		}
+		this.terminated = true;
+		if (this.platformThreads != null) {
+			this.platformThreads.shutdown();
+		}
+		logger.info(String.format("Executor '%s' is terminated. %s", this.name, getStatistics()));
+	}
+
+	public int getInFlightCount() {
+		return this.inFlight.get();
+	}
+
+	public int getMaxInFlightCount() {
+		return this.maxInFlight.get();
+	}
+
+	public long getExecutedCount() {
+		return this.executed.get();
+	}
+
+	public long getFailedCount() {
+		return this.failed.get();
+	}
+
+	public long getAveragePermitWaitMicros() {
+		long count = this.executed.get() + this.inFlight.get();
+		return (count == 0) ? 0 : TimeUnit.NANOSECONDS.toMicros(this.permitWaitNanos.get() / count);
+	}
+
+	public String getStatistics() {
+		return String.format("%s threads, in flight: %s/%s, max in flight: %s, executed: %s, failed: %s, avg permit wait: %s us",
+			this.virtual ? "virtual" : "platform", getInFlightCount(), this.maxPermits, getMaxInFlightCount(),
+			getExecutedCount(), getFailedCount(), getAveragePermitWaitMicros());
+	}
+
+	// Thread.ofVirtual().name(name + "-", 0).factory(), null where the JVM has no virtual threads.
+	private static ThreadFactory newVirtualThreadFactory(String name) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method naming = builderClass.getMethod("name", String.class, long.class);
+			builder = naming.invoke(builder, name + "-", 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,483 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import gov.usdot.cv.common.database.mongodb.dao.InsertSitDataDao;
+import gov.usdot.cv.common.util.PropertyLocator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.WriteConcern;
+
+/**
+ * Buffers write requests per endpoint and collection and sends each buffer to MongoDB as
+ * a single unordered bulk operation once it reaches the configured size or age. The
+ * listener is only told a request was acknowledged after the bulk write containing it
+ * returns.
+ * <p>
+ * A record's writes stay in order within the batches of one endpoint. When the endpoint
+ * fails over, the record's later writes go into the next endpoint's batches and may be
+ * written before earlier ones still pending for the failed one.
+ */
+public class BulkWriter implements Runnable {
+	private final Logger logger = Logger.getLogger(getClass());
+
+	private final EndpointRouter 		router;
+	private final WriteRetrier 			retrier;
+	private final int 					batchSize;
+	private final long 					maxAgeMs;
+	private final WriteListener 		listener;
+	private final Map<String, Batch> 	batches = new HashMap<String, Batch>();
+	private final ReentrantLock [] 		flushLocks;
+	private WriteConcernPolicy 			writeConcernPolicy;
+	private BatchSizeController 		batchSizing;
+	private BoundedExecutor 			executor;
+	private int 						partitions = 1;
+	private volatile boolean 			terminated = false;
+
+	public BulkWriter(InsertSitDataDao dao, WriteRetrier retrier, int batchSize, long maxAgeMs, WriteListener listener) {
+		this(new EndpointRouter(dao), retrier, batchSize, maxAgeMs, listener);
+	}
+
+	public BulkWriter(EndpointRouter router, WriteRetrier retrier, int batchSize, long maxAgeMs, WriteListener listener) {
+		this.router = router;
+		this.retrier = retrier;
+		this.batchSize = Math.max(1, batchSize);
+		this.maxAgeMs = Math.max(1, maxAgeMs);
+		this.listener = listener;
+		this.flushLocks = new ReentrantLock[Math.max(1, PropertyLocator.getInt("mongodb.bulk.flush.lock.stripes", 64))];
+		for (int i = 0; i < this.flushLocks.length; i++) {
+			this.flushLocks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Picks each batch's write concern; without a policy the client's own is used.
+	 */
+	public void setWriteConcernPolicy(WriteConcernPolicy writeConcernPolicy) {
+		this.writeConcernPolicy = writeConcernPolicy;
+	}
+
+	/**
+	 * Lets the controller pick each collection's batch size and flush interval instead of
+	 * the fixed ones, and tells it how long each bulk write took.
+	 */
+	public void setBatchSizeController(BatchSizeController batchSizing) {
+		this.batchSizing = batchSizing;
+	}
+
+	/**
+	 * Splits each collection's batches into partitions by record key, the same way the
+	 * partitioned write pipeline picks lanes, so each lane fills and flushes batches of its own.
+	 */
+	public void setPartitions(int partitions) {
+		this.partitions = Math.max(1, partitions);
+	}
+
+	/**
+	 * Writes full and expired batches from the executor's threads instead of the thread
+	 * that filled them. Adding waits while the executor has no permit to spare, or while a
+	 * batch has filled up again before its flush took it.
+	 */
+	public void setExecutor(BoundedExecutor executor) {
+		this.executor = executor;
+	}
+
+	public void add(WriteRequest request) {
+		add(request, this.router.select(request));
+	}
+
+	/**
+	 * Adds a request the caller already routed to the given endpoint.
+	 */
+	public void add(WriteRequest request, Endpoint endpoint) {
+		String key = request.getStorageName() + "@" + endpoint.getName();
+		if (this.partitions > 1) {
+			key += "#" + request.getPartition(this.partitions);
+		}
+		boolean full;
+		boolean overdue;
+		synchronized (this) {
+			Batch batch = this.batches.get(key);
+			if (batch == null) {
+				batch = new Batch(endpoint, request.getCollectionName());
+				this.batches.put(key, batch);
+			}
+			batch.add(request);
+			int batchSize = getBatchSize(request.getCollectionName());
+			full = batch.schedule(batch.size() >= batchSize);
+			// A scheduled batch keeps filling until its flush takes it. Each time it holds
+			// another batch worth, the thread adding to it writes it itself and waits.
+			overdue = ! full && batch.isScheduled() && batch.size() % batchSize == 0;
+		}
+
+		if (full) {
+			flushLater(key);
+		} else if (overdue) {
+			flush(key);
+		}
+	}
+
+	/**
+	 * Writes every batch and waits for the writes still running on the executor.
+	 */
+	public void flushAll() {
+		for (String key : getBatchKeys()) {
+			flush(key);
+		}
+		if (this.executor != null && ! this.executor.awaitIdle(60 * 1000)) {
+			logger.warn("Timed out waiting for bulk writes in flight. " + this.executor.getStatistics());
+		}
+	}
+
+	public void flushExpired() {
+		long now = System.currentTimeMillis();
+		for (String key : getBatchKeys()) {
+			boolean expired;
+			synchronized (this) {
+				Batch batch = this.batches.get(key);
+				expired = batch != null && batch.schedule(now - batch.getCreatedAt() >= getMaxAgeMs(batch.getCollectionName()));
+			}
+			if (expired) {
+				flushLater(key);
+			}
+		}
+	}
+
+	public synchronized int getPendingCount() {
+		int count = 0;
+		for (Batch batch : this.batches.values()) {
+			count += batch.size();
+		}
+		return count;
+	}
+
+	public void terminate() {
+		this.terminated = true;
+	}
+
+	public void run() {
+		logger.info("Bulk writer [" + Thread.currentThread().getId() + "] is starting ...");
+		long interval = Math.max(1, ((this.batchSizing == null) ? this.maxAgeMs : this.batchSizing.getMinFlushIntervalMs()) / 2);
+		while (! this.terminated) try {
+			flushExpired();
+			try { Thread.sleep(interval); } catch (InterruptedException ignore) {}
+		} catch (Exception ex) {
+			logger.error("Failed to flush expired bulk write batches.", ex);
+		}
+		flushAll();
+		logger.info("Bulk writer [" + Thread.currentThread().getId() + "] is terminated.");
+	}
+
+	private int getBatchSize(String collectionName) {
+		return (this.batchSizing == null) ? this.batchSize : this.batchSizing.getBatchSize(collectionName);
+	}
+
+	private long getMaxAgeMs(String collectionName) {
+		return (this.batchSizing == null) ? this.maxAgeMs : this.batchSizing.getFlushIntervalMs(collectionName);
+	}
+
+	private synchronized List<String> getBatchKeys() {
+		return new ArrayList<String>(this.batches.keySet());
+	}
+
+	private void flushLater(final String key) {
+		if (this.executor == null) {
+			flush(key);
+			return;
+		}
+		try {
+			this.executor.execute(new Runnable() {
+				public void run() {
+					flush(key);
+				}
+			});
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			flush(key);
+		}
+	}
+
+	private void flush(String key) {
+		// Detaching and writing under the same lock keeps batches for a collection
+		// in the order they were filled, so a newer upsert never lands before an older one.
+		// A record always goes into batches of the same key, so other keys need not wait,
+		// unless they share its lock stripe.
+		// Whichever flush gets the lock first takes everything added so far, so flushes
+		// started out of order still write in order.
+		ReentrantLock lock = flushLock(key);
+		lock.lock();
+		try {
+			Batch batch;
+			synchronized (this) {
+				batch = this.batches.remove(key);
+				if (batch == null) {
+					return;
+				}
+			}
+			write(batch.getEndpoint(), batch.getCollectionName(), batch.getRequests());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Not a monitor, a virtual thread blocked on MongoDB while holding one would pin its carrier.
+	// A fixed number of stripes, as keys come and go with every time partition.
+	private ReentrantLock flushLock(String key) {
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return this.flushLocks[(hash & Integer.MAX_VALUE) % this.flushLocks.length];
+	}
+
+	/**
+	 * Writes the requests right away, bypassing the batches, as one bulk operation per
+	 * endpoint and partition they go to. Returns false, without telling the listener, when the write
+	 * to the first endpoint failed but may succeed later. Once a write succeeded the
+	 * requests for the remaining endpoints are handed to the listener if they fail.
+	 */
+	public boolean writeNow(String collectionName, List<WriteRequest> requests) {
+		Map<String, List<WriteRequest>> groups = new LinkedHashMap<String, List<WriteRequest>>();
+		Map<String, Endpoint> endpoints = new HashMap<String, Endpoint>();
+		for (WriteRequest request : requests) {
+			Endpoint endpoint = this.router.select(collectionName, request.getDoc(), request.getPartitionKey());
+			String key = request.getStorageName() + "@" + endpoint.getName();
+			List<WriteRequest> group = groups.get(key);
+			if (group == null) {
+				group = new ArrayList<WriteRequest>();
+				groups.put(key, group);
+				endpoints.put(key, endpoint);
+			}
+			group.add(request);
+		}
+
+		boolean first = true;
+		for (Map.Entry<String, List<WriteRequest>> group : groups.entrySet()) {
+			BulkWriteException partial;
+			try {
+				partial = executeWithRetries(endpoints.get(group.getKey()), collectionName, group.getValue());
+			} catch (WriteFailedException ex) {
+				if (first && ex.getErrorType() != ErrorClassifier.Type.Permanent) {
+					return false;
+				}
+				this.listener.onFailed(group.getValue(), ex);
+				first = false;
+				continue;
+			}
+
+			if (partial != null) {
+				handleBulkWriteException(collectionName, group.getValue(), partial);
+			} else {
+				this.listener.onAcknowledged(group.getValue());
+			}
+			first = false;
+		}
+		return true;
+	}
+
+	private void write(Endpoint endpoint, String collectionName, List<WriteRequest> requests) {
+		BulkWriteException partial;
+		try {
+			partial = executeWithRetries(endpoint, collectionName, requests);
+		} catch (WriteFailedException ex) {
+			logger.error(String.format("Failed to bulk write %s records into collection '%s'. %s",
+				requests.size(), collectionName, ex.getMessage()));
+			this.listener.onFailed(requests, ex);
+			return;
+		}
+
+		if (partial != null) {
+			handleBulkWriteException(collectionName, requests, partial);
+		} else {
+			this.listener.onAcknowledged(requests);
+		}
+	}
+
+	// Returns the exception holding per-document errors, if any, after the batch was applied.
+	private BulkWriteException executeWithRetries(final Endpoint endpoint, final String collectionName, final List<WriteRequest> requests)
+			throws WriteFailedException {
+		return this.retrier.execute(collectionName, new Callable<BulkWriteException>() {
+			public BulkWriteException call() {
+				long start = System.nanoTime();
+				try {
+					execute(endpoint, collectionName, requests);
+					recordSuccess(endpoint, collectionName, requests.size(), requests.size(), System.nanoTime() - start);
+					return null;
+				} catch (BulkWriteException ex) {
+					// A write concern error means the documents were applied but not replicated in
+					// time. Writing them again is only harmless when every request is an upsert.
+					if (ex.getWriteConcernError() != null) {
+						recordFailure(endpoint, collectionName, ex);
+						if (isIdempotent(requests)) {
+							throw ex;
+						}
+						return ex;
+					}
+					// Per-document errors are not worth retrying the whole batch for.
+					recordSuccess(endpoint, collectionName, requests.size(), requests.size() - ex.getWriteErrors().size(),
+						System.nanoTime() - start);
+					return ex;
+				} catch (RuntimeException ex) {
+					recordFailure(endpoint, collectionName, ex);
+					throw ex;
+				}
+			}
+		});
+	}
+
+	private void recordSuccess(Endpoint endpoint, String collectionName, int documents, int written, long nanos) {
+		endpoint.recordSuccess(written, nanos);
+		if (this.batchSizing != null) {
+			this.batchSizing.recordWrite(collectionName, documents, nanos);
+		}
+	}
+
+	private void recordFailure(Endpoint endpoint, String collectionName, Exception ex) {
+		if (ErrorClassifier.classify(ex) != ErrorClassifier.Type.Permanent) {
+			endpoint.recordFailure();
+			if (this.batchSizing != null) {
+				this.batchSizing.recordFailure(collectionName);
+			}
+		}
+	}
+
+	// The requests of a batch all go into the same partition of the collection.
+	private void execute(Endpoint endpoint, String collectionName, List<WriteRequest> requests) {
+		DBCollection collection = endpoint.getDao().getCollection(requests.get(0).getStorageName());
+		BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+		for (WriteRequest request : requests) {
+			if (request.isUpsert()) {
+				bulk.find(request.getQuery()).upsert().replaceOne(request.getDoc());
+			} else {
+				bulk.insert(request.getDoc());
+			}
+		}
+		WriteConcern writeConcern = getWriteConcern(collectionName, requests);
+		if (writeConcern == null) {
+			bulk.execute();
+		} else {
+			bulk.execute(writeConcern);
+		}
+	}
+
+	// A batch is acknowledged as soon as one of its requests has a receipt to send.
+	private WriteConcern getWriteConcern(String collectionName, List<WriteRequest> requests) {
+		if (this.writeConcernPolicy == null) {
+			return null;
+		}
+		boolean hasReceipt = false;
+		for (WriteRequest request : requests) {
+			if (WriteConcernPolicy.hasReceipt(request)) {
+				hasReceipt = true;
+				break;
+			}
+		}
+		return this.writeConcernPolicy.getWriteConcern(collectionName, hasReceipt);
+	}
+
+	private static boolean isIdempotent(List<WriteRequest> requests) {
+		for (WriteRequest request : requests) {
+			if (! request.isUpsert()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void handleBulkWriteException(String collectionName, List<WriteRequest> requests, BulkWriteException ex) {
+		// Inserts that may or may not survive a rollback are neither retried nor acknowledged.
+		if (ex.getWriteConcernError() != null) {
+			logger.error(String.format("Failed to confirm bulk write of %s records into collection '%s'. Write concern error code: %s, Message: %s",
+				requests.size(), collectionName, ex.getWriteConcernError().getCode(), ex.getWriteConcernError().getMessage()));
+			this.listener.onFailed(requests, ex);
+			return;
+		}
+
+		Set<Integer> failedIndexes = new HashSet<Integer>();
+		for (BulkWriteError error : ex.getWriteErrors()) {
+			failedIndexes.add(error.getIndex());
+			logger.error(String.format("Failed to store record into collection '%s'. %s error code: %s, Message: %s",
+				collectionName, ErrorClassifier.classify(error.getCode()), error.getCode(), error.getMessage()));
+		}
+
+		List<WriteRequest> acknowledged = new ArrayList<WriteRequest>();
+		List<WriteRequest> failed = new ArrayList<WriteRequest>();
+		for (int i = 0; i < requests.size(); i++) {
+			if (failedIndexes.contains(i)) {
+				failed.add(requests.get(i));
+			} else {
+				acknowledged.add(requests.get(i));
+			}
+		}
+
+		if (! acknowledged.isEmpty()) {
+			this.listener.onAcknowledged(acknowledged);
+		}
+		if (! failed.isEmpty()) {
+			this.listener.onFailed(failed, ex);
+		}
+	}
+
+	private static class Batch {
+		private final long 					createdAt = System.currentTimeMillis();
+		private final Endpoint 				endpoint;
+		private final String 				collectionName;
+		private final List<WriteRequest> 	requests = new ArrayList<WriteRequest>();
+		private boolean 					scheduled;
+
+		Batch(Endpoint endpoint, String collectionName) {
+			this.endpoint = endpoint;
+			this.collectionName = collectionName;
+		}
+
+		public String getCollectionName() {
+			return this.collectionName;
+		}
+
+		public Endpoint getEndpoint() {
+			return this.endpoint;
+		}
+
+		public void add(WriteRequest request) {
+			this.requests.add(request);
+		}
+
+		public int size() {
+			return this.requests.size();
+		}
+
+		/**
+		 * Returns true the first time the batch is due, so only one flush is started for it.
+		 */
+		public boolean schedule(boolean due) {
+			if (! due || this.scheduled) {
+				return false;
+			}
+			this.scheduled = true;
+			return true;
+		}
+
+		public boolean isScheduled() {
+			return this.scheduled;
+		}
+
+		public long getCreatedAt() {
+			return this.createdAt;
+		}
+
+		public List<WriteRequest> getRequests() {
+			return this.requests;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Stops the write path from hammering an unavailable MongoDB. After a number of
+ * consecutive failures the breaker opens and writes fail fast while a background
+ * thread probes the server. A successful probe half-opens the breaker; the next
+ * write then either closes it or opens it again.
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		Closed, Open, HalfOpen
+	}
+
+	public interface Probe {
+		public void probe() throws Exception;
+	}
+
+	private final Logger logger = Logger.getLogger(getClass());
+
+	private final int 						failureThreshold;
+	private final long 						probeIntervalMs;
+	private final Probe 					probe;
+	private final AtomicReference<State> 	state = new AtomicReference<State>(State.Closed);
+	private final AtomicInteger 			failures = new AtomicInteger();
+	private volatile boolean 				terminated = false;
+	private volatile long 					openedAt;
+	private volatile long 					openCount;
+
+	public CircuitBreaker(int failureThreshold, long probeIntervalMs, Probe probe) {
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.probeIntervalMs = Math.max(1, probeIntervalMs);
+		this.probe = probe;
+	}
+
+	public boolean allowRequest() {
+		return this.state.get() != State.Open;
+	}
+
+	public void recordSuccess() {
+		this.failures.set(0);
+		if (this.state.compareAndSet(State.HalfOpen, State.Closed)) {
+			logger.info("Circuit breaker closed, MongoDB writes are succeeding again.");
+		}
+	}
+
+	public void recordFailure() {
+		int count = this.failures.incrementAndGet();
+		if (this.state.compareAndSet(State.HalfOpen, State.Open) ||
+			(count >= this.failureThreshold && this.state.compareAndSet(State.Closed, State.Open))) {
+			open(count);
+		}
+	}
+
+	public State getState() {
+		return this.state.get();
+	}
+
+	public long getOpenCount() {
+		return this.openCount;
+	}
+
+	/**
+	 * Milliseconds the breaker has been open, or 0 when it is not.
+	 */
+	public long getOpenDurationMs() {
+		return (this.state.get() == State.Open) ? System.currentTimeMillis() - this.openedAt : 0;
+	}
+
+	public void terminate() {
+		this.terminated = true;
+	}
+
+	private void open(int count) {
+		this.openedAt = System.currentTimeMillis();
+		this.openCount++;
+		logger.error(String.format("Circuit breaker opened after %s consecutive failures, failing MongoDB writes fast.", count));
+
+		Thread prober = new Thread(new Runnable() {
+			public void run() {
+				probeUntilHealthy();
+			}
+		}, "mongodb-circuit-breaker-probe");
+		prober.setDaemon(true);
+		prober.start();
+	}
+
+	private void probeUntilHealthy() {
+		while (! this.terminated && this.state.get() == State.Open) {
+			try { Thread.sleep(this.probeIntervalMs); } catch (InterruptedException ignore) {}
+			try {
+				this.probe.probe();
+				this.failures.set(0);
+				if (this.state.compareAndSet(State.Open, State.HalfOpen)) {
+					logger.info(String.format("MongoDB health probe succeeded after %s ms, circuit breaker half-open.",
+						System.currentTimeMillis() - this.openedAt));
+				}
+			} catch (Exception ex) {
+				logger.debug("MongoDB health probe failed. Message: " + ex.getMessage());
+			}
+		}
+	}
+}
@@ -2,18 +2,20 @@ package gov.usdot.cv.mongodb.datasink.db;
 
 import gov.usdot.cv.common.database.mongodb.dao.InsertSitDataDao;
 import gov.usdot.cv.common.util.PropertyLocator;
+import gov.usdot.cv.mongodb.datasink.metrics.SinkMetrics;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
-import org.apache.commons.lang.math.NumberUtils;
 import org.apache.log4j.Logger;
 
 import com.mongodb.BasicDBObject;
 
 public class CollectionIndexMonitor implements Runnable {
-	private static final int 	DURATION_IN_SECS 			= 0;
-	
 	private final Logger logger = Logger.getLogger(getClass());
 
 	private InsertSitDataDao 		dao;
@@ -21,7 +23,13 @@ public class CollectionIndexMonitor implements Runnable {
 	private String					ttlFieldName;
 	private Set<String> 			collections;
 	private boolean 				terminated = false;
-	private String					indexDefinitionList;
+	private List<IndexSpec>			indexDefinitions = Collections.emptyList();
+	private IndexBootstrapper		bootstrapper;
+	private SinkMetrics				metrics;
+	private TimePartitioning		partitioning;
+	private int						partitionsAhead;
+	private String					partitionCatalogName;
+	private Collection<InsertSitDataDao>	partitionDaos = Collections.emptyList();
 	
 	public CollectionIndexMonitor() {
 		this.interval = PropertyLocator.getInt("mongodb.expiration.index.monitor.interval", 10 * 60 * 1000);
@@ -43,7 +51,27 @@ public class CollectionIndexMonitor implements Runnable {
 	}
 	
 	public void setIndexDefinitionList(String indexDefinitionList) {
-		this.indexDefinitionList = indexDefinitionList;
+		this.indexDefinitions = IndexSpec.parseList(indexDefinitionList);
+	}
+	
+	public void setMetrics(SinkMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Maintains the time partitions of the collections on each run, see {@link PartitionMaintainer}.
+	 */
+	public void setPartitioning(TimePartitioning partitioning, int partitionsAhead, String partitionCatalogName) {
+		this.partitioning = partitioning;
+		this.partitionsAhead = partitionsAhead;
+		this.partitionCatalogName = partitionCatalogName;
+	}
+	
+	/**
+	 * The databases of other endpoints written to, whose partitions are maintained as well.
+	 */
+	public void setPartitionDaos(Collection<InsertSitDataDao> partitionDaos) {
+		this.partitionDaos = partitionDaos;
 	}
 
 	public void terminate() {
@@ -52,13 +80,38 @@ public class CollectionIndexMonitor implements Runnable {
 	
 	public void run() {
 		logger.info("Collection index monitor [" + Thread.currentThread().getId() + "] is starting ...");
+		this.bootstrapper = new IndexBootstrapper(this.dao, this.ttlFieldName, this.indexDefinitions);
+		logger.info("Collection index specs: " + this.bootstrapper.getSpecs());
+		List<PartitionMaintainer> maintainers = new ArrayList<PartitionMaintainer>();
+		if (this.partitioning != null) {
+			maintainers.add(new PartitionMaintainer(
+				this.dao, this.partitioning, this.bootstrapper, this.partitionsAhead, this.partitionCatalogName));
+			for (InsertSitDataDao partitionDao : this.partitionDaos) {
+				if (partitionDao != this.dao) {
+					maintainers.add(new PartitionMaintainer(partitionDao, this.partitioning, 
+						new IndexBootstrapper(partitionDao, this.ttlFieldName, this.indexDefinitions), 
+						this.partitionsAhead, this.partitionCatalogName));
+				}
+			}
+		}
 		while (! this.terminated) try {
 			logger.info("Analyzing collections ...");
+			long start = System.nanoTime();
 			try {
 				analyzeAndUpdate(this.dao.getCollectionNames());
+				for (PartitionMaintainer maintainer : maintainers) try {
+					maintainer.maintain(System.currentTimeMillis());
+				} catch (Exception ex) {
+					logger.error("Failed to maintain collection partitions.", ex);
+				}
 			} catch (Exception ex) {
 				logger.error("Failed to analyze and update collections.", ex);
 			}
+			long duration = System.nanoTime() - start;
+			logger.info(String.format("Analyzed collections in %s ms.", duration / 1000000));
+			if (this.metrics != null) {
+				this.metrics.recordIndexMonitorRun(duration);
+			}
 			try { Thread.sleep(this.interval); } catch (InterruptedException ignore) {}
 		} catch (Exception ex) {
 			logger.error("Failed to run document expiration index monitor.", ex);
@@ -67,26 +120,11 @@ public class CollectionIndexMonitor implements Runnable {
 	}
 	
 	public static BasicDBObject buildIndexObject(String indexString) {
-		BasicDBObject dbObj = new BasicDBObject();
-		String[] nameValues = indexString.split(" ");
-		for (String nameValue: nameValues) {
-			String name = nameValue.substring(0, nameValue.indexOf(":"));
-			String value = nameValue.substring(nameValue.indexOf(":")+1);
-			dbObj.put(name, guessType(value));
-		}
-		System.out.println(dbObj);
-		return dbObj;
+		return IndexSpec.parse(indexString).getKeyObject();
 	}
 	
 	public static Object guessType(String value) {
-		if (value.startsWith("\"") && value.endsWith("\""))
-			return value.substring(1, value.length()-1);
-		else if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false"))
-			return Boolean.valueOf(value);
-		else if (NumberUtils.isNumber(value))
-			return Integer.parseInt(value);
-		else
-			return value;
+		return IndexSpec.guessType(value);
 	}
 	
 	private void analyzeAndUpdate(Set<String> collectionNames) {
@@ -100,12 +138,8 @@ public class CollectionIndexMonitor implements Runnable {
 				logger.debug(String.format("Not analyzing index for collection '%s'.", collectionName));
 				continue;
 			}
-		
-			logger.info(String.format("Ensuring index '%s' with expiration %s seconds ...", this.ttlFieldName, DURATION_IN_SECS));
-			this.dao.createExpirationIndex(collectionName, this.ttlFieldName, DURATION_IN_SECS);
 			
-			this.dao.createIndexes(collectionName, this.indexDefinitionList);
-
+			this.bootstrapper.synchronize(collectionName);
 		} catch (Exception ex) {
 			logger.error("Failed to analyze and update collection '" + collectionName + "'.", ex);
 		}
@@ -0,0 +1,259 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import gov.usdot.cv.common.database.mongodb.dao.InsertSitDataDao;
+import gov.usdot.cv.common.util.PropertyLocator;
+
+import java.lang.management.ManagementFactory;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+import com.mongodb.MongoOptions;
+
+/**
+ * Hands out one data access object, and so one MongoDB client and connection pool, per
+ * host, port, options and database to all sink instances in the JVM. References are
+ * counted and the last release removes the shared instance.
+ */
+public class DaoRegistry {
+	private static final Logger logger = Logger.getLogger(DaoRegistry.class);
+	private static final String CLIENT_COLLECTION = "system.indexes";
+
+	private static final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+	private static Thread reporter;
+
+	private DaoRegistry() {
+	}
+
+	public static synchronized InsertSitDataDao acquire(String host, int port, MongoOptions options, String databaseName)
+			throws UnknownHostException {
+		Key key = new Key(host, port, options, databaseName);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			logger.info(String.format("Creating shared MongoDB client for '%s:%s/%s' with pool size %s.",
+				host, port, databaseName, options.connectionsPerHost));
+			entry = new Entry(key, InsertSitDataDao.newInstance(host, port, options, databaseName),
+				new Semaphore(Math.max(1, options.connectionsPerHost)));
+			entries.put(key, entry);
+			startReporter();
+		}
+		entry.references++;
+		return entry.dao;
+	}
+
+	public static synchronized void release(InsertSitDataDao dao) {
+		for (Entry entry : entries.values()) {
+			if (entry.dao == dao) {
+				if (--entry.references == 0) {
+					entries.remove(entry.key);
+					logger.info(String.format("Released last reference to shared MongoDB client for '%s:%s/%s'.",
+						entry.key.host, entry.key.port, entry.key.databaseName));
+					close(entry.dao);
+				}
+				return;
+			}
+		}
+	}
+
+	public static synchronized int getReferenceCount(InsertSitDataDao dao) {
+		for (Entry entry : entries.values()) {
+			if (entry.dao == dao) {
+				return entry.references;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Permits, one per pooled connection, shared by everything that runs writes against
+	 * the client of a data access object concurrently. Null for an unknown object.
+	 */
+	public static synchronized Semaphore getConnectionPermits(InsertSitDataDao dao) {
+		for (Entry entry : entries.values()) {
+			if (entry.dao == dao) {
+				return entry.permits;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Connection pool statistics for the shared client of a data access object.
+	 */
+	public static synchronized PoolStatistics getPoolStatistics(InsertSitDataDao dao) {
+		for (Entry entry : entries.values()) {
+			if (entry.dao == dao) {
+				return entry.sample();
+			}
+		}
+		return null;
+	}
+
+	public static synchronized String getStatistics() {
+		StringBuilder sb = new StringBuilder();
+		for (Entry entry : entries.values()) {
+			PoolStatistics statistics = entry.sample();
+			sb.append(String.format("[%s:%s/%s references: %s, %s] ",
+				entry.key.host, entry.key.port, entry.key.databaseName, entry.references, statistics));
+		}
+		return sb.toString().trim();
+	}
+
+	private static void startReporter() {
+		if (reporter != null) {
+			return;
+		}
+		final long interval = PropertyLocator.getInt("mongodb.pool.stats.interval", 60 * 1000);
+		reporter = new Thread(new Runnable() {
+			public void run() {
+				while (true) {
+					try { Thread.sleep(interval); } catch (InterruptedException ex) { break; }
+					synchronized (DaoRegistry.class) {
+						if (entries.isEmpty()) {
+							reporter = null;
+							return;
+						}
+						logger.info("MongoDB connection pool statistics. " + getStatistics());
+					}
+				}
+			}
+		}, "mongodb-pool-reporter");
+		reporter.setDaemon(true);
+		reporter.start();
+	}
+
+	// The DAO does not expose its client, but any collection it hands out leads back to it.
+	// Getting a collection does not talk to the server.
+	private static void close(InsertSitDataDao dao) {
+		try {
+			dao.getCollection(CLIENT_COLLECTION).getDB().getMongo().close();
+		} catch (Exception ex) {
+			logger.warn("Failed to close MongoDB client. Message: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * A sample of the driver's connection pool MBeans for one server. The driver does not
+	 * report how long a checkout waited, so waiting is measured as the number of threads
+	 * in the wait queue, together with the largest queue seen so far.
+	 */
+	public static class PoolStatistics {
+		private final int maxSize;
+		private final int size;
+		private final int checkedOut;
+		private final int waitQueueSize;
+		private final int maxWaitQueueSize;
+
+		PoolStatistics(int maxSize, int size, int checkedOut, int waitQueueSize, int maxWaitQueueSize) {
+			this.maxSize = maxSize;
+			this.size = size;
+			this.checkedOut = checkedOut;
+			this.waitQueueSize = waitQueueSize;
+			this.maxWaitQueueSize = maxWaitQueueSize;
+		}
+
+		public int getMaxSize() {
+			return this.maxSize;
+		}
+
+		public int getSize() {
+			return this.size;
+		}
+
+		public int getCheckedOutCount() {
+			return this.checkedOut;
+		}
+
+		public int getWaitQueueSize() {
+			return this.waitQueueSize;
+		}
+
+		public int getMaxWaitQueueSize() {
+			return this.maxWaitQueueSize;
+		}
+
+		/**
+		 * Checked out connections as a fraction of the pool's maximum size.
+		 */
+		public double getSaturation() {
+			return (this.maxSize == 0) ? 0.0 : (double) this.checkedOut / this.maxSize;
+		}
+
+		public String toString() {
+			return String.format("pool size: %s/%s, checked out: %s, saturation: %.2f, wait queue: %s, max wait queue: %s",
+				this.size, this.maxSize, this.checkedOut, getSaturation(), this.waitQueueSize, this.maxWaitQueueSize);
+		}
+	}
+
+	private static class Key {
+		private final String 		host;
+		private final int 			port;
+		private final MongoOptions 	options;
+		private final String 		databaseName;
+
+		Key(String host, int port, MongoOptions options, String databaseName) {
+			this.host = host;
+			this.port = port;
+			this.options = options;
+			this.databaseName = databaseName;
+		}
+
+		public boolean equals(Object obj) {
+			if (! (obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return this.host.equals(other.host) && this.port == other.port &&
+				(this.options == null ? other.options == null : this.options.equals(other.options)) &&
+				this.databaseName.equals(other.databaseName);
+		}
+
+		public int hashCode() {
+			int hash = this.host.hashCode();
+			hash = 31 * hash + this.port;
+			hash = 31 * hash + (this.options == null ? 0 : this.options.hashCode());
+			return 31 * hash + this.databaseName.hashCode();
+		}
+	}
+
+	private static class Entry {
+		private final Key 				key;
+		private final InsertSitDataDao 	dao;
+		private final Semaphore 		permits;
+		private int 					references;
+		private int 					maxWaitQueueSize;
+
+		Entry(Key key, InsertSitDataDao dao, Semaphore permits) {
+			this.key = key;
+			this.dao = dao;
+			this.permits = permits;
+		}
+
+		PoolStatistics sample() {
+			int maxSize = 0, size = 0, checkedOut = 0, waitQueueSize = 0;
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				for (ObjectName name : server.queryNames(new ObjectName("org.mongodb.driver:type=ConnectionPool,*"), null)) {
+					if (! this.key.host.equals(name.getKeyProperty("host")) ||
+						! String.valueOf(this.key.port).equals(name.getKeyProperty("port"))) {
+						continue;
+					}
+					maxSize += (Integer) server.getAttribute(name, "MaxSize");
+					size += (Integer) server.getAttribute(name, "Size");
+					checkedOut += (Integer) server.getAttribute(name, "CheckedOutCount");
+					waitQueueSize += (Integer) server.getAttribute(name, "WaitQueueSize");
+				}
+			} catch (Exception ex) {
+				logger.debug("Failed to read MongoDB connection pool statistics. Message: " + ex.getMessage());
+			}
+			this.maxWaitQueueSize = Math.max(this.maxWaitQueueSize, waitQueueSize);
+			return new PoolStatistics(maxSize, size, checkedOut, waitQueueSize, this.maxWaitQueueSize);
+		}
+	}
+}
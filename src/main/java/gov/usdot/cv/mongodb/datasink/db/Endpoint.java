@@ -0,0 +1,205 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import gov.usdot.cv.common.database.mongodb.dao.InsertSitDataDao;
+import gov.usdot.cv.common.util.PropertyLocator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * One MongoDB server the sink writes to, usually a mongos router, together with its
+ * health and throughput. After a number of consecutive failures the endpoint is taken
+ * out of rotation for a while; the next write after that puts it back on trial.
+ */
+public class Endpoint {
+	private static final Logger logger = Logger.getLogger(Endpoint.class);
+
+	private static final int FAILURE_THRESHOLD = Math.max(1, PropertyLocator.getInt("mongodb.endpoint.failure.threshold", 3));
+	private static final long DOWN_INTERVAL = PropertyLocator.getInt("mongodb.endpoint.down.interval", 5000);
+
+	private final String 			host;
+	private final int 				port;
+	private final String 			databaseName;
+	private InsertSitDataDao 		dao;
+
+	private final AtomicLong 		writes = new AtomicLong();
+	private final AtomicLong 		documents = new AtomicLong();
+	private final AtomicLong 		failures = new AtomicLong();
+	private final AtomicLong 		latencyNanos = new AtomicLong();
+	private final AtomicInteger 	consecutiveFailures = new AtomicInteger();
+	private volatile long 			downUntil;
+	private final long 				createdAt = System.currentTimeMillis();
+
+	public Endpoint(String host, int port, String databaseName) {
+		this.host = host;
+		this.port = port;
+		this.databaseName = databaseName;
+	}
+
+	/**
+	 * Parses a comma separated list of host[:port][/database] endpoints. The default port
+	 * and database are used where an endpoint leaves them out.
+	 */
+	public static List<Endpoint> parseList(String endpoints, int defaultPort, String defaultDatabase) {
+		List<Endpoint> result = new ArrayList<Endpoint>();
+		for (String endpoint : endpoints.split("[,|]")) {
+			if (endpoint.trim().length() > 0) {
+				result.add(parse(endpoint.trim(), defaultPort, defaultDatabase));
+			}
+		}
+		if (result.isEmpty()) {
+			throw new IllegalArgumentException(String.format("No MongoDB endpoint in '%s'.", endpoints));
+		}
+		return result;
+	}
+
+	public static Endpoint parse(String endpoint, int defaultPort, String defaultDatabase) {
+		String address = endpoint;
+		String databaseName = defaultDatabase;
+		int slash = address.indexOf('/');
+		if (slash >= 0) {
+			databaseName = address.substring(slash + 1);
+			address = address.substring(0, slash);
+		}
+		int port = defaultPort;
+		int colon = address.indexOf(':');
+		if (colon >= 0) {
+			try {
+				port = Integer.parseInt(address.substring(colon + 1));
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException(String.format("Invalid port in MongoDB endpoint '%s'.", endpoint));
+			}
+			address = address.substring(0, colon);
+		}
+		if (address.length() == 0 || databaseName.length() == 0) {
+			throw new IllegalArgumentException(String.format("Invalid MongoDB endpoint '%s'.", endpoint));
+		}
+		return new Endpoint(address, port, databaseName);
+	}
+
+	public String getHost() {
+		return this.host;
+	}
+
+	public int getPort() {
+		return this.port;
+	}
+
+	public String getDatabaseName() {
+		return this.databaseName;
+	}
+
+	public String getName() {
+		return this.host + ":" + this.port + "/" + this.databaseName;
+	}
+
+	public InsertSitDataDao getDao() {
+		return this.dao;
+	}
+
+	public void setDao(InsertSitDataDao dao) {
+		this.dao = dao;
+	}
+
+	public boolean isHealthy() {
+		return System.currentTimeMillis() >= this.downUntil;
+	}
+
+	public void recordSuccess(int documents, long nanos) {
+		this.writes.incrementAndGet();
+		this.documents.addAndGet(documents);
+		this.latencyNanos.addAndGet(nanos);
+		this.downUntil = 0;
+		if (this.consecutiveFailures.getAndSet(0) >= FAILURE_THRESHOLD) {
+			logger.info(String.format("MongoDB endpoint '%s' is back in rotation.", getName()));
+		}
+	}
+
+	public void recordFailure() {
+		this.failures.incrementAndGet();
+		int count = this.consecutiveFailures.incrementAndGet();
+		if (count >= FAILURE_THRESHOLD) {
+			this.downUntil = System.currentTimeMillis() + DOWN_INTERVAL;
+			if (count == FAILURE_THRESHOLD) {
+				logger.warn(String.format("MongoDB endpoint '%s' failed %s times in a row, taking it out of rotation for %s ms.",
+					getName(), count, DOWN_INTERVAL));
+			}
+		}
+	}
+
+	public Statistics getStatistics() {
+		long writes = this.writes.get();
+		long elapsed = Math.max(1, System.currentTimeMillis() - this.createdAt);
+		return new Statistics(getName(), isHealthy(), writes, this.documents.get(), this.failures.get(),
+			(writes == 0) ? 0.0 : this.latencyNanos.get() / 1000000.0 / writes,
+			this.documents.get() * 1000.0 / elapsed);
+	}
+
+	public String toString() {
+		return getName();
+	}
+
+	/**
+	 * Point in time view of an endpoint's health and throughput.
+	 */
+	public static class Statistics {
+		private final String 	name;
+		private final boolean 	healthy;
+		private final long 		writes;
+		private final long 		documents;
+		private final long 		failures;
+		private final double 	averageLatencyMs;
+		private final double 	documentsPerSecond;
+
+		Statistics(String name, boolean healthy, long writes, long documents, long failures, double averageLatencyMs, double documentsPerSecond) {
+			this.name = name;
+			this.healthy = healthy;
+			this.writes = writes;
+			this.documents = documents;
+			this.failures = failures;
+			this.averageLatencyMs = averageLatencyMs;
+			this.documentsPerSecond = documentsPerSecond;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public boolean isHealthy() {
+			return this.healthy;
+		}
+
+		public long getWrites() {
+			return this.writes;
+		}
+
+		public long getDocuments() {
+			return this.documents;
+		}
+
+		public long getFailures() {
+			return this.failures;
+		}
+
+		public double getAverageLatencyMs() {
+			return this.averageLatencyMs;
+		}
+
+		/**
+		 * Documents written per second since the endpoint was created.
+		 */
+		public double getDocumentsPerSecond() {
+			return this.documentsPerSecond;
+		}
+
+		public String toString() {
+			return String.format("%s %s, writes: %s, documents: %s (%.1f/s), failures: %s, average latency: %.2f ms",
+				this.name, this.healthy ? "up" : "down", this.writes, this.documents, this.documentsPerSecond,
+				this.failures, this.averageLatencyMs);
+		}
+	}
+}
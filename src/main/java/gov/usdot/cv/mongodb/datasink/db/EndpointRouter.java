@@ -0,0 +1,292 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import gov.usdot.cv.common.database.mongodb.dao.InsertSitDataDao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+
+/**
+ * Picks the MongoDB endpoint a document is written to. Routing rules are tried in order
+ * and the first one matching the document's model name, or its position, selects a
+ * group of endpoints; documents no rule matches go to the default endpoints. Writes
+ * of the same record, by the value an upsert is matched on or the record id of an
+ * insert, always go to the same endpoint of a group so they stay in order, and fail
+ * over to the next healthy endpoint in the group's order when it is unhealthy. Writes
+ * without such a key are spread round robin, so several mongos routers share the load.
+ * <p>
+ * Geo rules route by a document's position, so when a record's position moves from one
+ * bounding box to another its next upsert goes to another group, and the copy written
+ * through the previous group stays behind until it expires. Only use geo rules for
+ * models whose records do not move, or whose endpoint groups share a cluster.
+ * <p>
+ * Rules are separated by semicolons and have the form &lt;match&gt;=&lt;endpoints&gt;, the
+ * endpoints separated by '|'. A match is either a model name or a bounding box
+ * geo:minLon,minLat,maxLon,maxLat, for example:
+ * <pre>
+ * travelerInformation=tim-mongos:27017/cvdb; geo:-84.0,42.0,-82.5,43.0=det-mongos1|det-mongos2
+ * </pre>
+ */
+public class EndpointRouter {
+	private static final String GEO_PREFIX = "geo:";
+
+	private final Route 						defaultRoute;
+	private final List<Route> 					rules = new ArrayList<Route>();
+	private final Map<String, Endpoint> 		endpoints = new LinkedHashMap<String, Endpoint>();
+
+	public EndpointRouter(String defaultEndpoints, String routingRules, int defaultPort, String defaultDatabase) {
+		this.defaultRoute = new Route(null, null, endpoints(defaultEndpoints, defaultPort, defaultDatabase));
+		if (routingRules != null) {
+			for (String rule : routingRules.split(";")) {
+				if (rule.trim().length() > 0) {
+					this.rules.add(parseRule(rule.trim(), defaultPort, defaultDatabase));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Routes everything to a single endpoint that is already connected.
+	 */
+	public EndpointRouter(InsertSitDataDao dao) {
+		Endpoint endpoint = new Endpoint("default", 0, "default");
+		endpoint.setDao(dao);
+		this.endpoints.put(endpoint.getName(), endpoint);
+		this.defaultRoute = new Route(null, null, Collections.singletonList(endpoint));
+	}
+
+	/**
+	 * Every distinct endpoint, the default ones first.
+	 */
+	public List<Endpoint> getEndpoints() {
+		return Collections.unmodifiableList(new ArrayList<Endpoint>(this.endpoints.values()));
+	}
+
+	/**
+	 * The first default endpoint, used for probing and index maintenance.
+	 */
+	public Endpoint getPrimary() {
+		return this.defaultRoute.endpoints.get(0);
+	}
+
+	public boolean isRouted() {
+		return this.endpoints.size() > 1;
+	}
+
+	public Endpoint select(WriteRequest request) {
+		return select(request.getCollectionName(), request.getDoc(), request.getPartitionKey());
+	}
+
+	/**
+	 * The endpoint a document goes to. Documents with the same key go to the same endpoint
+	 * while it is healthy; a null key spreads documents round robin.
+	 */
+	public Endpoint select(String collectionName, DBObject doc, Object key) {
+		for (Route rule : this.rules) {
+			if (rule.matches(collectionName, doc)) {
+				return rule.next(key);
+			}
+		}
+		return this.defaultRoute.next(key);
+	}
+
+	public List<Endpoint.Statistics> getStatistics() {
+		List<Endpoint.Statistics> statistics = new ArrayList<Endpoint.Statistics>();
+		for (Endpoint endpoint : this.endpoints.values()) {
+			statistics.add(endpoint.getStatistics());
+		}
+		return statistics;
+	}
+
+	/**
+	 * Inserts a document through the endpoint it was routed to.
+	 */
+	public void insert(Endpoint endpoint, String collectionName, DBObject doc, WriteConcern writeConcern) {
+		long start = System.nanoTime();
+		try {
+			if (writeConcern == null) {
+				endpoint.getDao().insert(collectionName, doc);
+			} else {
+				endpoint.getDao().getCollection(collectionName).insert(doc, writeConcern);
+			}
+		} catch (RuntimeException ex) {
+			recordFailure(endpoint, ex);
+			throw ex;
+		}
+		endpoint.recordSuccess(1, System.nanoTime() - start);
+	}
+
+	/**
+	 * Upserts a document through the endpoint it was routed to.
+	 */
+	public void upsert(Endpoint endpoint, String collectionName, DBObject query, DBObject doc, WriteConcern writeConcern) {
+		long start = System.nanoTime();
+		try {
+			if (writeConcern == null) {
+				endpoint.getDao().upsert(collectionName, query, doc);
+			} else {
+				endpoint.getDao().getCollection(collectionName).update(query, doc, true, false, writeConcern);
+			}
+		} catch (RuntimeException ex) {
+			recordFailure(endpoint, ex);
+			throw ex;
+		}
+		endpoint.recordSuccess(1, System.nanoTime() - start);
+	}
+
+	/**
+	 * Counts a failure against the endpoint unless the document itself was at fault.
+	 */
+	public static void recordFailure(Endpoint endpoint, Exception ex) {
+		if (ErrorClassifier.classify(ex) != ErrorClassifier.Type.Permanent) {
+			endpoint.recordFailure();
+		}
+	}
+
+	/**
+	 * The longitude and latitude of a document, taken from its lat and long fields, the
+	 * first position of its region or the middle of its nwPos and sePos corners. Null if
+	 * the document has no position.
+	 */
+	static double [] position(DBObject doc) {
+		Object lat = doc.get("lat");
+		Object lon = doc.get("long");
+		if (lat instanceof Number && lon instanceof Number) {
+			return new double [] { ((Number) lon).doubleValue(), ((Number) lat).doubleValue() };
+		}
+		Object region = doc.get("region");
+		if (region instanceof DBObject) {
+			double [] position = firstPosition(((DBObject) region).get("coordinates"));
+			if (position != null) {
+				return position;
+			}
+		}
+		double [] nw = corner(doc.get("nwPos"));
+		double [] se = corner(doc.get("sePos"));
+		if (nw != null && se != null) {
+			return new double [] { (nw[0] + se[0]) / 2, (nw[1] + se[1]) / 2 };
+		}
+		return null;
+	}
+
+	private static double [] firstPosition(Object coordinates) {
+		if (! (coordinates instanceof List)) {
+			return null;
+		}
+		List<?> list = (List<?>) coordinates;
+		if (list.size() >= 2 && list.get(0) instanceof Number && list.get(1) instanceof Number) {
+			return new double [] { ((Number) list.get(0)).doubleValue(), ((Number) list.get(1)).doubleValue() };
+		}
+		return list.isEmpty() ? null : firstPosition(list.get(0));
+	}
+
+	private static double [] corner(Object pos) {
+		if (pos instanceof DBObject) {
+			Object lat = ((DBObject) pos).get("lat");
+			Object lon = ((DBObject) pos).get("lon");
+			if (lat instanceof Number && lon instanceof Number) {
+				return new double [] { ((Number) lon).doubleValue(), ((Number) lat).doubleValue() };
+			}
+		}
+		return null;
+	}
+
+	private Route parseRule(String rule, int defaultPort, String defaultDatabase) {
+		int equals = rule.indexOf('=');
+		if (equals <= 0) {
+			throw new IllegalArgumentException(String.format("Invalid routing rule '%s'.", rule));
+		}
+		String match = rule.substring(0, equals).trim();
+		List<Endpoint> endpoints = endpoints(rule.substring(equals + 1), defaultPort, defaultDatabase);
+		if (! match.startsWith(GEO_PREFIX)) {
+			return new Route(match, null, endpoints);
+		}
+
+		String [] values = match.substring(GEO_PREFIX.length()).split(",");
+		if (values.length != 4) {
+			throw new IllegalArgumentException(String.format("Invalid bounding box in routing rule '%s'.", rule));
+		}
+		double [] box = new double[4];
+		try {
+			for (int i = 0; i < 4; i++) {
+				box[i] = Double.parseDouble(values[i].trim());
+			}
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException(String.format("Invalid bounding box in routing rule '%s'.", rule));
+		}
+		return new Route(null, box, endpoints);
+	}
+
+	// Endpoints named in several groups are shared, so their health and throughput add up.
+	private List<Endpoint> endpoints(String list, int defaultPort, String defaultDatabase) {
+		List<Endpoint> result = new ArrayList<Endpoint>();
+		for (Endpoint parsed : Endpoint.parseList(list, defaultPort, defaultDatabase)) {
+			Endpoint endpoint = this.endpoints.get(parsed.getName());
+			if (endpoint == null) {
+				endpoint = parsed;
+				this.endpoints.put(endpoint.getName(), endpoint);
+			}
+			result.add(endpoint);
+		}
+		return result;
+	}
+
+	private static class Route {
+		private final String 			modelName;
+		private final double [] 		box;
+		private final List<Endpoint> 	endpoints;
+		private final AtomicInteger 	next = new AtomicInteger();
+
+		Route(String modelName, double [] box, List<Endpoint> endpoints) {
+			this.modelName = modelName;
+			this.box = box;
+			this.endpoints = endpoints;
+		}
+
+		boolean matches(String collectionName, DBObject doc) {
+			if (this.modelName != null) {
+				// A time partition routes like the collection it belongs to.
+				int length = this.modelName.length();
+				return this.modelName.equals(collectionName) || (collectionName.length() > length &&
+					collectionName.charAt(length) == '_' && collectionName.startsWith(this.modelName) &&
+					this.modelName.equals(TimePartitioning.getBaseName(collectionName)));
+			}
+			double [] position = position(doc);
+			return position != null &&
+				position[0] >= this.box[0] && position[1] >= this.box[1] &&
+				position[0] <= this.box[2] && position[1] <= this.box[3];
+		}
+
+		// The key's endpoint, or the next one in turn without a key, unless it is unhealthy;
+		// then the first healthy one after it in the group's order, or itself if none is healthy.
+		Endpoint next(Object key) {
+			int size = this.endpoints.size();
+			if (size == 1) {
+				return this.endpoints.get(0);
+			}
+			int start;
+			if (key != null) {
+				int hash = key.hashCode();
+				hash ^= (hash >>> 16);
+				hash *= 0x85ebca6b;
+				hash ^= (hash >>> 13);
+				start = hash & Integer.MAX_VALUE;
+			} else {
+				start = this.next.getAndIncrement() & Integer.MAX_VALUE;
+			}
+			for (int i = 0; i < size; i++) {
+				Endpoint endpoint = this.endpoints.get((start + i) % size);
+				if (endpoint.isHealthy()) {
+					return endpoint;
+				}
+			}
+			return this.endpoints.get(start % size);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.bson.BsonSerializationException;
+
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.DuplicateKeyException;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoInterruptedException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.MongoWaitQueueFullException;
+import com.mongodb.WriteConcernException;
+
+/**
+ * Decides whether a failed write is worth retrying. Transient errors come from the
+ * network or replica set changes and will likely succeed later, permanent errors come
+ * from the document itself and will fail the same way every time.
+ */
+public class ErrorClassifier {
+
+	public enum Type {
+		Transient, Permanent, Unknown
+	}
+
+	// Server error codes for network failures, shutdowns and primary step downs.
+	private static final Set<Integer> TRANSIENT_CODES = new HashSet<Integer>(Arrays.asList(
+		6,		// HostUnreachable
+		7,		// HostNotFound
+		64,		// WriteConcernFailed (wtimeout), the write itself was applied
+		89,		// NetworkTimeout
+		91,		// ShutdownInProgress
+		189,	// PrimarySteppedDown
+		9001,	// SocketException
+		10107,	// NotMaster
+		11600,	// InterruptedAtShutdown
+		11602,	// InterruptedDueToReplStateChange
+		13435,	// NotMasterNoSlaveOk
+		13436	// NotMasterOrSecondary
+	));
+
+	// Server error codes for documents that can never be stored as they are.
+	private static final Set<Integer> PERMANENT_CODES = new HashSet<Integer>(Arrays.asList(
+		2,		// BadValue
+		9,		// FailedToParse
+		14,		// TypeMismatch
+		10334,	// BSONObjectTooLarge
+		11000,	// DuplicateKey
+		11001,	// DuplicateKey (legacy)
+		12582,	// DuplicateKey (legacy)
+		16755,	// Can't extract geo keys
+		16756,	// Can't parse geometry
+		17280	// KeyTooLong
+	));
+
+	private ErrorClassifier() {
+	}
+
+	public static Type classify(int code) {
+		if (TRANSIENT_CODES.contains(code)) {
+			return Type.Transient;
+		} else if (PERMANENT_CODES.contains(code)) {
+			return Type.Permanent;
+		}
+		return Type.Unknown;
+	}
+
+	public static Type classify(Throwable ex) {
+		if (ex instanceof DuplicateKeyException || ex instanceof BsonSerializationException ||
+			ex instanceof IllegalArgumentException) {
+			return Type.Permanent;
+		} else if (ex instanceof MongoSocketException || ex instanceof MongoTimeoutException ||
+			ex instanceof MongoNotPrimaryException || ex instanceof MongoNodeIsRecoveringException ||
+			ex instanceof MongoWaitQueueFullException || ex instanceof MongoInterruptedException ||
+			ex instanceof IOException) {
+			return Type.Transient;
+		} else if (ex instanceof WriteConcernException) {
+			return classify(((WriteConcernException) ex).getErrorCode());
+		} else if (ex instanceof MongoCommandException) {
+			return classify(((MongoCommandException) ex).getErrorCode());
+		} else if (ex instanceof BulkWriteException) {
+			return classify((BulkWriteException) ex);
+		} else if (ex != null && ex.getCause() != null && ex.getCause() != ex) {
+			return classify(ex.getCause());
+		}
+		return Type.Unknown;
+	}
+
+	private static Type classify(BulkWriteException ex) {
+		if (ex.getWriteConcernError() != null) {
+			return classify(ex.getWriteConcernError().getCode());
+		}
+		Type result = Type.Permanent;
+		for (BulkWriteError error : ex.getWriteErrors()) {
+			Type type = classify(error.getCode());
+			if (type == Type.Transient) {
+				return Type.Transient;
+			} else if (type == Type.Unknown) {
+				result = Type.Unknown;
+			}
+		}
+		return result;
+	}
+}
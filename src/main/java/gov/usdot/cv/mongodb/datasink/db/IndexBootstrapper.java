@@ -0,0 +1,151 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import gov.usdot.cv.common.database.mongodb.dao.InsertSitDataDao;
+import gov.usdot.cv.common.util.PropertyLocator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+
+/**
+ * Brings a collection's indexes in line with the index specs: the expiration index on the
+ * time to live field, if there is one, followed by the configured indexes. The write path calls
+ * {@link #ensureIndexes(String)} so a collection gets its indexes before its first write
+ * is acknowledged instead of at the next index monitor run. Once a collection is done the
+ * check is a single set lookup.
+ */
+public class IndexBootstrapper {
+	// Documents expire at the time in their time to live field.
+	private static final int DURATION_IN_SECS = 0;
+
+	private final Logger logger = Logger.getLogger(getClass());
+
+	private final InsertSitDataDao 	dao;
+	private final List<IndexSpec> 	specs;
+	private final Set<String> 		bootstrapped = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final Map<String, Long> retryAt = new HashMap<String, Long>();
+	private final long 				retryIntervalMs;
+
+	public IndexBootstrapper(InsertSitDataDao dao, String ttlFieldName, List<IndexSpec> indexDefinitions) {
+		this.dao = dao;
+		this.specs = buildSpecs(ttlFieldName, indexDefinitions);
+		this.retryIntervalMs = PropertyLocator.getInt("mongodb.index.bootstrap.retry.interval", 30 * 1000);
+	}
+
+	public List<IndexSpec> getSpecs() {
+		return this.specs;
+	}
+
+	public boolean isBootstrapped(String collectionName) {
+		return this.bootstrapped.contains(collectionName);
+	}
+
+	/**
+	 * Synchronizes the indexes of a collection the first time it is seen. A failure is
+	 * logged and retried on a later write, after the retry interval. Returns whether the
+	 * collection has its indexes, so the write can be held back until it does.
+	 */
+	public boolean ensureIndexes(String collectionName) {
+		if (this.bootstrapped.contains(collectionName)) {
+			return true;
+		}
+		synchronized (this) {
+			if (this.bootstrapped.contains(collectionName)) {
+				return true;
+			}
+			Long retry = this.retryAt.get(collectionName);
+			if (retry != null && System.currentTimeMillis() < retry) {
+				return false;
+			}
+			try {
+				long start = System.nanoTime();
+				IndexDiff diff = synchronize(collectionName);
+				this.bootstrapped.add(collectionName);
+				this.retryAt.remove(collectionName);
+				logger.info(String.format("Bootstrapped indexes of collection '%s' in %s ms. %s",
+					collectionName, (System.nanoTime() - start) / 1000000, diff));
+				return true;
+			} catch (Exception ex) {
+				this.retryAt.put(collectionName, System.currentTimeMillis() + this.retryIntervalMs);
+				logger.warn(String.format("Failed to bootstrap indexes of collection '%s', retrying in %s ms. Message: %s",
+					collectionName, this.retryIntervalMs, ex.getMessage()));
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Forgets a collection that was dropped, so it is bootstrapped again if it is recreated.
+	 */
+	public synchronized void evict(String collectionName) {
+		this.bootstrapped.remove(collectionName);
+		this.retryAt.remove(collectionName);
+	}
+
+	/**
+	 * Forgets the partitions whose interval has passed, as they are dropped by whichever
+	 * node maintains the partitions, and a late write to one recreates it.
+	 */
+	public synchronized void evictExpired(TimePartitioning partitioning, long now) {
+		for (String collectionName : new ArrayList<String>(this.bootstrapped)) {
+			if (partitioning.isExpired(collectionName, now)) {
+				evict(collectionName);
+			}
+		}
+	}
+
+	/**
+	 * Reads the existing indexes of a collection and applies only what differs from the
+	 * specs. Missing indexes are built in the background and changed expirations are
+	 * modified in place with collMod.
+	 */
+	public IndexDiff synchronize(String collectionName) {
+		DBCollection collection = this.dao.getCollection(collectionName);
+		IndexDiff diff = IndexDiff.compute(this.specs, collection.getIndexInfo());
+		if (diff.isEmpty()) {
+			logger.debug(String.format("Indexes of collection '%s' are up to date. %s", collectionName, diff));
+			return diff;
+		}
+		logger.info(String.format("Applying index changes to collection '%s'. %s", collectionName, diff));
+
+		for (IndexSpec spec : diff.getMissing()) {
+			collection.createIndex(spec.getKeyObject(), spec.getOptions());
+		}
+		for (IndexSpec spec : diff.getExpirationChanges()) {
+			BasicDBObject index = new BasicDBObject("keyPattern", spec.getKeyObject());
+			index.put("expireAfterSeconds", spec.getExpireAfterSeconds());
+			collection.getDB().command(new BasicDBObject("collMod", collectionName).append("index", index)).throwOnError();
+		}
+		for (IndexSpec spec : diff.getConflicts()) {
+			logger.warn(String.format("Collection '%s' has an index on %s without an expiration. " +
+				"Drop it so the expiration index can be created.", collectionName, spec.getKeys()));
+		}
+		return diff;
+	}
+
+	// The expiration index on the time to live field, followed by the configured indexes.
+	// A configured index on the time to live field alone is covered by the expiration index.
+	// Without a time to live field, as for time partitions dropped whole, there is none.
+	private static List<IndexSpec> buildSpecs(String ttlFieldName, List<IndexSpec> indexDefinitions) {
+		IndexSpec expiration = (ttlFieldName == null) ? null : IndexSpec.forExpiration(ttlFieldName, DURATION_IN_SECS);
+		List<IndexSpec> specs = new ArrayList<IndexSpec>();
+		if (expiration != null) {
+			specs.add(expiration);
+		}
+		for (IndexSpec spec : indexDefinitions) {
+			if ((expiration == null || ! spec.getKeys().equals(expiration.getKeys())) && ! specs.contains(spec)) {
+				specs.add(spec);
+			}
+		}
+		return Collections.unmodifiableList(specs);
+	}
+}
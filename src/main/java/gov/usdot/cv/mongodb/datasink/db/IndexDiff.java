@@ -0,0 +1,94 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.mongodb.DBObject;
+
+/**
+ * What has to change for a collection's indexes to match the specs: indexes to build and
+ * time to live indexes whose expiration has to be modified in place. Indexes that are not
+ * in the specs are left alone.
+ */
+public final class IndexDiff {
+	private final List<IndexSpec> 	missing;
+	private final List<IndexSpec> 	expirationChanges;
+	private final List<IndexSpec> 	conflicts;
+	private final int 				unchanged;
+
+	private IndexDiff(List<IndexSpec> missing, List<IndexSpec> expirationChanges, List<IndexSpec> conflicts, int unchanged) {
+		this.missing = Collections.unmodifiableList(missing);
+		this.expirationChanges = Collections.unmodifiableList(expirationChanges);
+		this.conflicts = Collections.unmodifiableList(conflicts);
+		this.unchanged = unchanged;
+	}
+
+	/**
+	 * Compares the specs with the index information the server reports for a collection.
+	 */
+	public static IndexDiff compute(List<IndexSpec> specs, List<DBObject> existingIndexes) {
+		List<IndexSpec> missing = new ArrayList<IndexSpec>();
+		List<IndexSpec> expirationChanges = new ArrayList<IndexSpec>();
+		List<IndexSpec> conflicts = new ArrayList<IndexSpec>();
+		int unchanged = 0;
+		for (IndexSpec spec : specs) {
+			DBObject existing = find(spec, existingIndexes);
+			if (existing == null) {
+				missing.add(spec);
+			} else if (spec.isExpiring() && spec.getExpireAfterSeconds() != expireAfterSeconds(existing)) {
+				if (expireAfterSeconds(existing) == IndexSpec.NO_EXPIRATION) {
+					conflicts.add(spec);
+				} else {
+					expirationChanges.add(spec);
+				}
+			} else {
+				unchanged++;
+			}
+		}
+		return new IndexDiff(missing, expirationChanges, conflicts, unchanged);
+	}
+
+	private static DBObject find(IndexSpec spec, List<DBObject> existingIndexes) {
+		for (DBObject existing : existingIndexes) {
+			if (spec.hasKeys((DBObject) existing.get("key"))) {
+				return existing;
+			}
+		}
+		return null;
+	}
+
+	private static int expireAfterSeconds(DBObject existing) {
+		Object value = existing.get("expireAfterSeconds");
+		return (value instanceof Number) ? ((Number) value).intValue() : IndexSpec.NO_EXPIRATION;
+	}
+
+	public List<IndexSpec> getMissing() {
+		return this.missing;
+	}
+
+	public List<IndexSpec> getExpirationChanges() {
+		return this.expirationChanges;
+	}
+
+	/**
+	 * Time to live specs whose keys are already indexed without an expiration. collMod can
+	 * not turn such an index into a time to live index, it has to be dropped first.
+	 */
+	public List<IndexSpec> getConflicts() {
+		return this.conflicts;
+	}
+
+	public int getUnchanged() {
+		return this.unchanged;
+	}
+
+	public boolean isEmpty() {
+		return this.missing.isEmpty() && this.expirationChanges.isEmpty() && this.conflicts.isEmpty();
+	}
+
+	public String toString() {
+		return String.format("create: %s, modify expiration: %s, conflicting: %s, unchanged: %s",
+			this.missing, this.expirationChanges, this.conflicts, this.unchanged);
+	}
+}
@@ -0,0 +1,154 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import gov.usdot.cv.mongodb.datasink.model.GeoHashCovering;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.math.NumberUtils;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * An index a collection should have: its ordered key fields and, for a time to live
+ * index, the number of seconds after which documents expire.
+ */
+public final class IndexSpec {
+	public static final int NO_EXPIRATION = -1;
+
+	private final Map<String, Object> 	keys;
+	private final int 					expireAfterSeconds;
+
+	public IndexSpec(Map<String, Object> keys, int expireAfterSeconds) {
+		this.keys = Collections.unmodifiableMap(new LinkedHashMap<String, Object>(keys));
+		this.expireAfterSeconds = expireAfterSeconds;
+	}
+
+	public static IndexSpec forExpiration(String fieldName, int expireAfterSeconds) {
+		Map<String, Object> keys = new LinkedHashMap<String, Object>();
+		keys.put(fieldName, 1);
+		return new IndexSpec(keys, expireAfterSeconds);
+	}
+
+	/**
+	 * Parses an index definition list such as "region:2dsphere createdAt:1, requestId:1",
+	 * where indexes are separated by commas and the fields of a compound index by spaces.
+	 * A field of type cells, as in "region:cells", indexes the cells covering that geometry
+	 * field, here regionCells:1.
+	 */
+	public static List<IndexSpec> parseList(String indexDefinitionList) {
+		List<IndexSpec> specs = new ArrayList<IndexSpec>();
+		if (indexDefinitionList == null) {
+			return specs;
+		}
+		for (String indexString : indexDefinitionList.split(",")) {
+			if (indexString.trim().length() > 0) {
+				specs.add(parse(indexString));
+			}
+		}
+		return specs;
+	}
+
+	public static IndexSpec parse(String indexString) {
+		Map<String, Object> keys = new LinkedHashMap<String, Object>();
+		for (String nameValue : indexString.trim().split("\\s+")) {
+			int separator = nameValue.indexOf(':');
+			if (separator <= 0) {
+				throw new IllegalArgumentException(String.format("Invalid index field '%s' in index definition '%s'.", nameValue, indexString));
+			}
+			String name = nameValue.substring(0, separator);
+			String value = nameValue.substring(separator + 1);
+			if (GeoHashCovering.INDEX_TYPE.equals(value)) {
+				keys.put(name + GeoHashCovering.FIELD_SUFFIX, 1);
+			} else {
+				keys.put(name, guessType(value));
+			}
+		}
+		return new IndexSpec(keys, NO_EXPIRATION);
+	}
+
+	public static Object guessType(String value) {
+		if (value.startsWith("\"") && value.endsWith("\""))
+			return value.substring(1, value.length()-1);
+		else if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false"))
+			return Boolean.valueOf(value);
+		else if (NumberUtils.isNumber(value))
+			return Integer.parseInt(value);
+		else
+			return value;
+	}
+
+	public Map<String, Object> getKeys() {
+		return this.keys;
+	}
+
+	public BasicDBObject getKeyObject() {
+		return new BasicDBObject(this.keys);
+	}
+
+	public boolean isExpiring() {
+		return this.expireAfterSeconds != NO_EXPIRATION;
+	}
+
+	public int getExpireAfterSeconds() {
+		return this.expireAfterSeconds;
+	}
+
+	/**
+	 * Options for building the index in the background, so the collection stays writable.
+	 */
+	public BasicDBObject getOptions() {
+		BasicDBObject options = new BasicDBObject("background", true);
+		if (isExpiring()) {
+			options.put("expireAfterSeconds", this.expireAfterSeconds);
+		}
+		return options;
+	}
+
+	/**
+	 * True if the given key pattern, as reported by the server, has the same fields in
+	 * the same order with the same values. Numbers compare by value, as the server may
+	 * report 1 as 1.0.
+	 */
+	public boolean hasKeys(DBObject keyPattern) {
+		if (keyPattern == null || keyPattern.keySet().size() != this.keys.size()) {
+			return false;
+		}
+		Iterator<String> names = keyPattern.keySet().iterator();
+		for (Map.Entry<String, Object> entry : this.keys.entrySet()) {
+			String name = names.next();
+			if (! entry.getKey().equals(name) || ! sameValue(entry.getValue(), keyPattern.get(name))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean sameValue(Object expected, Object actual) {
+		if (expected instanceof Number && actual instanceof Number) {
+			return ((Number) expected).doubleValue() == ((Number) actual).doubleValue();
+		}
+		return expected.equals(actual);
+	}
+
+	public boolean equals(Object obj) {
+		if (! (obj instanceof IndexSpec)) {
+			return false;
+		}
+		IndexSpec other = (IndexSpec) obj;
+		return this.keys.equals(other.keys) && this.expireAfterSeconds == other.expireAfterSeconds;
+	}
+
+	public int hashCode() {
+		return 31 * this.keys.hashCode() + this.expireAfterSeconds;
+	}
+
+	public String toString() {
+		return isExpiring() ? String.format("%s (expireAfterSeconds: %s)", this.keys, this.expireAfterSeconds) : this.keys.toString();
+	}
+}
@@ -0,0 +1,134 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import gov.usdot.cv.common.database.mongodb.dao.InsertSitDataDao;
+import gov.usdot.cv.common.util.PropertyLocator;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+
+/**
+ * Maintains the time partitions in a database on each index monitor run. The collections
+ * partitioned are found from the names of their partitions, so every model written to
+ * is maintained whether it is configured for index monitoring or not.
+ * Partitions whose interval has passed are dropped whole. Live partitions get their
+ * indexes synchronized, and the partitions following the newest ones written to are
+ * created ahead of time with their indexes, so the first write of an interval does not
+ * wait on index builds. For readers, a catalog collection holds a document per collection
+ * listing its live partitions, oldest first.
+ */
+public class PartitionMaintainer {
+	private static final String PARTITIONS_KEY 	= "partitions";
+	private static final String INTERVAL_KEY 	= "interval";
+	private static final String UPDATED_AT_KEY 	= "updatedAt";
+
+	private final Logger logger = Logger.getLogger(getClass());
+
+	private final InsertSitDataDao 		dao;
+	private final TimePartitioning 		partitioning;
+	private final IndexBootstrapper 	bootstrapper;
+	private final String 				catalogName;
+	private final int 					ahead;
+	private final long 					dropGraceMs;
+
+	/**
+	 * @param ahead the number of partitions to create past the newest one written to
+	 * @param catalogName the collection listing the live partitions, null for none
+	 */
+	public PartitionMaintainer(InsertSitDataDao dao, TimePartitioning partitioning, IndexBootstrapper bootstrapper,
+			int ahead, String catalogName) {
+		this.dao = dao;
+		this.partitioning = partitioning;
+		this.bootstrapper = bootstrapper;
+		this.ahead = Math.max(0, ahead);
+		this.catalogName = catalogName;
+		this.dropGraceMs = PropertyLocator.getInt("mongodb.partition.drop.grace", 0);
+	}
+
+	public void maintain(long now) {
+		maintain(this.dao.getCollectionNames(), now);
+	}
+
+	/**
+	 * Drops, creates and lists the partitions among the given existing collections.
+	 */
+	public void maintain(Set<String> collectionNames, long now) {
+		Map<String, TreeMap<Long, String>> partitions = new TreeMap<String, TreeMap<Long, String>>();
+		for (String name : collectionNames) {
+			long start = this.partitioning.getStart(name);
+			if (start < 0) {
+				continue;
+			}
+			String collection = TimePartitioning.getBaseName(name);
+			TreeMap<Long, String> existing = partitions.get(collection);
+			if (existing == null) {
+				existing = new TreeMap<Long, String>();
+				partitions.put(collection, existing);
+			}
+			existing.put(start, name);
+		}
+
+		for (Map.Entry<String, TreeMap<Long, String>> entry : partitions.entrySet()) try {
+			maintain(entry.getKey(), entry.getValue(), now);
+		} catch (Exception ex) {
+			logger.error(String.format("Failed to maintain partitions of collection '%s'.", entry.getKey()), ex);
+		}
+	}
+
+	private void maintain(String collectionName, TreeMap<Long, String> partitions, long now) {
+		long intervalMs = this.partitioning.getInterval().getMillis();
+		for (Long start : new ArrayList<Long>(partitions.keySet())) {
+			if (start + intervalMs + this.dropGraceMs <= now) {
+				String name = partitions.remove(start);
+				logger.info(String.format("Dropping expired partition '%s'.", name));
+				this.dao.getCollection(name).drop();
+				this.bootstrapper.evict(name);
+			}
+		}
+
+		for (String name : partitions.values()) {
+			this.bootstrapper.synchronize(name);
+		}
+
+		// An empty partition following a written one was created ahead and is not written
+		// to yet, so creating ahead of it would keep adding partitions on every run.
+		List<String> created = new ArrayList<String>();
+		for (Map.Entry<Long, String> entry : partitions.entrySet()) {
+			if (partitions.containsKey(entry.getKey() + intervalMs) || this.dao.getCollection(entry.getValue()).count() == 0) {
+				continue;
+			}
+			String next = entry.getValue();
+			for (int i = 0; i < this.ahead; i++) {
+				next = this.partitioning.getNext(next);
+				if (partitions.containsValue(next)) {
+					break;
+				}
+				logger.info(String.format("Creating partition '%s' ahead of time.", next));
+				DBCollection collection = this.dao.getCollection(next);
+				collection.getDB().createCollection(next, new BasicDBObject());
+				this.bootstrapper.synchronize(next);
+				created.add(next);
+			}
+		}
+		for (String name : created) {
+			partitions.put(this.partitioning.getStart(name), name);
+		}
+
+		if (this.catalogName != null) {
+			BasicDBObject catalog = new BasicDBObject(PARTITIONS_KEY, new ArrayList<String>(new TreeSet<String>(partitions.values())));
+			catalog.put(INTERVAL_KEY, this.partitioning.getInterval().name().toLowerCase());
+			catalog.put(UPDATED_AT_KEY, new Date(now));
+			DBCollection collection = this.dao.getCollection(this.catalogName);
+			collection.update(new BasicDBObject("_id", collectionName), new BasicDBObject("$set", catalog), true, false);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pings MongoDB from its own thread until the first ping succeeds, so the sink can
+ * start taking records without waiting on the database. Attempts back off up to a
+ * few seconds apart and only every tenth failure is logged.
+ */
+public class ReadinessMonitor implements Runnable {
+	private static final long MIN_BACKOFF_MS 	= 100;
+	private static final long MAX_BACKOFF_MS 	= 5 * 1000;
+	private static final int  LOG_EVERY 		= 10;
+
+	public enum State {
+		Connecting, Ready, Terminated
+	}
+
+	public interface Listener {
+		public void onReady();
+	}
+
+	private final Logger logger = Logger.getLogger(getClass());
+
+	private final CircuitBreaker.Probe 	probe;
+	private final Listener 				listener;
+	private final long 					startedAt = System.currentTimeMillis();
+	private volatile State 				state = State.Connecting;
+	private volatile long 				timeToReadyMs = -1;
+	private volatile int 				attempts;
+
+	public ReadinessMonitor(CircuitBreaker.Probe probe, Listener listener) {
+		this.probe = probe;
+		this.listener = listener;
+	}
+
+	public State getState() {
+		return this.state;
+	}
+
+	public boolean isReady() {
+		return this.state == State.Ready;
+	}
+
+	/**
+	 * Milliseconds from construction to the first successful ping, or -1 if not ready yet.
+	 */
+	public long getTimeToReadyMs() {
+		return this.timeToReadyMs;
+	}
+
+	public int getAttempts() {
+		return this.attempts;
+	}
+
+	public synchronized boolean awaitReady(long timeoutMs) {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		long remaining = timeoutMs;
+		while (this.state == State.Connecting && remaining > 0) {
+			try { wait(remaining); } catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return isReady();
+	}
+
+	public synchronized void terminate() {
+		if (this.state == State.Connecting) {
+			this.state = State.Terminated;
+		}
+		notifyAll();
+	}
+
+	public void run() {
+		long backoff = MIN_BACKOFF_MS;
+		while (this.state == State.Connecting) {
+			this.attempts++;
+			try {
+				this.probe.probe();
+				ready();
+				return;
+			} catch (Exception ex) {
+				if (this.attempts % LOG_EVERY == 1) {
+					logger.warn(String.format("MongoDB is not reachable after %s attempts in %s ms. Message: %s",
+						this.attempts, System.currentTimeMillis() - this.startedAt, ex.getMessage()));
+				}
+			}
+
+			synchronized (this) {
+				if (this.state == State.Connecting) {
+					try { wait(backoff); } catch (InterruptedException ignore) {}
+				}
+			}
+			backoff = Math.min(MAX_BACKOFF_MS, backoff * 2);
+		}
+	}
+
+	private void ready() {
+		synchronized (this) {
+			if (this.state != State.Connecting) {
+				return;
+			}
+			this.timeToReadyMs = System.currentTimeMillis() - this.startedAt;
+			this.state = State.Ready;
+			notifyAll();
+		}
+		logger.info(String.format("MongoDB is ready after %s ms and %s attempts.", this.timeToReadyMs, this.attempts));
+
+		if (this.listener != null) {
+			this.listener.onReady();
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Names the per-interval collections documents are stored in when storage is partitioned
+ * by expiration time, e.g. vehSitDataMessage_2026101814 for the documents of
+ * vehSitDataMessage expiring between 14:00 and 15:00 UTC on October 18, 2026. Once the
+ * end of its interval has passed every document in a partition has expired, so it can
+ * be dropped whole instead of having the TTL monitor delete its documents one at a time.
+ */
+public class TimePartitioning {
+	private static final Pattern 	PARTITION 		= Pattern.compile("^(.+)_(\\d{8}|\\d{10})$");
+	private static final int 		MAX_CACHED 		= 1024;
+
+	public enum Interval {
+		Hour(60 * 60 * 1000L, "yyyyMMddHH"),
+		Day(24 * 60 * 60 * 1000L, "yyyyMMdd");
+
+		private final long 		millis;
+		private final String 	pattern;
+
+		private Interval(long millis, String pattern) {
+			this.millis = millis;
+			this.pattern = pattern;
+		}
+
+		public long getMillis() {
+			return this.millis;
+		}
+
+		/**
+		 * The interval of the given name, null for none.
+		 */
+		public static Interval fromString(String interval) {
+			if (interval == null || interval.trim().length() == 0 || "none".equalsIgnoreCase(interval.trim())) {
+				return null;
+			}
+			for (Interval value : values()) {
+				if (value.name().equalsIgnoreCase(interval.trim())) {
+					return value;
+				}
+			}
+			throw new IllegalArgumentException(String.format("Unknown partition interval '%s'.", interval));
+		}
+	}
+
+	private final Interval 					interval;
+	private final String 					timeFieldName;
+	private final SimpleDateFormat 			format;
+	private final ConcurrentMap<Long, String> suffixes = new ConcurrentHashMap<Long, String>();
+
+	/**
+	 * @param timeFieldName the date field of a document that picks its partition, the time to live field
+	 */
+	public TimePartitioning(Interval interval, String timeFieldName) {
+		this.interval = interval;
+		this.timeFieldName = timeFieldName;
+		this.format = new SimpleDateFormat(interval.pattern);
+		this.format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		this.format.setLenient(false);
+	}
+
+	public Interval getInterval() {
+		return this.interval;
+	}
+
+	public String getTimeFieldName() {
+		return this.timeFieldName;
+	}
+
+	/**
+	 * The partition of a collection holding documents whose time field has the given value.
+	 * Documents without a date in the field stay in the collection itself.
+	 */
+	public String getPartition(String collectionName, Object time) {
+		if (! (time instanceof Date)) {
+			return collectionName;
+		}
+		return getPartition(collectionName, ((Date) time).getTime());
+	}
+
+	public String getPartition(String collectionName, long time) {
+		long bucket = Math.max(0, time) / this.interval.millis;
+		String suffix = this.suffixes.get(bucket);
+		if (suffix == null) {
+			if (this.suffixes.size() >= MAX_CACHED) {
+				this.suffixes.clear();
+			}
+			synchronized (this.format) {
+				suffix = this.format.format(new Date(bucket * this.interval.millis));
+			}
+			this.suffixes.put(bucket, suffix);
+		}
+		return collectionName + "_" + suffix;
+	}
+
+	/**
+	 * The partition following the given one.
+	 */
+	public String getNext(String partitionName) {
+		long start = getStart(partitionName);
+		if (start < 0) {
+			throw new IllegalArgumentException(String.format("'%s' is not a partition.", partitionName));
+		}
+		return getPartition(getBaseName(partitionName), start + this.interval.millis);
+	}
+
+	/**
+	 * The start of the interval a partition of this scheme covers, -1 if the name is not one.
+	 */
+	public long getStart(String partitionName) {
+		Matcher matcher = PARTITION.matcher(partitionName);
+		if (! matcher.matches() || matcher.group(2).length() != this.interval.pattern.length()) {
+			return -1;
+		}
+		try {
+			synchronized (this.format) {
+				return this.format.parse(matcher.group(2)).getTime();
+			}
+		} catch (ParseException ex) {
+			return -1;
+		}
+	}
+
+	public boolean isPartition(String name) {
+		return getStart(name) >= 0;
+	}
+
+	/**
+	 * True once every document the partition can hold has expired.
+	 */
+	public boolean isExpired(String partitionName, long now) {
+		long start = getStart(partitionName);
+		return start >= 0 && start + this.interval.millis <= now;
+	}
+
+	/**
+	 * The collection a partition belongs to; any other name is returned as is.
+	 */
+	public static String getBaseName(String name) {
+		Matcher matcher = PARTITION.matcher(name);
+		return matcher.matches() ? matcher.group(1) : name;
+	}
+}
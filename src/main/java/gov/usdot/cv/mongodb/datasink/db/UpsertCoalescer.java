@@ -0,0 +1,177 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import gov.usdot.cv.common.util.PropertyLocator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.mongodb.BasicDBObject;
+
+/**
+ * Holds upserts for a window, keyed by collection and record id, and keeps only the latest
+ * document for each key. When a key's window ends a single upsert carrying the superseded
+ * requests is handed on, so their receipts are still sent once it is acknowledged.
+ */
+public class UpsertCoalescer implements Runnable {
+	private final Logger logger = Logger.getLogger(getClass());
+
+	private final long 						windowMs;
+	private final int 						maxPending;
+	private final WritePipeline.Handler 	handler;
+	private final Map<Key, Pending> 		pending = new LinkedHashMap<Key, Pending>();
+	private final Object 					emitLock = new Object();
+	private volatile boolean 				terminated = false;
+
+	private final AtomicLong 				received = new AtomicLong();
+	private final AtomicLong 				saved = new AtomicLong();
+
+	public UpsertCoalescer(long windowMs, WritePipeline.Handler handler) {
+		this.windowMs = Math.max(1, windowMs);
+		this.maxPending = PropertyLocator.getInt("mongodb.coalescing.max.pending", 100000);
+		this.handler = handler;
+	}
+
+	/**
+	 * Takes an upsert into its key's window. Returns false for inserts and, when too many
+	 * keys are pending, for upserts of new keys; the caller writes those itself.
+	 */
+	public boolean offer(WriteRequest request) {
+		if (! request.isUpsert()) {
+			return false;
+		}
+		Key key = new Key(request.getCollectionName(), request.getQuery());
+		synchronized (this) {
+			Pending entry = this.pending.get(key);
+			if (entry == null) {
+				if (this.pending.size() >= this.maxPending) {
+					return false;
+				}
+				this.pending.put(key, new Pending(request));
+			} else {
+				entry.supersede(request);
+				this.saved.incrementAndGet();
+			}
+		}
+		this.received.incrementAndGet();
+		return true;
+	}
+
+	public synchronized int getPendingCount() {
+		return this.pending.size();
+	}
+
+	/**
+	 * Upserts that were not written because a newer one for the same key replaced them.
+	 */
+	public long getSavedWrites() {
+		return this.saved.get();
+	}
+
+	public String getStatistics() {
+		long received = this.received.get();
+		long saved = this.saved.get();
+		return String.format("received: %s, written: %s, saved: %s (%.1f%%), pending: %s",
+			received, received - saved - getPendingCount(), saved,
+			(received == 0) ? 0.0 : 100.0 * saved / received, getPendingCount());
+	}
+
+	public void emitExpired() {
+		emit(System.currentTimeMillis() - this.windowMs);
+	}
+
+	public void emitAll() {
+		emit(Long.MAX_VALUE);
+	}
+
+	public void terminate() {
+		this.terminated = true;
+	}
+
+	public void run() {
+		logger.info(String.format("Upsert coalescer [%s] is starting with a %s ms window ...", Thread.currentThread().getId(), this.windowMs));
+		long interval = Math.max(1, this.windowMs / 2);
+		while (! this.terminated) try {
+			emitExpired();
+			try { Thread.sleep(interval); } catch (InterruptedException ignore) {}
+		} catch (Exception ex) {
+			logger.error("Failed to emit coalesced upserts.", ex);
+		}
+		emitAll();
+		logger.info(String.format("Upsert coalescer [%s] is terminated. %s", Thread.currentThread().getId(), getStatistics()));
+	}
+
+	// Emitting is serialized so a key's next window is never written before its previous one.
+	private void emit(long openedBefore) {
+		synchronized (this.emitLock) {
+			List<WriteRequest> expired = new ArrayList<WriteRequest>();
+			synchronized (this) {
+				// Keys are in the order their windows opened, so the expired ones come first.
+				for (Iterator<Pending> it = this.pending.values().iterator(); it.hasNext();) {
+					Pending entry = it.next();
+					if (entry.openedAt > openedBefore) {
+						break;
+					}
+					expired.add(entry.toRequest());
+					it.remove();
+				}
+			}
+			for (WriteRequest request : expired) {
+				try {
+					this.handler.handle(request);
+				} catch (Exception ex) {
+					logger.error(String.format("Failed to write coalesced upsert into collection '%s'.", request.getCollectionName()), ex);
+				}
+			}
+		}
+	}
+
+	private static class Pending {
+		private final long 					openedAt = System.currentTimeMillis();
+		private WriteRequest 				latest;
+		private List<WriteRequest> 			superseded;
+
+		Pending(WriteRequest request) {
+			this.latest = request;
+		}
+
+		void supersede(WriteRequest request) {
+			if (this.superseded == null) {
+				this.superseded = new ArrayList<WriteRequest>();
+			}
+			this.superseded.add(this.latest);
+			this.latest = request;
+		}
+
+		WriteRequest toRequest() {
+			return (this.superseded == null) ? this.latest : new WriteRequest(this.latest, this.superseded);
+		}
+	}
+
+	private static class Key {
+		private final String 		collectionName;
+		private final BasicDBObject query;
+
+		Key(String collectionName, BasicDBObject query) {
+			this.collectionName = collectionName;
+			this.query = query;
+		}
+
+		public boolean equals(Object obj) {
+			if (! (obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return this.collectionName.equals(other.collectionName) && this.query.equals(other.query);
+		}
+
+		public int hashCode() {
+			return 31 * this.collectionName.hashCode() + this.query.hashCode();
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import gov.usdot.cv.common.util.PropertyLocator;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.mongodb.WriteConcern;
+
+/**
+ * Picks the write concern for each write from the collection it goes to. In adaptive
+ * mode the low priority collections fall back to unacknowledged writes while the write
+ * backlog is above a threshold, and get their own concern back once it has drained to
+ * half of it. A write carrying a receipt is always at least acknowledged, so a receipt
+ * never follows a write MongoDB may not have applied.
+ */
+public class WriteConcernPolicy {
+
+	public enum Level {
+		Unacknowledged(WriteConcern.UNACKNOWLEDGED),
+		Acknowledged(WriteConcern.ACKNOWLEDGED),
+		Journaled(WriteConcern.JOURNALED),
+		Majority(WriteConcern.MAJORITY);
+
+		private final WriteConcern writeConcern;
+
+		private Level(WriteConcern writeConcern) {
+			this.writeConcern = writeConcern;
+		}
+
+		public WriteConcern getWriteConcern() {
+			return this.writeConcern;
+		}
+
+		public static Level fromString(String level) {
+			String value = level.trim();
+			if ("w:0".equalsIgnoreCase(value)) {
+				return Unacknowledged;
+			} else if ("w:1".equalsIgnoreCase(value)) {
+				return Acknowledged;
+			}
+			for (Level candidate : values()) {
+				if (candidate.name().equalsIgnoreCase(value)) {
+					return candidate;
+				}
+			}
+			throw new IllegalArgumentException(String.format("Unknown write concern '%s'.", level));
+		}
+	}
+
+	/**
+	 * The number of writes waiting to be made.
+	 */
+	public interface Backlog {
+		public long getBacklog();
+	}
+
+	private final Logger logger = Logger.getLogger(getClass());
+
+	private final Level 				defaultLevel;
+	private final Map<String, Level> 	levels = new HashMap<String, Level>();
+	private final Set<String> 			lowPriority = new HashSet<String>();
+	private final long 					checkIntervalMs;
+	private Backlog 					backlog;
+	private long 						backlogThreshold;
+	private volatile boolean 			relaxed = false;
+	private volatile long 				checkedAt;
+	private volatile long 				relaxedCount;
+
+	/**
+	 * @param defaultLevel the level of collections without a policy, null for the client's own
+	 * @param policies comma separated &lt;collection&gt;=&lt;level&gt; pairs
+	 */
+	public WriteConcernPolicy(String defaultLevel, String policies) {
+		this.defaultLevel = (defaultLevel == null || defaultLevel.trim().length() == 0) ? null : Level.fromString(defaultLevel);
+		if (policies != null) {
+			for (String policy : policies.split(",")) {
+				if (policy.trim().length() == 0) {
+					continue;
+				}
+				int equals = policy.indexOf('=');
+				if (equals <= 0) {
+					throw new IllegalArgumentException(String.format("Invalid write concern policy '%s'.", policy.trim()));
+				}
+				this.levels.put(policy.substring(0, equals).trim(), Level.fromString(policy.substring(equals + 1)));
+			}
+		}
+		this.checkIntervalMs = PropertyLocator.getInt("mongodb.write.concern.check.interval", 100);
+	}
+
+	/**
+	 * Relaxes the low priority collections, given comma separated, while the backlog is
+	 * at or above the threshold.
+	 */
+	public void setAdaptive(String lowPriorityCollections, Backlog backlog, long backlogThreshold) {
+		for (String collectionName : lowPriorityCollections.split(",")) {
+			if (collectionName.trim().length() > 0) {
+				this.lowPriority.add(collectionName.trim());
+			}
+		}
+		this.backlog = backlog;
+		this.backlogThreshold = Math.max(1, backlogThreshold);
+	}
+
+	public boolean isRelaxed() {
+		return this.relaxed;
+	}
+
+	/**
+	 * How often the low priority collections were relaxed.
+	 */
+	public long getRelaxedCount() {
+		return this.relaxedCount;
+	}
+
+	/**
+	 * The configured level of a collection, null if the client's own applies.
+	 */
+	public Level getLevel(String collectionName) {
+		Level level = this.levels.get(collectionName);
+		return (level == null) ? this.defaultLevel : level;
+	}
+
+	/**
+	 * The write concern for a write into a collection, null for the client's own.
+	 */
+	public WriteConcern getWriteConcern(String collectionName, boolean hasReceipt) {
+		Level level = getLevel(collectionName);
+		if (this.backlog != null && this.lowPriority.contains(collectionName)) {
+			checkBacklog();
+			if (this.relaxed) {
+				level = Level.Unacknowledged;
+			}
+		}
+		// The client's own concern is not known here, so it is not trusted with a receipt.
+		if (hasReceipt && (level == null || level == Level.Unacknowledged)) {
+			level = Level.Acknowledged;
+		}
+		return (level == null) ? null : level.getWriteConcern();
+	}
+
+	/**
+	 * The write concern for a request, acknowledged if it or a request it superseded has a receipt.
+	 */
+	public WriteConcern getWriteConcern(WriteRequest request) {
+		return getWriteConcern(request.getCollectionName(), hasReceipt(request));
+	}
+
+	public static boolean hasReceipt(WriteRequest request) {
+		if (request.getReceiptId() != null) {
+			return true;
+		}
+		for (WriteRequest superseded : request.getSuperseded()) {
+			if (superseded.getReceiptId() != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void checkBacklog() {
+		long now = System.currentTimeMillis();
+		if (now - this.checkedAt < this.checkIntervalMs) {
+			return;
+		}
+		synchronized (this) {
+			if (now - this.checkedAt < this.checkIntervalMs) {
+				return;
+			}
+			this.checkedAt = now;
+			long backlog = this.backlog.getBacklog();
+			if (! this.relaxed && backlog >= this.backlogThreshold) {
+				this.relaxed = true;
+				this.relaxedCount++;
+				logger.warn(String.format("Write backlog of %s reached %s, writing %s unacknowledged.",
+					backlog, this.backlogThreshold, this.lowPriority));
+			} else if (this.relaxed && backlog <= this.backlogThreshold / 2) {
+				this.relaxed = false;
+				logger.info(String.format("Write backlog drained to %s, restored write concern of %s.", backlog, this.lowPriority));
+			}
+		}
+	}
+}
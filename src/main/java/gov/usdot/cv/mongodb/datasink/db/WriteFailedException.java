@@ -0,0 +1,20 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+/**
+ * Thrown when a write is given up on, either because the error is permanent, the
+ * retries ran out or the circuit breaker is open.
+ */
+public class WriteFailedException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	private final ErrorClassifier.Type type;
+
+	public WriteFailedException(String message, ErrorClassifier.Type type, Throwable cause) {
+		super(message, cause);
+		this.type = type;
+	}
+
+	public ErrorClassifier.Type getErrorType() {
+		return this.type;
+	}
+}
@@ -0,0 +1,14 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import java.util.List;
+
+/**
+ * Notified once MongoDB has acknowledged, or failed, the write of a batch of requests.
+ */
+public interface WriteListener {
+
+	public void onAcknowledged(List<WriteRequest> requests);
+
+	public void onFailed(List<WriteRequest> requests, Exception ex);
+
+}
@@ -0,0 +1,407 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import gov.usdot.cv.common.util.PropertyLocator;
+import gov.usdot.cv.mongodb.datasink.metrics.LaneSnapshot;
+import gov.usdot.cv.mongodb.datasink.metrics.SinkMetrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Decouples the ingest thread from MongoDB latency. Converted write requests are placed on
+ * a bounded queue and drained by a pool of writer threads. When the queue is full the
+ * overflow policy decides whether the ingest thread waits for room or the request is shed.
+ * <p>
+ * A shared pipeline has one queue drained by all writer threads, so two writes of the same
+ * record may be made out of order. A partitioned pipeline gives each writer thread a lane of
+ * its own, a queue with an even share of the capacity, and hashes every request by collection
+ * and record key onto a lane, so writes of the same record are made in the order submitted.
+ * Keys are sampled per lane to report hot keys that load one lane more than the others.
+ */
+public class WritePipeline {
+	private static final int 	DRAIN_LIMIT 	= 100;
+	private static final long 	POLL_TIMEOUT 	= 100;
+	private static final int 	MAX_SAMPLED_KEYS = 1024;
+	private static final int 	MIN_SAMPLED 	= 100;
+
+	public enum OverflowPolicy {
+		Block, Shed;
+
+		public static OverflowPolicy fromString(String policy) {
+			for (OverflowPolicy value : values()) {
+				if (value.toString().equalsIgnoreCase(policy)) {
+					return value;
+				}
+			}
+			return Block;
+		}
+	}
+
+	public interface Handler {
+		public void handle(WriteRequest request) throws Exception;
+	}
+
+	private final Logger logger = Logger.getLogger(getClass());
+
+	private final Lane [] 						lanes;
+	private final Handler 						handler;
+	private final OverflowPolicy 				policy;
+	private final Thread [] 					writers;
+	private final Thread 						reporter;
+	private final long 							reportInterval;
+	private final int 							sampleRate;
+	private final int 							hotKeyPercent;
+	private final int 							hotLanePercent;
+	private SinkMetrics 						metrics;
+	private volatile boolean 					terminated = false;
+
+	private final AtomicLong enqueued 			= new AtomicLong();
+	private final AtomicLong shed 				= new AtomicLong();
+	private final AtomicLong drained 			= new AtomicLong();
+	private final AtomicLong pending 			= new AtomicLong();
+	private final AtomicLong enqueueWaitNanos 	= new AtomicLong();
+	private final AtomicLong maxEnqueueWaitNanos = new AtomicLong();
+	private volatile double  drainRate 			= 0.0;
+
+	public WritePipeline(int capacity, int writerThreads, OverflowPolicy policy, Handler handler) {
+		this(capacity, writerThreads, false, policy, handler);
+	}
+
+	/**
+	 * @param partitioned true for one lane per writer thread, false for a queue shared by all of them
+	 */
+	public WritePipeline(int capacity, int writerThreads, boolean partitioned, OverflowPolicy policy, Handler handler) {
+		int threads = Math.max(1, writerThreads);
+		int laneCount = partitioned ? threads : 1;
+		this.lanes = new Lane[laneCount];
+		for (int i = 0; i < laneCount; i++) {
+			this.lanes[i] = new Lane(i, Math.max(1, capacity / laneCount));
+		}
+		this.handler = handler;
+		this.policy = policy;
+		this.reportInterval = PropertyLocator.getInt("mongodb.pipeline.stats.interval", 60 * 1000);
+		this.sampleRate = Math.max(1, PropertyLocator.getInt("mongodb.pipeline.hot.key.sample", 16));
+		this.hotKeyPercent = PropertyLocator.getInt("mongodb.pipeline.hot.key.percent", 20);
+		this.hotLanePercent = PropertyLocator.getInt("mongodb.pipeline.hot.lane.percent", 200);
+
+		this.writers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			this.writers[i] = new Thread(new Writer(this.lanes[i % laneCount]), "mongodb-pipeline-writer-" + i);
+			this.writers[i].setDaemon(true);
+		}
+		this.reporter = new Thread(new Reporter(), "mongodb-pipeline-reporter");
+		this.reporter.setDaemon(true);
+	}
+
+	public void start() {
+		logger.info(String.format("Starting write pipeline with capacity %s, %s writer threads, %s lanes and '%s' overflow policy ...",
+			getQueueCapacity(), this.writers.length, this.lanes.length, this.policy));
+		for (Thread writer : this.writers) {
+			writer.start();
+		}
+		this.reporter.start();
+	}
+
+	public void setMetrics(SinkMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public boolean isPartitioned() {
+		return this.lanes.length > 1;
+	}
+
+	public int getLaneCount() {
+		return this.lanes.length;
+	}
+
+	/**
+	 * Places the request on the queue of its lane. Returns false if the request was shed.
+	 */
+	public boolean submit(WriteRequest request) throws InterruptedException {
+		if (this.terminated) {
+			throw new IllegalStateException("The write pipeline has been shut down.");
+		}
+
+		Lane lane = this.lanes[request.getPartition(this.lanes.length)];
+		this.pending.incrementAndGet();
+		long start = System.nanoTime();
+		boolean accepted = lane.queue.offer(request);
+		if (! accepted && this.policy == OverflowPolicy.Block) {
+			while (! accepted && ! this.terminated) {
+				accepted = lane.queue.offer(request, POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+			}
+		}
+		recordEnqueueWait(System.nanoTime() - start);
+
+		if (! accepted) {
+			this.pending.decrementAndGet();
+			this.shed.incrementAndGet();
+			return false;
+		}
+
+		this.enqueued.incrementAndGet();
+		lane.recordEnqueued(request);
+		return true;
+	}
+
+	/**
+	 * Waits until every accepted request has been handed to the handler.
+	 */
+	public boolean awaitDrained(long timeoutMs) {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		while (this.pending.get() > 0) {
+			if (System.currentTimeMillis() >= deadline) {
+				return false;
+			}
+			try { Thread.sleep(5); } catch (InterruptedException ex) { return false; }
+		}
+		return true;
+	}
+
+	public void shutdown(long timeoutMs) {
+		if (! awaitDrained(timeoutMs)) {
+			logger.warn(String.format("Write pipeline shut down with %s requests still pending.", this.pending.get()));
+		}
+		this.terminated = true;
+		for (Thread writer : this.writers) {
+			try { writer.join(timeoutMs); } catch (InterruptedException ignore) {}
+		}
+		this.reporter.interrupt();
+		logger.info("Write pipeline is terminated. " + getStatistics());
+	}
+
+	public int getQueueDepth() {
+		int depth = 0;
+		for (Lane lane : this.lanes) {
+			depth += lane.queue.size();
+		}
+		return depth;
+	}
+
+	public int getQueueCapacity() {
+		return this.lanes.length * this.lanes[0].capacity;
+	}
+
+	/**
+	 * The state of each lane, with the hot key sampled since the last report.
+	 */
+	public List<LaneSnapshot> getLaneStatistics() {
+		List<LaneSnapshot> snapshots = new ArrayList<LaneSnapshot>(this.lanes.length);
+		for (Lane lane : this.lanes) {
+			snapshots.add(lane.snapshot());
+		}
+		return snapshots;
+	}
+
+	public long getEnqueuedCount() {
+		return this.enqueued.get();
+	}
+
+	public long getShedCount() {
+		return this.shed.get();
+	}
+
+	public long getDrainedCount() {
+		return this.drained.get();
+	}
+
+	public long getAverageEnqueueWaitMicros() {
+		long count = this.enqueued.get() + this.shed.get();
+		return (count == 0) ? 0 : TimeUnit.NANOSECONDS.toMicros(this.enqueueWaitNanos.get() / count);
+	}
+
+	public long getMaxEnqueueWaitMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(this.maxEnqueueWaitNanos.get());
+	}
+
+	/**
+	 * Records handed to the handler per second over the last reporting interval.
+	 */
+	public double getDrainRate() {
+		return this.drainRate;
+	}
+
+	public String getStatistics() {
+		return String.format("Queue depth: %s/%s, enqueued: %s, shed: %s, drained: %s, " +
+				"avg enqueue wait: %s us, max enqueue wait: %s us, drain rate: %.1f records/sec",
+			getQueueDepth(), getQueueCapacity(), getEnqueuedCount(), getShedCount(), getDrainedCount(),
+			getAverageEnqueueWaitMicros(), getMaxEnqueueWaitMicros(), getDrainRate());
+	}
+
+	private void recordEnqueueWait(long nanos) {
+		this.enqueueWaitNanos.addAndGet(nanos);
+		long max = this.maxEnqueueWaitNanos.get();
+		while (nanos > max && ! this.maxEnqueueWaitNanos.compareAndSet(max, nanos)) {
+			max = this.maxEnqueueWaitNanos.get();
+		}
+	}
+
+	/**
+	 * Logs the lanes, warns about hot keys and lanes, and starts a new sample.
+	 */
+	private void reportLanes() {
+		List<LaneSnapshot> snapshots = new ArrayList<LaneSnapshot>(this.lanes.length);
+		long total = 0;
+		long [] counts = new long[this.lanes.length];
+		boolean [] sampledEnough = new boolean[this.lanes.length];
+		for (Lane lane : this.lanes) {
+			snapshots.add(lane.snapshot());
+			counts[lane.index] = lane.enqueued.get() - lane.reported;
+			lane.reported += counts[lane.index];
+			total += counts[lane.index];
+			sampledEnough[lane.index] = lane.resetSample() >= MIN_SAMPLED;
+		}
+
+		for (LaneSnapshot snapshot : snapshots) {
+			if (isPartitioned()) {
+				logger.info("Write pipeline lane statistics. " + snapshot);
+			}
+			if (sampledEnough[snapshot.getLane()] && snapshot.getHotKeyPercent() >= this.hotKeyPercent) {
+				logger.warn(String.format("Hot key '%s' took %.1f%% of the requests sampled on write pipeline lane %s.",
+					snapshot.getHotKey(), snapshot.getHotKeyPercent(), snapshot.getLane()));
+			}
+			long count = counts[snapshot.getLane()];
+			if (isPartitioned() && total >= this.lanes.length * MIN_SAMPLED
+					&& count * this.lanes.length * 100 >= total * this.hotLanePercent) {
+				logger.warn(String.format("Write pipeline lane %s took %s of %s requests, %.0f%% of its even share.",
+					snapshot.getLane(), count, total, count * this.lanes.length * 100.0 / total));
+			}
+		}
+
+		if (this.metrics != null) {
+			this.metrics.recordLanes(snapshots);
+		}
+	}
+
+	private class Lane {
+		private final int 							index;
+		private final int 							capacity;
+		private final BlockingQueue<WriteRequest> 	queue;
+		private final AtomicLong 					enqueued = new AtomicLong();
+		private final AtomicLong 					drained = new AtomicLong();
+		private final AtomicInteger 				maxDepth = new AtomicInteger();
+		private final Map<String, Integer> 			sample = new HashMap<String, Integer>();
+		private int 								sampled;
+		private long 								reported;
+
+		Lane(int index, int capacity) {
+			this.index = index;
+			this.capacity = capacity;
+			this.queue = new ArrayBlockingQueue<WriteRequest>(capacity);
+		}
+
+		void recordEnqueued(WriteRequest request) {
+			int depth = this.queue.size();
+			int max = this.maxDepth.get();
+			while (depth > max && ! this.maxDepth.compareAndSet(max, depth)) {
+				max = this.maxDepth.get();
+			}
+			if (this.enqueued.incrementAndGet() % sampleRate != 0) {
+				return;
+			}
+			Object key = request.getPartitionKey();
+			if (key == null) {
+				return;
+			}
+			String name = request.getCollectionName() + ":" + key;
+			synchronized (this.sample) {
+				Integer count = this.sample.get(name);
+				// Bounded, a key first seen once the sample is full cannot be hot anyway.
+				if (count != null || this.sample.size() < MAX_SAMPLED_KEYS) {
+					this.sample.put(name, (count == null) ? 1 : count + 1);
+				}
+				this.sampled++;
+			}
+		}
+
+		LaneSnapshot snapshot() {
+			String hotKey = null;
+			int hotCount = 0;
+			int sampled;
+			synchronized (this.sample) {
+				for (Map.Entry<String, Integer> entry : this.sample.entrySet()) {
+					if (entry.getValue() > hotCount) {
+						hotKey = entry.getKey();
+						hotCount = entry.getValue();
+					}
+				}
+				sampled = this.sampled;
+			}
+			return new LaneSnapshot(this.index, this.queue.size(), this.capacity, this.maxDepth.get(), this.enqueued.get(),
+				this.drained.get(), hotKey, (sampled == 0) ? 0.0 : hotCount * 100.0 / sampled);
+		}
+
+		// Returns the number of requests that were sampled.
+		int resetSample() {
+			int sampled;
+			synchronized (this.sample) {
+				sampled = this.sampled;
+				this.sample.clear();
+				this.sampled = 0;
+			}
+			this.maxDepth.set(this.queue.size());
+			return sampled;
+		}
+	}
+
+	private class Writer implements Runnable {
+		private final Lane lane;
+
+		Writer(Lane lane) {
+			this.lane = lane;
+		}
+
+		public void run() {
+			logger.info("Write pipeline writer [" + Thread.currentThread().getId() + "] of lane " + this.lane.index + " is starting ...");
+			BlockingQueue<WriteRequest> queue = this.lane.queue;
+			List<WriteRequest> requests = new ArrayList<WriteRequest>(DRAIN_LIMIT);
+			while (! terminated || ! queue.isEmpty()) try {
+				WriteRequest first = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				requests.add(first);
+				queue.drainTo(requests, DRAIN_LIMIT - 1);
+				for (WriteRequest request : requests) {
+					try {
+						handler.handle(request);
+					} catch (Exception ex) {
+						logger.error("Failed to write request taken from the write pipeline.", ex);
+					} finally {
+						this.lane.drained.incrementAndGet();
+						drained.incrementAndGet();
+						pending.decrementAndGet();
+					}
+				}
+				requests.clear();
+			} catch (InterruptedException ignore) {
+			} catch (Exception ex) {
+				logger.error("Write pipeline writer failed.", ex);
+			}
+			logger.info("Write pipeline writer [" + Thread.currentThread().getId() + "] is terminated.");
+		}
+	}
+
+	private class Reporter implements Runnable {
+		public void run() {
+			long last = drained.get();
+			while (! terminated) {
+				try { Thread.sleep(reportInterval); } catch (InterruptedException ex) { break; }
+				long current = drained.get();
+				drainRate = (current - last) * 1000.0 / reportInterval;
+				last = current;
+				logger.info("Write pipeline statistics. " + getStatistics());
+				reportLanes();
+			}
+		}
+	}
+}
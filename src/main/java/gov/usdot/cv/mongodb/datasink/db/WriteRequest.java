@@ -0,0 +1,114 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import gov.usdot.cv.mongodb.datasink.model.DataModel;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.mongodb.BasicDBObject;
+
+/**
+ * A converted document waiting to be written into a MongoDB collection.
+ */
+public class WriteRequest {
+	private final String 		collectionName;
+	private final String 		storageName;
+	private final BasicDBObject query;
+	private final BasicDBObject doc;
+	private final String 		receiptId;
+	private final List<WriteRequest> superseded;
+
+	public WriteRequest(String collectionName, BasicDBObject query, BasicDBObject doc, String receiptId) {
+		this(collectionName, collectionName, query, doc, receiptId, Collections.<WriteRequest>emptyList());
+	}
+
+	/**
+	 * A document of a collection that is stored in another one, a time partition of it.
+	 */
+	public WriteRequest(String collectionName, String storageName, BasicDBObject query, BasicDBObject doc, String receiptId) {
+		this(collectionName, storageName, query, doc, receiptId, Collections.<WriteRequest>emptyList());
+	}
+
+	/**
+	 * The latest of several upserts for the same record, standing in for the older ones it
+	 * superseded. Only the latest document is written; all of them are acknowledged.
+	 */
+	public WriteRequest(WriteRequest latest, List<WriteRequest> superseded) {
+		this(latest.collectionName, latest.storageName, latest.query, latest.doc, latest.receiptId, superseded);
+	}
+
+	private WriteRequest(String collectionName, String storageName, BasicDBObject query, BasicDBObject doc, String receiptId,
+			List<WriteRequest> superseded) {
+		this.collectionName = collectionName;
+		this.storageName = storageName;
+		this.query = query;
+		this.doc = doc;
+		this.receiptId = receiptId;
+		this.superseded = superseded;
+	}
+
+	public String getCollectionName() {
+		return this.collectionName;
+	}
+
+	/**
+	 * The collection the document is written into, the collection itself unless partitioned.
+	 */
+	public String getStorageName() {
+		return this.storageName;
+	}
+
+	public BasicDBObject getQuery() {
+		return this.query;
+	}
+
+	public BasicDBObject getDoc() {
+		return this.doc;
+	}
+
+	public String getReceiptId() {
+		return this.receiptId;
+	}
+
+	public boolean isUpsert() {
+		return this.query != null;
+	}
+
+	public List<WriteRequest> getSuperseded() {
+		return this.superseded;
+	}
+
+	/**
+	 * The key that orders writes of the same record: the value the upsert is matched on,
+	 * or the record id of an insert. Null if the request has neither.
+	 */
+	public Object getPartitionKey() {
+		if (this.query != null && ! this.query.isEmpty()) {
+			return this.query.values().iterator().next();
+		}
+		return (this.doc == null) ? null : this.doc.get(DataModel.RECORD_ID_KEY);
+	}
+
+	/**
+	 * The partition, out of the given number, the request belongs to. Requests for the same
+	 * collection and key always get the same one; requests without a key are spread by identity.
+	 */
+	public int getPartition(int partitions) {
+		if (partitions <= 1) {
+			return 0;
+		}
+		Object key = getPartitionKey();
+		int hash = (key == null) ? System.identityHashCode(this.doc) : 31 * this.collectionName.hashCode() + key.hashCode();
+		hash ^= (hash >>> 16);
+		hash *= 0x85ebca6b;
+		hash ^= (hash >>> 13);
+		return (hash & Integer.MAX_VALUE) % partitions;
+	}
+
+	/**
+	 * The number of records this request accounts for, itself and the ones it superseded.
+	 */
+	public int getRecordCount() {
+		return 1 + this.superseded.size();
+	}
+}
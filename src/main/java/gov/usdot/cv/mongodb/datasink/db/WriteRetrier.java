@@ -0,0 +1,93 @@
+package gov.usdot.cv.mongodb.datasink.db;
+
+import gov.usdot.cv.mongodb.datasink.metrics.SinkMetrics;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs a MongoDB write under the circuit breaker. Transient and unknown errors are
+ * retried with exponential backoff and jitter, permanent errors are never retried.
+ */
+public class WriteRetrier {
+	private final Logger logger = Logger.getLogger(getClass());
+
+	private final CircuitBreaker 	breaker;
+	private final int 				retries;
+	private final long 				baseDelayMs;
+	private final long 				maxDelayMs;
+	private final Random 			random = new Random();
+	private SinkMetrics 			metrics;
+
+	public WriteRetrier(CircuitBreaker breaker, int retries, long baseDelayMs, long maxDelayMs) {
+		this.breaker = breaker;
+		this.retries = Math.max(0, retries);
+		this.baseDelayMs = Math.max(1, baseDelayMs);
+		this.maxDelayMs = Math.max(this.baseDelayMs, maxDelayMs);
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return this.breaker;
+	}
+
+	public void setMetrics(SinkMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public <T> T execute(Callable<T> write) throws WriteFailedException {
+		return execute(null, write);
+	}
+
+	public <T> T execute(String collectionName, Callable<T> write) throws WriteFailedException {
+		int attempt = 0;
+		while (true) {
+			if (! this.breaker.allowRequest()) {
+				throw new WriteFailedException("Circuit breaker is open.", ErrorClassifier.Type.Transient, null);
+			}
+
+			try {
+				long start = System.nanoTime();
+				T result = write.call();
+				if (this.metrics != null) {
+					this.metrics.recordWrite(System.nanoTime() - start);
+				}
+				this.breaker.recordSuccess();
+				return result;
+			} catch (Exception ex) {
+				ErrorClassifier.Type type = ErrorClassifier.classify(ex);
+				if (type == ErrorClassifier.Type.Permanent) {
+					throw new WriteFailedException("Permanent write error: " + ex.getMessage(), type, ex);
+				}
+
+				this.breaker.recordFailure();
+				if (attempt >= this.retries) {
+					throw new WriteFailedException("Retries exhausted: " + ex.getMessage(), type, ex);
+				}
+
+				if (this.metrics != null) {
+					this.metrics.recordRetry(collectionName);
+				}
+				if (type == ErrorClassifier.Type.Unknown && attempt == 0) {
+					logger.warn("Unclassified MongoDB write error, retrying.", ex);
+				} else {
+					logger.warn(String.format("%s MongoDB write error on attempt %s, retrying. Message: %s",
+						type, attempt + 1, ex.getMessage()));
+				}
+			}
+
+			try { Thread.sleep(getDelay(attempt++)); } catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new WriteFailedException("Interrupted while waiting to retry.", ErrorClassifier.Type.Transient, ex);
+			}
+		}
+	}
+
+	// Exponential backoff with equal jitter: half the delay is fixed, half is random.
+	private long getDelay(int attempt) {
+		long delay = Math.min(this.maxDelayMs, this.baseDelayMs << Math.min(attempt, 30));
+		long half = delay / 2;
+		return half + (long) (this.random.nextDouble() * (delay - half + 1));
+	}
+}
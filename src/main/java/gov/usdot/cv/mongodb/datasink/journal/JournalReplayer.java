@@ -0,0 +1,107 @@
+package gov.usdot.cv.mongodb.datasink.journal;
+
+import gov.usdot.cv.common.util.PropertyLocator;
+import gov.usdot.cv.mongodb.datasink.db.BulkWriter;
+import gov.usdot.cv.mongodb.datasink.db.CircuitBreaker;
+import gov.usdot.cv.mongodb.datasink.db.WriteRequest;
+import gov.usdot.cv.mongodb.datasink.model.CoarseClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Loads journaled write requests back into MongoDB, oldest first, once the circuit
+ * breaker lets writes through again. Consecutive requests for the same collection
+ * are sent as one bulk write. A segment is deleted only after every request in it
+ * was stored or rejected by the server.
+ */
+public class JournalReplayer implements Runnable {
+	private final Logger logger = Logger.getLogger(getClass());
+
+	private final SpillJournal 		journal;
+	private final BulkWriter 		writer;
+	private final CircuitBreaker 	breaker;
+	private final int 				batchSize;
+	private final long 				interval;
+	private volatile boolean 		terminated = false;
+
+	private SpillJournal.Segment 	segment;
+	private List<WriteRequest> 		remaining;
+
+	public JournalReplayer(SpillJournal journal, BulkWriter writer, CircuitBreaker breaker, int batchSize) {
+		this.journal = journal;
+		this.writer = writer;
+		this.breaker = breaker;
+		this.batchSize = Math.max(1, batchSize);
+		this.interval = PropertyLocator.getInt("mongodb.journal.replay.interval", 1000);
+	}
+
+	public void terminate() {
+		this.terminated = true;
+	}
+
+	public void run() {
+		logger.info("Journal replayer [" + Thread.currentThread().getId() + "] is starting ...");
+		while (! this.terminated) try {
+			if (! replay()) {
+				try { Thread.sleep(this.interval); } catch (InterruptedException ignore) {}
+			}
+		} catch (Exception ex) {
+			logger.error("Failed to replay spill journal.", ex);
+			try { Thread.sleep(this.interval); } catch (InterruptedException ignore) {}
+		}
+		logger.info("Journal replayer [" + Thread.currentThread().getId() + "] is terminated. " + this.journal.getStatistics());
+	}
+
+	/**
+	 * Replays the oldest journal segment. Returns true if the segment was finished and
+	 * there may be more to do, false if the journal is empty or MongoDB is unavailable.
+	 */
+	boolean replay() throws Exception {
+		if (! this.breaker.allowRequest()) {
+			return false;
+		}
+
+		if (this.segment == null) {
+			this.segment = this.journal.nextSegment();
+			if (this.segment == null) {
+				return false;
+			}
+			this.remaining = this.journal.read(this.segment, CoarseClock.currentTimeMillis());
+		}
+
+		while (! this.remaining.isEmpty()) {
+			if (this.terminated) {
+				return false;
+			}
+
+			List<WriteRequest> batch = nextBatch();
+			if (! this.writer.writeNow(batch.get(0).getCollectionName(), batch)) {
+				logger.warn(String.format("MongoDB is still unavailable, %s journaled records left in the current segment.",
+					this.remaining.size()));
+				return false;
+			}
+			this.remaining.subList(0, batch.size()).clear();
+		}
+
+		this.journal.complete(this.segment);
+		this.segment = null;
+		this.remaining = null;
+		logger.info("Replayed journal segment. " + this.journal.getStatistics());
+		return true;
+	}
+
+	private List<WriteRequest> nextBatch() {
+		String collectionName = this.remaining.get(0).getCollectionName();
+		List<WriteRequest> batch = new ArrayList<WriteRequest>();
+		for (WriteRequest request : this.remaining) {
+			if (batch.size() >= this.batchSize || ! collectionName.equals(request.getCollectionName())) {
+				break;
+			}
+			batch.add(request);
+		}
+		return batch;
+	}
+}
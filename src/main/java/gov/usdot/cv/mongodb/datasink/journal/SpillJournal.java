@@ -0,0 +1,480 @@
+package gov.usdot.cv.mongodb.datasink.journal;
+
+import gov.usdot.cv.mongodb.datasink.db.WriteRequest;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.DefaultDBEncoder;
+
+/**
+ * Append-only journal of write requests that could not be stored while MongoDB was
+ * unavailable. Requests are appended to a memory-mapped segment file; full segments
+ * are sealed and a new one is started, up to a bound on the total number of segments.
+ * Sealed segments are read back oldest first by the {@link JournalReplayer}. Replayed
+ * segment files are kept and reused for new segments rather than deleted, as a file
+ * written through a mapping keeps its disk blocks until the mapping is garbage collected,
+ * and Java has no way to release a mapping explicitly.
+ *
+ * Each segment starts with a magic number followed by entries laid out as
+ * [length][crc32][bson]. The length is written last so a torn entry reads as the end
+ * of the segment.
+ */
+public class SpillJournal {
+	private static final int 	MAGIC 			= 0x43564a31; // "CVJ1"
+	private static final int 	HEADER_SIZE 	= 4;
+	private static final int 	ENTRY_HEADER 	= 8;
+	private static final String SUFFIX 			= ".seg";
+	private static final String FREE_SUFFIX 	= ".free";
+	private static final String LOCK_FILE 		= "journal.lock";
+	private static final int 	MAX_INSTANCES 	= 64;
+
+	private static final String COLLECTION 	= "c";
+	private static final String STORAGE 	= "s";
+	private static final String QUERY 		= "q";
+	private static final String DOC 		= "d";
+	private static final String RECEIPT_ID 	= "r";
+	private static final String EXPIRE_AT 	= "x";
+
+	private final Logger logger = Logger.getLogger(getClass());
+
+	private final File 			rootDirectory;
+	private final int 			segmentSize;
+	private final int 			maxSegments;
+	private final String 		ttlFieldName;
+
+	private File 						directory;
+	private RandomAccessFile 			lockFile;
+	private FileLock 					lock;
+	private final LinkedList<Segment> 	sealed = new LinkedList<Segment>();
+	private final LinkedList<File> 		recycled = new LinkedList<File>();
+	private Segment 					active;
+	private long 						nextSequence;
+	private long 						drainSequence = -1;
+	private boolean 					drainPending;
+
+	private long appended;
+	private long rejected;
+	private long replayed;
+	private long expired;
+
+	public SpillJournal(String directory, int segmentSize, long maxSize, String ttlFieldName) {
+		this.rootDirectory = new File(directory);
+		this.segmentSize = Math.max(64 * 1024, segmentSize);
+		this.maxSegments = (int) Math.max(2, maxSize / this.segmentSize);
+		this.ttlFieldName = ttlFieldName;
+	}
+
+	/**
+	 * Claims a journal directory that no other sink instance is using and picks up
+	 * any segments left behind by a previous run.
+	 */
+	public synchronized void open() throws IOException {
+		for (int i = 0; i < MAX_INSTANCES && this.lock == null; i++) {
+			File candidate = new File(this.rootDirectory, String.valueOf(i));
+			if (! candidate.isDirectory() && ! candidate.mkdirs()) {
+				throw new IOException("Failed to create journal directory " + candidate.getAbsolutePath());
+			}
+
+			RandomAccessFile file = new RandomAccessFile(new File(candidate, LOCK_FILE), "rw");
+			FileLock candidateLock = null;
+			try {
+				candidateLock = file.getChannel().tryLock();
+			} catch (OverlappingFileLockException ignore) {
+			}
+
+			if (candidateLock == null) {
+				file.close();
+			} else {
+				this.directory = candidate;
+				this.lockFile = file;
+				this.lock = candidateLock;
+			}
+		}
+
+		if (this.lock == null) {
+			throw new IOException("No free journal directory under " + this.rootDirectory.getAbsolutePath());
+		}
+
+		this.recycled.addAll(Arrays.asList(listFiles(FREE_SUFFIX)));
+		for (Segment segment : listSegments()) {
+			segment.entries = countEntries(segment.file);
+			if (segment.entries > 0) {
+				this.sealed.add(segment);
+			} else {
+				recycle(segment.file);
+			}
+			this.nextSequence = Math.max(this.nextSequence, segment.sequence + 1);
+		}
+
+		if (! this.sealed.isEmpty()) {
+			this.drainSequence = this.sealed.getLast().sequence;
+			logger.info(String.format("Found %s journal segments with %s records to replay in %s.",
+				this.sealed.size(), getPendingCount(), this.directory.getAbsolutePath()));
+		}
+	}
+
+	public synchronized void close() {
+		try {
+			if (this.active != null) {
+				this.active.buffer.force();
+				if (this.active.entries > 0) {
+					this.sealed.add(this.active);
+				} else {
+					recycle(this.active.file);
+				}
+				this.active = null;
+			}
+			if (this.lock != null) {
+				this.lock.release();
+				this.lockFile.close();
+				this.lock = null;
+			}
+		} catch (IOException ex) {
+			logger.error("Failed to close spill journal.", ex);
+		}
+	}
+
+	/**
+	 * Appends a request to the journal. Returns false if the journal is full or the
+	 * request could not be written, in which case the request is lost.
+	 */
+	public synchronized boolean append(WriteRequest request) {
+		try {
+			byte [] bytes = encode(request);
+			int size = ENTRY_HEADER + bytes.length;
+			if (HEADER_SIZE + size > this.segmentSize) {
+				logger.error(String.format("Record of %s bytes is larger than the journal segment size.", bytes.length));
+				this.rejected++;
+				return false;
+			}
+
+			if (this.active == null || this.active.buffer.remaining() < size) {
+				if (! rotate()) {
+					this.rejected++;
+					return false;
+				}
+			}
+
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+			MappedByteBuffer buffer = this.active.buffer;
+			int position = buffer.position();
+			buffer.putInt(position + 4, (int) crc.getValue());
+			buffer.position(position + ENTRY_HEADER);
+			buffer.put(bytes);
+			// A recycled file still holds the entries of its previous segment past this one.
+			if (buffer.remaining() >= 4) {
+				buffer.putInt(buffer.position(), 0);
+			}
+			buffer.putInt(position, bytes.length);
+
+			this.active.entries++;
+			this.appended++;
+			if (this.drainSequence < 0) {
+				this.drainPending = true;
+			}
+			return true;
+		} catch (IOException ex) {
+			logger.error("Failed to append record to spill journal. Message: " + ex.getMessage());
+			this.rejected++;
+			return false;
+		}
+	}
+
+	/**
+	 * True while there are journaled requests that have not been replayed.
+	 */
+	public synchronized boolean hasBacklog() {
+		return ! this.sealed.isEmpty() || (this.active != null && this.active.entries > 0);
+	}
+
+	/**
+	 * True from the end of an outage until everything journaled up to the end of the drain
+	 * has been replayed. New records queue up behind it meanwhile, so an older journaled
+	 * upsert never overwrites a newer one; afterwards they go straight to MongoDB again.
+	 * Callers hold the journal's lock from this check until they appended, so the drain
+	 * cannot end in between and leave their record behind.
+	 */
+	public synchronized boolean isDraining() {
+		return this.drainSequence >= 0;
+	}
+	
+	public synchronized long getPendingCount() {
+		long count = (this.active == null) ? 0 : this.active.entries;
+		for (Segment segment : this.sealed) {
+			count += segment.entries;
+		}
+		return count;
+	}
+
+	public synchronized long getDiskUsage() {
+		return (long) (this.sealed.size() + this.recycled.size() + (this.active == null ? 0 : 1)) * this.segmentSize;
+	}
+
+	/**
+	 * The oldest segment waiting to be replayed. The first call after records were journaled
+	 * outside of a drain starts one: the active segment is sealed, so the replayer never reads
+	 * a segment being written, and the last segment to replay before new records are written
+	 * directly again is marked. Records journaled during the drain extend it, see complete().
+	 */
+	synchronized Segment nextSegment() throws IOException {
+		if (this.drainPending) {
+			if (this.active != null && this.active.entries > 0) {
+				seal();
+			}
+			this.drainPending = false;
+			if (! this.sealed.isEmpty()) {
+				this.drainSequence = this.sealed.getLast().sequence;
+			}
+		} else if (this.drainSequence < 0 && this.sealed.isEmpty() && this.active != null && this.active.entries > 0) {
+			seal();
+		}
+		return this.sealed.isEmpty() ? null : this.sealed.getFirst();
+	}
+
+	/**
+	 * Reads the requests in a segment, skipping any that expired while they waited.
+	 */
+	List<WriteRequest> read(Segment segment, long now) throws IOException {
+		List<WriteRequest> requests = new ArrayList<WriteRequest>();
+		long skipped = 0;
+		ByteBuffer buffer = readFile(segment.file);
+		if (! readHeader(buffer)) {
+			logger.error("Skipping journal segment with a bad header " + segment.file.getAbsolutePath());
+			return requests;
+		}
+
+		byte [] bytes;
+		while ((bytes = readEntry(buffer, segment.file)) != null) {
+			DBObject entry = new DefaultDBDecoder().decode(bytes, (DBCollection) null);
+			Object expireAt = entry.get(EXPIRE_AT);
+			if (expireAt instanceof Date && ((Date) expireAt).getTime() <= now) {
+				skipped++;
+				continue;
+			}
+			String collectionName = (String) entry.get(COLLECTION);
+			String storageName = (String) entry.get(STORAGE);
+			requests.add(new WriteRequest(
+				collectionName,
+				(storageName == null) ? collectionName : storageName,
+				(BasicDBObject) entry.get(QUERY),
+				(BasicDBObject) entry.get(DOC),
+				(String) entry.get(RECEIPT_ID)));
+		}
+
+		synchronized (this) {
+			this.expired += skipped;
+		}
+		return requests;
+	}
+
+	/**
+	 * Recycles a segment's file once all its requests have been stored.
+	 */
+	synchronized void complete(Segment segment) {
+		this.sealed.remove(segment);
+		this.replayed += segment.entries;
+		if (this.drainSequence >= 0 && segment.sequence >= this.drainSequence) {
+			// Records journaled during the drain are replayed as part of it, the active
+			// segment is sealed for the replayer, so none is left behind once it ends.
+			if (this.active != null && this.active.entries > 0) {
+				seal();
+			}
+			this.drainSequence = this.sealed.isEmpty() ? -1 : this.sealed.getLast().sequence;
+		}
+		recycle(segment.file);
+	}
+
+	public synchronized String getStatistics() {
+		return String.format("Appended: %s, rejected: %s, replayed: %s, expired: %s, pending: %s, segments: %s, disk usage: %s bytes",
+			this.appended, this.rejected, this.replayed, this.expired, getPendingCount(),
+			this.sealed.size() + (this.active == null ? 0 : 1), getDiskUsage());
+	}
+
+	private boolean rotate() throws IOException {
+		if (this.active != null) {
+			seal();
+		}
+
+		if (this.sealed.size() + 1 > this.maxSegments) {
+			logger.error(String.format("Spill journal is full with %s segments, record dropped. %s",
+				this.sealed.size(), getStatistics()));
+			return false;
+		}
+
+		File file = new File(this.directory, String.format("%020d%s", this.nextSequence, SUFFIX));
+		File free = this.recycled.isEmpty() ? file : this.recycled.removeFirst();
+		RandomAccessFile raf = new RandomAccessFile(free, "rw");
+		try {
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+			buffer.putInt(HEADER_SIZE, 0);
+			buffer.putInt(0, MAGIC);
+			buffer.position(HEADER_SIZE);
+			if (free != file) {
+				// Only renamed once it reads as an empty segment, in case of a crash in between.
+				buffer.force();
+				if (! free.renameTo(file)) {
+					throw new IOException("Failed to reuse journal segment file " + free.getAbsolutePath());
+				}
+			}
+			this.active = new Segment(file, this.nextSequence++);
+			this.active.buffer = buffer;
+		} finally {
+			// The mapping stays valid after the channel is closed.
+			raf.close();
+		}
+		return true;
+	}
+
+	private void seal() {
+		this.active.buffer.force();
+		this.active.buffer = null;
+		if (this.active.entries > 0) {
+			this.sealed.add(this.active);
+		} else {
+			recycle(this.active.file);
+		}
+		this.active = null;
+	}
+
+	private void recycle(File file) {
+		String name = file.getName();
+		File free = new File(this.directory, name.substring(0, name.length() - SUFFIX.length()) + FREE_SUFFIX);
+		if (file.renameTo(free)) {
+			this.recycled.add(free);
+		} else if (! file.delete()) {
+			logger.warn("Failed to recycle journal segment " + file.getAbsolutePath());
+		}
+	}
+
+	private List<Segment> listSegments() {
+		List<Segment> segments = new ArrayList<Segment>();
+		for (File file : listFiles(SUFFIX)) {
+			String name = file.getName();
+			try {
+				segments.add(new Segment(file, Long.parseLong(name.substring(0, name.length() - SUFFIX.length()))));
+			} catch (NumberFormatException ex) {
+				logger.warn("Ignoring unexpected file in journal directory " + file.getAbsolutePath());
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+	private File [] listFiles(final String suffix) {
+		File [] files = this.directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(suffix);
+			}
+		});
+		return (files == null) ? new File[0] : files;
+	}
+
+	private int countEntries(File file) throws IOException {
+		int count = 0;
+		ByteBuffer buffer = readFile(file);
+		if (readHeader(buffer)) {
+			while (readEntry(buffer, file) != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	// Read rather than mapped, so no mapping of the file outlives the read.
+	private static ByteBuffer readFile(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			}
+			buffer.flip();
+			return buffer;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static boolean readHeader(ByteBuffer buffer) {
+		return buffer.remaining() >= HEADER_SIZE && buffer.getInt() == MAGIC;
+	}
+
+	private byte [] readEntry(ByteBuffer buffer, File file) {
+		if (buffer.remaining() < ENTRY_HEADER) {
+			return null;
+		}
+
+		int length = buffer.getInt();
+		int checksum = buffer.getInt();
+		if (length <= 0 || length > buffer.remaining()) {
+			return null;
+		}
+
+		byte [] bytes = new byte[length];
+		buffer.get(bytes);
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		if ((int) crc.getValue() != checksum) {
+			logger.error("Corrupt entry in journal segment " + file.getAbsolutePath() + ", ignoring the rest of it.");
+			return null;
+		}
+		return bytes;
+	}
+
+	private byte [] encode(WriteRequest request) {
+		BasicDBObject entry = new BasicDBObject(COLLECTION, request.getCollectionName());
+		if (! request.getCollectionName().equals(request.getStorageName())) {
+			entry.put(STORAGE, request.getStorageName());
+		}
+		if (request.getQuery() != null) {
+			entry.put(QUERY, request.getQuery());
+		}
+		entry.put(DOC, request.getDoc());
+		if (request.getReceiptId() != null) {
+			entry.put(RECEIPT_ID, request.getReceiptId());
+		}
+		Object expireAt = request.getDoc().get(this.ttlFieldName);
+		if (expireAt instanceof Date) {
+			entry.put(EXPIRE_AT, expireAt);
+		}
+		return new DefaultDBEncoder().encode(entry);
+	}
+
+	static class Segment implements Comparable<Segment> {
+		private final File 			file;
+		private final long 			sequence;
+		private MappedByteBuffer 	buffer;
+		private int 				entries;
+
+		Segment(File file, long sequence) {
+			this.file = file;
+			this.sequence = sequence;
+		}
+
+		public int compareTo(Segment other) {
+			return (this.sequence < other.sequence) ? -1 : (this.sequence == other.sequence ? 0 : 1);
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package gov.usdot.cv.mongodb.datasink.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The bulk batch size and flush interval the adaptive batching picked for a collection,
+ * with the write latency it based that on.
+ */
+public class BatchSizingSnapshot {
+	private final int 		batchSize;
+	private final long 		flushIntervalMs;
+	private final double 	latencyMs;
+	private final long 		increases;
+	private final long 		decreases;
+
+	@ConstructorProperties({"batchSize", "flushIntervalMs", "latencyMs", "increases", "decreases"})
+	public BatchSizingSnapshot(int batchSize, long flushIntervalMs, double latencyMs, long increases, long decreases) {
+		this.batchSize = batchSize;
+		this.flushIntervalMs = flushIntervalMs;
+		this.latencyMs = latencyMs;
+		this.increases = increases;
+		this.decreases = decreases;
+	}
+
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+
+	public long getFlushIntervalMs() {
+		return this.flushIntervalMs;
+	}
+
+	/**
+	 * Smoothed latency of the bulk writes.
+	 */
+	public double getLatencyMs() {
+		return this.latencyMs;
+	}
+
+	public long getIncreases() {
+		return this.increases;
+	}
+
+	public long getDecreases() {
+		return this.decreases;
+	}
+
+	public String toString() {
+		return String.format("batch size: %s, flush interval: %s ms, latency: %.2f ms, increases: %s, decreases: %s",
+			this.batchSize, this.flushIntervalMs, this.latencyMs, this.increases, this.decreases);
+	}
+}
@@ -0,0 +1,87 @@
+package gov.usdot.cv.mongodb.datasink.metrics;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Record counters for one MongoDB collection.
+ */
+public class CollectionCounters {
+	final AtomicLong recordsIn 		= new AtomicLong();
+	final AtomicLong inserted 		= new AtomicLong();
+	final AtomicLong upserted 		= new AtomicLong();
+	final AtomicLong retried 		= new AtomicLong();
+	final AtomicLong dropped 		= new AtomicLong();
+	final AtomicLong coalesced 		= new AtomicLong();
+	final AtomicLong receiptsSent 	= new AtomicLong();
+
+	public Snapshot snapshot() {
+		return new Snapshot(this.recordsIn.get(), this.inserted.get(), this.upserted.get(),
+			this.retried.get(), this.dropped.get(), this.coalesced.get(), this.receiptsSent.get());
+	}
+
+	/**
+	 * Point in time view of the counters, as published over JMX.
+	 */
+	public static class Snapshot {
+		private final long recordsIn;
+		private final long inserted;
+		private final long upserted;
+		private final long retried;
+		private final long dropped;
+		private final long coalesced;
+		private final long receiptsSent;
+
+		@ConstructorProperties({"recordsIn", "inserted", "upserted", "retried", "dropped", "coalesced", "receiptsSent"})
+		public Snapshot(long recordsIn, long inserted, long upserted, long retried, long dropped, long coalesced, long receiptsSent) {
+			this.recordsIn = recordsIn;
+			this.inserted = inserted;
+			this.upserted = upserted;
+			this.retried = retried;
+			this.dropped = dropped;
+			this.coalesced = coalesced;
+			this.receiptsSent = receiptsSent;
+		}
+
+		public long getRecordsIn() {
+			return this.recordsIn;
+		}
+
+		public long getStored() {
+			return this.inserted + this.upserted;
+		}
+
+		public long getInserted() {
+			return this.inserted;
+		}
+
+		public long getUpserted() {
+			return this.upserted;
+		}
+
+		public long getRetried() {
+			return this.retried;
+		}
+
+		public long getDropped() {
+			return this.dropped;
+		}
+
+		/**
+		 * Upserts that were not written because a newer record with the same record id
+		 * replaced them within the coalescing window.
+		 */
+		public long getCoalesced() {
+			return this.coalesced;
+		}
+
+		public long getReceiptsSent() {
+			return this.receiptsSent;
+		}
+
+		public String toString() {
+			return String.format("in: %s, stored: %s (inserted: %s, upserted: %s), retried: %s, dropped: %s, coalesced: %s, receipts: %s",
+				this.recordsIn, getStored(), this.inserted, this.upserted, this.retried, this.dropped, this.coalesced, this.receiptsSent);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package gov.usdot.cv.mongodb.datasink.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Point in time view of a {@link LatencyHistogram}, in microseconds.
+ */
+public class HistogramSnapshot {
+	private final long 		count;
+	private final double 	mean;
+	private final double 	p50;
+	private final double 	p90;
+	private final double 	p99;
+	private final double 	p999;
+	private final double 	max;
+
+	@ConstructorProperties({"count", "meanMicros", "p50Micros", "p90Micros", "p99Micros", "p999Micros", "maxMicros"})
+	public HistogramSnapshot(long count, double mean, double p50, double p90, double p99, double p999, double max) {
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+
+	public long getCount() {
+		return this.count;
+	}
+
+	public double getMeanMicros() {
+		return this.mean;
+	}
+
+	public double getP50Micros() {
+		return this.p50;
+	}
+
+	public double getP90Micros() {
+		return this.p90;
+	}
+
+	public double getP99Micros() {
+		return this.p99;
+	}
+
+	public double getP999Micros() {
+		return this.p999;
+	}
+
+	public double getMaxMicros() {
+		return this.max;
+	}
+
+	public String toString() {
+		return String.format("count: %s, mean: %.1f us, p50: %.1f us, p90: %.1f us, p99: %.1f us, p99.9: %.1f us, max: %.1f us",
+			this.count, this.mean, this.p50, this.p90, this.p99, this.p999, this.max);
+	}
+}
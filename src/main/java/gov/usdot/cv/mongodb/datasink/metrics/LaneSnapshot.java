@@ -0,0 +1,77 @@
+package gov.usdot.cv.mongodb.datasink.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The state of one lane of the partitioned write pipeline, with the key it saw most
+ * often among the requests sampled since the last report.
+ */
+public class LaneSnapshot {
+	private final int 		lane;
+	private final int 		depth;
+	private final int 		capacity;
+	private final int 		maxDepth;
+	private final long 		enqueued;
+	private final long 		drained;
+	private final String 	hotKey;
+	private final double 	hotKeyPercent;
+
+	@ConstructorProperties({"lane", "depth", "capacity", "maxDepth", "enqueued", "drained", "hotKey", "hotKeyPercent"})
+	public LaneSnapshot(int lane, int depth, int capacity, int maxDepth, long enqueued, long drained, String hotKey,
+			double hotKeyPercent) {
+		this.lane = lane;
+		this.depth = depth;
+		this.capacity = capacity;
+		this.maxDepth = maxDepth;
+		this.enqueued = enqueued;
+		this.drained = drained;
+		this.hotKey = hotKey;
+		this.hotKeyPercent = hotKeyPercent;
+	}
+
+	public int getLane() {
+		return this.lane;
+	}
+
+	public int getDepth() {
+		return this.depth;
+	}
+
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * The deepest the lane's queue got since the last report.
+	 */
+	public int getMaxDepth() {
+		return this.maxDepth;
+	}
+
+	public long getEnqueued() {
+		return this.enqueued;
+	}
+
+	public long getDrained() {
+		return this.drained;
+	}
+
+	/**
+	 * The most frequent key among the sampled requests, null if none were sampled.
+	 */
+	public String getHotKey() {
+		return this.hotKey;
+	}
+
+	/**
+	 * The share of the lane's sampled requests that had the hot key.
+	 */
+	public double getHotKeyPercent() {
+		return this.hotKeyPercent;
+	}
+
+	public String toString() {
+		return String.format("lane: %s, depth: %s/%s, max depth: %s, enqueued: %s, drained: %s, hot key: %s (%.1f%%)",
+			this.lane, this.depth, this.capacity, this.maxDepth, this.enqueued, this.drained, this.hotKey, this.hotKeyPercent);
+	}
+}
@@ -0,0 +1,115 @@
+package gov.usdot.cv.mongodb.datasink.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of latencies in nanoseconds. Every power of two is split into
+ * eight buckets, so a percentile is accurate to within 12.5%. Recording only touches
+ * atomic counters; it never locks or allocates.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS 	= 3;
+	private static final int SUB_BUCKETS 		= 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT 		= 42; // ~73 minutes
+	private static final int BUCKETS 			= (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray 	buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong 		count = new AtomicLong();
+	private final AtomicLong 		sum = new AtomicLong();
+	private final AtomicLong 		max = new AtomicLong();
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		this.buckets.incrementAndGet(indexOf(nanos));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(nanos);
+
+		long current = this.max.get();
+		while (nanos > current && ! this.max.compareAndSet(current, nanos)) {
+			current = this.max.get();
+		}
+	}
+
+	public long getCount() {
+		return this.count.get();
+	}
+
+	public long getMaxNanos() {
+		return this.max.get();
+	}
+
+	public double getMeanNanos() {
+		long n = this.count.get();
+		return (n == 0) ? 0.0 : (double) this.sum.get() / n;
+	}
+
+	/**
+	 * The upper bound of the bucket holding the given percentile (0 to 100), in nanoseconds.
+	 */
+	public long getPercentileNanos(double percentile) {
+		long[] counts = new long[this.buckets.length()];
+		long total = 0;
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = this.buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= Math.max(1, rank)) {
+				return Math.min(upperBoundOf(i), this.max.get());
+			}
+		}
+		return this.max.get();
+	}
+
+	public HistogramSnapshot snapshot() {
+		return new HistogramSnapshot(
+			getCount(),
+			getMeanNanos() / 1000.0,
+			getPercentileNanos(50) / 1000.0,
+			getPercentileNanos(90) / 1000.0,
+			getPercentileNanos(99) / 1000.0,
+			getPercentileNanos(99.9) / 1000.0,
+			getMaxNanos() / 1000.0);
+	}
+
+	public void reset() {
+		for (int i = 0; i < this.buckets.length(); i++) {
+			this.buckets.set(i, 0);
+		}
+		this.count.set(0);
+		this.sum.set(0);
+		this.max.set(0);
+	}
+
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	static long upperBoundOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int sub = index % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return (1L << exponent) + (sub + 1) * width - 1;
+	}
+}
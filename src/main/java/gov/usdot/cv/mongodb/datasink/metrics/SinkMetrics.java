@@ -0,0 +1,182 @@
+package gov.usdot.cv.mongodb.datasink.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * JVM wide metrics for all MongoDB data sink instances, published over JMX as
+ * gov.usdot.cv.mongodb.datasink:type=SinkMetrics. Recording never locks; after the
+ * first record for a collection it does not allocate either.
+ */
+public class SinkMetrics implements SinkMetricsMXBean {
+	public static final String OBJECT_NAME = "gov.usdot.cv.mongodb.datasink:type=SinkMetrics";
+
+	private static final Logger logger = Logger.getLogger(SinkMetrics.class);
+
+	private static SinkMetrics instance;
+
+	private final LatencyHistogram conversion 	= new LatencyHistogram();
+	private final LatencyHistogram write 		= new LatencyHistogram();
+	private final LatencyHistogram receipt 		= new LatencyHistogram();
+	private final LatencyHistogram indexMonitor = new LatencyHistogram();
+
+	private final ConcurrentMap<String, CollectionCounters> collections = new ConcurrentHashMap<String, CollectionCounters>();
+	private final ConcurrentMap<String, BatchSizingSnapshot> batchSizing = new ConcurrentHashMap<String, BatchSizingSnapshot>();
+	private volatile List<LaneSnapshot> lanes = Collections.emptyList();
+
+	SinkMetrics() {
+	}
+
+	/**
+	 * The shared metrics, registered with the platform MBean server on first use.
+	 */
+	public static synchronized SinkMetrics getInstance() {
+		if (instance == null) {
+			instance = new SinkMetrics();
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName(OBJECT_NAME);
+				if (! server.isRegistered(name)) {
+					server.registerMBean(instance, name);
+				}
+			} catch (Exception ex) {
+				logger.error("Failed to register MongoDB data sink metrics MBean.", ex);
+			}
+		}
+		return instance;
+	}
+
+	public void recordConversion(long nanos) {
+		this.conversion.record(nanos);
+	}
+
+	public void recordWrite(long nanos) {
+		this.write.record(nanos);
+	}
+
+	public void recordReceipt(String collectionName, long nanos) {
+		this.receipt.record(nanos);
+		counters(collectionName).receiptsSent.incrementAndGet();
+	}
+
+	public void recordIndexMonitorRun(long nanos) {
+		this.indexMonitor.record(nanos);
+	}
+
+	public void recordIn(String collectionName) {
+		counters(collectionName).recordsIn.incrementAndGet();
+	}
+
+	public void recordStored(String collectionName, boolean upsert) {
+		CollectionCounters counters = counters(collectionName);
+		if (upsert) {
+			counters.upserted.incrementAndGet();
+		} else {
+			counters.inserted.incrementAndGet();
+		}
+	}
+
+	public void recordRetry(String collectionName) {
+		counters(collectionName).retried.incrementAndGet();
+	}
+
+	public void recordDropped(String collectionName, int count) {
+		counters(collectionName).dropped.addAndGet(count);
+	}
+
+	public void recordCoalesced(String collectionName, int count) {
+		counters(collectionName).coalesced.addAndGet(count);
+	}
+
+	public void recordBatchSizing(String collectionName, BatchSizingSnapshot snapshot) {
+		this.batchSizing.put((collectionName == null) ? "unknown" : collectionName, snapshot);
+	}
+
+	public void recordLanes(List<LaneSnapshot> lanes) {
+		this.lanes = Collections.unmodifiableList(lanes);
+	}
+
+	public HistogramSnapshot getConversionLatency() {
+		return this.conversion.snapshot();
+	}
+
+	public HistogramSnapshot getWriteLatency() {
+		return this.write.snapshot();
+	}
+
+	public HistogramSnapshot getReceiptLatency() {
+		return this.receipt.snapshot();
+	}
+
+	public HistogramSnapshot getIndexMonitorRunDuration() {
+		return this.indexMonitor.snapshot();
+	}
+
+	public Map<String, CollectionCounters.Snapshot> getCollections() {
+		Map<String, CollectionCounters.Snapshot> snapshots = new TreeMap<String, CollectionCounters.Snapshot>();
+		for (Map.Entry<String, CollectionCounters> entry : this.collections.entrySet()) {
+			snapshots.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		return snapshots;
+	}
+
+	public CollectionCounters.Snapshot getTotals() {
+		long in = 0, inserted = 0, upserted = 0, retried = 0, dropped = 0, coalesced = 0, receipts = 0;
+		for (CollectionCounters.Snapshot snapshot : getCollections().values()) {
+			in += snapshot.getRecordsIn();
+			inserted += snapshot.getInserted();
+			upserted += snapshot.getUpserted();
+			retried += snapshot.getRetried();
+			dropped += snapshot.getDropped();
+			coalesced += snapshot.getCoalesced();
+			receipts += snapshot.getReceiptsSent();
+		}
+		return new CollectionCounters.Snapshot(in, inserted, upserted, retried, dropped, coalesced, receipts);
+	}
+
+	public Map<String, BatchSizingSnapshot> getBatchSizing() {
+		return new TreeMap<String, BatchSizingSnapshot>(this.batchSizing);
+	}
+
+	public List<LaneSnapshot> getLanes() {
+		return this.lanes;
+	}
+
+	public void reset() {
+		this.conversion.reset();
+		this.write.reset();
+		this.receipt.reset();
+		this.indexMonitor.reset();
+		this.collections.clear();
+		this.batchSizing.clear();
+		this.lanes = Collections.emptyList();
+	}
+
+	public String getStatistics() {
+		return String.format("Totals: [%s], conversion: [%s], write: [%s], receipt: [%s]",
+			getTotals(), getConversionLatency(), getWriteLatency(), getReceiptLatency());
+	}
+
+	private CollectionCounters counters(String collectionName) {
+		String key = (collectionName == null) ? "unknown" : collectionName;
+		CollectionCounters counters = this.collections.get(key);
+		if (counters == null) {
+			CollectionCounters created = new CollectionCounters();
+			counters = this.collections.putIfAbsent(key, created);
+			if (counters == null) {
+				counters = created;
+			}
+		}
+		return counters;
+	}
+}
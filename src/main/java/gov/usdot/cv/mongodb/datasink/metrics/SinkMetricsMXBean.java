@@ -0,0 +1,27 @@
+package gov.usdot.cv.mongodb.datasink.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Management interface of the MongoDB data sink metrics. Latencies are in microseconds.
+ */
+public interface SinkMetricsMXBean {
+	public HistogramSnapshot getConversionLatency();
+
+	public HistogramSnapshot getWriteLatency();
+
+	public HistogramSnapshot getReceiptLatency();
+
+	public HistogramSnapshot getIndexMonitorRunDuration();
+
+	public Map<String, CollectionCounters.Snapshot> getCollections();
+
+	public CollectionCounters.Snapshot getTotals();
+
+	public Map<String, BatchSizingSnapshot> getBatchSizing();
+
+	public List<LaneSnapshot> getLanes();
+
+	public void reset();
+}
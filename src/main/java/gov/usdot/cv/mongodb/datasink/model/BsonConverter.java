@@ -0,0 +1,91 @@
+package gov.usdot.cv.mongodb.datasink.model;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Iterator;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+
+/**
+ * Converts a json-lib record tree directly into MongoDB objects. Produces the same
+ * value types as parsing the record's JSON text with com.mongodb.util.JSON without
+ * serializing the record to a string first.
+ */
+public class BsonConverter {
+	private static final double PLAIN_NOTATION_LIMIT = 1e7;
+
+	private BsonConverter() {
+	}
+
+	public static BasicDBObject toDBObject(JSONObject object) {
+		if (object == null || object.isNullObject()) {
+			return null;
+		}
+		BasicDBObject dbObj = new BasicDBObject();
+		for (Iterator<?> keys = object.keys(); keys.hasNext();) {
+			String key = (String) keys.next();
+			dbObj.put(key, toValue(object.get(key)));
+		}
+		return dbObj;
+	}
+
+	public static BasicDBList toDBList(JSONArray array) {
+		BasicDBList dbList = new BasicDBList();
+		for (int i = 0; i < array.size(); i++) {
+			dbList.add(toValue(array.get(i)));
+		}
+		return dbList;
+	}
+
+	public static Object toValue(Object value) {
+		if (value == null || value instanceof JSONNull) {
+			return null;
+		} else if (value instanceof String || value instanceof Boolean ||
+				value instanceof Integer || value instanceof Long) {
+			return value;
+		} else if (value instanceof JSONObject) {
+			return toDBObject((JSONObject) value);
+		} else if (value instanceof JSONArray) {
+			return toDBList((JSONArray) value);
+		} else if (value instanceof Double || value instanceof Float) {
+			return toNumber(Double.parseDouble(value.toString()));
+		} else if (value instanceof BigDecimal) {
+			BigDecimal decimal = (BigDecimal) value;
+			if (decimal.signum() == 0 || decimal.stripTrailingZeros().scale() <= 0) {
+				return toNumber(decimal.toBigInteger());
+			}
+			return decimal.doubleValue();
+		} else if (value instanceof BigInteger) {
+			return toNumber((BigInteger) value);
+		} else if (value instanceof Number) {
+			return toNumber(((Number) value).longValue());
+		} else {
+			return value.toString();
+		}
+	}
+	
+	private static Object toNumber(double value) {
+		// json-lib writes integral doubles in plain notation without the fraction,
+		// which the JSON text round trip read back as integers.
+		if (value == Math.rint(value) && Math.abs(value) < PLAIN_NOTATION_LIMIT) {
+			return (int) value;
+		}
+		return value;
+	}
+	
+	private static Object toNumber(BigInteger value) {
+		return (value.bitLength() < 64) ? toNumber(value.longValue()) : (Object) value.doubleValue();
+	}
+	
+	private static Object toNumber(long value) {
+		if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+			return (int) value;
+		}
+		return value;
+	}
+}
@@ -0,0 +1,39 @@
+package gov.usdot.cv.mongodb.datasink.model;
+
+import gov.usdot.cv.common.util.PropertyLocator;
+
+/**
+ * A wall clock that is read from a volatile field refreshed by a single daemon
+ * thread, so stamping records costs no system call. The value lags the real
+ * time by at most the configured resolution.
+ */
+public class CoarseClock {
+	private static final long RESOLUTION = Math.max(1,
+		PropertyLocator.getInt("mongodb.clock.resolution", 10));
+
+	private static volatile long now = System.currentTimeMillis();
+
+	static {
+		Thread ticker = new Thread(new Runnable() {
+			public void run() {
+				while (true) {
+					try { Thread.sleep(RESOLUTION); } catch (InterruptedException ignore) {}
+					now = System.currentTimeMillis();
+				}
+			}
+		}, "mongodb-coarse-clock");
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+
+	private CoarseClock() {
+	}
+
+	public static long currentTimeMillis() {
+		return now;
+	}
+
+	public static long getResolution() {
+		return RESOLUTION;
+	}
+}
@@ -1,14 +1,13 @@
 package gov.usdot.cv.mongodb.datasink.model;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.TimeZone;
+import java.util.Iterator;
+import java.util.List;
 
 import com.deleidos.rtws.commons.util.DataModelBasedNames;
 import com.deleidos.rtws.core.framework.parser.CanonicalFormat;
 import com.mongodb.BasicDBObject;
-import com.mongodb.util.JSON;
 
 import net.sf.json.JSONObject;
 
@@ -19,6 +18,7 @@ public class DataModel {
 	public static final String REQUEST_ID_KEY 		= "requestId";
 	public static final String RECORD_ID_KEY 		= "recordId";
 	public static final String CREATED_AT_KEY		= "createdAt";
+	public static final String BBOX_SUFFIX			= "BBox";
 
 	private JSONObject record;
 	
@@ -31,19 +31,40 @@ public class DataModel {
 			boolean ignoreMessageTTL,
 			int ttlValue,
 			String ttlUnit) throws ParseException {
+		this(record, expirationFieldName, ignoreMessageTTL, 
+			TimeToLiveRule.resolve(ttlValue, ttlUnit), CoarseClock.currentTimeMillis());
+	}
+	
+	/**
+	 * Builds the document using a default time to live resolved ahead of time and
+	 * a single clock reading for both the creation and expiration times.
+	 */
+	public DataModel(
+			JSONObject record, 
+			String expirationFieldName,
+			boolean ignoreMessageTTL,
+			TimeToLiveRule defaultTimeToLive,
+			long now) throws ParseException {
 		this.record = record;
-		this.doc = (BasicDBObject) JSON.parse(record.toString());
+		this.doc = new BasicDBObject();
+		
+		// Converts the record in a single pass, parsing the timestamp as it is
+		// reached instead of serializing the record to JSON text and back.
+		for (Iterator<?> keys = record.keys(); keys.hasNext();) {
+			String key = (String) keys.next();
+			if (TIMESTAMP_KEY.equals(key)) {
+				String timestamp = record.getString(TIMESTAMP_KEY);
+				this.doc.put(TIMESTAMP_KEY, new Date(TimestampParser.parse(timestamp)));
+			} else {
+				this.doc.put(key, BsonConverter.toValue(record.get(key)));
+			}
+		}
+		
 		if (record.has(RECORD_ID_KEY)) {
 			this.query = new BasicDBObject();
 			this.query.put(RECORD_ID_KEY, record.getInt(RECORD_ID_KEY));
 		}
-		if (record.has(TIMESTAMP_KEY)) {
-			String timestamp = record.getString(TIMESTAMP_KEY);
-			SimpleDateFormat df = new SimpleDateFormat(TIMESTAMP_FORMAT);
-			df.setTimeZone(TimeZone.getTimeZone("UTC"));
-			this.doc.put(TIMESTAMP_KEY, df.parse(timestamp));
-		}
-		setTimeToLive(expirationFieldName, ignoreMessageTTL, ttlValue, ttlUnit);
+		setTimeToLive(expirationFieldName, ignoreMessageTTL, defaultTimeToLive, now);
 	}
 	
 	public String getModelName() {
@@ -59,6 +80,49 @@ public class DataModel {
 		return this.doc;
 	}
 	
+	/**
+	 * Keys the document by an _id derived from the record, so it is written as a replace
+	 * of that _id with upsert and resending the record can never store a second copy.
+	 */
+	public void useDocumentKey() {
+		Object id = DocumentKey.forRecord(getModelName(), this.record);
+		this.doc.put(DocumentKey.ID_KEY, id);
+		this.query = new BasicDBObject(DocumentKey.ID_KEY, id);
+	}
+	
+	/**
+	 * Stores the base64 encoded message as binary, compressed from the given size in bytes
+	 * if not 0. Readers get it back with {@link EncodedMessage}.
+	 */
+	public void useBinaryMessage(int compressionThreshold) {
+		EncodedMessage.toBinary(this.doc, compressionThreshold);
+	}
+	
+	/**
+	 * Repairs the GeoJSON geometry in the given field, if there is one, and adds its
+	 * bounding box as [minLon, minLat, maxLon, maxLat] in the field of the same name
+	 * suffixed with BBox, e.g. regionBBox.
+	 * @throws InvalidGeometryException if the geometry cannot be repaired
+	 */
+	public void repairGeometry(String geometryFieldName) {
+		Object geometry = this.doc.get(geometryFieldName);
+		if (geometry != null) {
+			this.doc.put(geometryFieldName + BBOX_SUFFIX, GeometryRepair.repair(geometry));
+		}
+	}
+	
+	/**
+	 * Adds the cells covering the repaired geometry in the given field, if there is one,
+	 * in the field of the same name suffixed with Cells, e.g. regionCells.
+	 */
+	public void addCovering(String geometryFieldName, GeoHashCovering covering) {
+		Object bbox = this.doc.get(geometryFieldName + BBOX_SUFFIX);
+		if (bbox instanceof List) {
+			this.doc.put(geometryFieldName + GeoHashCovering.FIELD_SUFFIX, 
+				covering.cover(this.doc.get(geometryFieldName), (List<?>) bbox));
+		}
+	}
+	
 	protected Integer getTimeToLive() {
 		if (record.has(TIME_TO_LIVE_KEY)) {
 			return record.getInt(TIME_TO_LIVE_KEY);
@@ -69,10 +133,9 @@ public class DataModel {
 	private void setTimeToLive(
 		String expirationFieldName, 
 		boolean ignoreMessageTTL,
-		int ttlValue, 
-		String ttlUnit) {
-		Date now = new Date();
-		Date expiration = null;
+		TimeToLiveRule defaultTimeToLive, 
+		long now) {
+		long expiration = 0;
 		
 		if (! ignoreMessageTTL) {
 			// Ignore message ttl not set and ttl exists in the
@@ -82,20 +145,20 @@ public class DataModel {
 			if (getTimeToLive() != null) {
 				TimeToLive ttl = TimeToLive.fromCode(getTimeToLive());
 				if (ttl != null) {
-					expiration = ttl.getExpiration();
+					expiration = ttl.getExpiration(now);
 				}
 			}
 		}
 		
-		if (expiration == null) {
+		if (expiration == 0) {
 			// The ignore message ttl is set or the ttl value doesn't
 			// exist in the message. If this is the case, we uses the
 			// default ttl.
-			expiration = TimeToLive.getExpiration(ttlValue, ttlUnit);
+			expiration = defaultTimeToLive.getExpiration(now);
 		}
 		
-		this.doc.put(CREATED_AT_KEY, now);
-		this.doc.put(expirationFieldName, expiration);
+		this.doc.put(CREATED_AT_KEY, new Date(now));
+		this.doc.put(expirationFieldName, new Date(expiration));
 	}
 	
 	public String toString() {
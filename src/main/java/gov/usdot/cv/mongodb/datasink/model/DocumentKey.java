@@ -0,0 +1,54 @@
+package gov.usdot.cv.mongodb.datasink.model;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Derives a document's _id from the record itself so writing the same record twice
+ * replaces the document instead of adding a second one. Records with a record id are
+ * keyed by it, other records by a hash of their model name and encoded message.
+ */
+public class DocumentKey {
+	public static final String ID_KEY 			= "_id";
+	public static final String ENCODED_MSG_KEY 	= "encodedMsg";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final char [] HEX = "0123456789abcdef".toCharArray();
+
+	private DocumentKey() {
+	}
+
+	public static Object forRecord(String modelName, JSONObject record) {
+		if (record.has(DataModel.RECORD_ID_KEY)) {
+			return record.getInt(DataModel.RECORD_ID_KEY);
+		}
+		return contentHash(modelName, record.getString(ENCODED_MSG_KEY));
+	}
+
+	/**
+	 * The SHA-1 of the model name and encoded message as 40 hex digits.
+	 */
+	public static String contentHash(String modelName, String encodedMsg) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-1 is not available.", ex);
+		}
+		digest.update(modelName.getBytes(UTF8));
+		// Separates the model name from the message so the two can not run together.
+		digest.update((byte) 0);
+		digest.update(encodedMsg.getBytes(UTF8));
+
+		byte [] hash = digest.digest();
+		char [] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			hex[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+			hex[2 * i + 1] = HEX[hash[i] & 0xf];
+		}
+		return new String(hex);
+	}
+}
@@ -0,0 +1,202 @@
+package gov.usdot.cv.mongodb.datasink.model;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.bson.types.Binary;
+
+import com.mongodb.DBObject;
+
+/**
+ * Converts the base64 encoded message of a document to binary for storage and back for
+ * readers. The binary is a third smaller than the text and, past a size threshold, may be
+ * deflate compressed, which the encodedMsgCodec field then says.
+ * <p>
+ * Readers should use {@link #getBytes(DBObject)} or {@link #getBase64(DBObject)}, which
+ * return the same message whether it was stored as text, binary or compressed binary,
+ * so they keep working while documents of all three kinds are in a collection.
+ */
+public class EncodedMessage {
+	public static final String CODEC_SUFFIX 	= "Codec";
+	public static final String DEFLATE_CODEC 	= "deflate";
+
+	private static final char [] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+	private static final int [] BASE64_VALUES = new int[128];
+
+	static {
+		Arrays.fill(BASE64_VALUES, -1);
+		for (int i = 0; i < BASE64.length; i++) {
+			BASE64_VALUES[BASE64[i]] = i;
+		}
+	}
+
+	private EncodedMessage() {
+	}
+
+	/**
+	 * Replaces the base64 text in the encodedMsg field with its bytes, deflated if they are
+	 * at least the given number of bytes long and compress. Text that is not canonical
+	 * base64 is left as it is, so reading it back always returns the text received.
+	 * @param compressionThreshold the size in bytes from which messages are compressed, 0 for never
+	 * @return true if the field was converted
+	 */
+	public static boolean toBinary(DBObject doc, int compressionThreshold) {
+		return toBinary(doc, DocumentKey.ENCODED_MSG_KEY, compressionThreshold);
+	}
+
+	public static boolean toBinary(DBObject doc, String fieldName, int compressionThreshold) {
+		Object value = doc.get(fieldName);
+		byte [] bytes = (value instanceof String) ? decode((String) value) : null;
+		if (bytes == null) {
+			return false;
+		}
+		if (compressionThreshold > 0 && bytes.length >= compressionThreshold) {
+			byte [] deflated = deflate(bytes);
+			if (deflated != null) {
+				doc.put(fieldName, deflated);
+				doc.put(fieldName + CODEC_SUFFIX, DEFLATE_CODEC);
+				return true;
+			}
+		}
+		doc.put(fieldName, bytes);
+		return true;
+	}
+
+	/**
+	 * The message bytes, null if the document has none.
+	 * @throws IllegalArgumentException if the stored message cannot be decoded
+	 */
+	public static byte [] getBytes(DBObject doc) {
+		return getBytes(doc, DocumentKey.ENCODED_MSG_KEY);
+	}
+
+	public static byte [] getBytes(DBObject doc, String fieldName) {
+		Object value = doc.get(fieldName);
+		if (value == null) {
+			return null;
+		} else if (value instanceof String) {
+			byte [] bytes = decode((String) value);
+			if (bytes == null) {
+				throw new IllegalArgumentException(String.format("Field '%s' is not base64 text.", fieldName));
+			}
+			return bytes;
+		}
+
+		byte [] bytes = (value instanceof Binary) ? ((Binary) value).getData() : (byte []) value;
+		Object codec = doc.get(fieldName + CODEC_SUFFIX);
+		if (codec == null) {
+			return bytes;
+		} else if (DEFLATE_CODEC.equals(codec)) {
+			return inflate(bytes);
+		}
+		throw new IllegalArgumentException(String.format("Unknown codec '%s' of field '%s'.", codec, fieldName));
+	}
+
+	/**
+	 * The message as the base64 text it was received as, null if the document has none.
+	 */
+	public static String getBase64(DBObject doc) {
+		return getBase64(doc, DocumentKey.ENCODED_MSG_KEY);
+	}
+
+	public static String getBase64(DBObject doc, String fieldName) {
+		Object value = doc.get(fieldName);
+		if (value == null || value instanceof String) {
+			return (String) value;
+		}
+		return encode(getBytes(doc, fieldName));
+	}
+
+	public static String encode(byte [] bytes) {
+		char [] text = new char[(bytes.length + 2) / 3 * 4];
+		int j = 0;
+		for (int i = 0; i < bytes.length; i += 3) {
+			int b0 = bytes[i] & 0xff;
+			int b1 = (i + 1 < bytes.length) ? bytes[i + 1] & 0xff : 0;
+			int b2 = (i + 2 < bytes.length) ? bytes[i + 2] & 0xff : 0;
+			text[j++] = BASE64[b0 >> 2];
+			text[j++] = BASE64[((b0 & 0x03) << 4) | (b1 >> 4)];
+			text[j++] = (i + 1 < bytes.length) ? BASE64[((b1 & 0x0f) << 2) | (b2 >> 6)] : '=';
+			text[j++] = (i + 2 < bytes.length) ? BASE64[b2 & 0x3f] : '=';
+		}
+		return new String(text);
+	}
+
+	/**
+	 * The bytes of canonical base64 text, padded and without line breaks, null for any other text,
+	 * so that {@link #encode(byte[])} gives back the exact text decoded.
+	 */
+	public static byte [] decode(String text) {
+		int length = text.length();
+		if (length % 4 != 0) {
+			return null;
+		}
+		int padding = (length > 0 && text.charAt(length - 1) == '=') ? ((text.charAt(length - 2) == '=') ? 2 : 1) : 0;
+		byte [] bytes = new byte[length / 4 * 3 - padding];
+		int j = 0;
+		for (int i = 0; i < length; i += 4) {
+			int quad = 0;
+			for (int k = 0; k < 4; k++) {
+				char c = text.charAt(i + k);
+				int value = (c < 128) ? BASE64_VALUES[c] : -1;
+				if (value < 0) {
+					if (c != '=' || i + k < length - padding) {
+						return null;
+					}
+					value = 0;
+				}
+				quad = (quad << 6) | value;
+			}
+			bytes[j++] = (byte) (quad >> 16);
+			if (j < bytes.length) {
+				bytes[j++] = (byte) (quad >> 8);
+			} else if ((quad & 0xffff) != 0) {
+				return null;
+			}
+			if (j < bytes.length) {
+				bytes[j++] = (byte) quad;
+			} else if (padding == 1 && (quad & 0xff) != 0) {
+				return null;
+			}
+		}
+		return bytes;
+	}
+
+	// The deflated bytes, null if they are not smaller.
+	private static byte [] deflate(byte [] bytes) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			byte [] buffer = new byte[bytes.length];
+			int length = deflater.deflate(buffer);
+			return deflater.finished() ? Arrays.copyOf(buffer, length) : null;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte [] inflate(byte [] bytes) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(bytes);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 3);
+			byte [] buffer = new byte[Math.max(512, bytes.length * 2)];
+			while (! inflater.finished()) {
+				int length = inflater.inflate(buffer);
+				if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IllegalArgumentException("Truncated deflate compressed message.");
+				}
+				out.write(buffer, 0, length);
+			}
+			return out.toByteArray();
+		} catch (DataFormatException ex) {
+			throw new IllegalArgumentException("Invalid deflate compressed message.", ex);
+		} finally {
+			inflater.end();
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package gov.usdot.cv.mongodb.datasink.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.DBObject;
+
+/**
+ * Covers a geometry with geohash cells at a few precisions, stored in an array field next
+ * to it, e.g. regionCells for region. With an ascending index on that field, finding the
+ * regions that may contain a point is an equality match of the point's cells on a multikey
+ * index, see {@link #getCells(double, double)}, followed by an exact check of the few
+ * candidates against the geometry.
+ * <p>
+ * The cells at a precision are those overlapping the bounding box of the geometry, less
+ * those outside the exterior rings of a polygon. Precisions needing more than the maximum
+ * number of cells are left out; if all of them would, the region is covered at the finest
+ * coarser precision that fits.
+ */
+public class GeoHashCovering {
+	public static final String FIELD_SUFFIX 	= "Cells";
+	public static final String INDEX_TYPE 		= "cells";
+	public static final int MAX_PRECISION 		= 12;
+
+	private static final char [] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+	private final int [] 	precisions;
+	private final int 		maxCells;
+
+	/**
+	 * @param precisions the geohash lengths of the cells, from 1 to 12
+	 * @param maxCells the number of cells above which a precision is left out
+	 */
+	public GeoHashCovering(int [] precisions, int maxCells) {
+		if (precisions.length == 0) {
+			throw new IllegalArgumentException("No covering precision given.");
+		}
+		this.precisions = precisions.clone();
+		Arrays.sort(this.precisions);
+		if (this.precisions[0] < 1 || this.precisions[this.precisions.length - 1] > MAX_PRECISION) {
+			throw new IllegalArgumentException(String.format("Covering precisions %s are not between 1 and %s.", 
+				Arrays.toString(precisions), MAX_PRECISION));
+		}
+		this.maxCells = Math.max(1, maxCells);
+	}
+
+	/**
+	 * Parses a comma separated list of precisions such as "4,5", null for none.
+	 */
+	public static GeoHashCovering parse(String precisionList, int maxCells) {
+		if (precisionList == null || precisionList.trim().length() == 0 || "none".equalsIgnoreCase(precisionList.trim())) {
+			return null;
+		}
+		String [] values = precisionList.trim().split("\\s*,\\s*");
+		int [] precisions = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			precisions[i] = Integer.parseInt(values[i]);
+		}
+		return new GeoHashCovering(precisions, maxCells);
+	}
+
+	public static String encode(double lon, double lat, int precision) {
+		int lonBits = (5 * precision + 1) / 2;
+		int latBits = 5 * precision / 2;
+		return toHash(getIndex(lon, -180, 360, lonBits), getIndex(lat, -90, 180, latBits), precision);
+	}
+
+	/**
+	 * The cells to match against stored coverings for the regions that may contain a point:
+	 * the point's geohash and all its prefixes, as coverings may fall back to coarser cells.
+	 */
+	public List<String> getCells(double lon, double lat) {
+		String hash = encode(lon, lat, this.precisions[this.precisions.length - 1]);
+		List<String> cells = new ArrayList<String>(hash.length());
+		for (int length = 1; length <= hash.length(); length++) {
+			cells.add(hash.substring(0, length));
+		}
+		return cells;
+	}
+
+	/**
+	 * The cells covering a valid GeoJSON geometry with the given [minLon, minLat, maxLon, maxLat] bounding box.
+	 */
+	public BasicDBList cover(Object geometry, List<?> bbox) {
+		double minLon = ((Number) bbox.get(0)).doubleValue();
+		double minLat = ((Number) bbox.get(1)).doubleValue();
+		double maxLon = ((Number) bbox.get(2)).doubleValue();
+		double maxLat = ((Number) bbox.get(3)).doubleValue();
+		List<List<?>> rings = new ArrayList<List<?>>();
+		addExteriorRings(geometry, rings);
+
+		BasicDBList cells = new BasicDBList();
+		for (int precision : this.precisions) {
+			if (! cover(precision, minLon, minLat, maxLon, maxLat, rings, cells, false)) {
+				break;
+			}
+		}
+		for (int precision = this.precisions[0] - 1; cells.isEmpty() && precision > 0; precision--) {
+			cover(precision, minLon, minLat, maxLon, maxLat, rings, cells, precision == 1);
+		}
+		return cells;
+	}
+
+	// Adds the cells of one precision unless there would be too many of them.
+	private boolean cover(int precision, double minLon, double minLat, double maxLon, double maxLat, 
+			List<List<?>> rings, BasicDBList cells, boolean unbounded) {
+		int lonBits = (5 * precision + 1) / 2;
+		int latBits = 5 * precision / 2;
+		long x0 = getIndex(minLon, -180, 360, lonBits), x1 = getIndex(maxLon, -180, 360, lonBits);
+		long y0 = getIndex(minLat, -90, 180, latBits), y1 = getIndex(maxLat, -90, 180, latBits);
+		if (! unbounded && (x1 - x0 + 1) * (y1 - y0 + 1) > this.maxCells) {
+			return false;
+		}
+
+		double width = 360.0 / (1L << lonBits);
+		double height = 180.0 / (1L << latBits);
+		for (long x = x0; x <= x1; x++) {
+			for (long y = y0; y <= y1; y++) {
+				double cellLon = -180 + x * width;
+				double cellLat = -90 + y * height;
+				if (rings.isEmpty() || overlapsAny(rings, cellLon, cellLat, cellLon + width, cellLat + height)) {
+					cells.add(toHash(x, y, precision));
+				}
+			}
+		}
+		return true;
+	}
+
+	private static void addExteriorRings(Object geometry, List<List<?>> rings) {
+		DBObject object = (DBObject) geometry;
+		Object type = object.get(GeometryRepair.TYPE_KEY);
+		List<?> coordinates = (List<?>) object.get(GeometryRepair.COORDINATES_KEY);
+		if ("Polygon".equals(type)) {
+			rings.add((List<?>) coordinates.get(0));
+		} else if ("MultiPolygon".equals(type)) {
+			for (Object polygon : coordinates) {
+				rings.add((List<?>) ((List<?>) polygon).get(0));
+			}
+		}
+	}
+
+	private static boolean overlapsAny(List<List<?>> rings, double minLon, double minLat, double maxLon, double maxLat) {
+		for (List<?> ring : rings) {
+			if (overlaps(ring, minLon, minLat, maxLon, maxLat)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// A cell overlaps a ring if a ring position is in the cell, the cell is inside the ring
+	// or a ring edge crosses a cell side. Touching counts, so the covering never misses.
+	private static boolean overlaps(List<?> ring, double minLon, double minLat, double maxLon, double maxLat) {
+		int last = ring.size() - 1;
+		for (int i = 0; i < last; i++) {
+			double lon = lon(ring, i), lat = lat(ring, i);
+			if (lon >= minLon && lon <= maxLon && lat >= minLat && lat <= maxLat) {
+				return true;
+			}
+		}
+		if (contains(ring, minLon, minLat)) {
+			return true;
+		}
+		for (int i = 0; i < last; i++) {
+			double ax = lon(ring, i), ay = lat(ring, i), bx = lon(ring, i + 1), by = lat(ring, i + 1);
+			if (intersects(ax, ay, bx, by, minLon, minLat, maxLon, minLat) ||
+				intersects(ax, ay, bx, by, maxLon, minLat, maxLon, maxLat) ||
+				intersects(ax, ay, bx, by, maxLon, maxLat, minLon, maxLat) ||
+				intersects(ax, ay, bx, by, minLon, maxLat, minLon, minLat)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Even-odd ray casting.
+	private static boolean contains(List<?> ring, double lon, double lat) {
+		boolean inside = false;
+		for (int i = 0, j = ring.size() - 2; i < ring.size() - 1; j = i++) {
+			double xi = lon(ring, i), yi = lat(ring, i), xj = lon(ring, j), yj = lat(ring, j);
+			if ((yi > lat) != (yj > lat) && lon < (xj - xi) * (lat - yi) / (yj - yi) + xi) {
+				inside = ! inside;
+			}
+		}
+		return inside;
+	}
+
+	private static boolean intersects(double ax, double ay, double bx, double by, double cx, double cy, double dx, double dy) {
+		double d1 = orientation(cx, cy, dx, dy, ax, ay);
+		double d2 = orientation(cx, cy, dx, dy, bx, by);
+		double d3 = orientation(ax, ay, bx, by, cx, cy);
+		double d4 = orientation(ax, ay, bx, by, dx, dy);
+		return ((d1 >= 0 && d2 <= 0) || (d1 <= 0 && d2 >= 0)) && ((d3 >= 0 && d4 <= 0) || (d3 <= 0 && d4 >= 0));
+	}
+
+	private static double orientation(double ax, double ay, double bx, double by, double cx, double cy) {
+		return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+	}
+
+	private static long getIndex(double value, double min, double range, int bits) {
+		long cells = 1L << bits;
+		long index = (long) Math.floor((value - min) / range * cells);
+		return Math.max(0, Math.min(cells - 1, index));
+	}
+
+	// Interleaves the bits of the cell indexes, longitude first, five bits to a character.
+	private static String toHash(long x, long y, int precision) {
+		int lonBit = (5 * precision + 1) / 2 - 1;
+		int latBit = 5 * precision / 2 - 1;
+		char [] hash = new char[precision];
+		for (int i = 0; i < precision; i++) {
+			int value = 0;
+			for (int bit = 0; bit < 5; bit++) {
+				boolean even = ((i * 5 + bit) % 2) == 0;
+				long set = even ? (x >> lonBit--) & 1 : (y >> latBit--) & 1;
+				value = (value << 1) | (int) set;
+			}
+			hash[i] = BASE32[value];
+		}
+		return new String(hash);
+	}
+
+	private static double lon(List<?> positions, int i) {
+		return ((Number) ((List<?>) positions.get(i)).get(0)).doubleValue();
+	}
+
+	private static double lat(List<?> positions, int i) {
+		return ((Number) ((List<?>) positions.get(i)).get(1)).doubleValue();
+	}
+}
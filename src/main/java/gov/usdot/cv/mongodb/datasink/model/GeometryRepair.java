@@ -0,0 +1,225 @@
+package gov.usdot.cv.mongodb.datasink.model;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.DBObject;
+
+/**
+ * Checks a GeoJSON geometry before it reaches a 2dsphere index and repairs it in place
+ * where the intent is clear: rings are closed, consecutive duplicate positions removed,
+ * exterior rings wound counterclockwise and holes clockwise, and coordinates slightly out
+ * of range clamped. Geometries that are still invalid, like rings without an area or with
+ * crossing edges, are rejected with an {@link InvalidGeometryException}.
+ * <p>
+ * Positions are validated, compacted and reversed within the lists they came in, so a
+ * valid geometry costs a pass over its positions and the bounding box returned.
+ */
+public class GeometryRepair {
+	public static final String TYPE_KEY 		= "type";
+	public static final String COORDINATES_KEY 	= "coordinates";
+	public static final String GEOMETRIES_KEY 	= "geometries";
+
+	// Coordinates farther out of range are likely swapped or not in degrees at all.
+	private static final double CLAMP_TOLERANCE 	= 1.0;
+	// Crossing edges are checked pairwise, which large rings would make expensive.
+	private static final int 	MAX_CROSSING_CHECK 	= 256;
+
+	private static final int MIN_LON = 0, MIN_LAT = 1, MAX_LON = 2, MAX_LAT = 3;
+
+	private GeometryRepair() {
+	}
+
+	/**
+	 * Repairs the geometry in place.
+	 * @return its bounding box as [minLon, minLat, maxLon, maxLat]
+	 * @throws InvalidGeometryException if the geometry cannot be repaired
+	 */
+	public static BasicDBList repair(Object geometry) {
+		double [] bounds = { Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+		repairGeometry(geometry, bounds);
+		BasicDBList bbox = new BasicDBList();
+		bbox.add(bounds[MIN_LON]);
+		bbox.add(bounds[MIN_LAT]);
+		bbox.add(bounds[MAX_LON]);
+		bbox.add(bounds[MAX_LAT]);
+		return bbox;
+	}
+
+	private static void repairGeometry(Object geometry, double [] bounds) {
+		if (! (geometry instanceof DBObject) || geometry instanceof List) {
+			throw new InvalidGeometryException("Geometry is not a GeoJSON object.");
+		}
+		DBObject object = (DBObject) geometry;
+		Object type = object.get(TYPE_KEY);
+		if ("GeometryCollection".equals(type)) {
+			for (Object member : asList(object.get(GEOMETRIES_KEY), GEOMETRIES_KEY, 1)) {
+				repairGeometry(member, bounds);
+			}
+			return;
+		}
+
+		List<?> coordinates = asList(object.get(COORDINATES_KEY), COORDINATES_KEY, 1);
+		if ("Point".equals(type)) {
+			repairPosition(coordinates, bounds);
+		} else if ("MultiPoint".equals(type)) {
+			for (Object position : coordinates) {
+				repairPosition(asList(position, "position", 2), bounds);
+			}
+		} else if ("LineString".equals(type)) {
+			repairLine(coordinates, bounds);
+		} else if ("MultiLineString".equals(type)) {
+			for (Object line : coordinates) {
+				repairLine(asList(line, "line string", 2), bounds);
+			}
+		} else if ("Polygon".equals(type)) {
+			repairPolygon(coordinates, bounds);
+		} else if ("MultiPolygon".equals(type)) {
+			for (Object polygon : coordinates) {
+				repairPolygon(asList(polygon, "polygon", 1), bounds);
+			}
+		} else {
+			throw new InvalidGeometryException(String.format("Unknown geometry type '%s'.", type));
+		}
+	}
+
+	private static void repairPolygon(List<?> rings, double [] bounds) {
+		for (int i = 0; i < rings.size(); i++) {
+			repairRing(asList(rings.get(i), "ring", 1), i == 0, bounds);
+		}
+	}
+
+	private static void repairLine(List<?> positions, double [] bounds) {
+		for (Object position : positions) {
+			repairPosition(asList(position, "position", 2), bounds);
+		}
+		removeDuplicates(positions);
+		if (positions.size() < 2) {
+			throw new InvalidGeometryException("Line string has fewer than 2 distinct positions.");
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void repairRing(List<?> ring, boolean exterior, double [] bounds) {
+		for (Object position : ring) {
+			repairPosition(asList(position, "position", 2), bounds);
+		}
+		removeDuplicates(ring);
+		int last = ring.size() - 1;
+		if (last > 0 && ! samePosition(ring, 0, last)) {
+			BasicDBList closing = new BasicDBList();
+			closing.addAll((List<?>) ring.get(0));
+			((List<Object>) ring).add(closing);
+		}
+		if (ring.size() < 4) {
+			throw new InvalidGeometryException(String.format("Ring has %s distinct positions, at least 3 are needed.",
+				Math.max(0, ring.size() - 1)));
+		}
+
+		double area = getSignedArea(ring);
+		if (area == 0) {
+			throw new InvalidGeometryException("Ring has no area.");
+		}
+		if (exterior ? area < 0 : area > 0) {
+			Collections.reverse(ring);
+		}
+		if (ring.size() <= MAX_CROSSING_CHECK && hasCrossingEdges(ring)) {
+			throw new InvalidGeometryException("Ring has crossing edges.");
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void repairPosition(List<?> position, double [] bounds) {
+		if (position.size() < 2 || ! (position.get(0) instanceof Number) || ! (position.get(1) instanceof Number)) {
+			throw new InvalidGeometryException("Position is not a pair of numbers.");
+		}
+		double lon = ((Number) position.get(0)).doubleValue();
+		double lat = ((Number) position.get(1)).doubleValue();
+		if (Double.isNaN(lon) || Double.isNaN(lat) || 
+				Math.abs(lon) > 180 + CLAMP_TOLERANCE || Math.abs(lat) > 90 + CLAMP_TOLERANCE) {
+			throw new InvalidGeometryException(String.format("Position [%s, %s] is out of range.", lon, lat));
+		}
+		if (Math.abs(lon) > 180) {
+			lon = Math.signum(lon) * 180;
+			((List<Object>) position).set(0, lon);
+		}
+		if (Math.abs(lat) > 90) {
+			lat = Math.signum(lat) * 90;
+			((List<Object>) position).set(1, lat);
+		}
+		bounds[MIN_LON] = Math.min(bounds[MIN_LON], lon);
+		bounds[MIN_LAT] = Math.min(bounds[MIN_LAT], lat);
+		bounds[MAX_LON] = Math.max(bounds[MAX_LON], lon);
+		bounds[MAX_LAT] = Math.max(bounds[MAX_LAT], lat);
+	}
+
+	// Compacts the list in place instead of copying the positions kept.
+	@SuppressWarnings("unchecked")
+	private static void removeDuplicates(List<?> positions) {
+		int kept = Math.min(1, positions.size());
+		for (int i = 1; i < positions.size(); i++) {
+			if (! samePosition(positions, kept - 1, i)) {
+				((List<Object>) positions).set(kept++, positions.get(i));
+			}
+		}
+		if (kept < positions.size()) {
+			positions.subList(kept, positions.size()).clear();
+		}
+	}
+
+	// Twice the planar area, positive for counterclockwise rings.
+	private static double getSignedArea(List<?> ring) {
+		double area = 0;
+		for (int i = 0; i < ring.size() - 1; i++) {
+			area += lon(ring, i) * lat(ring, i + 1) - lon(ring, i + 1) * lat(ring, i);
+		}
+		return area;
+	}
+
+	private static boolean hasCrossingEdges(List<?> ring) {
+		int edges = ring.size() - 1;
+		for (int i = 0; i < edges - 2; i++) {
+			// The last edge shares its end with the first one.
+			int last = (i == 0) ? edges - 1 : edges;
+			for (int j = i + 2; j < last; j++) {
+				if (crosses(ring, i, j)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean crosses(List<?> ring, int i, int j) {
+		double d1 = orientation(ring, j, j + 1, i);
+		double d2 = orientation(ring, j, j + 1, i + 1);
+		double d3 = orientation(ring, i, i + 1, j);
+		double d4 = orientation(ring, i, i + 1, j + 1);
+		return ((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0));
+	}
+
+	private static double orientation(List<?> ring, int a, int b, int c) {
+		return (lon(ring, b) - lon(ring, a)) * (lat(ring, c) - lat(ring, a)) - 
+			(lat(ring, b) - lat(ring, a)) * (lon(ring, c) - lon(ring, a));
+	}
+
+	private static boolean samePosition(List<?> positions, int a, int b) {
+		return lon(positions, a) == lon(positions, b) && lat(positions, a) == lat(positions, b);
+	}
+
+	private static double lon(List<?> positions, int i) {
+		return ((Number) ((List<?>) positions.get(i)).get(0)).doubleValue();
+	}
+
+	private static double lat(List<?> positions, int i) {
+		return ((Number) ((List<?>) positions.get(i)).get(1)).doubleValue();
+	}
+
+	private static List<?> asList(Object value, String name, int minSize) {
+		if (! (value instanceof List) || ((List<?>) value).size() < minSize) {
+			throw new InvalidGeometryException(String.format("Missing or too short %s in geometry.", name));
+		}
+		return (List<?>) value;
+	}
+}
@@ -0,0 +1,13 @@
+package gov.usdot.cv.mongodb.datasink.model;
+
+/**
+ * Thrown for a GeoJSON geometry a 2dsphere index would reject and that cannot be repaired.
+ * Being an illegal argument, it is classified as a permanent error and never retried.
+ */
+public class InvalidGeometryException extends IllegalArgumentException {
+	private static final long serialVersionUID = 1L;
+
+	public InvalidGeometryException(String message) {
+		super(message);
+	}
+}
@@ -4,46 +4,37 @@ import java.util.Calendar;
 import java.util.Date;
 
 public enum TimeToLive {
-	Minute(0), HalfHour(1), Day(2), Week(3), Month(4), Year(5);
-	
-	private static final int DEFAULT_FIELD_NUMBER = 0;
-	private static final int DEFAULT_EXPIRATION_VALUE = 30;
-	
+	Minute(0, Calendar.MINUTE, 1),
+	HalfHour(1, Calendar.MINUTE, 30),
+	Day(2, Calendar.DATE, 1),
+	Week(3, Calendar.DATE, 7),
+	Month(4, Calendar.MONTH, 1),
+	Year(5, Calendar.YEAR, 1);
+
 	private int code;
-	private int fieldNumber;
-	
-	private TimeToLive(int code) {
+	private TimeToLiveRule rule;
+
+	private TimeToLive(int code, int fieldNumber, int amount) {
 		this.code = code;
-		if (code == 0) {
-			this.fieldNumber = Calendar.MINUTE;
-		} else if (code == 1) {
-			this.fieldNumber = Calendar.MINUTE;
-		} else if (code == 2) {
-			this.fieldNumber = Calendar.DATE;
-		} else if (code == 3) {
-			this.fieldNumber = Calendar.DATE;
-		} else if (code == 4) {
-			this.fieldNumber = Calendar.MONTH;
-		} else {
-			this.fieldNumber = Calendar.YEAR;
-		}
+		this.rule = TimeToLiveRule.of(fieldNumber, amount);
+	}
+
+	public int getCode() {
+		return this.code;
 	}
-	
+
+	public TimeToLiveRule getRule() {
+		return this.rule;
+	}
+
 	public Date getExpiration() {
-		Calendar cal = Calendar.getInstance();
-		if (this.code == 0 || 
-			this.code == 2 || 
-			this.code == 4 || 
-			this.code == 5) {
-			cal.add(this.fieldNumber, 1);
-		} else if (this.code == 1) {
-			cal.add(this.fieldNumber, 30);
-		} else {
-			cal.add(this.fieldNumber, 7);
-		}
-		return cal.getTime();
+		return new Date(getExpiration(System.currentTimeMillis()));
 	}
-	
+
+	public long getExpiration(long now) {
+		return this.rule.getExpiration(now);
+	}
+
 	public static TimeToLive fromCode(int code) {
 		switch (code) {
 			case 0  : return Minute;
@@ -55,26 +46,21 @@ public enum TimeToLive {
 			default : return null;
 		}
 	}
-	
-	public static Date getExpiration(int ttlValue, String ttlUnit) {
-		Calendar cal = Calendar.getInstance();
-		if (ttlValue < 1 || ttlUnit == null) {
-			cal.add(DEFAULT_FIELD_NUMBER, DEFAULT_EXPIRATION_VALUE);
-		} else if (ttlUnit.equalsIgnoreCase(Minute.toString())) {
-			cal.add(Minute.fieldNumber, ttlValue);
-		} else if (ttlUnit.equalsIgnoreCase(Day.toString())) {
-			cal.add(Day.fieldNumber, ttlValue);
-		} else if (ttlUnit.equalsIgnoreCase(Week.toString())) {
-			cal.add(Week.fieldNumber, ttlValue);
-		} else if (ttlUnit.equalsIgnoreCase(Month.toString())) {
-			cal.add(Month.fieldNumber, ttlValue);
-		} else if (ttlUnit.equalsIgnoreCase(Year.toString())) {
-			cal.add(Year.fieldNumber, ttlValue);
-		} else {
-			cal.add(DEFAULT_FIELD_NUMBER, DEFAULT_EXPIRATION_VALUE);
+
+	public static TimeToLive fromUnit(String unit) {
+		if (unit == null) {
+			return null;
+		}
+		for (TimeToLive ttl : values()) {
+			if (ttl.toString().equalsIgnoreCase(unit.trim())) {
+				return ttl;
+			}
 		}
-		
-		return cal.getTime();
+		return null;
 	}
-	
+
+	public static Date getExpiration(int ttlValue, String ttlUnit) {
+		return new Date(TimeToLiveRule.resolve(ttlValue, ttlUnit).getExpiration(System.currentTimeMillis()));
+	}
+
 }
\ No newline at end of file
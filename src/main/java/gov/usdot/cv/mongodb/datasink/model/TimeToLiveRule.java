@@ -0,0 +1,84 @@
+package gov.usdot.cv.mongodb.datasink.model;
+
+import java.util.Calendar;
+
+/**
+ * A time to live resolved once into either a fixed millisecond offset or, for months
+ * and years whose length varies, a calendar rule applied with a per-thread calendar.
+ */
+public class TimeToLiveRule {
+	private static final long MILLIS_PER_MINUTE = 60L * 1000;
+	private static final long MILLIS_PER_DAY 	= 24L * 60 * MILLIS_PER_MINUTE;
+
+	public static final TimeToLiveRule DEFAULT = ofMillis(30 * MILLIS_PER_MINUTE);
+
+	private static final ThreadLocal<Calendar> CALENDAR = new ThreadLocal<Calendar>() {
+		@Override
+		protected Calendar initialValue() {
+			return Calendar.getInstance();
+		}
+	};
+
+	private final long 	offsetMs;
+	private final int 	calendarField;
+	private final int 	amount;
+
+	private TimeToLiveRule(long offsetMs, int calendarField, int amount) {
+		this.offsetMs = offsetMs;
+		this.calendarField = calendarField;
+		this.amount = amount;
+	}
+
+	public static TimeToLiveRule ofMillis(long offsetMs) {
+		return new TimeToLiveRule(offsetMs, -1, 0);
+	}
+
+	/**
+	 * Minutes, hours, days and weeks become a fixed offset, other fields a calendar rule.
+	 */
+	public static TimeToLiveRule of(int calendarField, int amount) {
+		switch (calendarField) {
+			case Calendar.MINUTE		: return ofMillis(amount * MILLIS_PER_MINUTE);
+			case Calendar.HOUR_OF_DAY	: return ofMillis(amount * 60 * MILLIS_PER_MINUTE);
+			case Calendar.DATE			: return ofMillis(amount * MILLIS_PER_DAY);
+			case Calendar.WEEK_OF_YEAR	: return ofMillis(amount * 7 * MILLIS_PER_DAY);
+			default						: return new TimeToLiveRule(0, calendarField, amount);
+		}
+	}
+
+	/**
+	 * Resolves a configured time to live value and unit, such as 30 and 'minute'.
+	 */
+	public static TimeToLiveRule resolve(int ttlValue, String ttlUnit) {
+		TimeToLive unit = TimeToLive.fromUnit(ttlUnit);
+		if (ttlValue < 1 || unit == null) {
+			return DEFAULT;
+		}
+		return unit.getRule().times(ttlValue);
+	}
+
+	public TimeToLiveRule times(int multiplier) {
+		if (isCalendarRule()) {
+			long total = (long) this.amount * multiplier;
+			return new TimeToLiveRule(0, this.calendarField, (int) Math.min(Integer.MAX_VALUE, total));
+		}
+		return ofMillis(this.offsetMs * multiplier);
+	}
+
+	public boolean isCalendarRule() {
+		return this.calendarField >= 0;
+	}
+
+	/**
+	 * Returns the expiration, in milliseconds since the epoch, for a document created at now.
+	 */
+	public long getExpiration(long now) {
+		if (! isCalendarRule()) {
+			return now + this.offsetMs;
+		}
+		Calendar cal = CALENDAR.get();
+		cal.setTimeInMillis(now);
+		cal.add(this.calendarField, this.amount);
+		return cal.getTimeInMillis();
+	}
+}
@@ -0,0 +1,96 @@
+package gov.usdot.cv.mongodb.datasink.model;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * Thread-safe, allocation-free parser for UTC timestamps in the fixed
+ * yyyy-MM-dd'T'HH:mm:ss format. Text that does not strictly follow that layout,
+ * or holds out of range fields, is handed to a lenient SimpleDateFormat so the
+ * result always matches what the data model produced before.
+ */
+public class TimestampParser {
+	private static final int 	LENGTH 			= 19;
+	private static final long 	MILLIS_PER_DAY 	= 24L * 60 * 60 * 1000;
+	// SimpleDateFormat switches to the Julian calendar before the Gregorian cutover.
+	private static final int 	MIN_YEAR 		= 1583;
+
+	private static final ThreadLocal<SimpleDateFormat> FALLBACK = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			SimpleDateFormat df = new SimpleDateFormat(DataModel.TIMESTAMP_FORMAT);
+			df.setTimeZone(TimeZone.getTimeZone("UTC"));
+			return df;
+		}
+	};
+
+	private TimestampParser() {
+	}
+
+	/**
+	 * Returns the timestamp as milliseconds since the epoch.
+	 */
+	public static long parse(String text) throws ParseException {
+		if (text == null || text.length() < LENGTH ||
+			text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T' ||
+			text.charAt(13) != ':' || text.charAt(16) != ':') {
+			return parseLenient(text);
+		}
+
+		int year 	= digits(text, 0, 4);
+		int month 	= digits(text, 5, 2);
+		int day 	= digits(text, 8, 2);
+		int hour 	= digits(text, 11, 2);
+		int minute 	= digits(text, 14, 2);
+		int second 	= digits(text, 17, 2);
+
+		if (year < MIN_YEAR || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) ||
+			hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+			return parseLenient(text);
+		}
+
+		return daysFromCivil(year, month, day) * MILLIS_PER_DAY +
+			((hour * 60L + minute) * 60L + second) * 1000L;
+	}
+
+	private static long parseLenient(String text) throws ParseException {
+		if (text == null) {
+			throw new ParseException("Unparseable date: null", 0);
+		}
+		return FALLBACK.get().parse(text).getTime();
+	}
+
+	private static int digits(String text, int offset, int count) {
+		int value = 0;
+		for (int i = offset; i < offset + count; i++) {
+			int digit = text.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private static int daysInMonth(int year, int month) {
+		switch (month) {
+			case 2  : return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+			case 4  :
+			case 6  :
+			case 9  :
+			case 11 : return 30;
+			default : return 31;
+		}
+	}
+
+	// Days since 1970-01-01 in the proleptic Gregorian calendar (Howard Hinnant's algorithm).
+	private static long daysFromCivil(int year, int month, int day) {
+		long y = (month <= 2) ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yoe = y - era * 400;
+		long doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+}
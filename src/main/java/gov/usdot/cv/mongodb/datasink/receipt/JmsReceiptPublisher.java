@@ -0,0 +1,83 @@
+package gov.usdot.cv.mongodb.datasink.receipt;
+
+import gov.usdot.cv.common.dialog.Receipt;
+
+import java.util.List;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * Publishes a batch of receipts to the receipt topic inside a single JMS transaction,
+ * so the broker sees one commit per batch instead of one round trip per receipt.
+ * The connection is opened lazily and dropped after a failure so the next batch
+ * reconnects once the broker is back.
+ */
+public class JmsReceiptPublisher implements ReceiptPublisher {
+	private final Logger logger = Logger.getLogger(getClass());
+
+	private final ActiveMQConnectionFactory factory;
+	private final String 					topicName;
+
+	private Connection 		connection;
+	private Session 		session;
+	private MessageProducer producer;
+
+	public JmsReceiptPublisher(String brokerUrl, String username, String password, String topicName) {
+		this.factory = new ActiveMQConnectionFactory(username, password, brokerUrl);
+		this.topicName = topicName;
+	}
+
+	public synchronized void publish(List<String> receiptIds) throws Exception {
+		try {
+			if (this.session == null) {
+				connect();
+			}
+			for (String receiptId : receiptIds) {
+				Receipt.Builder builder = new Receipt.Builder();
+				builder.setReceiptId(receiptId);
+				this.producer.send(this.session.createTextMessage(builder.build().toString()));
+			}
+			this.session.commit();
+		} catch (JMSException ex) {
+			rollback();
+			close();
+			throw ex;
+		}
+	}
+
+	public synchronized void close() {
+		if (this.connection != null) {
+			try {
+				this.connection.close();
+			} catch (JMSException ex) {
+				logger.warn("Failed to close receipt publisher connection.", ex);
+			}
+		}
+		this.connection = null;
+		this.session = null;
+		this.producer = null;
+	}
+
+	private void connect() throws JMSException {
+		logger.info(String.format("Connecting transacted receipt publisher to topic '%s' ...", this.topicName));
+		this.connection = this.factory.createConnection();
+		this.connection.start();
+		this.session = this.connection.createSession(true, Session.SESSION_TRANSACTED);
+		this.producer = this.session.createProducer(this.session.createTopic(this.topicName));
+	}
+
+	private void rollback() {
+		if (this.session != null) {
+			try {
+				this.session.rollback();
+			} catch (JMSException ignore) {
+			}
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package gov.usdot.cv.mongodb.datasink.receipt;
+
+import gov.usdot.cv.common.util.PropertyLocator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sends deposit receipts from its own thread so the write path never waits on JMS.
+ * Receipts are coalesced by receipt id, published in batches and kept in memory,
+ * up to a bound, while the broker is unavailable.
+ */
+public class ReceiptDispatcher implements Runnable {
+	private static final long LINGER_MS 		= 10;
+	private static final long MIN_BACKOFF_MS 	= 100;
+	private static final long MAX_BACKOFF_MS 	= 30 * 1000;
+
+	private final Logger logger = Logger.getLogger(getClass());
+
+	private final ReceiptPublisher 	publisher;
+	private final int 				batchSize;
+	private final int 				maxPending;
+	private final long 				reportInterval;
+	private volatile Listener 		listener;
+
+	// Receipt id to its first submission, in submission order.
+	private LinkedHashMap<String, Submission> pending = new LinkedHashMap<String, Submission>();
+	private volatile boolean 					terminated = false;
+	private boolean 							overflowing = false;
+
+	private long submitted;
+	private long coalesced;
+	private long dropped;
+	private long sent;
+	private long batches;
+	private long failures;
+	private long maxBatchSize;
+	private long latencyNanos;
+	private long maxLatencyNanos;
+
+	public ReceiptDispatcher(ReceiptPublisher publisher, int batchSize, int maxPending) {
+		this.publisher = publisher;
+		this.batchSize = Math.max(1, batchSize);
+		this.maxPending = Math.max(this.batchSize, maxPending);
+		this.reportInterval = PropertyLocator.getInt("mongodb.receipt.stats.interval", 60 * 1000);
+	}
+
+	/**
+	 * Told about every receipt once it was published.
+	 */
+	public static interface Listener {
+		public void onSent(String collectionName, long latencyNanos);
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	public void submit(String receiptId) {
+		submit(receiptId, null);
+	}
+
+	/**
+	 * Queues a receipt for delivery without blocking on the broker. The collection name
+	 * is handed to the listener once the receipt was published.
+	 */
+	public synchronized void submit(String receiptId, String collectionName) {
+		this.submitted++;
+		if (this.pending.containsKey(receiptId)) {
+			this.coalesced++;
+			return;
+		}
+
+		if (this.pending.size() >= this.maxPending) {
+			Iterator<String> eldest = this.pending.keySet().iterator();
+			eldest.next();
+			eldest.remove();
+			this.dropped++;
+			if (! this.overflowing) {
+				this.overflowing = true;
+				logger.warn(String.format("Receipt backlog reached %s, dropping the oldest receipts.", this.maxPending));
+			}
+		}
+
+		this.pending.put(receiptId, new Submission(collectionName, System.nanoTime()));
+		if (this.pending.size() >= this.batchSize) {
+			notifyAll();
+		}
+	}
+
+	public void terminate() {
+		this.terminated = true;
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+
+	public void run() {
+		logger.info("Receipt dispatcher [" + Thread.currentThread().getId() + "] is starting ...");
+		long backoff = MIN_BACKOFF_MS;
+		long lastReport = System.currentTimeMillis();
+		while (! this.terminated) try {
+			Map<String, Submission> batch = nextBatch();
+			if (! batch.isEmpty()) {
+				if (publish(batch)) {
+					backoff = MIN_BACKOFF_MS;
+				} else {
+					sleep(backoff);
+					backoff = Math.min(MAX_BACKOFF_MS, backoff * 2);
+				}
+			}
+
+			if (System.currentTimeMillis() - lastReport >= this.reportInterval) {
+				lastReport = System.currentTimeMillis();
+				logger.info("Receipt dispatcher statistics. " + getStatistics());
+			}
+		} catch (Exception ex) {
+			logger.error("Receipt dispatcher failed.", ex);
+		}
+
+		// One last attempt to deliver what is left before the sink goes away.
+		Map<String, Submission> batch = nextBatch();
+		while (! batch.isEmpty() && publish(batch)) {
+			batch = nextBatch();
+		}
+		logger.info("Receipt dispatcher [" + Thread.currentThread().getId() + "] is terminated. " + getStatistics());
+	}
+
+	public synchronized int getPendingCount() {
+		return this.pending.size();
+	}
+
+	public synchronized long getSentCount() {
+		return this.sent;
+	}
+
+	public synchronized long getCoalescedCount() {
+		return this.coalesced;
+	}
+
+	public synchronized long getDroppedCount() {
+		return this.dropped;
+	}
+
+	public synchronized long getFailedBatchCount() {
+		return this.failures;
+	}
+
+	public synchronized double getAverageBatchSize() {
+		return (this.batches == 0) ? 0.0 : (double) this.sent / this.batches;
+	}
+
+	public synchronized long getMaxBatchSize() {
+		return this.maxBatchSize;
+	}
+
+	public synchronized long getAverageLatencyMs() {
+		return (this.sent == 0) ? 0 : TimeUnit.NANOSECONDS.toMillis(this.latencyNanos / this.sent);
+	}
+
+	public synchronized long getMaxLatencyMs() {
+		return TimeUnit.NANOSECONDS.toMillis(this.maxLatencyNanos);
+	}
+
+	public synchronized String getStatistics() {
+		return String.format("Submitted: %s, coalesced: %s, sent: %s, pending: %s, dropped: %s, failed batches: %s, " +
+				"avg batch size: %.1f, max batch size: %s, avg latency: %s ms, max latency: %s ms",
+			this.submitted, this.coalesced, this.sent, this.pending.size(), this.dropped, this.failures,
+			getAverageBatchSize(), this.maxBatchSize, getAverageLatencyMs(), getMaxLatencyMs());
+	}
+
+	private synchronized Map<String, Submission> nextBatch() {
+		if (this.pending.size() < this.batchSize && ! this.terminated) {
+			try { wait(LINGER_MS); } catch (InterruptedException ignore) {}
+		}
+
+		Map<String, Submission> batch = new LinkedHashMap<String, Submission>();
+		Iterator<Map.Entry<String, Submission>> entries = this.pending.entrySet().iterator();
+		while (entries.hasNext() && batch.size() < this.batchSize) {
+			Map.Entry<String, Submission> entry = entries.next();
+			batch.put(entry.getKey(), entry.getValue());
+			entries.remove();
+		}
+		if (this.pending.size() < this.maxPending) {
+			this.overflowing = false;
+		}
+		return batch;
+	}
+
+	private boolean publish(Map<String, Submission> batch) {
+		try {
+			this.publisher.publish(new ArrayList<String>(batch.keySet()));
+		} catch (Exception ex) {
+			int published = (ex instanceof ReceiptPublishException) ? ((ReceiptPublishException) ex).getPublished() : 0;
+			logger.error(String.format("Failed to publish %s of %s receipts, keeping them for retry. Message: %s",
+				batch.size() - published, batch.size(), ex.getMessage()));
+			Map<String, Submission> sent = new LinkedHashMap<String, Submission>();
+			Iterator<Map.Entry<String, Submission>> entries = batch.entrySet().iterator();
+			while (entries.hasNext() && sent.size() < published) {
+				Map.Entry<String, Submission> entry = entries.next();
+				sent.put(entry.getKey(), entry.getValue());
+				entries.remove();
+			}
+			if (! sent.isEmpty()) {
+				recordSent(sent);
+			}
+			requeue(batch);
+			return false;
+		}
+		recordSent(batch);
+		return true;
+	}
+
+	private void recordSent(Map<String, Submission> batch) {
+		long now = System.nanoTime();
+		synchronized (this) {
+			this.batches++;
+			this.sent += batch.size();
+			this.maxBatchSize = Math.max(this.maxBatchSize, batch.size());
+			for (Submission submission : batch.values()) {
+				long latency = now - submission.submittedAt;
+				this.latencyNanos += latency;
+				this.maxLatencyNanos = Math.max(this.maxLatencyNanos, latency);
+			}
+		}
+
+		Listener listener = this.listener;
+		if (listener != null) {
+			for (Submission submission : batch.values()) {
+				listener.onSent(submission.collectionName, now - submission.submittedAt);
+			}
+		}
+	}
+
+	private synchronized void requeue(Map<String, Submission> batch) {
+		// Failed receipts go back in front of anything submitted since, keeping the
+		// earliest submission time for any receipt id submitted again meanwhile.
+		this.failures++;
+		LinkedHashMap<String, Submission> merged = new LinkedHashMap<String, Submission>(batch);
+		for (Map.Entry<String, Submission> entry : this.pending.entrySet()) {
+			if (! merged.containsKey(entry.getKey())) {
+				merged.put(entry.getKey(), entry.getValue());
+			}
+		}
+		while (merged.size() > this.maxPending) {
+			Iterator<String> eldest = merged.keySet().iterator();
+			eldest.next();
+			eldest.remove();
+			this.dropped++;
+		}
+		this.pending = merged;
+	}
+
+	private void sleep(long millis) {
+		synchronized (this) {
+			if (! this.terminated) {
+				try { wait(millis); } catch (InterruptedException ignore) {}
+			}
+		}
+	}
+
+	private static class Submission {
+		private final String 	collectionName;
+		private final long 		submittedAt;
+
+		Submission(String collectionName, long submittedAt) {
+			this.collectionName = collectionName;
+			this.submittedAt = submittedAt;
+		}
+	}
+}
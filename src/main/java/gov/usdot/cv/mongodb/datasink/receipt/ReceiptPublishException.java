@@ -0,0 +1,23 @@
+package gov.usdot.cv.mongodb.datasink.receipt;
+
+/**
+ * Thrown when publishing a batch of receipts failed part way, after the first receipts
+ * of the batch already went out.
+ */
+public class ReceiptPublishException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	private final int published;
+
+	public ReceiptPublishException(String message, int published, Throwable cause) {
+		super(message, cause);
+		this.published = published;
+	}
+
+	/**
+	 * The number of receipts, from the start of the batch, that were published.
+	 */
+	public int getPublished() {
+		return this.published;
+	}
+}
@@ -0,0 +1,16 @@
+package gov.usdot.cv.mongodb.datasink.receipt;
+
+import java.util.List;
+
+/**
+ * Delivers a batch of deposit receipts to the external receipt topic. A batch either
+ * goes out completely or the call throws and the caller keeps the receipts; those that
+ * went out before a {@link ReceiptPublishException} are not kept.
+ */
+public interface ReceiptPublisher {
+
+	public void publish(List<String> receiptIds) throws Exception;
+
+	public void close();
+
+}
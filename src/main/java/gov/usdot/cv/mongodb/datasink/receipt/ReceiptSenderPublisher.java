@@ -0,0 +1,36 @@
+package gov.usdot.cv.mongodb.datasink.receipt;
+
+import gov.usdot.cv.common.dialog.Receipt;
+import gov.usdot.cv.common.dialog.ReceiptSender;
+
+import java.util.List;
+
+/**
+ * Publishes each receipt in a batch through the shared ReceiptSender, one message
+ * per receipt, exactly as the synchronous path does. A failure tells how many of the
+ * receipts were already sent, so only the rest are sent again.
+ */
+public class ReceiptSenderPublisher implements ReceiptPublisher {
+	private final ReceiptSender sender;
+
+	public ReceiptSenderPublisher(ReceiptSender sender) {
+		this.sender = sender;
+	}
+
+	public void publish(List<String> receiptIds) throws Exception {
+		for (int i = 0; i < receiptIds.size(); i++) {
+			Receipt.Builder builder = new Receipt.Builder();
+			builder.setReceiptId(receiptIds.get(i));
+			try {
+				this.sender.send(builder.build().toString());
+			} catch (Exception ex) {
+				throw new ReceiptPublishException(String.format("Sent %s of %s receipts. %s", 
+					i, receiptIds.size(), ex.getMessage()), i, ex);
+			}
+		}
+	}
+
+	public void close() {
+		// The sender is owned, and closed, by the data sink.
+	}
+}
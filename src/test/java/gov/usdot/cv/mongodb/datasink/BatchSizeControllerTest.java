@@ -0,0 +1,155 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import gov.usdot.cv.common.database.mongodb.dao.InsertSitDataDao;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.db.BatchSizeController;
+import gov.usdot.cv.mongodb.datasink.db.BulkWriter;
+import gov.usdot.cv.mongodb.datasink.db.CircuitBreaker;
+import gov.usdot.cv.mongodb.datasink.db.WriteListener;
+import gov.usdot.cv.mongodb.datasink.db.WriteRequest;
+import gov.usdot.cv.mongodb.datasink.db.WriteRetrier;
+import gov.usdot.cv.mongodb.datasink.load.MongoWireServer;
+import gov.usdot.cv.mongodb.datasink.metrics.BatchSizingSnapshot;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.Mongo;
+import com.mongodb.MongoOptions;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+
+public class BatchSizeControllerTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	@Test
+	public void testAdditiveIncreaseMultiplicativeDecrease() throws Exception {
+		BatchSizeController controller = new BatchSizeController(20, 10, 100, 10, 200, 50, 100);
+		String collectionName = "vehSitDataMessage";
+
+		// Full batches within the target grow the batch size up to its bound.
+		controller.recordWrite(collectionName, 50, millis(5));
+		assertEquals(75, controller.getBatchSize(collectionName));
+		controller.recordWrite(collectionName, 75, millis(5));
+		controller.recordWrite(collectionName, 100, millis(5));
+		assertEquals(100, controller.getBatchSize(collectionName));
+
+		// Batches flushed by age grow the flush interval instead.
+		controller.recordWrite(collectionName, 10, millis(5));
+		assertEquals(105, controller.getFlushIntervalMs(collectionName));
+
+		controller.recordWrite(collectionName, 100, millis(30));
+		assertEquals(50, controller.getBatchSize(collectionName));
+		assertEquals(52, controller.getFlushIntervalMs(collectionName));
+
+		// Batches that were already in flight do not cut it again within the cooldown.
+		controller.recordWrite(collectionName, 100, millis(30));
+		controller.recordFailure(collectionName);
+		assertEquals(50, controller.getBatchSize(collectionName));
+
+		Thread.sleep(70);
+		controller.recordFailure(collectionName);
+		assertEquals(25, controller.getBatchSize(collectionName));
+		assertEquals(26, controller.getFlushIntervalMs(collectionName));
+
+		BatchSizingSnapshot snapshot = controller.getSnapshot(collectionName);
+		assertEquals(3, snapshot.getIncreases());
+		assertEquals(2, snapshot.getDecreases());
+
+		// Collections are tuned independently and stay within the bounds.
+		assertEquals(50, controller.getBatchSize("travelerInformation"));
+		for (int i = 0; i < 5; i++) {
+			Thread.sleep(110);
+			controller.recordFailure("travelerInformation");
+		}
+		assertEquals(10, controller.getBatchSize("travelerInformation"));
+		assertEquals(10, controller.getFlushIntervalMs("travelerInformation"));
+	}
+
+	@Test
+	public void testFlushIntervalOnlyGrowsWithTraffic() throws Exception {
+		BatchSizeController controller = new BatchSizeController(20, 10, 100, 10, 200, 50, 100);
+		String collectionName = "vehSitDataMessage";
+
+		// A couple of documents every 50 ms gain nothing from a longer wait.
+		for (int i = 0; i < 4; i++) {
+			controller.recordWrite(collectionName, 2, millis(5));
+			Thread.sleep(50);
+		}
+		assertEquals(80, controller.getFlushIntervalMs(collectionName));
+
+		// Partly filled batches arriving back to back do.
+		for (int i = 0; i < 10; i++) {
+			controller.recordWrite(collectionName, 40, millis(5));
+		}
+		assertTrue(controller.getFlushIntervalMs(collectionName) > 80);
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testBatchSizeFollowsSlowServer() throws Exception {
+		MongoWireServer server = new MongoWireServer(0);
+		new Thread(server).start();
+		MongoOptions options = new MongoOptions();
+		options.writeConcern = WriteConcern.ACKNOWLEDGED;
+		Mongo mongo = new Mongo(new ServerAddress("localhost", server.getPort()), options);
+		try {
+			DB db = mongo.getDB("cvdb");
+			InsertSitDataDao dao = mock(InsertSitDataDao.class);
+			when(dao.getCollection(any(String.class))).thenReturn(db.getCollection("vehSitDataMessage"));
+
+			final AtomicInteger acknowledged = new AtomicInteger();
+			WriteRetrier retrier = new WriteRetrier(new CircuitBreaker(100, 1000, new CircuitBreaker.Probe() {
+				public void probe() {
+				}
+			}), 0, 1, 1);
+			BulkWriter writer = new BulkWriter(dao, retrier, 100, 60000, new WriteListener() {
+				public void onAcknowledged(List<WriteRequest> requests) {
+					acknowledged.addAndGet(requests.size());
+				}
+
+				public void onFailed(List<WriteRequest> requests, Exception ex) {
+				}
+			});
+			BatchSizeController controller = new BatchSizeController(20, 10, 1000, 10, 1000, 100, 100);
+			writer.setBatchSizeController(controller);
+
+			server.setLatency(50, 0);
+			for (int i = 0; i < 600; i++) {
+				writer.add(new WriteRequest("vehSitDataMessage", null, new BasicDBObject("encodedMsg", "m" + i), null));
+			}
+			int slowBatchSize = controller.getBatchSize("vehSitDataMessage");
+			assertTrue("Batch size should shrink, was " + slowBatchSize, slowBatchSize <= 25);
+
+			server.setLatency(0, 0);
+			for (int i = 0; i < 600; i++) {
+				writer.add(new WriteRequest("vehSitDataMessage", null, new BasicDBObject("encodedMsg", "n" + i), null));
+			}
+			writer.flushAll();
+			assertTrue(controller.getBatchSize("vehSitDataMessage") > slowBatchSize);
+			assertEquals(1200, acknowledged.get());
+			assertEquals(1200, server.getInserted());
+		} finally {
+			mongo.close();
+			server.terminate();
+		}
+	}
+
+	private static long millis(long ms) {
+		return ms * 1000000L;
+	}
+}
@@ -0,0 +1,119 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import gov.usdot.cv.common.database.mongodb.dao.InsertSitDataDao;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.db.BoundedExecutor;
+import gov.usdot.cv.mongodb.datasink.db.BulkWriter;
+import gov.usdot.cv.mongodb.datasink.db.CircuitBreaker;
+import gov.usdot.cv.mongodb.datasink.db.WriteListener;
+import gov.usdot.cv.mongodb.datasink.db.WriteRequest;
+import gov.usdot.cv.mongodb.datasink.db.WriteRetrier;
+import gov.usdot.cv.mongodb.datasink.load.MongoWireServer;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.Mongo;
+import com.mongodb.MongoOptions;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+
+public class BoundedExecutorTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	@Test
+	public void testTasksAreBoundedByPermits() throws Exception {
+		Semaphore permits = new Semaphore(2);
+		BoundedExecutor executor = new BoundedExecutor("test", permits, true);
+		assertEquals(BoundedExecutor.isVirtualThreadSupported(), executor.isVirtual());
+
+		final AtomicInteger completed = new AtomicInteger();
+		for (int i = 0; i < 6; i++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					try { Thread.sleep(50); } catch (InterruptedException ignore) {}
+					completed.incrementAndGet();
+				}
+			});
+		}
+		executor.execute(new Runnable() {
+			public void run() {
+				throw new IllegalStateException("Expected by the test.");
+			}
+		});
+
+		assertTrue(executor.awaitIdle(5000));
+		assertEquals(6, completed.get());
+		assertEquals(7, executor.getExecutedCount());
+		assertEquals(1, executor.getFailedCount());
+		assertEquals(2, executor.getMaxInFlightCount());
+		assertEquals(2, permits.availablePermits());
+		executor.shutdown(1000);
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testBulkWritesOverlapOnExecutor() throws Exception {
+		MongoWireServer server = new MongoWireServer(0);
+		new Thread(server).start();
+		MongoOptions options = new MongoOptions();
+		options.writeConcern = WriteConcern.ACKNOWLEDGED;
+		Mongo mongo = new Mongo(new ServerAddress("localhost", server.getPort()), options);
+		BoundedExecutor executor = new BoundedExecutor("test-bulk-write", new Semaphore(4), true);
+		try {
+			DB db = mongo.getDB("cvdb");
+			InsertSitDataDao dao = mock(InsertSitDataDao.class);
+			when(dao.getCollection(any(String.class))).thenReturn(db.getCollection("vehSitDataMessage"));
+
+			final AtomicInteger acknowledged = new AtomicInteger();
+			WriteRetrier retrier = new WriteRetrier(new CircuitBreaker(100, 1000, new CircuitBreaker.Probe() {
+				public void probe() {
+				}
+			}), 0, 1, 1);
+			BulkWriter writer = new BulkWriter(dao, retrier, 10, 60000, new WriteListener() {
+				public void onAcknowledged(List<WriteRequest> requests) {
+					acknowledged.addAndGet(requests.size());
+				}
+
+				public void onFailed(List<WriteRequest> requests, Exception ex) {
+				}
+			});
+			writer.setPartitions(4);
+			writer.setExecutor(executor);
+
+			// Twenty batches of 50 ms each would take a second one after the other.
+			server.setLatency(50, 0);
+			long start = System.currentTimeMillis();
+			for (int recordId = 0; recordId < 200; recordId++) {
+				BasicDBObject doc = new BasicDBObject("recordId", recordId);
+				writer.add(new WriteRequest("vehSitDataMessage", new BasicDBObject("recordId", recordId), doc, null));
+			}
+			writer.flushAll();
+			long elapsed = System.currentTimeMillis() - start;
+
+			assertEquals(200, acknowledged.get());
+			assertEquals(200, server.getUpserted());
+			assertTrue("Bulk writes should overlap, took " + elapsed + " ms", elapsed < 800);
+			assertTrue(executor.getMaxInFlightCount() > 1);
+		} finally {
+			executor.shutdown(1000);
+			mongo.close();
+			server.terminate();
+		}
+	}
+}
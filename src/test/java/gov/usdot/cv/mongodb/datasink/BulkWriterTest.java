@@ -0,0 +1,276 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import gov.usdot.cv.common.database.mongodb.dao.InsertSitDataDao;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.db.BoundedExecutor;
+import gov.usdot.cv.mongodb.datasink.db.BulkWriter;
+import gov.usdot.cv.mongodb.datasink.db.CircuitBreaker;
+import gov.usdot.cv.mongodb.datasink.db.Endpoint;
+import gov.usdot.cv.mongodb.datasink.db.EndpointRouter;
+import gov.usdot.cv.mongodb.datasink.db.WriteListener;
+import gov.usdot.cv.mongodb.datasink.db.WriteRequest;
+import gov.usdot.cv.mongodb.datasink.db.WriteRetrier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+
+import org.apache.log4j.Level;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkUpdateRequestBuilder;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.BulkWriteRequestBuilder;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcernError;
+
+public class BulkWriterTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	private InsertSitDataDao dao;
+	private BulkWriteOperation bulk;
+	private BulkUpdateRequestBuilder upsert;
+	private RecordingListener listener;
+	private WriteRetrier retrier;
+
+	@Before
+	public void setUp() {
+		dao = mock(InsertSitDataDao.class);
+		DBCollection collection = mock(DBCollection.class);
+		bulk = mock(BulkWriteOperation.class);
+		BulkWriteRequestBuilder find = mock(BulkWriteRequestBuilder.class);
+		upsert = mock(BulkUpdateRequestBuilder.class);
+
+		when(dao.getCollection(any(String.class))).thenReturn(collection);
+		when(collection.initializeUnorderedBulkOperation()).thenReturn(bulk);
+		when(bulk.find(any(DBObject.class))).thenReturn(find);
+		when(find.upsert()).thenReturn(upsert);
+
+		listener = new RecordingListener();
+		retrier = new WriteRetrier(new CircuitBreaker(100, 1000, new CircuitBreaker.Probe() {
+			public void probe() {
+			}
+		}), 3, 1, 10);
+	}
+
+	@Test
+	public void testBatchIsWrittenWhenFull() {
+		BulkWriter writer = new BulkWriter(dao, retrier, 3, 60000, listener);
+
+		writer.add(insert("r1"));
+		writer.add(upsert("r2"));
+		verify(bulk, never()).execute();
+		assertEquals(2, writer.getPendingCount());
+
+		writer.add(insert("r3"));
+		verify(bulk, times(1)).execute();
+		verify(bulk, times(2)).insert(any(DBObject.class));
+		verify(upsert, times(1)).replaceOne(any(DBObject.class));
+
+		assertEquals(0, writer.getPendingCount());
+		assertEquals(Arrays.asList("r1", "r2", "r3"), listener.acknowledged);
+	}
+
+	@Test
+	public void testFlushAllWritesPartialBatches() {
+		BulkWriter writer = new BulkWriter(dao, retrier, 100, 60000, listener);
+
+		writer.add(insert("r1"));
+		writer.add(new WriteRequest("travelerInformation", null, new BasicDBObject(), "r2"));
+		assertEquals(0, listener.acknowledged.size());
+
+		writer.flushAll();
+		verify(bulk, times(2)).execute();
+		assertEquals(2, listener.acknowledged.size());
+	}
+
+	@Test
+	public void testFlushExpiredWritesAgedBatches() throws InterruptedException {
+		BulkWriter writer = new BulkWriter(dao, retrier, 100, 20, listener);
+
+		writer.add(insert("r1"));
+		writer.flushExpired();
+		assertEquals(0, listener.acknowledged.size());
+
+		Thread.sleep(40);
+		writer.flushExpired();
+		assertEquals(Arrays.asList("r1"), listener.acknowledged);
+	}
+
+	@Test
+	public void testOnlyAcknowledgedRecordsAreReceipted() {
+		BulkWriteError error = mock(BulkWriteError.class);
+		when(error.getIndex()).thenReturn(1);
+		BulkWriteException ex = mock(BulkWriteException.class);
+		when(ex.getWriteErrors()).thenReturn(Arrays.asList(error));
+		when(bulk.execute()).thenThrow(ex);
+
+		BulkWriter writer = new BulkWriter(dao, retrier, 3, 60000, listener);
+		writer.add(insert("r1"));
+		writer.add(insert("r2"));
+		writer.add(insert("r3"));
+
+		verify(bulk, times(1)).execute();
+		assertEquals(Arrays.asList("r1", "r3"), listener.acknowledged);
+		assertEquals(Arrays.asList("r2"), listener.failed);
+	}
+
+	@Test
+	public void testFailedBatchIsRetriedThenReported() {
+		when(bulk.execute()).thenThrow(new RuntimeException("connection refused"));
+
+		BulkWriter writer = new BulkWriter(dao, retrier, 1, 60000, listener);
+		writer.add(insert("r1"));
+
+		verify(bulk, times(4)).execute();
+		assertEquals(0, listener.acknowledged.size());
+		assertEquals(Arrays.asList("r1"), listener.failed);
+	}
+
+	@Test
+	public void testPermanentBatchFailureIsNotRetried() {
+		when(bulk.execute()).thenThrow(new IllegalArgumentException("can't serialize class"));
+
+		BulkWriter writer = new BulkWriter(dao, retrier, 1, 60000, listener);
+		writer.add(insert("r1"));
+
+		verify(bulk, times(1)).execute();
+		assertEquals(Arrays.asList("r1"), listener.failed);
+	}
+
+	@Test
+	public void testUnconfirmedInsertsAreFailedWithoutRetry() {
+		BulkWriteException ex = writeConcernError();
+		when(bulk.execute()).thenThrow(ex);
+
+		BulkWriter writer = new BulkWriter(dao, retrier, 2, 60000, listener);
+		writer.add(insert("r1"));
+		writer.add(upsert("r2"));
+
+		verify(bulk, times(1)).execute();
+		assertEquals(0, listener.acknowledged.size());
+		assertEquals(Arrays.asList("r1", "r2"), listener.failed);
+	}
+
+	@Test
+	public void testUnconfirmedUpsertsAreRetried() {
+		BulkWriteException ex = writeConcernError();
+		when(bulk.execute()).thenThrow(ex).thenReturn(null);
+
+		BulkWriter writer = new BulkWriter(dao, retrier, 2, 60000, listener);
+		writer.add(upsert("r1"));
+		writer.add(upsert("r2"));
+
+		verify(bulk, times(2)).execute();
+		assertEquals(Arrays.asList("r1", "r2"), listener.acknowledged);
+		assertEquals(0, listener.failed.size());
+	}
+
+	@Test
+	public void testRequestsStayOnTheEndpointTheyWereRoutedTo() {
+		EndpointRouter router = new EndpointRouter("mongos1,mongos2", null, 27017, "cvdb");
+		InsertSitDataDao other = mock(InsertSitDataDao.class);
+		router.getEndpoints().get(0).setDao(other);
+		Endpoint endpoint = router.getEndpoints().get(1);
+		endpoint.setDao(dao);
+
+		BulkWriter writer = new BulkWriter(router, retrier, 100, 60000, listener);
+		for (int i = 1; i <= 4; i++) {
+			writer.add(insert("r" + i), endpoint);
+		}
+		writer.flushAll();
+
+		verify(bulk, times(1)).execute();
+		verify(other, never()).getCollection(any(String.class));
+		assertEquals(Arrays.asList("r1", "r2", "r3", "r4"), listener.acknowledged);
+	}
+
+	@Test
+	public void testAddingWaitsForScheduledBatches() throws InterruptedException {
+		final CountDownLatch written = new CountDownLatch(1);
+		when(bulk.execute()).thenAnswer(new Answer<BulkWriteResult>() {
+			public BulkWriteResult answer(InvocationOnMock invocation) throws Exception {
+				written.await();
+				return null;
+			}
+		});
+
+		final BulkWriter writer = new BulkWriter(dao, retrier, 2, 60000, listener);
+		writer.setExecutor(new BoundedExecutor("test-bulk-write", new Semaphore(4), false));
+		Thread adder_t = new Thread(new Runnable() {
+			public void run() {
+				for (int i = 1; i <= 20; i++) {
+					writer.add(insert("r" + i));
+				}
+			}
+		});
+		adder_t.start();
+
+		// The first batch is being written, the second waits for it and the third fills up.
+		adder_t.join(200);
+		assertTrue(adder_t.isAlive());
+		assertTrue(writer.getPendingCount() <= 4);
+
+		written.countDown();
+		adder_t.join(5000);
+		writer.flushAll();
+		assertEquals(20, listener.acknowledged.size());
+	}
+
+	private static BulkWriteException writeConcernError() {
+		WriteConcernError error = mock(WriteConcernError.class);
+		when(error.getCode()).thenReturn(64);
+		BulkWriteException ex = mock(BulkWriteException.class);
+		when(ex.getWriteConcernError()).thenReturn(error);
+		when(ex.getWriteErrors()).thenReturn(new ArrayList<BulkWriteError>());
+		return ex;
+	}
+
+	private static WriteRequest insert(String receiptId) {
+		return new WriteRequest("vehSitDataMessage", null, new BasicDBObject("encodedMsg", receiptId), receiptId);
+	}
+
+	private static WriteRequest upsert(String receiptId) {
+		return new WriteRequest("vehSitDataMessage", new BasicDBObject("recordId", 1),
+			new BasicDBObject("encodedMsg", receiptId), receiptId);
+	}
+
+	private static class RecordingListener implements WriteListener {
+		private final List<String> acknowledged = new ArrayList<String>();
+		private final List<String> failed = new ArrayList<String>();
+
+		public void onAcknowledged(List<WriteRequest> requests) {
+			for (WriteRequest request : requests) {
+				acknowledged.add(request.getReceiptId());
+			}
+		}
+
+		public void onFailed(List<WriteRequest> requests, Exception ex) {
+			for (WriteRequest request : requests) {
+				failed.add(request.getReceiptId());
+			}
+		}
+	}
+}
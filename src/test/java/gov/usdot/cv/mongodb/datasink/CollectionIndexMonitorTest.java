@@ -0,0 +1,103 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import gov.usdot.cv.common.database.mongodb.dao.InsertSitDataDao;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.db.CollectionIndexMonitor;
+import gov.usdot.cv.mongodb.datasink.load.MongoWireServer;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.log4j.Level;
+import org.bson.BSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.Mongo;
+import com.mongodb.MongoOptions;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+
+public class CollectionIndexMonitorTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	private MongoWireServer server;
+	private Mongo mongo;
+	private DB db;
+
+	@Before
+	@SuppressWarnings("deprecation")
+	public void setUp() throws Exception {
+		this.server = new MongoWireServer(0);
+		new Thread(this.server).start();
+
+		MongoOptions options = new MongoOptions();
+		options.writeConcern = WriteConcern.ACKNOWLEDGED;
+		this.mongo = new Mongo(new ServerAddress("localhost", this.server.getPort()), options);
+		this.db = this.mongo.getDB("cvdb");
+	}
+
+	@After
+	public void tearDown() {
+		this.mongo.close();
+		this.server.terminate();
+	}
+
+	@Test
+	public void testOnlyMissingAndChangedIndexesAreApplied() throws Exception {
+		this.db.getCollection("travelerInformation").createIndex(
+			new BasicDBObject("expireAt", 1), new BasicDBObject("expireAfterSeconds", 3600));
+		this.db.getCollection("travelerInformation").createIndex(new BasicDBObject("requestId", 1));
+		long commandsBefore = this.server.getCommands();
+
+		CollectionIndexMonitor monitor = new CollectionIndexMonitor();
+		monitor.setMongoDbDao(daoFor("travelerInformation"));
+		monitor.setCollections(new String [] { "travelerInformation" });
+		monitor.setTimeToLiveFieldName("expireAt");
+		monitor.setIndexDefinitionList("region:2dsphere createdAt:1, requestId:1, expireAt:1");
+		Thread monitor_t = new Thread(monitor);
+		monitor_t.setDaemon(true);
+		monitor_t.start();
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (expireAfterSeconds("travelerInformation") != 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		monitor.terminate();
+
+		List<BSONObject> indexes = this.server.getIndexes("travelerInformation");
+		assertEquals(4, indexes.size());
+		assertEquals(0, expireAfterSeconds("travelerInformation"));
+		assertEquals(new BasicDBObject("region", "2dsphere").append("createdAt", 1), indexes.get(3).get("key"));
+		assertEquals(true, indexes.get(3).get("background"));
+		// listIndexes, one createIndexes and one collMod; the index on requestId is left alone.
+		assertEquals(3, this.server.getCommands() - commandsBefore);
+	}
+
+	private InsertSitDataDao daoFor(String collectionName) {
+		InsertSitDataDao dao = mock(InsertSitDataDao.class);
+		when(dao.getCollectionNames()).thenReturn(new HashSet<String>(Arrays.asList(collectionName)));
+		when(dao.getCollection(collectionName)).thenReturn(this.db.getCollection(collectionName));
+		return dao;
+	}
+
+	private int expireAfterSeconds(String collectionName) {
+		for (BSONObject index : this.server.getIndexes(collectionName)) {
+			if (new BasicDBObject("expireAt", 1).equals(index.get("key"))) {
+				return ((Number) index.get("expireAfterSeconds")).intValue();
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,55 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import gov.usdot.cv.common.database.mongodb.dao.InsertSitDataDao;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.db.DaoRegistry;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+import com.mongodb.MongoOptions;
+
+public class DaoRegistryTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	@Test
+	public void testClientsAreSharedAndReferenceCounted() throws Exception {
+		InsertSitDataDao first = DaoRegistry.acquire("localhost", 27017, options(10), "registryTest");
+		InsertSitDataDao second = DaoRegistry.acquire("localhost", 27017, options(10), "registryTest");
+		InsertSitDataDao other = DaoRegistry.acquire("localhost", 27017, options(10), "registryTestOther");
+		InsertSitDataDao larger = DaoRegistry.acquire("localhost", 27017, options(20), "registryTest");
+
+		assertNotNull(first);
+		assertSame(first, second);
+		assertNotSame(first, other);
+		assertNotSame(first, larger);
+		assertEquals(2, DaoRegistry.getReferenceCount(first));
+		assertNotNull(DaoRegistry.getPoolStatistics(first));
+
+		DaoRegistry.release(second);
+		assertEquals(1, DaoRegistry.getReferenceCount(first));
+		DaoRegistry.release(first);
+		assertEquals(0, DaoRegistry.getReferenceCount(first));
+
+		InsertSitDataDao recreated = DaoRegistry.acquire("localhost", 27017, options(10), "registryTest");
+		assertNotSame(first, recreated);
+
+		DaoRegistry.release(recreated);
+		DaoRegistry.release(other);
+		DaoRegistry.release(larger);
+	}
+
+	private static MongoOptions options(int poolSize) {
+		MongoOptions options = new MongoOptions();
+		options.connectionsPerHost = poolSize;
+		return options;
+	}
+}
@@ -0,0 +1,158 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.db.ErrorClassifier;
+import gov.usdot.cv.mongodb.datasink.model.BsonConverter;
+import gov.usdot.cv.mongodb.datasink.model.DataModel;
+import gov.usdot.cv.mongodb.datasink.model.DocumentKey;
+import gov.usdot.cv.mongodb.datasink.model.GeometryRepair;
+import gov.usdot.cv.mongodb.datasink.model.InvalidGeometryException;
+
+import java.util.Date;
+
+import net.sf.json.JSONObject;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.util.JSON;
+
+public class DataModelTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	private static final String VEH_SIT_DATA = 
+		"{\"standardHeader\":{\"uuid\":\"88aec29c-99ed-4199-ab8c-a7c681c7a9d1\",\"modelName\":\"vehSitDataMessage\",\"modelVersion\":\"1.0\"}," +
+		"\"dialogId\":155,\"sequenceId\":5,\"year\":2014,\"lat\":42.44783187,\"long\":-83.43090838,\"recordId\":4000000," +
+		"\"bigId\":9876543210,\"flag\":true,\"nothing\":null,\"encodedMsg\":\"MHCAAgCKgQEBokWgKaATgAIH3oEBAoIBCoMBCIQBHoUB\"}";
+	
+	private static final String ADV_SIT_DATA = 
+		"{\"standardHeader\":{\"uuid\":\"11aec29c-99ed-4199-ab8c-a7c681c7a9d1\",\"modelName\":\"travelerInformation\",\"modelVersion\":\"1.2\"}," +
+		"\"dialogId\":155,\"receiptId\":\"91dc722f-5877-4348-a68a-e0dc4fa7c6b6\",\"requestId\":1001,\"timeToLive\":2," +
+		"\"nwPos\":{\"lat\":43.0,\"lon\":-85.0},\"sePos\":{\"lat\":41.0,\"lon\":-82.0}," +
+		"\"region\":{\"type\":\"Polygon\",\"coordinates\":[[[-85.0,43.0],[-82.0,43.0],[-82.0,41.0],[-85.0,41.0],[-85.0,43.0]]]}," +
+		"\"timestamp\":\"2014-05-08T14:33:30\",\"encodedMsg\":\"MFaAAgCcgQEFggQAAAPpoxygDIAEGaFHgIEEzVYHgKEMgAQYcBqAgQTPH8sApCmABAAAFbOBAQKCAgeAhRpF\"}";
+
+	@Test
+	public void testConversionMatchesJsonParse() {
+		assertConvertsLikeJsonParse(VEH_SIT_DATA);
+		assertConvertsLikeJsonParse(ADV_SIT_DATA);
+	}
+	
+	@Test
+	public void testDataModelDocument() throws Exception {
+		JSONObject record = JSONObject.fromObject(ADV_SIT_DATA);
+		DataModel model = new DataModel(record, "expireAt", false, 30, "minute");
+		BasicDBObject doc = model.getDoc();
+		
+		assertNull(model.getQuery());
+		assertTrue(doc.get("timestamp") instanceof Date);
+		assertEquals(1399559610000L, ((Date) doc.get("timestamp")).getTime());
+		assertNotNull(doc.get("createdAt"));
+		assertNotNull(doc.get("expireAt"));
+		
+		BasicDBObject region = (BasicDBObject) doc.get("region");
+		BasicDBList ring = (BasicDBList) ((BasicDBList) region.get("coordinates")).get(0);
+		assertEquals(5, ring.size());
+		assertEquals(-85, ((BasicDBList) ring.get(0)).get(0));
+		
+		long ttl = ((Date) doc.get("expireAt")).getTime() - ((Date) doc.get("createdAt")).getTime();
+		assertTrue("Message time to live of one day should be used.", Math.abs(ttl - 24L * 60 * 60 * 1000) < 5000);
+	}
+	
+	@Test
+	public void testDataModelQuery() throws Exception {
+		JSONObject record = JSONObject.fromObject(VEH_SIT_DATA);
+		DataModel model = new DataModel(record, "expireAt", true, 30, "minute");
+		
+		assertEquals(new BasicDBObject("recordId", 4000000), model.getQuery());
+		assertEquals(9876543210L, model.getDoc().get("bigId"));
+		
+		long ttl = ((Date) model.getDoc().get("expireAt")).getTime() - ((Date) model.getDoc().get("createdAt")).getTime();
+		assertTrue("Configured time to live of 30 minutes should be used.", Math.abs(ttl - 30L * 60 * 1000) < 5000);
+	}
+	
+	@Test
+	public void testDocumentKey() throws Exception {
+		DataModel model = new DataModel(JSONObject.fromObject(VEH_SIT_DATA), "expireAt", true, 30, "minute");
+		model.useDocumentKey();
+		assertEquals(new BasicDBObject("_id", 4000000), model.getQuery());
+		assertEquals(4000000, model.getDoc().get("_id"));
+		
+		// Without a record id the same record always gets the same key.
+		model = new DataModel(JSONObject.fromObject(ADV_SIT_DATA), "expireAt", false, 30, "minute");
+		model.useDocumentKey();
+		DataModel resent = new DataModel(JSONObject.fromObject(ADV_SIT_DATA), "expireAt", false, 30, "minute");
+		resent.useDocumentKey();
+		String id = (String) model.getDoc().get("_id");
+		assertEquals(40, id.length());
+		assertEquals(model.getQuery(), resent.getQuery());
+		assertEquals(new BasicDBObject("_id", id), model.getQuery());
+		
+		String encodedMsg = JSONObject.fromObject(ADV_SIT_DATA).getString("encodedMsg");
+		assertEquals(id, DocumentKey.contentHash("travelerInformation", encodedMsg));
+		assertFalse(id.equals(DocumentKey.contentHash("intersectionSitData", encodedMsg)));
+	}
+	
+	@Test
+	public void testGeometryIsRepaired() throws Exception {
+		// Clockwise, unclosed, a repeated corner and latitudes just past the pole.
+		String region = "{\"type\":\"Polygon\",\"coordinates\":[[[-85.0,90.5],[-82.0,90.5],[-82.0,90.5],[-82.0,41.0],[-85.0,41.0]]]}";
+		DataModel model = new DataModel(JSONObject.fromObject(ADV_SIT_DATA.replaceFirst("\"region\":\\{[^}]*\\}", "\"region\":" + region)), 
+			"expireAt", false, 30, "minute");
+		model.repairGeometry("region");
+		
+		BasicDBList ring = (BasicDBList) ((BasicDBList) ((BasicDBObject) model.getDoc().get("region")).get("coordinates")).get(0);
+		assertEquals(JSON.parse("[[-85,90.0],[-85,41],[-82,41],[-82,90.0],[-85,90.0]]"), ring);
+		assertEquals(JSON.parse("[-85.0,41.0,-82.0,90.0]"), model.getDoc().get("regionBBox"));
+		
+		// Points and geometries of records without the field are left alone.
+		model = new DataModel(JSONObject.fromObject(VEH_SIT_DATA), "expireAt", true, 30, "minute");
+		model.repairGeometry("region");
+		assertNull(model.getDoc().get("regionBBox"));
+		BasicDBObject point = (BasicDBObject) JSON.parse("{\"type\":\"Point\",\"coordinates\":[-83.43,42.44]}");
+		assertEquals(JSON.parse("[-83.43,42.44,-83.43,42.44]"), GeometryRepair.repair(point));
+	}
+	
+	@Test
+	public void testInvalidGeometryIsRejected() throws Exception {
+		String [] regions = {
+			// All corners at the same position, as in a service region of a single point.
+			"{\"type\":\"Polygon\",\"coordinates\":[[[-85,43],[-85,43],[-85,43],[-85,43],[-85,43]]]}",
+			"{\"type\":\"Polygon\",\"coordinates\":[[[-85,43],[-84,43],[-83,43],[-85,43]]]}",
+			"{\"type\":\"Polygon\",\"coordinates\":[[[-85,43],[-82,41],[-82,43],[-85,41],[-85,43]]]}",
+			"{\"type\":\"Polygon\",\"coordinates\":[[[-85,95],[-82,95],[-82,41],[-85,41],[-85,95]]]}",
+			"{\"type\":\"LineString\",\"coordinates\":[[-85,43],[-85,43]]}",
+			"{\"type\":\"Circle\",\"coordinates\":[-85,43]}",
+			"{\"type\":\"Point\",\"coordinates\":[\"-85\",43]}",
+			"[-85,43]"
+		};
+		for (String region : regions) {
+			try {
+				GeometryRepair.repair(JSON.parse(region));
+				fail("Geometry should be rejected: " + region);
+			} catch (InvalidGeometryException ex) {
+				assertEquals(ErrorClassifier.Type.Permanent, ErrorClassifier.classify(ex));
+			}
+		}
+	}
+	
+	private static void assertConvertsLikeJsonParse(String json) {
+		JSONObject record = JSONObject.fromObject(json);
+		BasicDBObject expected = (BasicDBObject) JSON.parse(record.toString());
+		BasicDBObject actual = BsonConverter.toDBObject(record);
+		assertEquals(expected, actual);
+		assertEquals(expected.toString(), actual.toString());
+	}
+}
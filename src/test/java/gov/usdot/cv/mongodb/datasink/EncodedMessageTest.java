@@ -0,0 +1,111 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.model.DataModel;
+import gov.usdot.cv.mongodb.datasink.model.EncodedMessage;
+
+import java.util.Random;
+
+import net.sf.json.JSONObject;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.DefaultDBEncoder;
+
+public class EncodedMessageTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	private static final String ENCODED_MSG = "MFaAAgCcgQEFggQAAAPpoxygDIAEGaFHgIEEzVYHgKEMgAQYcBqAgQTPH8sApCmABAAAFbOBAQKCAgeAhRpF";
+
+	@Test
+	public void testBase64() {
+		String [] vectors = { "", "", "f", "Zg==", "fo", "Zm8=", "foo", "Zm9v", "foob", "Zm9vYg==", "fooba", "Zm9vYmE=", "foobar", "Zm9vYmFy" };
+		for (int i = 0; i < vectors.length; i += 2) {
+			assertEquals(vectors[i + 1], EncodedMessage.encode(vectors[i].getBytes()));
+			assertEquals(vectors[i], new String(EncodedMessage.decode(vectors[i + 1])));
+		}
+		for (int length = 0; length < 64; length++) {
+			byte [] bytes = new byte[length];
+			new Random(length).nextBytes(bytes);
+			assertArrayEquals(bytes, EncodedMessage.decode(EncodedMessage.encode(bytes)));
+		}
+		// Only canonical text converts, so the text read back is always the text received.
+		assertNull(EncodedMessage.decode("MFaA\nAgCc"));
+		assertNull(EncodedMessage.decode("MFaAAgC"));
+		assertNull(EncodedMessage.decode("MF=A"));
+		assertNull(EncodedMessage.decode("MR=="));
+		assertNull(EncodedMessage.decode("MFb="));
+		assertArrayEquals(new byte [] { 0x30, 0x56 }, EncodedMessage.decode("MFY="));
+	}
+
+	@Test
+	public void testMessageIsStoredAsBinary() throws Exception {
+		DataModel model = new DataModel(JSONObject.fromObject("{\"standardHeader\":{\"modelName\":\"travelerInformation\"}," +
+			"\"encodedMsg\":\"" + ENCODED_MSG + "\"}"), "expireAt", true, 30, "minute");
+		model.useBinaryMessage(0);
+		BasicDBObject doc = model.getDoc();
+		assertTrue(doc.get("encodedMsg") instanceof byte []);
+		assertEquals(ENCODED_MSG.length() / 4 * 3, ((byte []) doc.get("encodedMsg")).length);
+		assertFalse(doc.containsField("encodedMsgCodec"));
+
+		DBObject stored = roundTrip(doc);
+		assertEquals(ENCODED_MSG, EncodedMessage.getBase64(stored));
+		assertArrayEquals(EncodedMessage.decode(ENCODED_MSG), EncodedMessage.getBytes(stored));
+
+		// Documents written before the switch read the same.
+		BasicDBObject legacy = new BasicDBObject("encodedMsg", ENCODED_MSG);
+		assertEquals(ENCODED_MSG, EncodedMessage.getBase64(legacy));
+		assertArrayEquals(EncodedMessage.getBytes(stored), EncodedMessage.getBytes(legacy));
+
+		BasicDBObject text = new BasicDBObject("encodedMsg", "not base64");
+		assertFalse(EncodedMessage.toBinary(text, 0));
+		assertEquals("not base64", EncodedMessage.getBase64(text));
+		assertNull(EncodedMessage.getBytes(new BasicDBObject()));
+	}
+
+	@Test
+	public void testLargeMessageIsCompressed() {
+		byte [] payload = new byte[4096];
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] = (byte) (i % 64);
+		}
+		String encodedMsg = EncodedMessage.encode(payload);
+
+		BasicDBObject doc = new BasicDBObject("encodedMsg", encodedMsg);
+		assertTrue(EncodedMessage.toBinary(doc, 1024));
+		assertEquals(EncodedMessage.DEFLATE_CODEC, doc.get("encodedMsgCodec"));
+		assertTrue(((byte []) doc.get("encodedMsg")).length < payload.length / 4);
+		DBObject stored = roundTrip(doc);
+		assertArrayEquals(payload, EncodedMessage.getBytes(stored));
+		assertEquals(encodedMsg, EncodedMessage.getBase64(stored));
+
+		// Below the threshold, or when it does not compress, the message is stored as is.
+		BasicDBObject small = new BasicDBObject("encodedMsg", ENCODED_MSG);
+		EncodedMessage.toBinary(small, 1024);
+		assertFalse(small.containsField("encodedMsgCodec"));
+		new Random(1).nextBytes(payload);
+		BasicDBObject random = new BasicDBObject("encodedMsg", EncodedMessage.encode(payload));
+		EncodedMessage.toBinary(random, 1024);
+		assertFalse(random.containsField("encodedMsgCodec"));
+		assertArrayEquals(payload, EncodedMessage.getBytes(random));
+	}
+
+	private static DBObject roundTrip(DBObject doc) {
+		byte [] bson = new DefaultDBEncoder().encode(doc);
+		return new DefaultDBDecoder().decode(bson, (DBCollection) null);
+	}
+}
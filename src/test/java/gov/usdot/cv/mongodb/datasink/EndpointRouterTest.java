@@ -0,0 +1,113 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.db.Endpoint;
+import gov.usdot.cv.mongodb.datasink.db.EndpointRouter;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.util.JSON;
+
+public class EndpointRouterTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	@Test
+	public void testParseEndpoints() {
+		List<Endpoint> endpoints = Endpoint.parseList("mongos1, mongos2:27018,mongos3:27019/other", 27017, "cvdb");
+		assertEquals(3, endpoints.size());
+		assertEquals("mongos1:27017/cvdb", endpoints.get(0).getName());
+		assertEquals("mongos2:27018/cvdb", endpoints.get(1).getName());
+		assertEquals("mongos3:27019/other", endpoints.get(2).getName());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPort() {
+		Endpoint.parse("mongos1:port", 27017, "cvdb");
+	}
+
+	@Test
+	public void testRoutesByModelNameAndPosition() {
+		EndpointRouter router = new EndpointRouter("mongos1,mongos2",
+			"travelerInformation=tim:27017; geo:-84.0,42.2,-82.5,43.0=det1|det2", 27017, "cvdb");
+		assertEquals(5, router.getEndpoints().size());
+		assertEquals("mongos1:27017/cvdb", router.getPrimary().getName());
+
+		BasicDBObject tim = new BasicDBObject("lat", 42.4).append("long", -83.4);
+		assertEquals("tim:27017/cvdb", router.select("travelerInformation", tim, null).getName());
+
+		BasicDBObject vehicle = new BasicDBObject("lat", 42.4).append("long", -83.4);
+		assertTrue(router.select("vehSitDataMessage", vehicle, null).getHost().startsWith("det"));
+
+		BasicDBObject region = (BasicDBObject) JSON.parse(
+			"{\"region\":{\"type\":\"Polygon\",\"coordinates\":[[[-83.0,42.5],[-82.9,42.5],[-82.9,42.4],[-83.0,42.5]]]}}");
+		assertTrue(router.select("intersectionSitData", region, null).getHost().startsWith("det"));
+
+		BasicDBObject corners = (BasicDBObject) JSON.parse("{\"nwPos\":{\"lat\":43.0,\"lon\":-85.0},\"sePos\":{\"lat\":41.0,\"lon\":-82.0}}");
+		assertTrue(router.select("intersectionSitData", corners, null).getHost().startsWith("mongos"));
+		assertTrue(router.select("intersectionSitData", new BasicDBObject(), null).getHost().startsWith("mongos"));
+	}
+
+	@Test
+	public void testUnhealthyEndpointIsSkipped() {
+		EndpointRouter router = new EndpointRouter("mongos1,mongos2,mongos3", null, 27017, "cvdb");
+		BasicDBObject doc = new BasicDBObject();
+
+		Set<String> selected = new HashSet<String>();
+		for (int i = 0; i < 3; i++) {
+			selected.add(router.select("vehSitDataMessage", doc, null).getHost());
+		}
+		assertEquals(3, selected.size());
+
+		Endpoint down = router.getEndpoints().get(1);
+		for (int i = 0; i < 3; i++) {
+			down.recordFailure();
+		}
+		assertFalse(down.isHealthy());
+		for (int i = 0; i < 6; i++) {
+			assertFalse(router.select("vehSitDataMessage", doc, null) == down);
+		}
+
+		down.recordSuccess(10, 1000000);
+		assertEquals(3, down.getStatistics().getFailures());
+		assertEquals(10, down.getStatistics().getDocuments());
+	}
+
+	@Test
+	public void testWritesOfARecordStayOnOneEndpoint() {
+		EndpointRouter router = new EndpointRouter("mongos1,mongos2,mongos3", null, 27017, "cvdb");
+		BasicDBObject doc = new BasicDBObject();
+
+		Set<String> selected = new HashSet<String>();
+		for (int i = 0; i < 30; i++) {
+			Endpoint endpoint = router.select("vehSitDataMessage", doc, "vehicle" + i);
+			assertTrue(endpoint == router.select("vehSitDataMessage", doc, "vehicle" + i));
+			selected.add(endpoint.getHost());
+		}
+		assertEquals(3, selected.size());
+
+		Endpoint home = router.select("vehSitDataMessage", doc, "vehicle1");
+		for (int i = 0; i < 3; i++) {
+			home.recordFailure();
+		}
+		Endpoint failover = router.select("vehSitDataMessage", doc, "vehicle1");
+		assertFalse(failover == home);
+		for (int i = 0; i < 6; i++) {
+			assertTrue(failover == router.select("vehSitDataMessage", doc, "vehicle1"));
+		}
+		List<Endpoint> endpoints = router.getEndpoints();
+		assertTrue(failover == endpoints.get((endpoints.indexOf(home) + 1) % endpoints.size()));
+	}
+}
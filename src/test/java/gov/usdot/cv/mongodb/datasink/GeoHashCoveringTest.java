@@ -0,0 +1,85 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.db.IndexSpec;
+import gov.usdot.cv.mongodb.datasink.model.GeoHashCovering;
+import gov.usdot.cv.mongodb.datasink.model.GeometryRepair;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.util.JSON;
+
+public class GeoHashCoveringTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	@Test
+	public void testEncode() {
+		assertEquals("ezs42", GeoHashCovering.encode(-5.6, 42.6, 5));
+		assertEquals("u4pruydqqvj", GeoHashCovering.encode(10.40744, 57.64911, 11));
+		assertEquals("dps9", GeoHashCovering.encode(-83.43, 42.44, 4));
+
+		GeoHashCovering covering = GeoHashCovering.parse("5, 4", 64);
+		assertEquals(Arrays.asList("d", "dp", "dps", "dps9", "dps9m"), covering.getCells(-83.43, 42.44));
+	}
+
+	@Test
+	public void testPointsInRegionMatchItsCells() {
+		// A thin diagonal triangle, most cells of its bounding box are outside of it.
+		BasicDBObject region = (BasicDBObject) JSON.parse(
+			"{\"type\":\"Polygon\",\"coordinates\":[[[-85.0,41.0],[-82.0,43.0],[-82.2,43.0],[-85.0,41.0]]]}");
+		BasicDBList bbox = GeometryRepair.repair(region);
+		GeoHashCovering covering = new GeoHashCovering(new int [] { 4, 5 }, 64);
+		BasicDBList cells = covering.cover(region, bbox);
+
+		assertFalse("Precision 5 needs more than 64 cells.", containsLength(cells, 5));
+		// Without rings to check, as for a point, all cells of the bounding box are taken.
+		assertTrue(cells.size() < covering.cover(JSON.parse("{\"type\":\"Point\",\"coordinates\":[-83.5,42.0]}"), bbox).size());
+
+		for (double t = 0.01; t < 1; t += 0.01) {
+			double lon = -85.0 + t * 2.9;
+			double lat = 41.0 + t * 2.0 - 0.01;
+			List<String> pointCells = covering.getCells(lon, lat);
+			pointCells.retainAll(cells);
+			assertFalse(String.format("No covering cell for [%s, %s].", lon, lat), pointCells.isEmpty());
+		}
+	}
+
+	@Test
+	public void testLargeRegionFallsBackToCoarserCells() {
+		BasicDBObject region = (BasicDBObject) JSON.parse(
+			"{\"type\":\"Polygon\",\"coordinates\":[[[-125.0,25.0],[-66.0,25.0],[-66.0,49.0],[-125.0,49.0],[-125.0,25.0]]]}");
+		BasicDBList cells = new GeoHashCovering(new int [] { 5, 6 }, 40).cover(region, GeometryRepair.repair(region));
+		assertEquals(35, cells.size());
+		assertTrue(containsLength(cells, 2));
+		assertTrue(cells.contains(GeoHashCovering.encode(-83.43, 42.44, 2)));
+	}
+
+	@Test
+	public void testCoveringIndexDefinition() {
+		IndexSpec spec = IndexSpec.parse("region:cells createdAt:1");
+		assertEquals(Arrays.asList("regionCells", "createdAt"), Arrays.asList(spec.getKeys().keySet().toArray()));
+		assertEquals(1, spec.getKeys().get("regionCells"));
+	}
+
+	private static boolean containsLength(List<?> cells, int length) {
+		for (Object cell : cells) {
+			if (((String) cell).length() == length) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
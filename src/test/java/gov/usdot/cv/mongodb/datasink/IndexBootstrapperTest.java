@@ -0,0 +1,111 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import gov.usdot.cv.common.database.mongodb.dao.InsertSitDataDao;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.db.IndexBootstrapper;
+import gov.usdot.cv.mongodb.datasink.db.IndexSpec;
+import gov.usdot.cv.mongodb.datasink.db.TimePartitioning;
+import gov.usdot.cv.mongodb.datasink.load.MongoWireServer;
+
+import org.apache.log4j.Level;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.Mongo;
+import com.mongodb.MongoOptions;
+import com.mongodb.MongoSocketException;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+
+public class IndexBootstrapperTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	private MongoWireServer server;
+	private Mongo mongo;
+	private DB db;
+
+	@Before
+	@SuppressWarnings("deprecation")
+	public void setUp() throws Exception {
+		this.server = new MongoWireServer(0);
+		new Thread(this.server).start();
+
+		MongoOptions options = new MongoOptions();
+		options.writeConcern = WriteConcern.ACKNOWLEDGED;
+		this.mongo = new Mongo(new ServerAddress("localhost", this.server.getPort()), options);
+		this.db = this.mongo.getDB("cvdb");
+	}
+
+	@After
+	public void tearDown() {
+		this.mongo.close();
+		this.server.terminate();
+	}
+
+	@Test
+	public void testNewCollectionIsBootstrappedOnce() {
+		InsertSitDataDao dao = mock(InsertSitDataDao.class);
+		when(dao.getCollection("intersectionSitData")).thenReturn(this.db.getCollection("intersectionSitData"));
+		IndexBootstrapper bootstrapper = new IndexBootstrapper(dao, "expireAt",
+			IndexSpec.parseList("region:2dsphere createdAt:1, requestId:1 createdAt:1"));
+
+		assertFalse(bootstrapper.isBootstrapped("intersectionSitData"));
+		assertTrue(bootstrapper.ensureIndexes("intersectionSitData"));
+		assertTrue(bootstrapper.isBootstrapped("intersectionSitData"));
+		// _id plus the expiration index and the two configured indexes.
+		assertEquals(4, this.server.getIndexes("intersectionSitData").size());
+		assertEquals(new BasicDBObject("expireAt", 1), this.server.getIndexes("intersectionSitData").get(1).get("key"));
+
+		long commands = this.server.getCommands();
+		bootstrapper.ensureIndexes("intersectionSitData");
+		assertEquals(commands, this.server.getCommands());
+		verify(dao, times(1)).getCollection("intersectionSitData");
+	}
+
+	@Test
+	public void testFailedBootstrapIsNotCached() {
+		InsertSitDataDao dao = mock(InsertSitDataDao.class);
+		when(dao.getCollection("travelerInformation")).thenThrow(new MongoSocketException("Connection refused", null));
+		IndexBootstrapper bootstrapper = new IndexBootstrapper(dao, "expireAt", IndexSpec.parseList("requestId:1"));
+
+		assertFalse(bootstrapper.ensureIndexes("travelerInformation"));
+		assertFalse(bootstrapper.isBootstrapped("travelerInformation"));
+
+		// Not retried before the retry interval is up.
+		assertFalse(bootstrapper.ensureIndexes("travelerInformation"));
+		verify(dao, times(1)).getCollection("travelerInformation");
+	}
+
+	@Test
+	public void testExpiredPartitionsAreEvicted() {
+		InsertSitDataDao dao = mock(InsertSitDataDao.class);
+		when(dao.getCollection("vehSitDataMessage_2026101813")).thenReturn(this.db.getCollection("vehSitDataMessage_2026101813"));
+		when(dao.getCollection("vehSitDataMessage_2026101814")).thenReturn(this.db.getCollection("vehSitDataMessage_2026101814"));
+		IndexBootstrapper bootstrapper = new IndexBootstrapper(dao, null, IndexSpec.parseList("requestId:1"));
+		TimePartitioning partitioning = new TimePartitioning(TimePartitioning.Interval.Hour, "expireAt");
+		long now = partitioning.getStart("vehSitDataMessage_2026101814") + 60 * 1000;
+
+		assertTrue(bootstrapper.ensureIndexes("vehSitDataMessage_2026101813"));
+		assertTrue(bootstrapper.ensureIndexes("vehSitDataMessage_2026101814"));
+		bootstrapper.evictExpired(partitioning, now);
+		assertFalse(bootstrapper.isBootstrapped("vehSitDataMessage_2026101813"));
+		assertTrue(bootstrapper.isBootstrapped("vehSitDataMessage_2026101814"));
+
+		bootstrapper.evict("vehSitDataMessage_2026101814");
+		assertFalse(bootstrapper.isBootstrapped("vehSitDataMessage_2026101814"));
+	}
+}
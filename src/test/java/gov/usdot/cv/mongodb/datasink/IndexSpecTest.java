@@ -0,0 +1,90 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import gov.usdot.cv.mongodb.datasink.db.IndexDiff;
+import gov.usdot.cv.mongodb.datasink.db.IndexSpec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+public class IndexSpecTest {
+
+	@Test
+	public void testParseIndexDefinitionList() {
+		List<IndexSpec> specs = IndexSpec.parseList("region:2dsphere createdAt:1, requestId:1 createdAt:-1,createdAt:1");
+		assertEquals(3, specs.size());
+		assertEquals(new BasicDBObject("region", "2dsphere").append("createdAt", 1), specs.get(0).getKeyObject());
+		assertEquals(new BasicDBObject("requestId", 1).append("createdAt", -1), specs.get(1).getKeyObject());
+		assertEquals(new BasicDBObject("createdAt", 1), specs.get(2).getKeyObject());
+		assertFalse(specs.get(0).isExpiring());
+		assertEquals(Arrays.asList("region", "createdAt"), new ArrayList<String>(specs.get(0).getKeys().keySet()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidIndexField() {
+		IndexSpec.parse("region 2dsphere");
+	}
+
+	@Test
+	public void testDiffAgainstExistingIndexes() {
+		List<IndexSpec> specs = new ArrayList<IndexSpec>();
+		specs.add(IndexSpec.forExpiration("expireAt", 0));
+		specs.addAll(IndexSpec.parseList("region:2dsphere createdAt:1, requestId:1"));
+
+		// The server reports numeric key values as doubles.
+		List<DBObject> existing = new ArrayList<DBObject>();
+		existing.add(index(new BasicDBObject("_id", 1.0), null));
+		existing.add(index(new BasicDBObject("expireAt", 1.0), 3600));
+		existing.add(index(new BasicDBObject("region", "2dsphere").append("createdAt", 1.0), null));
+
+		IndexDiff diff = IndexDiff.compute(specs, existing);
+		assertFalse(diff.isEmpty());
+		assertEquals(1, diff.getMissing().size());
+		assertEquals(new BasicDBObject("requestId", 1), diff.getMissing().get(0).getKeyObject());
+		assertEquals(1, diff.getExpirationChanges().size());
+		assertEquals(0, diff.getExpirationChanges().get(0).getExpireAfterSeconds());
+		assertEquals(1, diff.getUnchanged());
+
+		existing.set(1, index(new BasicDBObject("expireAt", 1), 0));
+		existing.add(index(new BasicDBObject("requestId", 1), null));
+		diff = IndexDiff.compute(specs, existing);
+		assertTrue(diff.isEmpty());
+		assertEquals(3, diff.getUnchanged());
+	}
+
+	@Test
+	public void testFieldOrderMatters() {
+		IndexSpec spec = IndexSpec.parse("region:2dsphere createdAt:1");
+		assertTrue(spec.hasKeys(new BasicDBObject("region", "2dsphere").append("createdAt", 1)));
+		assertFalse(spec.hasKeys(new BasicDBObject("createdAt", 1).append("region", "2dsphere")));
+		assertFalse(spec.hasKeys(new BasicDBObject("region", "2dsphere")));
+	}
+
+	@Test
+	public void testExpirationCanNotBeAddedInPlace() {
+		List<IndexSpec> specs = Arrays.asList(IndexSpec.forExpiration("expireAt", 0));
+		List<DBObject> existing = new ArrayList<DBObject>();
+		existing.add(index(new BasicDBObject("expireAt", 1), null));
+
+		IndexDiff diff = IndexDiff.compute(specs, existing);
+		assertTrue(diff.getMissing().isEmpty());
+		assertTrue(diff.getExpirationChanges().isEmpty());
+		assertEquals(1, diff.getConflicts().size());
+	}
+
+	private static DBObject index(BasicDBObject keys, Integer expireAfterSeconds) {
+		BasicDBObject index = new BasicDBObject("v", 1).append("key", keys);
+		if (expireAfterSeconds != null) {
+			index.put("expireAfterSeconds", expireAfterSeconds);
+		}
+		return index;
+	}
+}
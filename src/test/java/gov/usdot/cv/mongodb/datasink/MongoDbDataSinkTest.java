@@ -5,9 +5,6 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
 import gov.usdot.cv.common.database.mongodb.MongoClientBuilder;
-import gov.usdot.cv.common.database.mongodb.geospatial.Coordinates;
-import gov.usdot.cv.common.database.mongodb.geospatial.Geometry;
-import gov.usdot.cv.common.database.mongodb.geospatial.Point;
 import gov.usdot.cv.common.util.UnitTestHelper;
 import gov.usdot.cv.resources.PrivateTestResourceLoader;
 
@@ -58,9 +55,6 @@ public class MongoDbDataSinkTest {
 	
 	private static BrokerService externalJMSBroker;
 	
-	private static final String BASE64_VEH_SIT_DATA = "MHCAAgCKgQEBokWgKaATgAIH3oEBAoIBCoMBCIQBHoUBGYEBK4IBVYMCA0iEAQCFAgA3hwEkgQEAggECoxKDEP/u/rQAAABk//n+yAAAAGSDIAAAAAEAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
-	private static final String BASE64_ADV_SIT_DATA = "MFaAAgCcgQEFggQAAAPpoxygDIAEGaFHgIEEzVYHgKEMgAQYcBqAgQTPH8sApCmABAAAFbOBAQKCAgeAhRpFeGl0IDYyIGNsb3NlZCwgdXNlIGRldG91cg==";
-	
 	private static JSONObject vehsitdata1;
 	private static JSONObject vehsitdata2;
 	private static JSONObject advsitdata1;
@@ -154,7 +148,7 @@ public class MongoDbDataSinkTest {
 		DBObject result = collection.findOne(query);
 		
 		assertNotNull("Did not find document with uuid '88aec29c-99ed-4199-ab8c-a7c681c7a9d1'", result);
-		assertEquals("Document returned a encoded message that didn't match what was inserted.", BASE64_VEH_SIT_DATA, result.get("encodedMsg"));
+		assertEquals("Document returned a encoded message that didn't match what was inserted.", SampleRecords.BASE64_VEH_SIT_DATA, result.get("encodedMsg"));
 		
 		sink.dispose();
 	}
@@ -199,7 +193,7 @@ public class MongoDbDataSinkTest {
 		DBObject result1 = collection.findOne(query1);
 		
 		assertNotNull("Did not find document with uuid '99aec29c-99ed-4199-ab8c-a7c681c7a9d1'.", result1);
-		assertEquals("Document returned a encoded message that didn't what was inserted.", BASE64_VEH_SIT_DATA, result1.get("encodedMsg"));
+		assertEquals("Document returned a encoded message that didn't what was inserted.", SampleRecords.BASE64_VEH_SIT_DATA, result1.get("encodedMsg"));
 
 		// wait for the record to expire from the database
 		try { Thread.sleep(1000 * 60); } catch (InterruptedException ie) {}
@@ -255,7 +249,7 @@ public class MongoDbDataSinkTest {
 		DBObject result = collection.findOne(query);
 		
 		assertNotNull("Did not find document with uuid '11aec29c-99ed-4199-ab8c-a7c681c7a9d1'", result);
-		assertEquals("Document returned a encoded message that didn't match what was inserted.", BASE64_ADV_SIT_DATA, result.get("encodedMsg"));
+		assertEquals("Document returned a encoded message that didn't match what was inserted.", SampleRecords.BASE64_ADV_SIT_DATA, result.get("encodedMsg"));
 		
 		sink.dispose();
 	}
@@ -306,135 +300,10 @@ public class MongoDbDataSinkTest {
 	}
 	
 	private static void buildTestData() {
-		StringBuilder sb1 = new StringBuilder();
-		sb1.append('{');
-			sb1.append(buildStandardHeader("88aec29c-99ed-4199-ab8c-a7c681c7a9d1", "vehSitDataMessage", "1.0"));
-			sb1.append(buildCommonVehSitDataModelBody());
-		sb1.append('}');
-		vehsitdata1 = JSONObject.fromObject(sb1.toString());
-		
-		StringBuilder sb2 = new StringBuilder();
-		sb2.append('{');
-			sb2.append(buildStandardHeader("99aec29c-99ed-4199-ab8c-a7c681c7a9d1", "vehSitDataMessage", "1.0"));
-			sb2.append(buildCommonVehSitDataModelBody());
-		sb2.append('}');
-		vehsitdata2 = JSONObject.fromObject(sb2.toString());
-		
-		StringBuilder sb3 = new StringBuilder();
-		sb3.append('{');
-			sb3.append(buildStandardHeader("11aec29c-99ed-4199-ab8c-a7c681c7a9d1", "travelerInformation", "1.2"));
-			sb3.append(buildCommonAdvSitDataModelBody());
-			sb3.append(buildServiceRegion(43, -85, 41, -82));
-			sb3.append(buildGeoJson("Polygon", 43, -85, 41, -82));
-			sb3.append(buildCommonBroadcastInstructions());
-		sb3.append('}');
-		advsitdata1 = JSONObject.fromObject(sb3.toString());
-		
-		StringBuilder sb4 = new StringBuilder();
-		sb4.append('{');
-			sb4.append(buildStandardHeader("22aec29c-99ed-4199-ab8c-a7c681c7a9d1", "travelerInformation", "1.2"));
-			sb4.append(buildCommonAdvSitDataModelBody());
-			sb4.append(buildServiceRegion(43, -85, 43, -85));
-			sb4.append(buildGeoJson("Polygon", 43, -85, 43, -85));
-			sb4.append(buildCommonBroadcastInstructions());
-			sb4.append('}');
-		advsitdata2_badregion = JSONObject.fromObject(sb4.toString());
-	}
-	
-	private static String buildStandardHeader(String uuid, String modelName, String modelVersion) {
-		StringBuilder sb = new StringBuilder();
-		sb.append("\"standardHeader\": {");
-			sb.append("\"uuid\": \"" + uuid + "\",");
-			sb.append("\"source\": \"UNKNOWN\",");
-			sb.append("\"accessLabel\": \"UNCLASSIFIED\",");
-			sb.append("\"modelName\": \"" + modelName + "\",");
-			sb.append("\"modelVersion\": \"" + modelVersion +"\"");
-		sb.append("},");
-		return sb.toString();
-	}
-	
-	private static String buildCommonVehSitDataModelBody() {
-		StringBuilder sb = new StringBuilder();
-		sb.append("\"dialogId\": 155,"); 
-		sb.append("\"sequenceId\": 5,"); 
-		sb.append("\"vsmType\": 1,"); 
-		sb.append("\"year\": 2014,");
-		sb.append("\"month\": 2,");
-		sb.append("\"day\": 10,");
-		sb.append("\"hour\": 8,");
-		sb.append("\"minute\": 30,");
-		sb.append("\"second\": 25,");
-		sb.append("\"lat\": 42.44783187,");
-		sb.append("\"long\": -83.43090838,");
-		sb.append("\"encodedMsg\":\"" + BASE64_VEH_SIT_DATA + "\"");
-		return sb.toString();
-	}
-	
-	private static String buildCommonAdvSitDataModelBody() {
-		StringBuilder sb = new StringBuilder();
-		sb.append("\"dialogId\": 155,");
-		sb.append("\"receiptId\": \"91dc722f-5877-4348-a68a-e0dc4fa7c6b6\","); 
-		sb.append("\"sequenceId\": 5,");
-		sb.append("\"requestId\": 1001,");
-		sb.append("\"encodedMsg\":\"" + BASE64_ADV_SIT_DATA + "\",");
-		return sb.toString();
-	}
-	
-	private static String buildServiceRegion(double nwLat, double nwLon, double seLat, double seLon) {
-		StringBuilder sb = new StringBuilder();
-		
-		String nwPos = buildPosition(nwLat, nwLon);
-		String sePos = buildPosition(seLat, seLon);
-		
-		sb.append("\"nwPos\": " + nwPos + ",");
-		sb.append("\"sePos\": " + sePos);
-		sb.append(',');
-		
-		return sb.toString();
-	}
-	
-	private static String buildPosition(double lat, double lon) {
-		JSONObject pos = new JSONObject();
-		pos.put("lat", lat);
-		pos.put("lon", lon);
-		return pos.toString();
-	}
-	
-	private static String buildGeoJson(String type, double nwLat, double nwLon, double seLat, double seLon) {
-		Point nwCorner = new Point.Builder().setLat(nwLat).setLon(nwLon).build();
-		Point neCorner = new Point.Builder().setLat(nwLat).setLon(seLon).build();
-		Point seCorner = new Point.Builder().setLat(seLat).setLon(seLon).build();
-		Point swCorner = new Point.Builder().setLat(seLat).setLon(nwLon).build();
-		
-		Coordinates coordinates = new Coordinates.Builder()
-			.addPoint(nwCorner)
-			.addPoint(neCorner)
-			.addPoint(seCorner)
-			.addPoint(swCorner)
-			.addPoint(nwCorner)
-		.build();
-		
-		Geometry geometry = new Geometry.Builder().setType(type).setCoordinates(coordinates).build();
-		
-		StringBuilder sb = new StringBuilder();
-		sb.append("\"region\": " + geometry.toJSONObject().toString() + ",");
-		return sb.toString();
-	}
-	
-	private static String buildCommonBroadcastInstructions() {
-		StringBuilder sb = new StringBuilder();
-		sb.append("\"broadcastInstructions\": {");
-			sb.append("\"type\": 2,"); 
-			sb.append("\"psid\": 32771,"); 
-			sb.append("\"priority\": 2,");
-			sb.append("\"txMode\": 1,");
-			sb.append("\"txInterval\": 5,");
-			sb.append("\"deliveryStart\": \"2014-05-08T14:33:30\",");
-			sb.append("\"deliveryEnd\": \"2014-05-15T14:33:30\",");
-			sb.append("\"signature\": true,");
-			sb.append("\"encryption\": false");
-		sb.append("}");
-		return sb.toString();
+		vehsitdata1 = SampleRecords.vehSitData("88aec29c-99ed-4199-ab8c-a7c681c7a9d1");
+		vehsitdata2 = SampleRecords.vehSitData("99aec29c-99ed-4199-ab8c-a7c681c7a9d1");
+		advsitdata1 = SampleRecords.advSitData("11aec29c-99ed-4199-ab8c-a7c681c7a9d1", 43, -85, 41, -82);
+		advsitdata2_badregion = SampleRecords.advSitData("22aec29c-99ed-4199-ab8c-a7c681c7a9d1", 43, -85, 43, -85);
 	}
 	
 	private Mongo buildMongo(String host, int port, MongoOptions options) throws UnknownHostException {
@@ -0,0 +1,106 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.db.ErrorClassifier;
+import gov.usdot.cv.mongodb.datasink.load.MongoWireServer;
+
+import org.apache.log4j.Level;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.Mongo;
+import com.mongodb.MongoException;
+import com.mongodb.MongoOptions;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+
+public class MongoWireServerTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	private MongoWireServer server;
+	private Mongo mongo;
+	private DB db;
+
+	@Before
+	@SuppressWarnings("deprecation")
+	public void setUp() throws Exception {
+		this.server = new MongoWireServer(0);
+		new Thread(this.server).start();
+
+		MongoOptions options = new MongoOptions();
+		options.connectTimeout = 1000;
+		options.maxWaitTime = 1000;
+		options.writeConcern = WriteConcern.ACKNOWLEDGED;
+		this.mongo = new Mongo(new ServerAddress("localhost", this.server.getPort()), options);
+		this.db = this.mongo.getDB("cvdb");
+	}
+
+	@After
+	public void tearDown() {
+		this.mongo.close();
+		this.server.terminate();
+	}
+
+	@Test
+	public void testDriverWritesAreCounted() {
+		this.db.getCollection("vehSitDataMessage").insert(new BasicDBObject("recordId", 1));
+		this.db.getCollection("vehSitDataMessage").update(
+			new BasicDBObject("recordId", 2), new BasicDBObject("recordId", 2), true, false);
+		this.db.getCollection("travelerInformation").createIndex(new BasicDBObject("createdAt", 1));
+
+		assertEquals(1, this.server.getInserted());
+		assertEquals(1, this.server.getUpserted());
+		assertEquals(2, this.server.getStored());
+		assertTrue(this.db.getCollectionNames().contains("travelerInformation"));
+	}
+
+	@Test
+	public void testInjectedFailureCarriesErrorCode() {
+		this.server.setFailureRate(1.0, 91);
+		try {
+			this.db.getCollection("vehSitDataMessage").insert(new BasicDBObject("recordId", 1));
+			fail("Expected the injected failure.");
+		} catch (MongoException ex) {
+			assertEquals(91, ex.getCode());
+			assertEquals(ErrorClassifier.Type.Transient, ErrorClassifier.classify(ex));
+		}
+		assertEquals(1, this.server.getFailed());
+		assertEquals(0, this.server.getStored());
+	}
+
+	@Test
+	public void testOutageDropsConnections() {
+		this.db.getCollection("vehSitDataMessage").insert(new BasicDBObject("recordId", 1));
+		this.server.setAvailable(false);
+		try {
+			this.db.getCollection("vehSitDataMessage").insert(new BasicDBObject("recordId", 2));
+			fail("Expected the write to fail during the outage.");
+		} catch (MongoException ex) {
+			assertEquals(ErrorClassifier.Type.Transient, ErrorClassifier.classify(ex));
+		}
+
+		this.server.setAvailable(true);
+		long deadline = System.currentTimeMillis() + 10000;
+		while (true) {
+			try {
+				this.db.getCollection("vehSitDataMessage").insert(new BasicDBObject("recordId", 3));
+				break;
+			} catch (MongoException ex) {
+				if (System.currentTimeMillis() > deadline) {
+					throw ex;
+				}
+			}
+		}
+		assertEquals(2, this.server.getInserted());
+	}
+}
@@ -0,0 +1,78 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.db.CircuitBreaker;
+import gov.usdot.cv.mongodb.datasink.db.ReadinessMonitor;
+
+import java.net.ConnectException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+public class ReadinessMonitorTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	@Test
+	public void testReadyAfterFirstSuccessfulPing() throws Exception {
+		final AtomicBoolean reachable = new AtomicBoolean(false);
+		final AtomicInteger notified = new AtomicInteger();
+		ReadinessMonitor readiness = new ReadinessMonitor(
+			new CircuitBreaker.Probe() {
+				public void probe() throws Exception {
+					if (! reachable.get()) {
+						throw new ConnectException("Connection refused");
+					}
+				}
+			},
+			new ReadinessMonitor.Listener() {
+				public void onReady() {
+					notified.incrementAndGet();
+				}
+			});
+		new Thread(readiness).start();
+
+		long start = System.currentTimeMillis();
+		assertFalse(readiness.awaitReady(150));
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertEquals(ReadinessMonitor.State.Connecting, readiness.getState());
+		assertEquals(-1, readiness.getTimeToReadyMs());
+		assertTrue(readiness.getAttempts() > 1);
+
+		reachable.set(true);
+		assertTrue(readiness.awaitReady(5000));
+		assertEquals(ReadinessMonitor.State.Ready, readiness.getState());
+		assertTrue(readiness.getTimeToReadyMs() >= 150);
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (notified.get() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, notified.get());
+	}
+
+	@Test
+	public void testTerminateWhileConnecting() throws Exception {
+		ReadinessMonitor readiness = new ReadinessMonitor(new CircuitBreaker.Probe() {
+			public void probe() throws Exception {
+				throw new ConnectException("Connection refused");
+			}
+		}, null);
+		Thread readiness_t = new Thread(readiness);
+		readiness_t.start();
+
+		readiness.terminate();
+		readiness_t.join(5000);
+		assertFalse(readiness_t.isAlive());
+		assertEquals(ReadinessMonitor.State.Terminated, readiness.getState());
+		assertFalse(readiness.awaitReady(1000));
+	}
+}
@@ -0,0 +1,176 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import gov.usdot.cv.common.dialog.ReceiptSender;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.receipt.JmsReceiptPublisher;
+import gov.usdot.cv.mongodb.datasink.receipt.ReceiptDispatcher;
+import gov.usdot.cv.mongodb.datasink.receipt.ReceiptSenderPublisher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+public class ReceiptDispatcherTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	private static final String TOPIC_NAME = "cv.receipts";
+
+	@Test
+	public void testReceiptsArePublishedInBatches() throws Exception {
+		String url = "tcp://localhost:61631";
+		BrokerService broker = startBroker(url);
+		Connection connection = new ActiveMQConnectionFactory(url).createConnection();
+		try {
+			connection.start();
+			MessageConsumer consumer = subscribe(connection);
+
+			JmsReceiptPublisher publisher = new JmsReceiptPublisher(url, "", "", TOPIC_NAME);
+			ReceiptDispatcher dispatcher = new ReceiptDispatcher(publisher, 50, 1000);
+			Thread dispatcher_t = new Thread(dispatcher);
+			dispatcher_t.start();
+
+			for (int i = 0; i < 200; i++) {
+				dispatcher.submit("receipt-" + (i % 150));
+			}
+
+			Set<String> received = receive(consumer, 150);
+			dispatcher.terminate();
+			dispatcher_t.join(5000);
+			publisher.close();
+
+			assertEquals(150, received.size());
+			assertEquals(150, dispatcher.getSentCount());
+			assertTrue("Duplicate receipt ids should be coalesced.", dispatcher.getCoalescedCount() > 0);
+			assertTrue(dispatcher.getMaxBatchSize() <= 50);
+		} finally {
+			connection.close();
+			broker.stop();
+		}
+	}
+
+	@Test
+	public void testReceiptsAreKeptWhileBrokerIsDown() throws Exception {
+		String url = "tcp://localhost:61632";
+		JmsReceiptPublisher publisher = new JmsReceiptPublisher(url, "", "", TOPIC_NAME);
+		ReceiptDispatcher dispatcher = new ReceiptDispatcher(publisher, 10, 1000);
+		Thread dispatcher_t = new Thread(dispatcher);
+		dispatcher_t.start();
+
+		for (int i = 0; i < 25; i++) {
+			dispatcher.submit("receipt-" + i);
+		}
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (dispatcher.getFailedBatchCount() < 3 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertTrue(dispatcher.getFailedBatchCount() >= 3);
+		assertEquals(0, dispatcher.getSentCount());
+
+		BrokerService broker = startBroker(url);
+		Connection connection = new ActiveMQConnectionFactory(url).createConnection();
+		try {
+			connection.start();
+			MessageConsumer consumer = subscribe(connection);
+
+			Set<String> received = receive(consumer, 25);
+			assertEquals(25, received.size());
+			assertEquals(0, dispatcher.getDroppedCount());
+		} finally {
+			dispatcher.terminate();
+			dispatcher_t.join(5000);
+			publisher.close();
+			connection.close();
+			broker.stop();
+		}
+	}
+
+	@Test
+	public void testOnlyUnsentReceiptsAreSentAgain() throws Exception {
+		ReceiptSender sender = mock(ReceiptSender.class);
+		doNothing().doNothing().doThrow(new IllegalStateException("connection reset")).doNothing().when(sender).send(anyString());
+		ReceiptDispatcher dispatcher = new ReceiptDispatcher(new ReceiptSenderPublisher(sender), 5, 1000);
+		final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+		dispatcher.setListener(new ReceiptDispatcher.Listener() {
+			public void onSent(String collectionName, long latencyNanos) {
+				sent.add(collectionName);
+			}
+		});
+		for (int i = 0; i < 5; i++) {
+			dispatcher.submit("receipt-" + i, "travelerInformation");
+		}
+		assertEquals(0, sent.size());
+		Thread dispatcher_t = new Thread(dispatcher);
+		dispatcher_t.start();
+		try {
+			long deadline = System.currentTimeMillis() + 10000;
+			while (sent.size() < 5 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			assertEquals(5, dispatcher.getSentCount());
+			assertEquals(Collections.nCopies(5, "travelerInformation"), sent);
+			assertEquals(1, dispatcher.getFailedBatchCount());
+			verify(sender, times(1)).send(contains("receipt-0"));
+			verify(sender, times(1)).send(contains("receipt-1"));
+			verify(sender, times(2)).send(contains("receipt-2"));
+			verify(sender, times(1)).send(contains("receipt-3"));
+			verify(sender, times(1)).send(contains("receipt-4"));
+		} finally {
+			dispatcher.terminate();
+			dispatcher_t.join(5000);
+		}
+	}
+
+	private static BrokerService startBroker(String url) throws Exception {
+		BrokerService broker = new BrokerService();
+		broker.setBrokerName("RECEIPT_TEST_BROKER");
+		broker.addConnector(url);
+		broker.setPersistent(false);
+		broker.setUseJmx(false);
+		broker.start();
+		broker.waitUntilStarted();
+		return broker;
+	}
+
+	private static MessageConsumer subscribe(Connection connection) throws Exception {
+		Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		return session.createConsumer(session.createTopic(TOPIC_NAME));
+	}
+
+	private static Set<String> receive(MessageConsumer consumer, int expected) throws Exception {
+		Set<String> received = new HashSet<String>();
+		long deadline = System.currentTimeMillis() + 30000;
+		while (received.size() < expected && System.currentTimeMillis() < deadline) {
+			Message message = consumer.receive(500);
+			if (message != null) {
+				received.add(((TextMessage) message).getText());
+			}
+		}
+		return received;
+	}
+}
@@ -0,0 +1,161 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import gov.usdot.cv.common.database.mongodb.geospatial.Coordinates;
+import gov.usdot.cv.common.database.mongodb.geospatial.Geometry;
+import gov.usdot.cv.common.database.mongodb.geospatial.Point;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Situation data records with captured encoded messages, shared by the sink tests and
+ * the benchmarks so both work on the same, full size records.
+ */
+public final class SampleRecords {
+
+	public static final String BASE64_VEH_SIT_DATA = "MHCAAgCKgQEBokWgKaATgAIH3oEBAoIBCoMBCIQBHoUBGYEBK4IBVYMCA0iEAQCFAgA3hwEkgQEAggECoxKDEP/u/rQAAABk//n+yAAAAGSDIAAAAAEAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+	public static final String BASE64_ADV_SIT_DATA = "MFaAAgCcgQEFggQAAAPpoxygDIAEGaFHgIEEzVYHgKEMgAQYcBqAgQTPH8sApCmABAAAFbOBAQKCAgeAhRpFeGl0IDYyIGNsb3NlZCwgdXNlIGRldG91cg==";
+
+	private SampleRecords() {
+	}
+
+	/**
+	 * One representative record for each situation data type the sink stores. No
+	 * intersection situation data was captured, so that record carries the advisory's
+	 * encoded message over an intersection sized region.
+	 */
+	public static JSONObject get(String modelName) {
+		if ("vehSitDataMessage".equals(modelName)) {
+			return vehSitData("88aec29c-99ed-4199-ab8c-a7c681c7a9d1");
+		} else if ("travelerInformation".equals(modelName)) {
+			return advSitData("11aec29c-99ed-4199-ab8c-a7c681c7a9d1", 43, -85, 41, -82);
+		} else if ("intersectionSitData".equals(modelName)) {
+			return sitData("5f3e7a10-4c2b-4d6e-9b1a-0c8d2e6f4a77", "intersectionSitData", "1.0", 42.3, -83.1, 42.2, -83.0);
+		}
+		throw new IllegalArgumentException("No sample record for model " + modelName);
+	}
+
+	public static JSONObject vehSitData(String uuid) {
+		StringBuilder sb = new StringBuilder();
+		sb.append('{');
+			sb.append(buildStandardHeader(uuid, "vehSitDataMessage", "1.0"));
+			sb.append(buildCommonVehSitDataModelBody());
+		sb.append('}');
+		return JSONObject.fromObject(sb.toString());
+	}
+
+	/**
+	 * A traveler information record for the region between the given corners.
+	 */
+	public static JSONObject advSitData(String uuid, double nwLat, double nwLon, double seLat, double seLon) {
+		return sitData(uuid, "travelerInformation", "1.2", nwLat, nwLon, seLat, seLon);
+	}
+
+	private static JSONObject sitData(String uuid, String modelName, String modelVersion,
+			double nwLat, double nwLon, double seLat, double seLon) {
+		StringBuilder sb = new StringBuilder();
+		sb.append('{');
+			sb.append(buildStandardHeader(uuid, modelName, modelVersion));
+			sb.append(buildCommonAdvSitDataModelBody());
+			sb.append(buildServiceRegion(nwLat, nwLon, seLat, seLon));
+			sb.append(buildGeoJson("Polygon", nwLat, nwLon, seLat, seLon));
+			sb.append(buildCommonBroadcastInstructions());
+		sb.append('}');
+		return JSONObject.fromObject(sb.toString());
+	}
+
+	private static String buildStandardHeader(String uuid, String modelName, String modelVersion) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("\"standardHeader\": {");
+			sb.append("\"uuid\": \"" + uuid + "\",");
+			sb.append("\"source\": \"UNKNOWN\",");
+			sb.append("\"accessLabel\": \"UNCLASSIFIED\",");
+			sb.append("\"modelName\": \"" + modelName + "\",");
+			sb.append("\"modelVersion\": \"" + modelVersion +"\"");
+		sb.append("},");
+		return sb.toString();
+	}
+
+	private static String buildCommonVehSitDataModelBody() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("\"dialogId\": 155,");
+		sb.append("\"sequenceId\": 5,");
+		sb.append("\"vsmType\": 1,");
+		sb.append("\"year\": 2014,");
+		sb.append("\"month\": 2,");
+		sb.append("\"day\": 10,");
+		sb.append("\"hour\": 8,");
+		sb.append("\"minute\": 30,");
+		sb.append("\"second\": 25,");
+		sb.append("\"lat\": 42.44783187,");
+		sb.append("\"long\": -83.43090838,");
+		sb.append("\"encodedMsg\":\"" + BASE64_VEH_SIT_DATA + "\"");
+		return sb.toString();
+	}
+
+	private static String buildCommonAdvSitDataModelBody() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("\"dialogId\": 155,");
+		sb.append("\"receiptId\": \"91dc722f-5877-4348-a68a-e0dc4fa7c6b6\",");
+		sb.append("\"sequenceId\": 5,");
+		sb.append("\"requestId\": 1001,");
+		sb.append("\"encodedMsg\":\"" + BASE64_ADV_SIT_DATA + "\",");
+		return sb.toString();
+	}
+
+	private static String buildServiceRegion(double nwLat, double nwLon, double seLat, double seLon) {
+		StringBuilder sb = new StringBuilder();
+
+		String nwPos = buildPosition(nwLat, nwLon);
+		String sePos = buildPosition(seLat, seLon);
+
+		sb.append("\"nwPos\": " + nwPos + ",");
+		sb.append("\"sePos\": " + sePos);
+		sb.append(',');
+
+		return sb.toString();
+	}
+
+	private static String buildPosition(double lat, double lon) {
+		JSONObject pos = new JSONObject();
+		pos.put("lat", lat);
+		pos.put("lon", lon);
+		return pos.toString();
+	}
+
+	private static String buildGeoJson(String type, double nwLat, double nwLon, double seLat, double seLon) {
+		Point nwCorner = new Point.Builder().setLat(nwLat).setLon(nwLon).build();
+		Point neCorner = new Point.Builder().setLat(nwLat).setLon(seLon).build();
+		Point seCorner = new Point.Builder().setLat(seLat).setLon(seLon).build();
+		Point swCorner = new Point.Builder().setLat(seLat).setLon(nwLon).build();
+
+		Coordinates coordinates = new Coordinates.Builder()
+			.addPoint(nwCorner)
+			.addPoint(neCorner)
+			.addPoint(seCorner)
+			.addPoint(swCorner)
+			.addPoint(nwCorner)
+		.build();
+
+		Geometry geometry = new Geometry.Builder().setType(type).setCoordinates(coordinates).build();
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("\"region\": " + geometry.toJSONObject().toString() + ",");
+		return sb.toString();
+	}
+
+	private static String buildCommonBroadcastInstructions() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("\"broadcastInstructions\": {");
+			sb.append("\"type\": 2,");
+			sb.append("\"psid\": 32771,");
+			sb.append("\"priority\": 2,");
+			sb.append("\"txMode\": 1,");
+			sb.append("\"txInterval\": 5,");
+			sb.append("\"deliveryStart\": \"2014-05-08T14:33:30\",");
+			sb.append("\"deliveryEnd\": \"2014-05-15T14:33:30\",");
+			sb.append("\"signature\": true,");
+			sb.append("\"encryption\": false");
+		sb.append("}");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,88 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.metrics.CollectionCounters;
+import gov.usdot.cv.mongodb.datasink.metrics.LatencyHistogram;
+import gov.usdot.cv.mongodb.datasink.metrics.SinkMetrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+public class SinkMetricsTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	@Test
+	public void testHistogramPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 10000; i++) {
+			histogram.record(i * 1000L);
+		}
+
+		assertEquals(10000, histogram.getCount());
+		assertEquals(10000000, histogram.getMaxNanos());
+		assertWithin(5000000, histogram.getPercentileNanos(50));
+		assertWithin(9900000, histogram.getPercentileNanos(99));
+		assertWithin(5000500, (long) histogram.getMeanNanos());
+		assertEquals(10000000, histogram.getPercentileNanos(100));
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentileNanos(50));
+	}
+
+	@Test
+	public void testCountersArePublishedOverJmx() throws Exception {
+		SinkMetrics metrics = SinkMetrics.getInstance();
+		metrics.reset();
+		for (int i = 0; i < 10; i++) {
+			metrics.recordIn("travelerInformation");
+			metrics.recordConversion(20000);
+		}
+		metrics.recordStored("travelerInformation", false);
+		metrics.recordStored("travelerInformation", true);
+		metrics.recordRetry("travelerInformation");
+		metrics.recordDropped("travelerInformation", 2);
+		metrics.recordCoalesced("travelerInformation", 3);
+		metrics.recordReceipt("travelerInformation", 5000);
+		metrics.recordIn("vehSitDataMessage");
+
+		CollectionCounters.Snapshot counters = metrics.getCollections().get("travelerInformation");
+		assertEquals(10, counters.getRecordsIn());
+		assertEquals(2, counters.getStored());
+		assertEquals(1, counters.getUpserted());
+		assertEquals(1, counters.getRetried());
+		assertEquals(2, counters.getDropped());
+		assertEquals(3, counters.getCoalesced());
+		assertEquals(1, counters.getReceiptsSent());
+		assertEquals(11, metrics.getTotals().getRecordsIn());
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(SinkMetrics.OBJECT_NAME);
+		CompositeData conversion = (CompositeData) server.getAttribute(name, "ConversionLatency");
+		assertEquals(10L, conversion.get("count"));
+		assertWithin(20, ((Double) conversion.get("p99Micros")).longValue());
+
+		TabularData collections = (TabularData) server.getAttribute(name, "Collections");
+		assertEquals(2, collections.size());
+		CompositeData totals = (CompositeData) server.getAttribute(name, "Totals");
+		assertEquals(2L, totals.get("stored"));
+	}
+
+	private static void assertWithin(long expected, long actual) {
+		assertTrue(String.format("Expected %s to be within 12.5%% of %s.", actual, expected),
+			Math.abs(actual - expected) <= expected / 8);
+	}
+}
@@ -0,0 +1,295 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import gov.usdot.cv.common.database.mongodb.dao.InsertSitDataDao;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.db.BulkWriter;
+import gov.usdot.cv.mongodb.datasink.db.CircuitBreaker;
+import gov.usdot.cv.mongodb.datasink.db.WriteListener;
+import gov.usdot.cv.mongodb.datasink.db.WriteRequest;
+import gov.usdot.cv.mongodb.datasink.db.WriteRetrier;
+import gov.usdot.cv.mongodb.datasink.journal.JournalReplayer;
+import gov.usdot.cv.mongodb.datasink.journal.SpillJournal;
+
+import java.io.File;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Level;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+public class SpillJournalTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	private static final int SEGMENT_SIZE = 64 * 1024;
+
+	private File directory;
+	private InsertSitDataDao dao;
+	private List<String> stored;
+	private List<String> acknowledged;
+	private AtomicBoolean available;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("journal", "");
+		directory.delete();
+
+		stored = Collections.synchronizedList(new ArrayList<String>());
+		acknowledged = Collections.synchronizedList(new ArrayList<String>());
+		available = new AtomicBoolean(true);
+
+		dao = mock(InsertSitDataDao.class);
+		DBCollection collection = mock(DBCollection.class);
+		final BulkWriteOperation bulk = mock(BulkWriteOperation.class);
+		final List<String> pending = new ArrayList<String>();
+		when(dao.getCollection(any(String.class))).thenReturn(collection);
+		when(collection.initializeUnorderedBulkOperation()).thenReturn(bulk);
+		doAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) {
+				pending.add((String) ((DBObject) invocation.getArguments()[0]).get("receiptId"));
+				return null;
+			}
+		}).when(bulk).insert(any(DBObject.class));
+		when(bulk.execute()).thenAnswer(new Answer<BulkWriteResult>() {
+			public BulkWriteResult answer(InvocationOnMock invocation) throws Exception {
+				try {
+					if (! available.get()) {
+						throw new SocketTimeoutException("Read timed out");
+					}
+					stored.addAll(pending);
+					return null;
+				} finally {
+					pending.clear();
+				}
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	@Test
+	public void testRecordsSurviveRestartAndReplayOldestFirst() throws Exception {
+		SpillJournal journal = new SpillJournal(directory.getAbsolutePath(), SEGMENT_SIZE, 16 * SEGMENT_SIZE, "expireAt");
+		journal.open();
+
+		List<String> expected = new ArrayList<String>();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 1000; i++) {
+			String collectionName = (i / 100 % 2 == 0) ? "travelerInformation" : "vehSitDataMessage";
+			boolean expired = i % 10 == 0;
+			assertTrue(journal.append(request(collectionName, "r" + i, new Date(now + (expired ? -60000 : 60000)))));
+			if (! expired) {
+				expected.add("r" + i);
+			}
+		}
+		assertEquals(1000, journal.getPendingCount());
+		assertTrue(journal.getDiskUsage() > SEGMENT_SIZE);
+		journal.close();
+
+		journal = new SpillJournal(directory.getAbsolutePath(), SEGMENT_SIZE, 16 * SEGMENT_SIZE, "expireAt");
+		journal.open();
+		assertEquals(1000, journal.getPendingCount());
+
+		replay(journal);
+		assertEquals(expected, stored);
+		assertEquals(expected, acknowledged);
+		assertEquals(0, journal.getPendingCount());
+		journal.close();
+	}
+
+	@Test
+	public void testJournalIsBounded() throws Exception {
+		SpillJournal journal = new SpillJournal(directory.getAbsolutePath(), SEGMENT_SIZE, 2 * SEGMENT_SIZE, "expireAt");
+		journal.open();
+
+		int appended = 0;
+		while (journal.append(request("travelerInformation", "r" + appended, null))) {
+			appended++;
+		}
+		assertTrue(appended > 0);
+		assertFalse(journal.append(request("travelerInformation", "r", null)));
+		assertEquals(appended, journal.getPendingCount());
+		assertEquals(2 * SEGMENT_SIZE, journal.getDiskUsage());
+		journal.close();
+	}
+
+	@Test
+	public void testReplayWaitsForMongoDB() throws Exception {
+		SpillJournal journal = new SpillJournal(directory.getAbsolutePath(), SEGMENT_SIZE, 16 * SEGMENT_SIZE, "expireAt");
+		journal.open();
+		for (int i = 0; i < 10; i++) {
+			journal.append(request("travelerInformation", "r" + i, null));
+		}
+
+		available.set(false);
+		CircuitBreaker breaker = newBreaker();
+		JournalReplayer replayer = new JournalReplayer(journal, newWriter(breaker), breaker, 100);
+		Thread replayer_t = new Thread(replayer);
+		replayer_t.start();
+
+		Thread.sleep(200);
+		assertEquals(0, stored.size());
+		assertEquals(10, journal.getPendingCount());
+
+		available.set(true);
+		awaitReplayed(journal);
+		replayer.terminate();
+		replayer_t.join(5000);
+
+		assertEquals(10, stored.size());
+		assertEquals(10, acknowledged.size());
+		journal.close();
+	}
+
+	@Test
+	public void testDrainReplaysRecordsJournaledDuringIt() throws Exception {
+		SpillJournal journal = new SpillJournal(directory.getAbsolutePath(), SEGMENT_SIZE, 16 * SEGMENT_SIZE, "expireAt");
+		journal.open();
+		for (int i = 0; i < 10; i++) {
+			journal.append(request("travelerInformation", "r" + i, null));
+		}
+		assertFalse(journal.isDraining());
+
+		available.set(false);
+		CircuitBreaker breaker = newBreaker();
+		JournalReplayer replayer = new JournalReplayer(journal, newWriter(breaker), breaker, 100);
+		Thread replayer_t = new Thread(replayer);
+		replayer_t.start();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (! journal.isDraining() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(journal.isDraining());
+
+		// Records journaled during the drain extend it, and are replayed before it ends.
+		for (int i = 0; i < 5; i++) {
+			journal.append(request("travelerInformation", "n" + i, null));
+		}
+		available.set(true);
+		deadline = System.currentTimeMillis() + 10000;
+		while (journal.isDraining() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertFalse(journal.isDraining());
+		assertFalse(journal.hasBacklog());
+		replayer.terminate();
+		replayer_t.join(5000);
+
+		assertFalse(journal.hasBacklog());
+		assertFalse(journal.isDraining());
+		assertEquals(15, stored.size());
+		assertEquals("r9", stored.get(9));
+		assertEquals("n0", stored.get(10));
+		journal.close();
+	}
+
+	@Test
+	public void testReplayedSegmentFilesAreReused() throws Exception {
+		SpillJournal journal = new SpillJournal(directory.getAbsolutePath(), SEGMENT_SIZE, 16 * SEGMENT_SIZE, "expireAt");
+		journal.open();
+		for (int i = 0; i < 1000; i++) {
+			journal.append(request("travelerInformation", "r" + i, null));
+		}
+		replay(journal);
+		assertEquals(1000, stored.size());
+		int files = new File(directory, "0").list().length;
+
+		// Fewer records than before, the rest of the reused file still holds old ones.
+		stored.clear();
+		for (int i = 0; i < 3; i++) {
+			journal.append(request("travelerInformation", "n" + i, null));
+		}
+		journal.close();
+		assertEquals(files, new File(directory, "0").list().length);
+
+		journal = new SpillJournal(directory.getAbsolutePath(), SEGMENT_SIZE, 16 * SEGMENT_SIZE, "expireAt");
+		journal.open();
+		assertEquals(3, journal.getPendingCount());
+		replay(journal);
+		assertEquals(Arrays.asList("n0", "n1", "n2"), stored);
+		journal.close();
+	}
+
+	private void replay(SpillJournal journal) throws Exception {
+		CircuitBreaker breaker = newBreaker();
+		JournalReplayer replayer = new JournalReplayer(journal, newWriter(breaker), breaker, 50);
+		Thread replayer_t = new Thread(replayer);
+		replayer_t.start();
+		awaitReplayed(journal);
+		replayer.terminate();
+		replayer_t.join(5000);
+	}
+
+	private static void awaitReplayed(SpillJournal journal) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (journal.hasBacklog() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	private BulkWriter newWriter(CircuitBreaker breaker) {
+		return new BulkWriter(dao, new WriteRetrier(breaker, 0, 1, 1), 100, 60000, new WriteListener() {
+			public void onAcknowledged(List<WriteRequest> requests) {
+				for (WriteRequest request : requests) {
+					acknowledged.add(request.getReceiptId());
+				}
+			}
+
+			public void onFailed(List<WriteRequest> requests, Exception ex) {
+			}
+		});
+	}
+
+	private static CircuitBreaker newBreaker() {
+		return new CircuitBreaker(1000, 1000, new CircuitBreaker.Probe() {
+			public void probe() {
+			}
+		});
+	}
+
+	private static WriteRequest request(String collectionName, String receiptId, Date expireAt) {
+		BasicDBObject doc = new BasicDBObject("receiptId", receiptId).append("encodedMsg", "3081C68001108109000000000000000000");
+		if (expireAt != null) {
+			doc.append("expireAt", expireAt);
+		}
+		return new WriteRequest(collectionName, null, doc, receiptId);
+	}
+
+	private static void delete(File file) {
+		File [] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,133 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import gov.usdot.cv.common.database.mongodb.dao.InsertSitDataDao;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.db.IndexBootstrapper;
+import gov.usdot.cv.mongodb.datasink.db.PartitionMaintainer;
+import gov.usdot.cv.mongodb.datasink.db.TimePartitioning;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+public class TimePartitioningTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	private static final long HOUR = 60 * 60 * 1000L;
+
+	@Test
+	public void testPartitionNames() throws Exception {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		Date time = format.parse("2026-10-18 14:35");
+
+		TimePartitioning hourly = new TimePartitioning(TimePartitioning.Interval.Hour, "expireAt");
+		assertEquals("vehSitDataMessage_2026101814", hourly.getPartition("vehSitDataMessage", time));
+		assertEquals("vehSitDataMessage_2026101815", hourly.getNext("vehSitDataMessage_2026101814"));
+		assertEquals("vehSitDataMessage_2026101900", hourly.getNext("vehSitDataMessage_2026101823"));
+		assertEquals("vehSitDataMessage", hourly.getPartition("vehSitDataMessage", (Object) null));
+		assertEquals("vehSitDataMessage", hourly.getPartition("vehSitDataMessage", "2026-10-18"));
+
+		TimePartitioning daily = new TimePartitioning(TimePartitioning.Interval.Day, "expireAt");
+		assertEquals("travelerInformation_20261018", daily.getPartition("travelerInformation", time));
+		assertEquals("travelerInformation_20261101", daily.getNext("travelerInformation_20261031"));
+
+		assertEquals(format.parse("2026-10-18 14:00").getTime(), hourly.getStart("vehSitDataMessage_2026101814"));
+		assertTrue(hourly.isPartition("vehSitDataMessage_2026101814"));
+		assertFalse(hourly.isPartition("travelerInformation_20261018"));
+		assertFalse(hourly.isPartition("vehSitDataMessage"));
+		assertFalse(hourly.isPartition("vehSitDataMessage_2026101899"));
+
+		assertEquals("vehSitDataMessage", TimePartitioning.getBaseName("vehSitDataMessage_2026101814"));
+		assertEquals("intersection_sit_data", TimePartitioning.getBaseName("intersection_sit_data"));
+
+		assertFalse(hourly.isExpired("vehSitDataMessage_2026101814", format.parse("2026-10-18 14:59").getTime()));
+		assertTrue(hourly.isExpired("vehSitDataMessage_2026101814", format.parse("2026-10-18 15:00").getTime()));
+
+		assertNull(TimePartitioning.Interval.fromString("none"));
+		assertEquals(TimePartitioning.Interval.Day, TimePartitioning.Interval.fromString("day"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testPartitionsAreDroppedCreatedAndListed() throws Exception {
+		TimePartitioning partitioning = new TimePartitioning(TimePartitioning.Interval.Hour, "expireAt");
+		long now = partitioning.getStart("vehSitDataMessage_2026101814") + 30 * 60 * 1000L;
+
+		DB db = mock(DB.class);
+		DBCollection expired = mock(DBCollection.class);
+		DBCollection current = mock(DBCollection.class);
+		DBCollection next = mock(DBCollection.class);
+		DBCollection ahead = mock(DBCollection.class);
+		DBCollection catalog = mock(DBCollection.class);
+		DBCollection unconfigured = mock(DBCollection.class);
+		when(current.count()).thenReturn(10L);
+		when(next.getDB()).thenReturn(db);
+		when(ahead.getDB()).thenReturn(db);
+
+		InsertSitDataDao dao = mock(InsertSitDataDao.class);
+		when(dao.getCollection("vehSitDataMessage_2026101813")).thenReturn(expired);
+		when(dao.getCollection("vehSitDataMessage_2026101814")).thenReturn(current);
+		when(dao.getCollection("vehSitDataMessage_2026101815")).thenReturn(next);
+		when(dao.getCollection("vehSitDataMessage_2026101816")).thenReturn(ahead);
+		when(dao.getCollection("collectionPartitions")).thenReturn(catalog);
+		when(dao.getCollection("travelerInformation_2026101813")).thenReturn(unconfigured);
+		IndexBootstrapper bootstrapper = mock(IndexBootstrapper.class);
+
+		PartitionMaintainer maintainer = new PartitionMaintainer(dao, partitioning, bootstrapper, 2, "collectionPartitions");
+		maintainer.maintain(
+			new HashSet<String>(Arrays.asList("vehSitDataMessage_2026101813", "vehSitDataMessage_2026101814", 
+				"travelerInformation_2026101813", "vehSitDataMessage", "collectionPartitions")),
+			now);
+
+		verify(expired).drop();
+		verify(bootstrapper).evict("vehSitDataMessage_2026101813");
+		verify(current, never()).drop();
+		verify(bootstrapper).synchronize("vehSitDataMessage_2026101814");
+		verify(db).createCollection(eq("vehSitDataMessage_2026101815"), any(DBObject.class));
+		verify(db).createCollection(eq("vehSitDataMessage_2026101816"), any(DBObject.class));
+		verify(bootstrapper).synchronize("vehSitDataMessage_2026101815");
+		verify(bootstrapper).synchronize("vehSitDataMessage_2026101816");
+		// Partitions of models not configured for index monitoring expire all the same.
+		verify(unconfigured).drop();
+
+		ArgumentCaptor<DBObject> update = ArgumentCaptor.forClass(DBObject.class);
+		verify(catalog).update(eq((DBObject) new BasicDBObject("_id", "vehSitDataMessage")), update.capture(), eq(true), anyBoolean());
+		List<String> partitions = (List<String>) ((DBObject) update.getValue().get("$set")).get("partitions");
+		assertEquals(Arrays.asList("vehSitDataMessage_2026101814", "vehSitDataMessage_2026101815", "vehSitDataMessage_2026101816"), partitions);
+
+		// Partitions created ahead are empty, so the next run creates none past them.
+		maintainer.maintain(
+			new HashSet<String>(Arrays.asList("vehSitDataMessage_2026101814", "vehSitDataMessage_2026101815", "vehSitDataMessage_2026101816")),
+			now + HOUR);
+		verify(current).drop();
+		verify(db, never()).createCollection(eq("vehSitDataMessage_2026101817"), any(DBObject.class));
+	}
+}
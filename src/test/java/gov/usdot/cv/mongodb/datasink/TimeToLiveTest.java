@@ -3,6 +3,7 @@ package gov.usdot.cv.mongodb.datasink;
 import static org.junit.Assert.*;
 import gov.usdot.cv.common.util.UnitTestHelper;
 import gov.usdot.cv.mongodb.datasink.model.TimeToLive;
+import gov.usdot.cv.mongodb.datasink.model.TimeToLiveRule;
 
 import java.util.Calendar;
 import java.util.Date;
@@ -97,4 +98,27 @@ public class TimeToLiveTest {
 		assertNull("Code 15 is invalid should return null.", def);
 	}
 	
+	@Test
+	public void testTimeToLiveRule() {
+		long now = System.currentTimeMillis();
+		long minute = 60L * 1000;
+		long day = 24L * 60 * minute;
+		
+		assertEquals(now + 30 * minute, TimeToLiveRule.resolve(30, "minute").getExpiration(now));
+		assertEquals(now + 2 * day, TimeToLiveRule.resolve(2, "Day").getExpiration(now));
+		assertEquals(now + 14 * day, TimeToLiveRule.resolve(2, "week").getExpiration(now));
+		assertEquals(now + 30 * minute, TimeToLiveRule.resolve(0, "day").getExpiration(now));
+		assertEquals(now + 30 * minute, TimeToLiveRule.resolve(5, null).getExpiration(now));
+		
+		Calendar checker = Calendar.getInstance();
+		checker.setTimeInMillis(now);
+		checker.add(Calendar.MONTH, 3);
+		assertEquals(checker.getTimeInMillis(), TimeToLiveRule.resolve(3, "month").getExpiration(now));
+		
+		checker.setTimeInMillis(now);
+		checker.add(Calendar.YEAR, 1);
+		assertEquals(checker.getTimeInMillis(), TimeToLive.Year.getExpiration(now));
+		assertEquals(now + 30 * minute, TimeToLive.HalfHour.getExpiration(now));
+	}
+	
 }
\ No newline at end of file
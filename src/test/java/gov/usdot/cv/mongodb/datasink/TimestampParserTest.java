@@ -0,0 +1,66 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import gov.usdot.cv.mongodb.datasink.model.DataModel;
+import gov.usdot.cv.mongodb.datasink.model.TimestampParser;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class TimestampParserTest {
+	
+	@Test
+	public void testMatchesSimpleDateFormat() throws ParseException {
+		SimpleDateFormat df = utcFormat();
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			long millis = (random.nextLong() >>> 1) % (200L * 365 * 24 * 60 * 60 * 1000) - 60L * 365 * 24 * 60 * 60 * 1000;
+			String timestamp = df.format(new Date(millis));
+			assertEquals(timestamp, df.parse(timestamp).getTime(), TimestampParser.parse(timestamp));
+		}
+	}
+	
+	@Test
+	public void testKnownValues() throws ParseException {
+		assertEquals(0L, TimestampParser.parse("1970-01-01T00:00:00"));
+		assertEquals(1399559610000L, TimestampParser.parse("2014-05-08T14:33:30"));
+		assertEquals(951782400000L, TimestampParser.parse("2000-02-29T00:00:00"));
+	}
+	
+	@Test
+	public void testLenientInputFallsBack() throws ParseException {
+		SimpleDateFormat df = utcFormat();
+		String [] timestamps = {
+			"2014-05-08T14:33:30Z",
+			"2014-05-08T14:33:30.250",
+			"2014-5-8T14:33:30",
+			"2014-02-30T14:33:30",
+			"2014-05-08T24:00:00",
+			"1500-01-01T00:00:00"
+		};
+		for (String timestamp : timestamps) {
+			assertEquals(timestamp, df.parse(timestamp).getTime(), TimestampParser.parse(timestamp));
+		}
+	}
+	
+	@Test
+	public void testInvalidTimestamp() {
+		try {
+			TimestampParser.parse("not a timestamp");
+			fail("Expected a ParseException.");
+		} catch (ParseException expected) {
+		}
+	}
+	
+	private static SimpleDateFormat utcFormat() {
+		SimpleDateFormat df = new SimpleDateFormat(DataModel.TIMESTAMP_FORMAT);
+		df.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return df;
+	}
+}
@@ -0,0 +1,101 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.db.UpsertCoalescer;
+import gov.usdot.cv.mongodb.datasink.db.WritePipeline;
+import gov.usdot.cv.mongodb.datasink.db.WriteRequest;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+
+public class UpsertCoalescerTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	private final List<WriteRequest> written = new CopyOnWriteArrayList<WriteRequest>();
+
+	private final WritePipeline.Handler handler = new WritePipeline.Handler() {
+		public void handle(WriteRequest request) {
+			written.add(request);
+		}
+	};
+
+	@Test
+	public void testUpsertsWithinWindowAreWrittenOnce() throws Exception {
+		UpsertCoalescer coalescer = new UpsertCoalescer(200, this.handler);
+		Thread coalescer_t = new Thread(coalescer);
+		coalescer_t.start();
+
+		for (int i = 0; i < 5; i++) {
+			assertTrue(coalescer.offer(upsert("travelerInformation", "tim-1", i)));
+		}
+		assertTrue(coalescer.offer(upsert("travelerInformation", "tim-2", 0)));
+		assertTrue(coalescer.offer(upsert("intersectionSitData", "tim-1", 0)));
+		assertEquals(3, coalescer.getPendingCount());
+		assertEquals(0, this.written.size());
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (this.written.size() < 3 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		coalescer.terminate();
+		coalescer_t.join(5000);
+
+		assertEquals(3, this.written.size());
+		WriteRequest first = this.written.get(0);
+		assertEquals(4, first.getDoc().getInt("version"));
+		assertEquals("receipt-tim-1-4", first.getReceiptId());
+		assertEquals(5, first.getRecordCount());
+		for (int i = 0; i < 4; i++) {
+			assertEquals("receipt-tim-1-" + i, first.getSuperseded().get(i).getReceiptId());
+		}
+		assertEquals(1, this.written.get(1).getRecordCount());
+		assertEquals(1, this.written.get(2).getRecordCount());
+		assertEquals(4, coalescer.getSavedWrites());
+		assertEquals(0, coalescer.getPendingCount());
+	}
+
+	@Test
+	public void testInsertsAreNotHeld() {
+		UpsertCoalescer coalescer = new UpsertCoalescer(60000, this.handler);
+		assertFalse(coalescer.offer(new WriteRequest("vehSitDataMessage", null, new BasicDBObject("a", 1), "receipt")));
+		assertEquals(0, coalescer.getPendingCount());
+	}
+
+	@Test
+	public void testEmitAllWritesOpenWindows() {
+		UpsertCoalescer coalescer = new UpsertCoalescer(60000, this.handler);
+		coalescer.offer(upsert("travelerInformation", "tim-1", 0));
+		coalescer.offer(upsert("travelerInformation", "tim-1", 1));
+		coalescer.emitExpired();
+		assertEquals(0, this.written.size());
+
+		coalescer.emitAll();
+		assertEquals(1, this.written.size());
+		assertEquals(1, this.written.get(0).getDoc().getInt("version"));
+
+		// A new window is opened for the next upsert of the same record.
+		coalescer.offer(upsert("travelerInformation", "tim-1", 2));
+		assertEquals(1, coalescer.getPendingCount());
+		coalescer.emitAll();
+		assertEquals(2, this.written.size());
+		assertEquals(1, this.written.get(1).getRecordCount());
+	}
+
+	private static WriteRequest upsert(String collectionName, String recordId, int version) {
+		BasicDBObject query = new BasicDBObject("recordId", recordId);
+		BasicDBObject doc = new BasicDBObject("recordId", recordId).append("version", version);
+		return new WriteRequest(collectionName, query, doc, "receipt-" + recordId + "-" + version);
+	}
+}
@@ -0,0 +1,78 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.db.WriteConcernPolicy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+import com.mongodb.WriteConcern;
+
+public class WriteConcernPolicyTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	@Test
+	public void testPerCollectionLevels() {
+		WriteConcernPolicy policy = new WriteConcernPolicy("w:1",
+			"vehSitDataMessage=unacknowledged, travelerInformation=majority,intersectionSitData=journaled");
+		assertEquals(WriteConcern.UNACKNOWLEDGED, policy.getWriteConcern("vehSitDataMessage", false));
+		assertEquals(WriteConcern.MAJORITY, policy.getWriteConcern("travelerInformation", true));
+		assertEquals(WriteConcern.JOURNALED, policy.getWriteConcern("intersectionSitData", false));
+		assertEquals(WriteConcern.ACKNOWLEDGED, policy.getWriteConcern("other", false));
+
+		assertNull(new WriteConcernPolicy("", null).getWriteConcern("vehSitDataMessage", false));
+	}
+
+	@Test
+	public void testReceiptsAreAlwaysAcknowledged() {
+		WriteConcernPolicy policy = new WriteConcernPolicy(null, "vehSitDataMessage=w:0");
+		assertEquals(WriteConcern.ACKNOWLEDGED, policy.getWriteConcern("vehSitDataMessage", true));
+		assertEquals(WriteConcern.ACKNOWLEDGED, policy.getWriteConcern("travelerInformation", true));
+		assertNull(policy.getWriteConcern("travelerInformation", false));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownLevel() {
+		new WriteConcernPolicy(null, "vehSitDataMessage=w:2");
+	}
+
+	@Test
+	public void testAdaptiveDowngradeUnderBacklog() throws Exception {
+		final AtomicLong backlog = new AtomicLong();
+		WriteConcernPolicy policy = new WriteConcernPolicy(null, "vehSitDataMessage=journaled, travelerInformation=majority");
+		policy.setAdaptive("vehSitDataMessage", new WriteConcernPolicy.Backlog() {
+			public long getBacklog() {
+				return backlog.get();
+			}
+		}, 1000);
+		assertEquals(WriteConcern.JOURNALED, policy.getWriteConcern("vehSitDataMessage", false));
+
+		backlog.set(1500);
+		Thread.sleep(150);
+		assertEquals(WriteConcern.UNACKNOWLEDGED, policy.getWriteConcern("vehSitDataMessage", false));
+		assertTrue(policy.isRelaxed());
+		assertEquals(WriteConcern.ACKNOWLEDGED, policy.getWriteConcern("vehSitDataMessage", true));
+		assertEquals(WriteConcern.MAJORITY, policy.getWriteConcern("travelerInformation", false));
+
+		// Still relaxed until the backlog drained to half the threshold.
+		backlog.set(800);
+		Thread.sleep(150);
+		assertEquals(WriteConcern.UNACKNOWLEDGED, policy.getWriteConcern("vehSitDataMessage", false));
+
+		backlog.set(400);
+		Thread.sleep(150);
+		assertEquals(WriteConcern.JOURNALED, policy.getWriteConcern("vehSitDataMessage", false));
+		assertFalse(policy.isRelaxed());
+		assertEquals(1, policy.getRelaxedCount());
+	}
+}
@@ -0,0 +1,197 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.db.WritePipeline;
+import gov.usdot.cv.mongodb.datasink.db.WriteRequest;
+import gov.usdot.cv.mongodb.datasink.metrics.LaneSnapshot;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+
+public class WritePipelineTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	@Test
+	public void testRequestsAreDrainedByWriters() throws Exception {
+		final AtomicInteger handled = new AtomicInteger();
+		WritePipeline pipeline = new WritePipeline(100, 3, WritePipeline.OverflowPolicy.Block, new WritePipeline.Handler() {
+			public void handle(WriteRequest request) {
+				handled.incrementAndGet();
+			}
+		});
+		pipeline.start();
+
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(pipeline.submit(request()));
+		}
+
+		assertTrue("Pipeline did not drain.", pipeline.awaitDrained(5000));
+		assertEquals(1000, handled.get());
+		assertEquals(1000, pipeline.getDrainedCount());
+		assertEquals(0, pipeline.getShedCount());
+		pipeline.shutdown(1000);
+	}
+
+	@Test
+	public void testShedPolicyDropsWhenFull() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		WritePipeline pipeline = new WritePipeline(2, 1, WritePipeline.OverflowPolicy.Shed, new BlockingHandler(release));
+		pipeline.start();
+
+		// One request is held by the writer, two fill the queue.
+		assertTrue(pipeline.submit(request()));
+		Thread.sleep(200);
+		assertTrue(pipeline.submit(request()));
+		assertTrue(pipeline.submit(request()));
+		assertEquals(2, pipeline.getQueueDepth());
+
+		assertFalse(pipeline.submit(request()));
+		assertEquals(1, pipeline.getShedCount());
+
+		release.countDown();
+		assertTrue(pipeline.awaitDrained(5000));
+		assertEquals(3, pipeline.getDrainedCount());
+		pipeline.shutdown(1000);
+	}
+
+	@Test
+	public void testBlockPolicyWaitsForRoom() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final WritePipeline pipeline = new WritePipeline(1, 1, WritePipeline.OverflowPolicy.Block, new BlockingHandler(release));
+		pipeline.start();
+
+		assertTrue(pipeline.submit(request()));
+		Thread.sleep(200);
+		assertTrue(pipeline.submit(request()));
+
+		final CountDownLatch submitted = new CountDownLatch(1);
+		Thread ingest = new Thread(new Runnable() {
+			public void run() {
+				try {
+					pipeline.submit(request());
+					submitted.countDown();
+				} catch (InterruptedException ignore) {}
+			}
+		});
+		ingest.start();
+
+		assertFalse("Submit should block while the queue is full.", submitted.await(300, TimeUnit.MILLISECONDS));
+		release.countDown();
+		assertTrue("Submit should complete once there is room.", submitted.await(5, TimeUnit.SECONDS));
+		assertTrue(pipeline.getMaxEnqueueWaitMicros() >= 300 * 1000);
+
+		assertTrue(pipeline.awaitDrained(5000));
+		assertEquals(0, pipeline.getShedCount());
+		pipeline.shutdown(1000);
+	}
+
+	@Test
+	public void testPartitionedLanesKeepRecordOrder() throws Exception {
+		final Map<Integer, Integer> lastSequence = new ConcurrentHashMap<Integer, Integer>();
+		final Map<Integer, Long> writerOfRecord = new ConcurrentHashMap<Integer, Long>();
+		final AtomicInteger outOfOrder = new AtomicInteger();
+		WritePipeline pipeline = new WritePipeline(400, 4, true, WritePipeline.OverflowPolicy.Block, new WritePipeline.Handler() {
+			public void handle(WriteRequest request) {
+				int recordId = request.getQuery().getInt("recordId");
+				int sequence = request.getDoc().getInt("sequence");
+				Integer last = lastSequence.put(recordId, sequence);
+				if (last != null && last > sequence) {
+					outOfOrder.incrementAndGet();
+				}
+				Long writer = writerOfRecord.put(recordId, Thread.currentThread().getId());
+				if (writer != null && writer != Thread.currentThread().getId()) {
+					outOfOrder.incrementAndGet();
+				}
+			}
+		});
+		pipeline.start();
+		assertTrue(pipeline.isPartitioned());
+		assertEquals(4, pipeline.getLaneCount());
+		assertEquals(400, pipeline.getQueueCapacity());
+
+		for (int sequence = 0; sequence < 200; sequence++) {
+			for (int recordId = 0; recordId < 20; recordId++) {
+				assertTrue(pipeline.submit(upsert(recordId, sequence)));
+			}
+		}
+
+		assertTrue("Pipeline did not drain.", pipeline.awaitDrained(5000));
+		assertEquals(0, outOfOrder.get());
+		assertEquals(4000, pipeline.getDrainedCount());
+		long enqueued = 0;
+		int busyLanes = 0;
+		for (LaneSnapshot lane : pipeline.getLaneStatistics()) {
+			enqueued += lane.getEnqueued();
+			busyLanes += (lane.getEnqueued() > 0) ? 1 : 0;
+			assertEquals(lane.getEnqueued(), lane.getDrained());
+		}
+		assertEquals(4000, enqueued);
+		assertTrue("Records should spread over the lanes, used " + busyLanes, busyLanes > 1);
+		pipeline.shutdown(1000);
+	}
+
+	@Test
+	public void testHotKeyIsSampled() throws Exception {
+		WritePipeline pipeline = new WritePipeline(10000, 4, true, WritePipeline.OverflowPolicy.Block, new WritePipeline.Handler() {
+			public void handle(WriteRequest request) {
+			}
+		});
+		pipeline.start();
+
+		WriteRequest hot = upsert(7, 0);
+		int hotLane = hot.getPartition(4);
+		for (int i = 0; i < 2000; i++) {
+			pipeline.submit(upsert(7, i));
+			pipeline.submit(upsert(1000 + i, i));
+		}
+		assertTrue(pipeline.awaitDrained(5000));
+
+		List<LaneSnapshot> lanes = pipeline.getLaneStatistics();
+		LaneSnapshot lane = lanes.get(hotLane);
+		assertEquals("vehSitDataMessage:7", lane.getHotKey());
+		assertTrue("Hot key share was " + lane.getHotKeyPercent(), lane.getHotKeyPercent() > 50.0);
+		for (LaneSnapshot other : lanes) {
+			if (other.getLane() != hotLane) {
+				assertTrue(other.getEnqueued() < lane.getEnqueued());
+			}
+		}
+		pipeline.shutdown(1000);
+	}
+
+	private static WriteRequest upsert(int recordId, int sequence) {
+		BasicDBObject doc = new BasicDBObject("recordId", recordId).append("sequence", sequence);
+		return new WriteRequest("vehSitDataMessage", new BasicDBObject("recordId", recordId), doc, null);
+	}
+
+	private static WriteRequest request() {
+		return new WriteRequest("vehSitDataMessage", null, new BasicDBObject("encodedMsg", "AAAA"), null);
+	}
+
+	private static class BlockingHandler implements WritePipeline.Handler {
+		private final CountDownLatch release;
+
+		public BlockingHandler(CountDownLatch release) {
+			this.release = release;
+		}
+
+		public void handle(WriteRequest request) throws Exception {
+			release.await();
+		}
+	}
+}
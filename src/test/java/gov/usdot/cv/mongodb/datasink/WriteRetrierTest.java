@@ -0,0 +1,139 @@
+package gov.usdot.cv.mongodb.datasink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.db.CircuitBreaker;
+import gov.usdot.cv.mongodb.datasink.db.ErrorClassifier;
+import gov.usdot.cv.mongodb.datasink.db.WriteFailedException;
+import gov.usdot.cv.mongodb.datasink.db.WriteRetrier;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+import com.mongodb.MongoSocketReadException;
+import com.mongodb.ServerAddress;
+
+public class WriteRetrierTest {
+
+	static
+	{
+		UnitTestHelper.initLog4j(Level.INFO);
+	}
+
+	@Test
+	public void testErrorClassification() {
+		assertEquals(ErrorClassifier.Type.Transient, ErrorClassifier.classify(10107));
+		assertEquals(ErrorClassifier.Type.Permanent, ErrorClassifier.classify(11000));
+		assertEquals(ErrorClassifier.Type.Unknown, ErrorClassifier.classify(-1));
+
+		assertEquals(ErrorClassifier.Type.Transient, ErrorClassifier.classify(
+			new MongoSocketReadException("Prematurely reached end of stream", new ServerAddress())));
+		assertEquals(ErrorClassifier.Type.Transient, ErrorClassifier.classify(
+			new RuntimeException(new SocketTimeoutException())));
+		assertEquals(ErrorClassifier.Type.Permanent, ErrorClassifier.classify(
+			new IllegalArgumentException("can't serialize class")));
+		assertEquals(ErrorClassifier.Type.Unknown, ErrorClassifier.classify(new RuntimeException("?")));
+	}
+
+	@Test
+	public void testTransientErrorsAreRetried() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		WriteRetrier retrier = new WriteRetrier(newBreaker(100, new AtomicBoolean(true)), 5, 1, 10);
+
+		String result = retrier.execute(new Callable<String>() {
+			public String call() throws Exception {
+				if (calls.incrementAndGet() < 3) {
+					throw new SocketTimeoutException("Read timed out");
+				}
+				return "ok";
+			}
+		});
+
+		assertEquals("ok", result);
+		assertEquals(3, calls.get());
+		assertEquals(CircuitBreaker.State.Closed, retrier.getCircuitBreaker().getState());
+	}
+
+	@Test
+	public void testPermanentErrorsAreNotRetried() {
+		final AtomicInteger calls = new AtomicInteger();
+		WriteRetrier retrier = new WriteRetrier(newBreaker(100, new AtomicBoolean(true)), 5, 1, 10);
+
+		try {
+			retrier.execute(new Callable<Object>() {
+				public Object call() {
+					calls.incrementAndGet();
+					throw new IllegalArgumentException("can't serialize class");
+				}
+			});
+			fail("Expected WriteFailedException.");
+		} catch (WriteFailedException ex) {
+			assertEquals(ErrorClassifier.Type.Permanent, ex.getErrorType());
+		}
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void testCircuitBreakerOpensAndRecovers() throws Exception {
+		final AtomicBoolean healthy = new AtomicBoolean(false);
+		final AtomicInteger calls = new AtomicInteger();
+		CircuitBreaker breaker = newBreaker(3, healthy);
+		WriteRetrier retrier = new WriteRetrier(breaker, 10, 1, 5);
+
+		Callable<Object> write = new Callable<Object>() {
+			public Object call() throws Exception {
+				calls.incrementAndGet();
+				if (! healthy.get()) {
+					throw new SocketTimeoutException("Read timed out");
+				}
+				return null;
+			}
+		};
+
+		try {
+			retrier.execute(write);
+			fail("Expected WriteFailedException.");
+		} catch (WriteFailedException ex) {
+			assertEquals(ErrorClassifier.Type.Transient, ex.getErrorType());
+		}
+		assertEquals(3, calls.get());
+		assertEquals(CircuitBreaker.State.Open, breaker.getState());
+		assertEquals(1, breaker.getOpenCount());
+
+		try {
+			retrier.execute(write);
+			fail("Expected the open circuit breaker to fail fast.");
+		} catch (WriteFailedException ex) {
+			assertEquals(3, calls.get());
+		}
+
+		healthy.set(true);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (breaker.getState() == CircuitBreaker.State.Open && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(CircuitBreaker.State.HalfOpen, breaker.getState());
+
+		retrier.execute(write);
+		assertEquals(CircuitBreaker.State.Closed, breaker.getState());
+		assertTrue(breaker.getOpenDurationMs() == 0);
+		breaker.terminate();
+	}
+
+	private static CircuitBreaker newBreaker(int threshold, final AtomicBoolean healthy) {
+		return new CircuitBreaker(threshold, 20, new CircuitBreaker.Probe() {
+			public void probe() throws Exception {
+				if (! healthy.get()) {
+					throw new SocketTimeoutException("Probe timed out");
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,74 @@
+package gov.usdot.cv.mongodb.datasink.benchmark;
+
+import gov.usdot.cv.mongodb.datasink.SampleRecords;
+import gov.usdot.cv.mongodb.datasink.db.CollectionIndexMonitor;
+import gov.usdot.cv.mongodb.datasink.model.CoarseClock;
+import gov.usdot.cv.mongodb.datasink.model.DataModel;
+import gov.usdot.cv.mongodb.datasink.model.TimeToLive;
+import gov.usdot.cv.mongodb.datasink.model.TimeToLiveRule;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.json.JSONObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mongodb.BasicDBObject;
+
+/**
+ * Converts each type of situation data record into its document, and measures the
+ * expiration and index definition helpers the sink calls around the conversion.
+ * Run with the gc profiler (the benchmark profile does) for bytes allocated per record.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataModelBenchmark {
+	
+	private static final String INDEX_DEFINITION = "region:2dsphere createdAt:1";
+	
+	@State(Scope.Thread)
+	public static class Record {
+		
+		@Param({"vehSitDataMessage", "travelerInformation", "intersectionSitData"})
+		private String modelName;
+		
+		private JSONObject record;
+		private TimeToLiveRule rule;
+		
+		@Setup
+		public void setUp() {
+			this.record = SampleRecords.get(this.modelName);
+			this.rule = TimeToLiveRule.resolve(30, "minute");
+		}
+	}
+	
+	@Benchmark
+	public BasicDBObject buildDocument(Record state) throws ParseException {
+		return new DataModel(state.record, "expireAt", false, state.rule, CoarseClock.currentTimeMillis()).getDoc();
+	}
+	
+	@Benchmark
+	public Date getExpiration() {
+		return TimeToLive.getExpiration(30, "minute");
+	}
+	
+	@Benchmark
+	public BasicDBObject buildIndexObject() {
+		return CollectionIndexMonitor.buildIndexObject(INDEX_DEFINITION);
+	}
+}
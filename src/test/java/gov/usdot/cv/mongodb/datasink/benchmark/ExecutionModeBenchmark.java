@@ -0,0 +1,115 @@
+package gov.usdot.cv.mongodb.datasink.benchmark;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import gov.usdot.cv.common.database.mongodb.dao.InsertSitDataDao;
+import gov.usdot.cv.mongodb.datasink.db.BoundedExecutor;
+import gov.usdot.cv.mongodb.datasink.db.BulkWriter;
+import gov.usdot.cv.mongodb.datasink.db.CircuitBreaker;
+import gov.usdot.cv.mongodb.datasink.db.WriteListener;
+import gov.usdot.cv.mongodb.datasink.db.WriteRequest;
+import gov.usdot.cv.mongodb.datasink.db.WriteRetrier;
+import gov.usdot.cv.mongodb.datasink.load.MongoWireServer;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.Mongo;
+import com.mongodb.MongoOptions;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+
+/**
+ * Bulk writes against the in-process MongoDB stand-in answering after a fixed latency,
+ * written on the thread that filled the batch (platform) or each on a virtual thread
+ * bounded by the connection pool (virtual). Without virtual threads in the JVM the
+ * virtual mode runs on pooled platform threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutionModeBenchmark {
+
+	@Param({"platform", "virtual"})
+	private String executionMode;
+
+	@Param({"5"})
+	private int latencyMs;
+
+	@Param({"20"})
+	private int connectionPoolSize;
+
+	private MongoWireServer server;
+	private Mongo mongo;
+	private BoundedExecutor executor;
+	private BulkWriter writer;
+
+	@Setup
+	@SuppressWarnings("deprecation")
+	public void setUp() throws Exception {
+		this.server = new MongoWireServer(0);
+		new Thread(this.server).start();
+		this.server.setLatency(this.latencyMs, 0);
+
+		MongoOptions options = new MongoOptions();
+		options.writeConcern = WriteConcern.ACKNOWLEDGED;
+		options.connectionsPerHost = this.connectionPoolSize;
+		this.mongo = new Mongo(new ServerAddress("localhost", this.server.getPort()), options);
+		DB db = this.mongo.getDB("cvdb");
+		InsertSitDataDao dao = mock(InsertSitDataDao.class);
+		when(dao.getCollection(any(String.class))).thenReturn(db.getCollection("vehSitDataMessage"));
+
+		WriteRetrier retrier = new WriteRetrier(new CircuitBreaker(100, 1000, new CircuitBreaker.Probe() {
+			public void probe() {
+			}
+		}), 0, 1, 1);
+		this.writer = new BulkWriter(dao, retrier, 50, 60000, new WriteListener() {
+			public void onAcknowledged(List<WriteRequest> requests) {
+			}
+
+			public void onFailed(List<WriteRequest> requests, Exception ex) {
+			}
+		});
+		// Writes of the same batch key are made one at a time, so both modes get the same spread.
+		this.writer.setPartitions(8);
+		if ("virtual".equals(this.executionMode)) {
+			this.executor = new BoundedExecutor("benchmark-bulk-write", new Semaphore(this.connectionPoolSize), true);
+			this.writer.setExecutor(this.executor);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.writer.flushAll();
+		if (this.executor != null) {
+			this.executor.shutdown(5000);
+		}
+		this.mongo.close();
+		this.server.terminate();
+	}
+
+	@Benchmark
+	public void add() {
+		this.writer.add(new WriteRequest("vehSitDataMessage", null, new BasicDBObject("encodedMsg", "MHCAAgCKgQEBokWgKaATgAIH3oEBAoIBCoMBCIQBHoUB"), null));
+	}
+}
@@ -0,0 +1,88 @@
+package gov.usdot.cv.mongodb.datasink.benchmark;
+
+import gov.usdot.cv.mongodb.datasink.MongoDbDataSink;
+import gov.usdot.cv.mongodb.datasink.SampleRecords;
+import gov.usdot.cv.mongodb.datasink.load.MongoWireServer;
+
+import java.util.concurrent.TimeUnit;
+
+import net.sf.json.JSONObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Takes a record through the whole synchronous sink path, conversion, retrying write
+ * and receipt, as the sink is set up in production, against the in-process MongoDB
+ * stand-in without added latency and an in-vm jms broker.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SinkBenchmark {
+	
+	@Param({"vehSitDataMessage", "travelerInformation", "intersectionSitData"})
+	private String modelName;
+	
+	@Param({"false", "true"})
+	private boolean metricsEnabled;
+	
+	private JSONObject record;
+	private MongoWireServer mongo;
+	private BenchmarkSink sink;
+	
+	@Setup
+	public void setUp() throws Exception {
+		System.setProperty("messaging.external.connection.url", "vm://sink-benchmark?broker.persistent=false&broker.useJmx=false");
+		System.setProperty("messaging.external.connection.user", "benchmark");
+		System.setProperty("messaging.external.connection.password", "benchmark");
+		
+		this.mongo = new MongoWireServer(0);
+		Thread mongo_t = new Thread(this.mongo, "mongodb-stand-in");
+		mongo_t.setDaemon(true);
+		mongo_t.start();
+		
+		this.record = SampleRecords.get(this.modelName);
+		this.sink = new BenchmarkSink();
+		this.sink.setDatabaseName("cvdb");
+		this.sink.setMongoServerHost("localhost");
+		this.sink.setMongoServerPort(this.mongo.getPort());
+		this.sink.setTimeToLiveValue(30);
+		this.sink.setTimeToLiveUnit("minute");
+		this.sink.setTopicName("cv.receipts");
+		this.sink.setCollections("vehSitDataMessage,travelerInformation,intersectionSitData");
+		this.sink.setMetricsEnabled(this.metricsEnabled);
+		this.sink.initialize();
+	}
+	
+	@TearDown
+	public void tearDown() {
+		this.sink.dispose();
+		this.mongo.terminate();
+	}
+	
+	@Benchmark
+	public void process() {
+		this.sink.store(this.record);
+	}
+	
+	private static class BenchmarkSink extends MongoDbDataSink {
+		
+		void store(JSONObject record) {
+			processInternal(record, null);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package gov.usdot.cv.mongodb.datasink.benchmark;
+
+import gov.usdot.cv.mongodb.datasink.model.CoarseClock;
+import gov.usdot.cv.mongodb.datasink.model.DataModel;
+import gov.usdot.cv.mongodb.datasink.model.TimeToLive;
+import gov.usdot.cv.mongodb.datasink.model.TimeToLiveRule;
+import gov.usdot.cv.mongodb.datasink.model.TimestampParser;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the time handling the data model used to do for every record (a new
+ * SimpleDateFormat per timestamp, Calendar.getInstance() and unit name comparisons
+ * per expiration) with the parser, cached clock and pre-resolved rules.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeHandlingBenchmark {
+	
+	private static final String TIMESTAMP = "2014-05-08T14:33:30";
+	
+	private int ttlValue;
+	private String ttlUnit;
+	private TimeToLiveRule rule;
+	
+	@Setup
+	public void setUp() {
+		this.ttlValue = 30;
+		this.ttlUnit = "minute";
+		this.rule = TimeToLiveRule.resolve(this.ttlValue, this.ttlUnit);
+	}
+	
+	@Benchmark
+	public Date legacyParseTimestamp() throws ParseException {
+		SimpleDateFormat df = new SimpleDateFormat(DataModel.TIMESTAMP_FORMAT);
+		df.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return df.parse(TIMESTAMP);
+	}
+	
+	@Benchmark
+	public long parseTimestamp() throws ParseException {
+		return TimestampParser.parse(TIMESTAMP);
+	}
+	
+	@Benchmark
+	public Date legacyConfiguredExpiration() {
+		return legacyGetExpiration(this.ttlValue, this.ttlUnit);
+	}
+	
+	@Benchmark
+	public long configuredExpiration() {
+		return this.rule.getExpiration(CoarseClock.currentTimeMillis());
+	}
+	
+	@Benchmark
+	public Date legacyMessageExpiration() {
+		Calendar cal = Calendar.getInstance();
+		cal.add(Calendar.DATE, 1);
+		return cal.getTime();
+	}
+	
+	@Benchmark
+	public long messageExpiration() {
+		return TimeToLive.Day.getExpiration(CoarseClock.currentTimeMillis());
+	}
+	
+	@Benchmark
+	public long legacyMonthExpiration() {
+		return legacyGetExpiration(1, "month").getTime();
+	}
+	
+	@Benchmark
+	public long monthExpiration() {
+		return TimeToLive.Month.getExpiration(CoarseClock.currentTimeMillis());
+	}
+	
+	// The unit resolution TimeToLive.getExpiration(int, String) did for every record.
+	private static Date legacyGetExpiration(int ttlValue, String ttlUnit) {
+		Calendar cal = Calendar.getInstance();
+		if (ttlUnit.equalsIgnoreCase(TimeToLive.Minute.toString())) {
+			cal.add(Calendar.MINUTE, ttlValue);
+		} else if (ttlUnit.equalsIgnoreCase(TimeToLive.Day.toString())) {
+			cal.add(Calendar.DATE, ttlValue);
+		} else if (ttlUnit.equalsIgnoreCase(TimeToLive.Week.toString())) {
+			cal.add(Calendar.DATE, ttlValue);
+		} else if (ttlUnit.equalsIgnoreCase(TimeToLive.Month.toString())) {
+			cal.add(Calendar.MONTH, ttlValue);
+		} else if (ttlUnit.equalsIgnoreCase(TimeToLive.Year.toString())) {
+			cal.add(Calendar.YEAR, ttlValue);
+		}
+		return cal.getTime();
+	}
+}
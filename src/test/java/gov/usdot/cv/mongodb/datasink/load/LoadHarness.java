@@ -0,0 +1,331 @@
+package gov.usdot.cv.mongodb.datasink.load;
+
+import gov.usdot.cv.common.util.UnitTestHelper;
+import gov.usdot.cv.mongodb.datasink.MongoDbDataSink;
+import gov.usdot.cv.mongodb.datasink.metrics.HistogramSnapshot;
+import gov.usdot.cv.mongodb.datasink.metrics.LatencyHistogram;
+import gov.usdot.cv.mongodb.datasink.metrics.SinkMetrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import net.sf.json.JSONObject;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Drives the MongoDB data sink at a steady rate with synthetic vehicle and advisory
+ * situation data records, against the in-process MongoDB stand-in and an embedded jms
+ * broker, and reports throughput, end-to-end latency, heap usage and receipt lag as it
+ * goes. Configured through system properties, see the load profile in the pom:
+ *
+ *   mvn -Pload verify -Dload.rate=2000 -Dload.duration=120 -Dload.mongo.latency=5
+ *
+ * End-to-end latency runs from the time a record was due to be sent to the time its
+ * receipt arrives, so a sink that falls behind the schedule is charged for the backlog.
+ * Vehicle records carry no receipt and only count towards throughput.
+ */
+public class LoadHarness {
+	private static final String TOPIC_NAME = "cv.receipts";
+	private static final String DATABASE_NAME = "cvdb";
+	private static final int VEHICLES = 10000;
+
+	private final Logger logger = Logger.getLogger(getClass());
+
+	private final int 		rate 				= Integer.getInteger("load.rate", 1000);
+	private final int 		durationSec 		= Integer.getInteger("load.duration", 60);
+	private final int 		reportIntervalSec 	= Integer.getInteger("load.report.interval", 5);
+	private final double 	vehicleRatio 		= Double.parseDouble(System.getProperty("load.vehicle.ratio", "0.8"));
+	private final int 		brokerPort 			= Integer.getInteger("load.broker.port", 61619);
+	private final int 		mongoLatencyMs 		= Integer.getInteger("load.mongo.latency", 1);
+	private final int 		mongoJitterMs 		= Integer.getInteger("load.mongo.jitter", 2);
+	private final double 	mongoFailureRate 	= Double.parseDouble(System.getProperty("load.mongo.failure.rate", "0.0"));
+	private final int 		mongoFailureCode 	= Integer.getInteger("load.mongo.failure.code", 91);
+	private final int 		outageAtSec 		= Integer.getInteger("load.mongo.outage.at", -1);
+	private final int 		outageDurationSec 	= Integer.getInteger("load.mongo.outage.duration", 10);
+
+	private final Random 	random = new Random();
+	private final Map<String, Long> pendingReceipts = new ConcurrentHashMap<String, Long>();
+	private final AtomicLong 	offered = new AtomicLong();
+	private final AtomicLong 	receipts = new AtomicLong();
+	private final LatencyHistogram 	endToEnd = new LatencyHistogram();
+	private final LatencyHistogram 	process = new LatencyHistogram();
+	private volatile LatencyHistogram 	intervalEndToEnd = new LatencyHistogram();
+
+	private BrokerService 		broker;
+	private MongoWireServer 	mongo;
+	private MongoDbDataSink 	sink;
+	private Connection 			receiptConnection;
+
+	public static void main(String[] args) throws Exception {
+		UnitTestHelper.initLog4j(Level.WARN);
+		LoadHarness harness = new LoadHarness();
+		try {
+			harness.start();
+			harness.run();
+		} finally {
+			harness.stop();
+		}
+		System.exit(0);
+	}
+
+	private void start() throws Exception {
+		String brokerUrl = "tcp://localhost:" + this.brokerPort;
+		this.broker = new BrokerService();
+		this.broker.setBrokerName("LOAD_JMS_BROKER");
+		this.broker.addConnector(brokerUrl);
+		this.broker.setPersistent(false);
+		this.broker.setUseJmx(false);
+		this.broker.start();
+		System.setProperty("messaging.external.connection.url", brokerUrl);
+		System.setProperty("messaging.external.connection.user", System.getProperty("messaging.external.connection.user", "load"));
+		System.setProperty("messaging.external.connection.password", System.getProperty("messaging.external.connection.password", "load"));
+
+		this.mongo = new MongoWireServer(0);
+		this.mongo.setLatency(this.mongoLatencyMs, this.mongoJitterMs);
+		this.mongo.setFailureRate(this.mongoFailureRate, this.mongoFailureCode);
+		Thread mongo_t = new Thread(this.mongo, "mongodb-stand-in");
+		mongo_t.setDaemon(true);
+		mongo_t.start();
+
+		this.receiptConnection = new ActiveMQConnectionFactory(brokerUrl).createConnection();
+		Session session = this.receiptConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		session.createConsumer(session.createTopic(TOPIC_NAME)).setMessageListener(new MessageListener() {
+			public void onMessage(Message message) {
+				onReceipt(message);
+			}
+		});
+		this.receiptConnection.start();
+
+		this.sink = new MongoDbDataSink();
+		this.sink.setDatabaseName(DATABASE_NAME);
+		this.sink.setMongoServerHost("localhost");
+		this.sink.setMongoServerPort(this.mongo.getPort());
+		this.sink.setConnectTimeoutMs(3000);
+		this.sink.setTimeToLiveValue(30);
+		this.sink.setTimeToLiveUnit("minute");
+		this.sink.setTimeToLiveFieldName("expireAt");
+		this.sink.setTopicName(TOPIC_NAME);
+		this.sink.setCollections("vehSitDataMessage,travelerInformation");
+		this.sink.setBulkWriteEnabled(Boolean.getBoolean("load.sink.bulk"));
+		this.sink.setPipelineEnabled(Boolean.getBoolean("load.sink.pipeline"));
+		this.sink.setAsyncReceiptsEnabled(Boolean.getBoolean("load.sink.async.receipts"));
+		this.sink.setJournalEnabled(Boolean.getBoolean("load.sink.journal"));
+		this.sink.setMetricsEnabled(true);
+		this.sink.initialize();
+
+		logger.warn(String.format("Load harness started: %s records/s for %s s, vehicle ratio %.2f, MongoDB latency %s+%s ms, failure rate %.3f.",
+			this.rate, this.durationSec, this.vehicleRatio, this.mongoLatencyMs, this.mongoJitterMs, this.mongoFailureRate));
+	}
+
+	private void run() throws InterruptedException {
+		final long periodNanos = TimeUnit.SECONDS.toNanos(1) / this.rate;
+		final long start = System.nanoTime();
+		final long end = start + TimeUnit.SECONDS.toNanos(this.durationSec);
+
+		// Reports and outages run on their own clock so they carry on while process() blocks.
+		Thread reporter_t = new Thread(new Runnable() {
+			public void run() {
+				monitor(start);
+			}
+		}, "load-reporter");
+		reporter_t.setDaemon(true);
+		reporter_t.start();
+
+		for (long i = 0; ; i++) {
+			long due = start + i * periodNanos;
+			long now = System.nanoTime();
+			if (due >= end) {
+				break;
+			}
+			if (due > now) {
+				TimeUnit.NANOSECONDS.sleep(due - now);
+				now = System.nanoTime();
+			}
+
+			JSONObject record = (this.random.nextDouble() < this.vehicleRatio) ? vehicleRecord() : advisoryRecord(due);
+			this.sink.process(record);
+			this.process.record(System.nanoTime() - now);
+			this.offered.incrementAndGet();
+		}
+
+		this.sink.flush();
+		long drainDeadline = System.currentTimeMillis() + 10000;
+		while (! this.pendingReceipts.isEmpty() && System.currentTimeMillis() < drainDeadline) {
+			Thread.sleep(50);
+		}
+		reporter_t.interrupt();
+		summarize((System.nanoTime() - start) / 1e9);
+	}
+
+	private void monitor(long start) {
+		long reportIntervalNanos = TimeUnit.SECONDS.toNanos(this.reportIntervalSec);
+		long nextReport = start + reportIntervalNanos;
+		long lastReport = start;
+		long lastOffered = 0, lastStored = 0, lastReceipts = 0;
+		while (true) {
+			try { Thread.sleep(100); } catch (InterruptedException ex) { return; }
+			long now = System.nanoTime();
+			injectOutage(now - start);
+			if (now < nextReport) {
+				continue;
+			}
+			long offered = this.offered.get();
+			long stored = this.mongo.getStored();
+			long received = this.receipts.get();
+			double seconds = (now - lastReport) / 1e9;
+			report(TimeUnit.NANOSECONDS.toSeconds(now - start),
+				(offered - lastOffered) / seconds,
+				(stored - lastStored) / seconds,
+				(received - lastReceipts) / seconds);
+			lastReport = now;
+			lastOffered = offered;
+			lastStored = stored;
+			lastReceipts = received;
+			nextReport += reportIntervalNanos;
+		}
+	}
+
+	private void injectOutage(long elapsedNanos) {
+		if (this.outageAtSec < 0) {
+			return;
+		}
+		long elapsedSec = TimeUnit.NANOSECONDS.toSeconds(elapsedNanos);
+		boolean down = elapsedSec >= this.outageAtSec && elapsedSec < this.outageAtSec + this.outageDurationSec;
+		if (down == this.mongo.isAvailable()) {
+			logger.warn(down ? "Injecting MongoDB outage." : "Ending MongoDB outage.");
+			this.mongo.setAvailable(! down);
+		}
+	}
+
+	private void onReceipt(Message message) {
+		try {
+			String receiptId = JSONObject.fromObject(((TextMessage) message).getText()).getString("receiptId");
+			Long due = this.pendingReceipts.remove(receiptId);
+			if (due != null) {
+				long latency = System.nanoTime() - due;
+				this.endToEnd.record(latency);
+				this.intervalEndToEnd.record(latency);
+				this.receipts.incrementAndGet();
+			}
+		} catch (JMSException ex) {
+			logger.error("Failed to read receipt.", ex);
+		}
+	}
+
+	private void report(long elapsedSec, double offeredRate, double storedRate, double receiptRate) {
+		LatencyHistogram interval = this.intervalEndToEnd;
+		this.intervalEndToEnd = new LatencyHistogram();
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		System.out.println(String.format(
+			"[%4ss] offered: %.0f/s, stored: %.0f/s, receipts: %.0f/s | e2e ms p50: %.1f, p99: %.1f, p99.9: %.1f, max: %.1f | " +
+			"heap: %s/%s MB | receipt lag: %s outstanding, oldest %s ms | mongo: %s",
+			elapsedSec, offeredRate, storedRate, receiptRate,
+			interval.getPercentileNanos(50) / 1e6, interval.getPercentileNanos(99) / 1e6,
+			interval.getPercentileNanos(99.9) / 1e6, interval.getMaxNanos() / 1e6,
+			heap.getUsed() >> 20, heap.getMax() >> 20,
+			this.pendingReceipts.size(), oldestPendingMs(),
+			this.mongo.isAvailable() ? "up" : "down"));
+	}
+
+	private long oldestPendingMs() {
+		long oldest = Long.MAX_VALUE;
+		for (Long due : this.pendingReceipts.values()) {
+			oldest = Math.min(oldest, due);
+		}
+		return (oldest == Long.MAX_VALUE) ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest);
+	}
+
+	private void summarize(double seconds) {
+		HistogramSnapshot e2e = this.endToEnd.snapshot();
+		HistogramSnapshot call = this.process.snapshot();
+		System.out.println(String.format("Offered %s records in %.1f s (%.0f/s). Stored %s (inserted: %s, upserted: %s), failed writes: %s.",
+			this.offered.get(), seconds, this.offered.get() / seconds,
+			this.mongo.getStored(), this.mongo.getInserted(), this.mongo.getUpserted(), this.mongo.getFailed()));
+		System.out.println(String.format("Receipts: %s received, %s never arrived.", this.receipts.get(), this.pendingReceipts.size()));
+		System.out.println("End-to-end latency: " + e2e);
+		System.out.println("process() call time: " + call);
+		System.out.println("Sink metrics: " + SinkMetrics.getInstance().getStatistics());
+	}
+
+	private JSONObject vehicleRecord() {
+		JSONObject header = new JSONObject();
+		header.put("uuid", UUID.randomUUID().toString());
+		header.put("modelName", "vehSitDataMessage");
+		header.put("modelVersion", "1.0");
+
+		JSONObject record = new JSONObject();
+		record.put("standardHeader", header);
+		record.put("dialogId", 154);
+		record.put("sequenceId", 5);
+		record.put("recordId", this.random.nextInt(VEHICLES));
+		record.put("lat", 42.0 + this.random.nextDouble());
+		record.put("long", -84.0 + this.random.nextDouble());
+		record.put("encodedMsg", "MHCAAgCKgQEBokWgKaATgAIH3oEBAoIBCoMBCIQBHoUB");
+		return record;
+	}
+
+	private JSONObject advisoryRecord(long due) {
+		String receiptId = UUID.randomUUID().toString();
+		this.pendingReceipts.put(receiptId, due);
+
+		double lat = 41.0 + this.random.nextDouble() * 2;
+		double lon = -85.0 + this.random.nextDouble() * 2;
+		JSONObject header = new JSONObject();
+		header.put("uuid", UUID.randomUUID().toString());
+		header.put("modelName", "travelerInformation");
+		header.put("modelVersion", "1.2");
+
+		JSONObject record = new JSONObject();
+		record.put("standardHeader", header);
+		record.put("dialogId", 156);
+		record.put("receiptId", receiptId);
+		record.put("requestId", this.random.nextInt(Integer.MAX_VALUE));
+		record.put("timeToLive", 2);
+		record.put("nwPos", position(lat + 0.5, lon));
+		record.put("sePos", position(lat, lon + 0.5));
+		record.put("region", JSONObject.fromObject(String.format(
+			"{\"type\":\"Polygon\",\"coordinates\":[[[%s,%s],[%s,%s],[%s,%s],[%s,%s],[%s,%s]]]}",
+			lon, lat + 0.5, lon + 0.5, lat + 0.5, lon + 0.5, lat, lon, lat, lon, lat + 0.5)));
+		record.put("encodedMsg", "MFaAAgCcgQEFggQAAAPpoxygDIAEGaFHgIEEzVYHgKEMgAQYcBqAgQTPH8sApCmABAAAFbOBAQKCAgeAhRpF");
+		return record;
+	}
+
+	private static JSONObject position(double lat, double lon) {
+		JSONObject position = new JSONObject();
+		position.put("lat", lat);
+		position.put("lon", lon);
+		return position;
+	}
+
+	private void stop() {
+		if (this.sink != null) {
+			this.sink.dispose();
+		}
+		if (this.receiptConnection != null) {
+			try { this.receiptConnection.close(); } catch (JMSException ignore) {}
+		}
+		if (this.mongo != null) {
+			this.mongo.terminate();
+		}
+		if (this.broker != null) {
+			try { this.broker.stop(); } catch (Exception ignore) {}
+		}
+	}
+}
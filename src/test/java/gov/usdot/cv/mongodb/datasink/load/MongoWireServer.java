@@ -0,0 +1,407 @@
+package gov.usdot.cv.mongodb.datasink.load;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.bson.BSONObject;
+import org.bson.BasicBSONDecoder;
+import org.bson.BasicBSONEncoder;
+import org.bson.BasicBSONObject;
+import org.bson.types.BasicBSONList;
+
+/**
+ * An in-process stand-in for a MongoDB server. It speaks enough of the wire protocol
+ * (OP_QUERY commands answered with OP_REPLY, as a 3.0 server would) for the Java driver
+ * to connect, write and manage indexes. Documents are counted, not kept; index definitions
+ * are kept so index maintenance can be observed. Writes can be slowed down, failed with a
+ * server error code, or cut off entirely to simulate an outage.
+ */
+public class MongoWireServer implements Runnable {
+	private static final int OP_REPLY 	= 1;
+	private static final int OP_UPDATE 	= 2001;
+	private static final int OP_INSERT 	= 2002;
+	private static final int OP_QUERY 	= 2004;
+	private static final int OP_GET_MORE = 2005;
+
+	private static final int HEADER_LENGTH = 16;
+
+	private final Logger logger = Logger.getLogger(getClass());
+
+	private final ServerSocket 	serverSocket;
+	private final Set<Socket> 	connections = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+	private final ConcurrentMap<String, List<BSONObject>> indexes = new ConcurrentHashMap<String, List<BSONObject>>();
+	private final AtomicInteger nextRequestId = new AtomicInteger();
+	private final Random 		random = new Random();
+
+	private volatile boolean 	terminated = false;
+	private volatile boolean 	available = true;
+	private volatile int 		latencyMs = 0;
+	private volatile int 		latencyJitterMs = 0;
+	private volatile double 	failureRate = 0.0;
+	private volatile int 		failureCode = 91; // ShutdownInProgress
+
+	private final AtomicLong 	inserted = new AtomicLong();
+	private final AtomicLong 	upserted = new AtomicLong();
+	private final AtomicLong 	failed = new AtomicLong();
+	private final AtomicLong 	commands = new AtomicLong();
+
+	public MongoWireServer(int port) throws IOException {
+		this.serverSocket = new ServerSocket(port, 50, InetAddress.getByName("localhost"));
+	}
+
+	public int getPort() {
+		return this.serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Delays every write by the given latency plus a uniformly distributed jitter.
+	 */
+	public void setLatency(int latencyMs, int latencyJitterMs) {
+		this.latencyMs = latencyMs;
+		this.latencyJitterMs = latencyJitterMs;
+	}
+
+	/**
+	 * Fails the given fraction (0 to 1) of writes with the given server error code.
+	 */
+	public void setFailureRate(double failureRate, int failureCode) {
+		this.failureRate = failureRate;
+		this.failureCode = failureCode;
+	}
+
+	/**
+	 * While unavailable, open connections are dropped and new ones are closed as soon as
+	 * they are accepted, as if the server had gone down.
+	 */
+	public void setAvailable(boolean available) {
+		this.available = available;
+		if (! available) {
+			closeConnections();
+		}
+	}
+
+	public boolean isAvailable() {
+		return this.available;
+	}
+
+	public long getInserted() {
+		return this.inserted.get();
+	}
+
+	public long getUpserted() {
+		return this.upserted.get();
+	}
+
+	public long getStored() {
+		return this.inserted.get() + this.upserted.get();
+	}
+
+	public long getFailed() {
+		return this.failed.get();
+	}
+
+	public long getCommands() {
+		return this.commands.get();
+	}
+
+	public Set<String> getCollectionNames() {
+		return new HashSet<String>(this.indexes.keySet());
+	}
+
+	/**
+	 * The index definitions of a collection, as listIndexes reports them.
+	 */
+	public List<BSONObject> getIndexes(String collectionName) {
+		List<BSONObject> collectionIndexes = this.indexes.get(collectionName);
+		return (collectionIndexes == null) ? Collections.<BSONObject>emptyList() : new ArrayList<BSONObject>(collectionIndexes);
+	}
+
+	public void terminate() {
+		this.terminated = true;
+		try {
+			this.serverSocket.close();
+		} catch (IOException ignore) {
+		}
+		closeConnections();
+	}
+
+	public void run() {
+		while (! this.terminated) {
+			final Socket socket;
+			try {
+				socket = this.serverSocket.accept();
+			} catch (IOException ex) {
+				if (! this.terminated) {
+					logger.error("MongoDB stand-in failed to accept a connection.", ex);
+				}
+				break;
+			}
+			if (! this.available) {
+				close(socket);
+				continue;
+			}
+			this.connections.add(socket);
+			Thread connection_t = new Thread(new Runnable() {
+				public void run() {
+					serve(socket);
+				}
+			}, "mongodb-stand-in-" + socket.getPort());
+			connection_t.setDaemon(true);
+			connection_t.start();
+		}
+	}
+
+	private void serve(Socket socket) {
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			byte[] header = new byte[HEADER_LENGTH];
+			while (! this.terminated) {
+				in.readFully(header);
+				ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+				int length = headerBuffer.getInt();
+				int requestId = headerBuffer.getInt();
+				headerBuffer.getInt(); // responseTo
+				int opCode = headerBuffer.getInt();
+
+				byte[] body = new byte[length - HEADER_LENGTH];
+				in.readFully(body);
+				ByteBuffer bodyBuffer = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+
+				switch (opCode) {
+				case OP_QUERY:
+					reply(out, requestId, handleQuery(bodyBuffer));
+					break;
+				case OP_GET_MORE:
+					reply(out, requestId, Collections.<BSONObject>emptyList());
+					break;
+				case OP_INSERT:
+					// Unacknowledged legacy writes, the driver does not wait for a reply.
+					bodyBuffer.getInt(); // flags
+					readCString(bodyBuffer);
+					while (bodyBuffer.hasRemaining()) {
+						readDocument(bodyBuffer);
+						this.inserted.incrementAndGet();
+					}
+					break;
+				case OP_UPDATE:
+					this.upserted.incrementAndGet();
+					break;
+				default:
+					break;
+				}
+			}
+		} catch (EOFException ignore) {
+		} catch (IOException ex) {
+			if (! this.terminated && this.available) {
+				logger.debug("MongoDB stand-in connection closed. Message: " + ex.getMessage());
+			}
+		} finally {
+			this.connections.remove(socket);
+			close(socket);
+		}
+	}
+
+	private List<BSONObject> handleQuery(ByteBuffer body) {
+		body.getInt(); // flags
+		String namespace = readCString(body);
+		body.getInt(); // numberToSkip
+		body.getInt(); // numberToReturn
+		BSONObject query = readDocument(body);
+
+		if (! namespace.endsWith(".$cmd")) {
+			// Plain queries (system.indexes, system.namespaces) find nothing.
+			return Collections.emptyList();
+		}
+		if (query.containsField("$query")) {
+			query = (BSONObject) query.get("$query");
+		}
+		this.commands.incrementAndGet();
+		String database = namespace.substring(0, namespace.indexOf('.'));
+		String command = query.keySet().iterator().next();
+		return Collections.singletonList(handleCommand(database, command, query));
+	}
+
+	private BSONObject handleCommand(String database, String command, BSONObject query) {
+		BasicBSONObject response = new BasicBSONObject();
+		if ("ismaster".equalsIgnoreCase(command)) {
+			response.put("ismaster", true);
+			response.put("maxBsonObjectSize", 16 * 1024 * 1024);
+			response.put("maxMessageSizeBytes", 48000000);
+			response.put("maxWriteBatchSize", 1000);
+			response.put("localTime", new Date());
+			response.put("maxWireVersion", 3);
+			response.put("minWireVersion", 0);
+		} else if ("buildinfo".equalsIgnoreCase(command)) {
+			BasicBSONList versionArray = new BasicBSONList();
+			versionArray.add(3);
+			versionArray.add(0);
+			versionArray.add(0);
+			versionArray.add(0);
+			response.put("version", "3.0.0");
+			response.put("versionArray", versionArray);
+		} else if ("insert".equals(command) || "update".equals(command)) {
+			indexesOf(database, (String) query.get(command));
+			List<?> writes = (List<?>) query.get("insert".equals(command) ? "documents" : "updates");
+			pause();
+			if (this.failureRate > 0.0 && this.random.nextDouble() < this.failureRate) {
+				this.failed.addAndGet(writes.size());
+				response.put("ok", 0.0);
+				response.put("errmsg", "Injected failure");
+				response.put("code", this.failureCode);
+				return response;
+			}
+			(("insert".equals(command)) ? this.inserted : this.upserted).addAndGet(writes.size());
+			response.put("n", writes.size());
+			if ("update".equals(command)) {
+				response.put("nModified", writes.size());
+			}
+		} else if ("listCollections".equals(command)) {
+			BasicBSONList batch = new BasicBSONList();
+			for (String collectionName : this.indexes.keySet()) {
+				batch.add(new BasicBSONObject("name", collectionName).append("options", new BasicBSONObject()));
+			}
+			response.put("cursor", cursor(database + ".$cmd.listCollections", batch));
+		} else if ("listIndexes".equals(command)) {
+			BasicBSONList batch = new BasicBSONList();
+			batch.addAll(indexesOf(database, (String) query.get(command)));
+			response.put("cursor", cursor(database + "." + query.get(command), batch));
+		} else if ("create".equals(command)) {
+			indexesOf(database, (String) query.get(command));
+		} else if ("createIndexes".equals(command)) {
+			List<BSONObject> collectionIndexes = indexesOf(database, (String) query.get(command));
+			for (Object index : (List<?>) query.get("indexes")) {
+				BSONObject created = (BSONObject) index;
+				if (find(collectionIndexes, created.get("name")) == null) {
+					collectionIndexes.add(created);
+				}
+			}
+		} else if ("collMod".equals(command)) {
+			BSONObject index = (BSONObject) query.get("index");
+			for (BSONObject existing : indexesOf(database, (String) query.get(command))) {
+				if (index != null && index.get("keyPattern").equals(existing.get("key"))) {
+					existing.put("expireAfterSeconds", index.get("expireAfterSeconds"));
+				}
+			}
+		} else if ("getlasterror".equalsIgnoreCase(command)) {
+			response.put("n", 0);
+			response.put("err", null);
+		}
+		response.put("ok", 1.0);
+		return response;
+	}
+
+	private List<BSONObject> indexesOf(String database, String collectionName) {
+		List<BSONObject> collectionIndexes = this.indexes.get(collectionName);
+		if (collectionIndexes == null) {
+			collectionIndexes = new CopyOnWriteArrayList<BSONObject>();
+			collectionIndexes.add(new BasicBSONObject("v", 1)
+				.append("key", new BasicBSONObject("_id", 1))
+				.append("name", "_id_")
+				.append("ns", database + "." + collectionName));
+			List<BSONObject> raced = this.indexes.putIfAbsent(collectionName, collectionIndexes);
+			if (raced != null) {
+				collectionIndexes = raced;
+			}
+		}
+		return collectionIndexes;
+	}
+
+	private static BSONObject find(List<BSONObject> collectionIndexes, Object name) {
+		for (BSONObject index : collectionIndexes) {
+			if (index.get("name").equals(name)) {
+				return index;
+			}
+		}
+		return null;
+	}
+
+	private void pause() {
+		int delay = this.latencyMs;
+		if (this.latencyJitterMs > 0) {
+			delay += this.random.nextInt(this.latencyJitterMs + 1);
+		}
+		if (delay > 0) {
+			try { Thread.sleep(delay); } catch (InterruptedException ignore) {}
+		}
+	}
+
+	private void reply(OutputStream out, int responseTo, List<BSONObject> documents) throws IOException {
+		BasicBSONEncoder encoder = new BasicBSONEncoder();
+		List<byte[]> encoded = new ArrayList<byte[]>(documents.size());
+		int length = HEADER_LENGTH + 20;
+		for (BSONObject document : documents) {
+			byte[] bytes = encoder.encode(document);
+			encoded.add(bytes);
+			length += bytes.length;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(length);
+		buffer.putInt(this.nextRequestId.incrementAndGet());
+		buffer.putInt(responseTo);
+		buffer.putInt(OP_REPLY);
+		buffer.putInt(0);	// responseFlags
+		buffer.putLong(0);	// cursorId
+		buffer.putInt(0);	// startingFrom
+		buffer.putInt(encoded.size());
+		for (byte[] bytes : encoded) {
+			buffer.put(bytes);
+		}
+		out.write(buffer.array());
+		out.flush();
+	}
+
+	private void closeConnections() {
+		for (Socket socket : this.connections) {
+			close(socket);
+		}
+		this.connections.clear();
+	}
+
+	private static BSONObject cursor(String namespace, BasicBSONList firstBatch) {
+		return new BasicBSONObject("id", 0L).append("ns", namespace).append("firstBatch", firstBatch);
+	}
+
+	private static String readCString(ByteBuffer buffer) {
+		int start = buffer.position();
+		while (buffer.get() != 0) {
+		}
+		return new String(buffer.array(), start, buffer.position() - start - 1);
+	}
+
+	private static BSONObject readDocument(ByteBuffer buffer) {
+		int length = buffer.getInt(buffer.position());
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new BasicBSONDecoder().readObject(bytes);
+	}
+
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException ignore) {
+		}
+	}
+}